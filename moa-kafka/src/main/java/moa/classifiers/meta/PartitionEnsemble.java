@@ -0,0 +1,118 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PartitionEnsemble.java
+ * Copyright (C) 2024 University of Waikato, Hamilton, NZ
+ */
+
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.classifiers.AbstractClassifier;
+import moa.classifiers.Classifier;
+import moa.classifiers.MultiClassClassifier;
+import moa.core.DoubleVector;
+import moa.core.Measurement;
+
+/**
+ * Ensemble of the models learned on the partitions of a Kafka topic, for
+ * learners whose replicas cannot be merged into a single model. The votes
+ * of the members are normalised and summed, as in bagging.
+ *
+ * Further training is dealt round-robin to the members, in the same way
+ * as instances are spread across partitions.
+ */
+public class PartitionEnsemble extends AbstractClassifier implements MultiClassClassifier {
+
+  // Serialisation UID#
+  private static final long serialVersionUID = 1L;
+
+  // The models learned on each group of partitions
+  protected Classifier[] m_Members = new Classifier[0];
+
+  // The member the next training instance goes to
+  protected int m_NextMember = 0;
+
+  public PartitionEnsemble() {
+  }
+
+  /**
+   * Creates the ensemble of the given models.
+   *
+   * @param members The models learned on each group of partitions.
+   */
+  public PartitionEnsemble(Classifier[] members) {
+    m_Members = members.clone();
+  }
+
+  @Override
+  public String getPurposeString() {
+    return "Ensemble of the models learned on the partitions of a Kafka topic.";
+  }
+
+  @Override
+  public void resetLearningImpl() {
+    for (Classifier member : m_Members)
+      member.resetLearning();
+    m_NextMember = 0;
+  }
+
+  @Override
+  public void trainOnInstanceImpl(Instance inst) {
+    if (m_Members.length == 0)
+      return;
+
+    m_Members[m_NextMember].trainOnInstance(inst);
+    m_NextMember = (m_NextMember + 1) % m_Members.length;
+  }
+
+  @Override
+  public double[] getVotesForInstance(Instance inst) {
+    DoubleVector combinedVote = new DoubleVector();
+    for (Classifier member : m_Members) {
+      DoubleVector vote = new DoubleVector(member.getVotesForInstance(inst));
+      if (vote.sumOfValues() > 0.0) {
+        vote.normalize();
+        combinedVote.addValues(vote);
+      }
+    }
+
+    return combinedVote.getArrayRef();
+  }
+
+  @Override
+  public boolean isRandomizable() {
+    return false;
+  }
+
+  @Override
+  public void getModelDescription(StringBuilder out, int indent) {
+    for (int i = 0; i < m_Members.length; i++) {
+      out.append("Member ").append(i).append(":\n");
+      m_Members[i].getDescription(out, indent + 2);
+    }
+  }
+
+  @Override
+  protected Measurement[] getModelMeasurementsImpl() {
+    return new Measurement[]{new Measurement("ensemble size", m_Members.length)};
+  }
+
+  @Override
+  public Classifier[] getSubClassifiers() {
+    return m_Members.clone();
+  }
+}
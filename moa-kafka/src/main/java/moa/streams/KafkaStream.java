@@ -20,6 +20,8 @@
 
 package moa.streams;
 
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
@@ -32,37 +34,62 @@ import moa.core.InstanceExample;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import moa.tasks.TaskMonitor;
+import moa.util.InstanceCodec;
 import moa.util.KafkaUtils;
 import moa.util.ObjectDeserializer;
 import moa.util.ObjectSerializer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.LongDeserializer;
 
 import java.io.Closeable;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Instance stream which consumes instances from a Kafka topic.
  *
+ * The records are polled and decoded on a background thread, which keeps
+ * a bounded queue of batches of instances ahead of the learner. When the
+ * queue is full, the thread pauses the partitions (but keeps polling, so
+ * that the consumer stays in its group) until the learner catches up.
+ *
+ * Offsets are committed manually, and only for instances the learner has
+ * finished with (i.e. once the next instance is requested). With a fixed
+ * group ID and the resume flag, a stream that is stopped and started again
+ * replays the instances from the last committed offsets (at-least-once).
+ *
  * Assumptions:
  *   - The ordering of the instances in the topic is unimportant,
  *     or if it is important, it is ensured by a topic with only one
  *     partition.
  *   - The stream is considered ended when a record with a null
- *     value is found.
- *   - The serialised form of the instances is using Java's own
- *     serialisation tools (i.e. {@link ObjectSerializer}).
+ *     value is found in each partition, with a negative key (as
+ *     written by WriteToTopicTask), or when one is found with a
+ *     non-negative key (as in topics written by older versions).
+ *   - The serialised form of the instances is either the compact
+ *     binary form of {@link InstanceCodec}, preceded by its schema
+ *     record, or Java's own serialisation tools (i.e.
+ *     {@link ObjectSerializer}). Both can be mixed in the same topic.
  *
  * @author Corey Sterling (csterlin at waikato dot ac dot nz)
  */
@@ -72,6 +99,9 @@ public class KafkaStream extends AbstractOptionHandler implements
   // Serialisation UID#
   private static final long serialVersionUID = 671271388371039247L;
 
+  // How long the poll thread waits for records before checking for commits
+  protected static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+
   // -- OPTIONS -- //
 
   // The topic to consume
@@ -86,19 +116,79 @@ public class KafkaStream extends AbstractOptionHandler implements
   public StringOption portOption = new StringOption("port", 'p',
     "The Kafka broker port", "9092");
 
+  // The consumer group to commit offsets under
+  public StringOption groupIDOption = new StringOption("groupID", 'g',
+    "The consumer group ID (empty for a new group on every run)", "");
+
+  // Whether to start from the committed offsets of the group
+  public FlagOption resumeOption = new FlagOption("resume", 'r',
+    "Resume from the offsets committed by the group instead of the beginning of the topic");
+
+  // The partitions to read without a group
+  public StringOption partitionsOption = new StringOption("partitions", 'a',
+    "Comma-separated partitions assigned to this stream, rather than shared by the group (empty for all)", "");
+
+  // The number of records per batch
+  public IntOption batchSizeOption = new IntOption("batchSize", 'b',
+    "Maximum number of records retrieved and decoded per poll", 1000, 1, Integer.MAX_VALUE);
+
+  // The number of batches decoded ahead of the learner
+  public IntOption queueSizeOption = new IntOption("queueSize", 'q',
+    "Maximum number of decoded batches waiting for the learner", 8, 1, Integer.MAX_VALUE);
+
+  // How often offsets are committed
+  public IntOption commitIntervalOption = new IntOption("commitInterval", 'c',
+    "Number of consumed instances between offset commits", 1000, 1, Integer.MAX_VALUE);
+
+  // The minimum amount of data per fetch
+  public IntOption fetchMinBytesOption = new IntOption("fetchMinBytes", 'f',
+    "Minimum number of bytes the broker returns per fetch", 1, 1, Integer.MAX_VALUE);
+
+  // The maximum time the broker waits for fetch.min.bytes
+  public IntOption fetchMaxWaitOption = new IntOption("fetchMaxWait", 'w',
+    "Maximum time in milliseconds the broker waits to fill a fetch", 500, 0, Integer.MAX_VALUE);
+
+  // The maximum amount of data per partition and fetch
+  public IntOption maxPartitionFetchBytesOption = new IntOption("maxPartitionFetchBytes", 'm',
+    "Maximum number of bytes per partition the broker returns per fetch", 1 << 20, 1, Integer.MAX_VALUE);
+
   // -- TRANSIENTS -- //
 
-  // The consumer which will retrieve records from the Kafka stream
-  protected transient KafkaConsumer<Long, Instance> m_Consumer = null;
+  // The thread polling and decoding records
+  protected transient volatile Poller m_Poller = null;
+
+  // The batches decoded by the poll thread
+  protected transient BlockingQueue<RecordBatch> m_BatchQueue = null;
+
+  // The batch the instances are currently taken from
+  protected transient RecordBatch m_CurrentBatch = null;
+
+  // The position of the next instance in the current batch
+  protected transient int m_CurrentPosition = 0;
+
+  // The partition of the last instance returned, until it is marked as consumed
+  protected transient TopicPartition m_PendingPartition = null;
+
+  // The offset of the last instance returned
+  protected transient long m_PendingOffset = 0;
 
-  // A buffer of instances retrieved from the Kafka stream
-  protected transient Queue<Instance> m_InstanceBuffer = null;
+  // The next offset to commit for each partition
+  protected transient Map<TopicPartition, long[]> m_ConsumedOffsets = null;
+
+  // The number of instances consumed since the last commit
+  protected transient int m_ConsumedSinceCommit = 0;
+
+  // Whether any instance has been consumed since the stream was prepared
+  protected transient boolean m_AnyConsumed = false;
+
+  // Whether partitions are read from the beginning rather than from the committed offsets
+  protected transient boolean m_Rewind = true;
 
   // Whether we have reached the end of the stream
   protected transient boolean m_EndOfStreamReached = false;
 
   // The header for the instances
-  protected transient InstancesHeader m_Header = null;
+  protected transient volatile InstancesHeader m_Header = null;
 
   @Override
   public String getPurposeString() {
@@ -124,7 +214,7 @@ public class KafkaStream extends AbstractOptionHandler implements
     // If we've reached the end of the stream, what's in the buffer is all
     // that remain
     if (m_EndOfStreamReached)
-      return m_InstanceBuffer.size();
+      return bufferIsEmpty() ? 0 : m_CurrentBatch.size - m_CurrentPosition;
 
     // Other than that we can't know this
     return -1;
@@ -134,11 +224,21 @@ public class KafkaStream extends AbstractOptionHandler implements
   public boolean hasMoreInstances() {
     fillBufferIfNecessary();
 
-    return !m_EndOfStreamReached || !bufferIsEmpty();
+    if (m_EndOfStreamReached && bufferIsEmpty()) {
+      // The learner is done with every instance
+      markConsumed();
+      close();
+      return false;
+    }
+
+    return true;
   }
 
   @Override
   public Example<Instance> nextInstance() {
+    // The learner is done with the previous instance
+    markConsumed();
+
     // Retrieve more instances from Kafka if the buffer is empty
     fillBufferIfNecessary();
 
@@ -147,7 +247,9 @@ public class KafkaStream extends AbstractOptionHandler implements
       return null;
 
     // Return the next instance from the buffer
-    return new InstanceExample(m_InstanceBuffer.remove());
+    m_PendingPartition = m_CurrentBatch.partitions[m_CurrentPosition];
+    m_PendingOffset = m_CurrentBatch.offsets[m_CurrentPosition];
+    return new InstanceExample(m_CurrentBatch.instances[m_CurrentPosition++]);
   }
 
   @Override
@@ -157,11 +259,20 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public void restart() {
-    // Get the consumer in a usable state and restart it
-    restartConsumer();
+    // Stop polling, committing what has been consumed so far
+    markConsumed();
+    close();
+
+    // Resuming only applies to the first start of the stream
+    m_Rewind = !resumeOption.isSet() || m_AnyConsumed;
 
     // Throw away any buffered instances
-    m_InstanceBuffer = null;
+    m_BatchQueue = null;
+    m_CurrentBatch = null;
+    m_CurrentPosition = 0;
+    m_PendingPartition = null;
+    m_ConsumedOffsets = new HashMap<>();
+    m_ConsumedSinceCommit = 0;
 
     // Mark the stream as not complete
     m_EndOfStreamReached = false;
@@ -189,31 +300,52 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public void close() {
-    if (m_Consumer != null) {
-      m_Consumer.unsubscribe();
-      m_Consumer.close();
+    if (m_Poller == null)
+      return;
+
+    // Hand the last consumed offsets to the poll thread and wait for it
+    // to commit them and close the consumer
+    publishConsumedOffsets();
+    m_Poller.stop();
+    try {
+      m_Poller.m_Thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
 
-    m_Consumer = null;
+    m_Poller = null;
+  }
+
+  /**
+   * Stops the poll thread, so that a reader waiting for records finds the
+   * end of the stream. Unlike close, it can be called from another thread
+   * than the reader's, which still has to close the stream.
+   */
+  public void stopPolling() {
+    Poller poller = m_Poller;
+    if (poller != null)
+      poller.stop();
   }
 
   /**
-   * Makes sure the Kafka consumer is available and ready to
-   * retrieve instances.
+   * Makes sure the poll thread is running and filling the batch queue.
    */
   protected void establishConsumer() {
-    // If the consumer is already resident, abort
-    if (m_Consumer != null)
+    // If the poll thread is already running, abort
+    if (m_Poller != null)
       return;
 
-    // Create the consumer
-    m_Consumer = new KafkaConsumer<>(createConsumerConfiguration());
-
-    // Subscribe to the given topic
-    m_Consumer.subscribe(Collections.singletonList(topicOption.getValue()));
-
-    // Make sure the consumer starts from the beginning of the topic
-    restartConsumer();
+    // Create the queue
+    if (m_BatchQueue == null)
+      m_BatchQueue = new ArrayBlockingQueue<>(queueSizeOption.getValue());
+    if (m_ConsumedOffsets == null)
+      m_ConsumedOffsets = new HashMap<>();
+
+    // Start the poll thread
+    m_Poller = new Poller();
+    m_Poller.m_Thread = new Thread(m_Poller, "KafkaStream-" + topicOption.getValue());
+    m_Poller.m_Thread.setDaemon(true);
+    m_Poller.m_Thread.start();
   }
 
   /**
@@ -222,15 +354,21 @@ public class KafkaStream extends AbstractOptionHandler implements
   protected Map<String, Object> createConsumerConfiguration() {
     Map<String, Object> config = new HashMap<>();
 
+    String groupID = groupIDOption.getValue();
+    if (groupID.isEmpty())
+      groupID = KafkaUtils.uniqueGroupIDString(this);
+
     config.put("key.deserializer", LongDeserializer.class);
-    config.put("value.deserializer", ObjectDeserializer.class);
+    config.put("value.deserializer", ByteArrayDeserializer.class);
     config.put("bootstrap.servers", broker());
-    config.put("fetch.min.bytes", 1);
-    config.put("group.id", KafkaUtils.uniqueGroupIDString(this));
-    config.put("max.partition.fetch.bytes", 1 << 20); // 1MB
+    config.put("fetch.min.bytes", fetchMinBytesOption.getValue());
+    config.put("fetch.max.wait.ms", fetchMaxWaitOption.getValue());
+    config.put("group.id", groupID);
+    config.put("max.partition.fetch.bytes", maxPartitionFetchBytesOption.getValue());
+    config.put("max.poll.records", batchSizeOption.getValue());
     config.put("allow.auto.create.topics", false);
     config.put("auto.offset.reset", "earliest");
-    config.put("enable.auto.commit", true);
+    config.put("enable.auto.commit", false);
     config.put("fetch.max.bytes", 1 << 24); // 16MB
     config.put("isolation.level", "read_committed");
     config.put("client.id", this.getClass().getName());
@@ -239,50 +377,55 @@ public class KafkaStream extends AbstractOptionHandler implements
   }
 
   /**
-   * Gets the Kafka broker to connect to.
+   * Creates the Kafka consumer the poll thread reads the topic with.
    */
-  protected String broker() {
-    return KafkaUtils.broker(hostOption.getValue(), portOption.getValue());
+  protected Consumer<Long, byte[]> createConsumer() {
+    return new KafkaConsumer<>(createConsumerConfiguration());
   }
 
   /**
-   * Directs the consumer to the beginning of the Kafka stream.
+   * Gets the partitions assigned to this stream by the partitions
+   * option, or null if the stream subscribes to the whole topic.
    */
-  protected void restartConsumer() {
-    // Can't restart a non-resident consumer
-    if (m_Consumer == null)
-      return;
+  public List<Integer> getAssignedPartitions() {
+    String partitions = partitionsOption.getValue().trim();
+    if (partitions.isEmpty())
+      return null;
+
+    List<Integer> result = new ArrayList<>();
+    for (String partition : partitions.split(","))
+      result.add(Integer.parseInt(partition.trim()));
 
-    // Seek all partitions back to the zero-record
-    m_Consumer.seekToBeginning(Collections.emptyList());
+    return result;
   }
 
   /**
-   * Gets a list of all topic partitions the consumer is consuming.
+   * Gets all the partitions of the topic from the broker.
    */
-  protected List<TopicPartition> getPartitions() {
-    // Create a buffer for the results
-    List<TopicPartition> result = new LinkedList<>();
-
-    // If the consumer isn't established, return the empty list
-    if (m_Consumer == null)
-      return result;
-
-    // Iterate through the topics and partitions, adding them to the result
-    for (Entry<String, List<PartitionInfo>> topicPartitions : m_Consumer.listTopics().entrySet()) {
-      String topic = topicPartitions.getKey();
-      for (PartitionInfo info : topicPartitions.getValue()) {
-        int partition = info.partition();
-
-        result.add(new TopicPartition(topic, partition));
-      }
+  public List<Integer> getTopicPartitions() {
+    Map<String, Object> config = createConsumerConfiguration();
+    config.remove("group.id");
+
+    List<Integer> result = new ArrayList<>();
+    try (KafkaConsumer<Long, byte[]> consumer = new KafkaConsumer<>(config)) {
+      for (PartitionInfo info : consumer.partitionsFor(topicOption.getValue()))
+        result.add(info.partition());
     }
+    Collections.sort(result);
 
     return result;
   }
 
   /**
-   * Retrieves more instances from Kafka and places them in the buffer.
+   * Gets the Kafka broker to connect to.
+   */
+  protected String broker() {
+    return KafkaUtils.broker(hostOption.getValue(), portOption.getValue());
+  }
+
+  /**
+   * Takes the next batch from the poll thread if the current one has
+   * been consumed.
    */
   protected void fillBufferIfNecessary() {
     // If we've reached the end of stream, we can't fill the buffer
@@ -293,32 +436,34 @@ public class KafkaStream extends AbstractOptionHandler implements
     if (!bufferIsEmpty())
       return;
 
-    // Make sure we have a consumer instance to use
+    // Make sure the poll thread is running
     establishConsumer();
 
-    // If the buffer isn't there, create it
-    if (m_InstanceBuffer == null)
-      m_InstanceBuffer = new LinkedList<>();
-
-    // Get some records from Kafka
-    ConsumerRecords<Long, Instance> records = m_Consumer.poll(KafkaUtils.WAIT_AS_LONG_AS_POSSIBLE);
-
-    // Add each instance to the buffer
-    for (ConsumerRecord<Long, Instance> record : records) {
-      // Extract the instance from the record
-      Instance instance = record.value();
-
-      // If it's null, this is the sentinel that the end of stream has been reached
-      if (instance == null) {
-        m_EndOfStreamReached = true;
-        close();
-        break;
+    // Wait for the next batch, failing if the poll thread did, and ending
+    // the stream if it was stopped
+    Poller poller = m_Poller;
+    RecordBatch batch;
+    try {
+      while ((batch = m_BatchQueue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+        if (poller.m_Failure != null)
+          throw new RuntimeException("Failed to consume from Kafka", poller.m_Failure);
+        if (poller.m_Stopped || !poller.m_Thread.isAlive() || Thread.currentThread().isInterrupted()) {
+          // The poll thread may have queued a last batch before stopping
+          if ((batch = m_BatchQueue.poll()) != null)
+            break;
+          m_EndOfStreamReached = true;
+          return;
+        }
       }
-
-      // Add the instance to the buffer
-      m_InstanceBuffer.add(record.value());
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for Kafka records", e);
     }
 
+    m_CurrentBatch = batch;
+    m_CurrentPosition = 0;
+    if (batch.endOfStream)
+      m_EndOfStreamReached = true;
+
     // Save the header if we can and need to
     cacheHeaderIfNecessary();
   }
@@ -331,15 +476,12 @@ public class KafkaStream extends AbstractOptionHandler implements
     if (m_Header != null)
       return;
 
-    // Get one of the instances
-    Instance instance = m_InstanceBuffer.peek();
-
-    // If there isn't one (should always be at this point), abort
-    if (instance == null)
+    // If there isn't an instance, abort
+    if (bufferIsEmpty())
       return;
 
-    // Get it's dataset
-    Instances dataset = instance.dataset();
+    // Get the dataset of one of the instances
+    Instances dataset = m_CurrentBatch.instances[m_CurrentPosition].dataset();
 
     // Save it for future reference
     if (dataset instanceof InstancesHeader)
@@ -352,6 +494,331 @@ public class KafkaStream extends AbstractOptionHandler implements
    * Whether the instance buffer is empty.
    */
   protected boolean bufferIsEmpty() {
-    return m_InstanceBuffer == null || m_InstanceBuffer.peek() == null;
+    return m_CurrentBatch == null || m_CurrentPosition >= m_CurrentBatch.size;
+  }
+
+  /**
+   * Records that the learner is done with the last instance returned,
+   * committing the offsets every commit interval.
+   */
+  protected void markConsumed() {
+    if (m_PendingPartition == null)
+      return;
+
+    long[] offset = m_ConsumedOffsets.get(m_PendingPartition);
+    if (offset == null) {
+      offset = new long[1];
+      m_ConsumedOffsets.put(m_PendingPartition, offset);
+    }
+    offset[0] = m_PendingOffset + 1;
+    m_PendingPartition = null;
+    m_AnyConsumed = true;
+
+    if (++m_ConsumedSinceCommit >= commitIntervalOption.getValue())
+      publishConsumedOffsets();
+  }
+
+  /**
+   * Hands the consumed offsets to the poll thread, which owns the
+   * consumer, to commit.
+   */
+  protected void publishConsumedOffsets() {
+    if (m_Poller == null || m_ConsumedOffsets == null || m_ConsumedSinceCommit == 0)
+      return;
+
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    for (Map.Entry<TopicPartition, long[]> entry : m_ConsumedOffsets.entrySet())
+      offsets.put(entry.getKey(), new OffsetAndMetadata(entry.getValue()[0]));
+
+    m_Poller.m_PendingCommit.set(offsets);
+    m_ConsumedSinceCommit = 0;
+  }
+
+  /**
+   * A batch of decoded instances, with the partition and offset
+   * of their records.
+   */
+  protected static class RecordBatch {
+
+    // The decoded instances
+    public final Instance[] instances;
+
+    // The partition of each instance's record
+    public final TopicPartition[] partitions;
+
+    // The offset of each instance's record
+    public final long[] offsets;
+
+    // The number of instances in the batch
+    public int size = 0;
+
+    // Whether the end-of-stream record follows the instances
+    public boolean endOfStream = false;
+
+    public RecordBatch(int capacity) {
+      instances = new Instance[capacity];
+      partitions = new TopicPartition[capacity];
+      offsets = new long[capacity];
+    }
+
+    public void add(Instance instance, TopicPartition partition, long offset) {
+      instances[size] = instance;
+      partitions[size] = partition;
+      offsets[size] = offset;
+      size++;
+    }
+  }
+
+  /**
+   * Polls and decodes records on a background thread. The Kafka consumer
+   * is not thread-safe, so it is only ever used from this thread.
+   */
+  protected class Poller implements Runnable, ConsumerRebalanceListener {
+
+    // The thread running the poller
+    protected Thread m_Thread;
+
+    // The consumer, owned by the poll thread
+    protected volatile Consumer<Long, byte[]> m_Consumer;
+
+    // The codec decoding binary records, holding the current schema
+    protected final InstanceCodec m_Codec = new InstanceCodec();
+
+    // The deserialiser for records written with Java serialisation
+    protected final ObjectDeserializer<Instance> m_ObjectDeserializer = new ObjectDeserializer<>();
+
+    // Offsets consumed by the learner, waiting to be committed
+    protected final AtomicReference<Map<TopicPartition, OffsetAndMetadata>> m_PendingCommit = new AtomicReference<>();
+
+    // The partitions already rewound to their beginning
+    protected final Set<TopicPartition> m_Rewound = new HashSet<>();
+
+    // A shared instance of each partition
+    protected final Map<Integer, TopicPartition> m_Partitions = new HashMap<>();
+
+    // Whether the poller has been asked to stop
+    protected volatile boolean m_Stopped = false;
+
+    // Why the poller failed, if it did
+    protected volatile Throwable m_Failure = null;
+
+    // Whether the end-of-stream record has been found
+    protected boolean m_EndOfStream = false;
+
+    // The partitions assigned with the partitions option
+    protected Set<TopicPartition> m_Expected = null;
+
+    // The partitions whose end-of-partition record has been found
+    protected final Set<TopicPartition> m_Ended = new HashSet<>();
+
+    @Override
+    public void run() {
+      try {
+        m_Consumer = createConsumer();
+
+        List<Integer> assigned = getAssignedPartitions();
+        if (assigned == null) {
+          m_Consumer.subscribe(Collections.singletonList(topicOption.getValue()), this);
+        }
+        else {
+          // Fixed partitions, not rebalanced by the group
+          List<TopicPartition> partitions = new ArrayList<>();
+          for (int partition : assigned)
+            partitions.add(partition(partition));
+          m_Consumer.assign(partitions);
+          if (m_Rewind)
+            m_Consumer.seekToBeginning(partitions);
+          m_Expected = new HashSet<>(partitions);
+        }
+
+        try {
+          while (!m_Stopped)
+            pollOnce();
+        } catch (WakeupException e) {
+          // Woken up to stop
+        }
+
+        // Commit what the learner consumed last
+        commitPending(true);
+      } catch (Throwable t) {
+        m_Failure = t;
+      } finally {
+        if (m_Consumer != null)
+          m_Consumer.close();
+      }
+    }
+
+    /**
+     * Asks the poller to stop. Can be called from any thread.
+     */
+    public void stop() {
+      m_Stopped = true;
+      if (m_Consumer != null)
+        m_Consumer.wakeup();
+    }
+
+    /**
+     * Commits pending offsets, then polls one batch of records unless the
+     * queue is full or the stream has ended, in which case the partitions
+     * are paused and the poll only keeps the consumer in its group.
+     */
+    protected void pollOnce() throws InterruptedException {
+      commitPending(false);
+
+      if (m_EndOfStream || m_BatchQueue.remainingCapacity() == 0) {
+        m_Consumer.pause(m_Consumer.assignment());
+      }
+      else {
+        m_Consumer.resume(m_Consumer.paused());
+        Set<TopicPartition> ended = new HashSet<>(m_Ended);
+        ended.retainAll(m_Consumer.assignment());
+        m_Consumer.pause(ended);
+      }
+
+      ConsumerRecords<Long, byte[]> records = m_Consumer.poll(POLL_TIMEOUT);
+      if (records.isEmpty())
+        return;
+
+      // Decode the records into a batch
+      RecordBatch batch = new RecordBatch(records.count());
+      for (ConsumerRecord<Long, byte[]> record : records) {
+        byte[] bytes = record.value();
+
+        // If it's null, this is the sentinel that the end of the
+        // partition (negative key) or of the stream has been reached
+        if (bytes == null) {
+          if (record.key() != null && record.key() < 0 && !partitionsEnded(record.partition()))
+            continue;
+
+          batch.endOfStream = true;
+          m_EndOfStream = true;
+          break;
+        }
+
+        // Schema records only update the header
+        if (InstanceCodec.isSchemaRecord(bytes)) {
+          m_Header = m_Codec.decodeSchema(bytes);
+          continue;
+        }
+
+        batch.add(deserialise(record), partition(record.partition()), record.offset());
+      }
+
+      // Nothing for the learner (e.g. only schema records)
+      if (batch.size == 0 && !batch.endOfStream)
+        return;
+
+      // Hand the batch over, without blocking a stop request
+      while (!m_BatchQueue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+        if (m_Stopped)
+          return;
+      }
+    }
+
+    /**
+     * Records the end of a partition.
+     *
+     * @return Whether all the partitions of the consumer have ended.
+     */
+    protected boolean partitionsEnded(int partition) {
+      m_Ended.add(partition(partition));
+
+      // Without fixed partitions, those the group gave this consumer
+      return m_Ended.containsAll(m_Expected != null ? m_Expected : m_Consumer.assignment());
+    }
+
+    /**
+     * Deserialises an instance record, in whichever form it was written.
+     */
+    protected Instance deserialise(ConsumerRecord<Long, byte[]> record) {
+      byte[] bytes = record.value();
+
+      if (InstanceCodec.isCodecRecord(bytes)) {
+        // Resumed past the schema record
+        if (!m_Codec.hasSchemaOf(bytes))
+          fetchSchema(record.partition());
+
+        return m_Codec.decode(bytes);
+      }
+
+      return m_ObjectDeserializer.deserialize(record.topic(), bytes);
+    }
+
+    /**
+     * Reads the schema record at the beginning of a partition with a
+     * short-lived consumer, for when the stream resumes after it.
+     */
+    protected void fetchSchema(int partition) {
+      Map<String, Object> config = createConsumerConfiguration();
+      config.remove("group.id");
+      config.put("max.poll.records", 1);
+
+      try (KafkaConsumer<Long, byte[]> schemaConsumer = new KafkaConsumer<>(config)) {
+        TopicPartition topicPartition = partition(partition);
+        schemaConsumer.assign(Collections.singletonList(topicPartition));
+        schemaConsumer.seekToBeginning(Collections.singletonList(topicPartition));
+
+        while (!m_Stopped) {
+          for (ConsumerRecord<Long, byte[]> record : schemaConsumer.poll(POLL_TIMEOUT)) {
+            if (!InstanceCodec.isSchemaRecord(record.value()))
+              throw new IllegalStateException("No schema record at the beginning of " + topicPartition);
+
+            m_Header = m_Codec.decodeSchema(record.value());
+            return;
+          }
+        }
+      }
+    }
+
+    /**
+     * Commits the offsets consumed by the learner, if any.
+     */
+    protected void commitPending(boolean sync) {
+      Map<TopicPartition, OffsetAndMetadata> offsets = m_PendingCommit.getAndSet(null);
+      if (offsets == null)
+        return;
+
+      if (sync) {
+        try {
+          m_Consumer.commitSync(offsets);
+        } catch (WakeupException e) {
+          // A stop request raced with the commit
+          m_Consumer.commitSync(offsets);
+        }
+      }
+      else
+        m_Consumer.commitAsync(offsets, null);
+    }
+
+    /**
+     * Gets the shared topic partition object for a partition number.
+     */
+    protected TopicPartition partition(int partition) {
+      TopicPartition result = m_Partitions.get(partition);
+      if (result == null) {
+        result = new TopicPartition(topicOption.getValue(), partition);
+        m_Partitions.put(partition, result);
+      }
+
+      return result;
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+      // Another consumer takes over from what has been consumed so far
+      commitPending(true);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+      if (!m_Rewind)
+        return;
+
+      // Start each partition from its beginning, once
+      Set<TopicPartition> rewind = new HashSet<>(partitions);
+      rewind.removeAll(m_Rewound);
+      m_Consumer.seekToBeginning(rewind);
+      m_Rewound.addAll(rewind);
+    }
   }
 }
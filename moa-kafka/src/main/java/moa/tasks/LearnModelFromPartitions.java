@@ -0,0 +1,298 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LearnModelFromPartitions.java
+ * Copyright (C) 2024 University of Waikato, Hamilton, NZ
+ */
+
+package moa.tasks;
+
+import com.github.javacliparser.IntOption;
+import moa.capabilities.CapabilitiesHandler;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.classifiers.Classifier;
+import moa.classifiers.MergeableClassifier;
+import moa.classifiers.MultiClassClassifier;
+import moa.classifiers.meta.PartitionEnsemble;
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.streams.KafkaStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Task for learning a model from the partitions of a Kafka topic in
+ * parallel, without any evaluation.
+ *
+ * The partitions of the topic are dealt round-robin to worker threads.
+ * Each worker reads its partitions with its own copy of the stream and
+ * trains its own replica of the learner. If the learner is a
+ * {@link MergeableClassifier} (e.g. NaiveBayes), the replicas are merged
+ * into a single model; otherwise the result is a
+ * {@link PartitionEnsemble} of the replicas. Every merge frequency
+ * instances, each worker publishes a snapshot of its replica, from which
+ * result previews are built.
+ *
+ * Offsets are committed per worker, under the group of the stream.
+ */
+public class LearnModelFromPartitions extends ClassificationMainTask implements CapabilitiesHandler {
+
+  // Serialisation UID#
+  private static final long serialVersionUID = 1L;
+
+  // How long to wait for the workers when the task is aborted, in milliseconds
+  protected static final long STOP_TIMEOUT = 5000;
+
+  // The learner to replicate
+  public ClassOption learnerOption = new ClassOption(
+        "learner",
+        'l',
+        "Classifier to train.",
+        MultiClassClassifier.class,
+        "moa.classifiers.bayes.NaiveBayes"
+  );
+
+  // The topic to learn from
+  public ClassOption streamOption = new ClassOption(
+        "stream",
+        's',
+        "Kafka stream to learn from (its partitions option is set for each worker).",
+        KafkaStream.class,
+        "KafkaStream"
+  );
+
+  // The number of worker threads
+  public IntOption numberOfJobsOption = new IntOption(
+        "numberOfJobs",
+        'j',
+        "Number of worker threads, at most one per partition (-1 = as many as processors)",
+        -1,
+        -1,
+        Integer.MAX_VALUE
+  );
+
+  // The maximum number of instances per worker
+  public IntOption maxInstancesOption = new IntOption(
+        "maxInstances",
+        'm',
+        "Maximum number of instances each worker trains on (-1 = no limit).",
+        -1,
+        -1,
+        Integer.MAX_VALUE
+  );
+
+  // How often replicas are published for merging
+  public IntOption mergeFrequencyOption = new IntOption(
+        "mergeFrequency",
+        'f',
+        "Number of instances between snapshots of each replica for merged previews.",
+        100000,
+        1,
+        Integer.MAX_VALUE
+  );
+
+  @Override
+  public String getPurposeString() {
+    return "Learns a model from the partitions of a Kafka topic in parallel.";
+  }
+
+  @Override
+  public Class<?> getTaskResultType() {
+    return MultiClassClassifier.class;
+  }
+
+  @Override
+  protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+    Classifier learner = (Classifier) getPreparedClassOption(learnerOption);
+    KafkaStream stream = (KafkaStream) getPreparedClassOption(streamOption);
+
+    // Deal the partitions to the workers
+    List<Integer> partitions = stream.getAssignedPartitions();
+    if (partitions == null)
+      partitions = stream.getTopicPartitions();
+    int numWorkers = numberOfJobsOption.getValue() == -1
+          ? Runtime.getRuntime().availableProcessors()
+          : Math.max(1, numberOfJobsOption.getValue());
+    numWorkers = Math.min(numWorkers, partitions.size());
+    List<StringBuilder> workerPartitions = new ArrayList<>();
+    for (int i = 0; i < numWorkers; i++)
+      workerPartitions.add(new StringBuilder());
+    for (int i = 0; i < partitions.size(); i++) {
+      StringBuilder sb = workerPartitions.get(i % numWorkers);
+      if (sb.length() > 0)
+        sb.append(",");
+      sb.append(partitions.get(i));
+    }
+
+    // Start the workers
+    monitor.setCurrentActivity("Training " + numWorkers + " replicas of the learner...", -1.0);
+    Worker[] workers = new Worker[numWorkers];
+    AtomicReferenceArray<Classifier> snapshots = new AtomicReferenceArray<>(numWorkers);
+    AtomicLong instancesProcessed = new AtomicLong();
+    for (int i = 0; i < numWorkers; i++) {
+      KafkaStream workerStream = (KafkaStream) stream.copy();
+      workerStream.partitionsOption.setValue(workerPartitions.get(i).toString());
+      workers[i] = new Worker(i, learner.copy(), workerStream, snapshots, instancesProcessed);
+      workers[i].m_Thread = new Thread(workers[i], "LearnModelFromPartitions-" + i);
+      workers[i].m_Thread.setDaemon(true);
+      workers[i].m_Thread.start();
+    }
+
+    // Wait for the workers, reporting progress
+    try {
+      for (Worker worker : workers) {
+        while (worker.m_Thread.isAlive()) {
+          worker.m_Thread.join(100);
+
+          // Stop all workers if the task is aborted, including those
+          // waiting for records, without waiting long for them: their
+          // replicas are no longer needed
+          if (monitor.taskShouldAbort()) {
+            for (Worker w : workers) {
+              w.m_Stopped = true;
+              w.m_Stream.stopPolling();
+            }
+            long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+            for (Worker w : workers)
+              w.m_Thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            return null;
+          }
+
+          int maxInstances = maxInstancesOption.getValue();
+          monitor.setCurrentActivityFractionComplete(maxInstances < 0 ? -1.0
+                : (double) instancesProcessed.get() / ((long) maxInstances * numWorkers));
+          if (monitor.resultPreviewRequested()) {
+            Classifier preview = combine(snapshots);
+            if (preview != null)
+              monitor.setLatestResultPreview(preview);
+          }
+        }
+
+        if (worker.m_Failure != null)
+          throw new RuntimeException("Worker " + worker.m_Index + " failed", worker.m_Failure);
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for the workers", e);
+    }
+
+    // Combine the final replicas
+    AtomicReferenceArray<Classifier> replicas = new AtomicReferenceArray<>(numWorkers);
+    for (int i = 0; i < numWorkers; i++)
+      replicas.set(i, workers[i].m_Learner);
+
+    return combine(replicas);
+  }
+
+  /**
+   * Merges replicas of the learner into a single model if it supports it,
+   * otherwise makes an ensemble of them.
+   *
+   * @param replicas The replicas, some of which may be missing.
+   * @return The combined model, or null if there are no replicas.
+   */
+  protected Classifier combine(AtomicReferenceArray<Classifier> replicas) {
+    List<Classifier> available = new ArrayList<>();
+    for (int i = 0; i < replicas.length(); i++) {
+      if (replicas.get(i) != null)
+        available.add(replicas.get(i));
+    }
+    if (available.isEmpty())
+      return null;
+
+    // A single model for mergeable learners
+    if (available.get(0) instanceof MergeableClassifier) {
+      MergeableClassifier merged = (MergeableClassifier) available.get(0).copy();
+      for (int i = 1; i < available.size(); i++)
+        merged.merge((MergeableClassifier) available.get(i));
+      return merged;
+    }
+
+    return new PartitionEnsemble(available.toArray(new Classifier[0]));
+  }
+
+  @Override
+  public ImmutableCapabilities defineImmutableCapabilities() {
+    return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+  }
+
+  /**
+   * Trains one replica of the learner on a group of partitions.
+   */
+  protected class Worker implements Runnable {
+
+    // The index of the worker
+    protected final int m_Index;
+
+    // The replica trained by the worker
+    protected final Classifier m_Learner;
+
+    // The stream of the worker's partitions
+    protected final KafkaStream m_Stream;
+
+    // Where the worker publishes snapshots of its replica
+    protected final AtomicReferenceArray<Classifier> m_Snapshots;
+
+    // The number of instances processed by all workers
+    protected final AtomicLong m_InstancesProcessed;
+
+    // The thread running the worker
+    protected Thread m_Thread;
+
+    // Whether the worker has been asked to stop
+    protected volatile boolean m_Stopped = false;
+
+    // Why the worker failed, if it did
+    protected volatile Throwable m_Failure = null;
+
+    public Worker(int index, Classifier learner, KafkaStream stream,
+                  AtomicReferenceArray<Classifier> snapshots, AtomicLong instancesProcessed) {
+      m_Index = index;
+      m_Learner = learner;
+      m_Stream = stream;
+      m_Snapshots = snapshots;
+      m_InstancesProcessed = instancesProcessed;
+    }
+
+    @Override
+    public void run() {
+      try {
+        m_Stream.prepareForUse();
+        m_Learner.setModelContext(m_Stream.getHeader());
+
+        int maxInstances = maxInstancesOption.getValue();
+        int mergeFrequency = mergeFrequencyOption.getValue();
+        long n = 0;
+        while (!m_Stopped && m_Stream.hasMoreInstances()
+              && (maxInstances < 0 || n < maxInstances)) {
+          m_Learner.trainOnInstance(m_Stream.nextInstance());
+          n++;
+          if (n % INSTANCES_BETWEEN_MONITOR_UPDATES == 0)
+            m_InstancesProcessed.addAndGet(INSTANCES_BETWEEN_MONITOR_UPDATES);
+          if (n % mergeFrequency == 0)
+            m_Snapshots.set(m_Index, m_Learner.copy());
+        }
+      } catch (Throwable t) {
+        m_Failure = t;
+      } finally {
+        m_Stream.close();
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@
 package moa.tasks;
 
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import moa.capabilities.CapabilitiesHandler;
@@ -29,19 +30,40 @@ import moa.capabilities.ImmutableCapabilities;
 import moa.core.Example;
 import moa.core.ObjectRepository;
 import moa.options.ClassOption;
+import moa.streams.BatchInstanceStream;
 import moa.streams.InstanceStream;
+import moa.streams.ParallelGeneratorStream;
+import moa.util.InstanceCodec;
 import moa.util.KafkaUtils;
 import moa.util.ObjectSerializer;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.LongSerializer;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Task to write instances from a stream to a Kafka topic.
  *
+ * By default the instances are written in the compact binary form of
+ * {@link InstanceCodec}, after a schema record sent to every partition
+ * of the topic. Java serialisation can still be selected for consumers
+ * which predate the binary form.
+ *
+ * Records are sent asynchronously and batched by the producer according
+ * to the linger, batch size and compression options; failed sends are
+ * counted through a callback and reported when the task ends. Synthetic
+ * generators can be run on several threads (see
+ * {@link ParallelGeneratorStream}) so that generation keeps up with the
+ * producer.
+ *
  * @author Corey Sterling (csterlin at waikato dot ac dot nz)
  */
 public class WriteToTopicTask extends AuxiliarMainTask implements CapabilitiesHandler {
@@ -89,6 +111,80 @@ public class WriteToTopicTask extends AuxiliarMainTask implements CapabilitiesHa
         ""
   );
 
+  // The form in which instances are serialised
+  public MultiChoiceOption serialisationOption = new MultiChoiceOption(
+        "serialisation",
+        'e',
+        "How the instances are serialised in the records",
+        new String[]{"Binary", "Java"},
+        new String[]{
+              "Compact binary records, with the header sent once as a schema record",
+              "Java serialisation of each instance, header included"
+        },
+        0
+  );
+
+  // How long the producer waits to fill batches
+  public IntOption lingerOption = new IntOption(
+        "linger",
+        'l',
+        "Time in milliseconds the producer waits for more records to fill a batch",
+        5,
+        0,
+        Integer.MAX_VALUE
+  );
+
+  // The size of the producer's batches
+  public IntOption batchSizeOption = new IntOption(
+        "batchSize",
+        'b',
+        "Maximum size in bytes of a batch of records sent to a partition",
+        1 << 18,
+        0,
+        Integer.MAX_VALUE
+  );
+
+  // The compression of the batches
+  public MultiChoiceOption compressionOption = new MultiChoiceOption(
+        "compression",
+        'c',
+        "Compression of the batches of records",
+        new String[]{"none", "lz4", "snappy", "gzip", "zstd"},
+        new String[]{
+              "No compression",
+              "LZ4 compression",
+              "Snappy compression",
+              "GZIP compression",
+              "Zstandard compression"
+        },
+        0
+  );
+
+  // The acknowledgements required from the brokers
+  public MultiChoiceOption acksOption = new MultiChoiceOption(
+        "acks",
+        'a',
+        "Acknowledgements the producer waits for before a send is complete",
+        new String[]{"1", "all", "0"},
+        new String[]{
+              "The partition leader has written the record",
+              "All in-sync replicas have written the record",
+              "Do not wait for the brokers"
+        },
+        0
+  );
+
+  // The number of generation threads
+  public IntOption numberOfJobsOption = new IntOption(
+        "numberOfJobs",
+        'j',
+        "Number of threads generating the instances of a synthetic generator "
+              + "(0 = generate on the task thread, -1 = as many as processors)",
+        0,
+        -1,
+        Integer.MAX_VALUE
+  );
+
   /**
    * Creates the configuration for the Kakfa producer.
    *
@@ -100,7 +196,7 @@ public class WriteToTopicTask extends AuxiliarMainTask implements CapabilitiesHa
     Map<String, Object> config = new HashMap<>();
 
     config.put("key.serializer", LongSerializer.class);
-    config.put("value.serializer", ObjectSerializer.class);
+    config.put("value.serializer", ByteArraySerializer.class);
     config.put("bootstrap.servers", KafkaUtils.broker(host, port));
     config.put("fetch.min.bytes", 1);
     config.put("group.id", KafkaUtils.uniqueGroupIDString(this));
@@ -111,68 +207,151 @@ public class WriteToTopicTask extends AuxiliarMainTask implements CapabilitiesHa
     config.put("fetch.max.bytes", 1 << 24); // 16MB
     config.put("isolation.level", "read_committed");
     config.put("client.id", this.getClass().getName());
+    config.put("linger.ms", lingerOption.getValue());
+    config.put("batch.size", batchSizeOption.getValue());
+    config.put("compression.type", compressionOption.getChosenLabel());
+    config.put("acks", acksOption.getChosenLabel());
 
     return config;
   }
 
+  /**
+   * Gets the stream of instances to write, generated on several threads
+   * if requested and the stream supports it.
+   */
+  protected InstanceStream getInstanceStream() {
+    InstanceStream stream = (InstanceStream) getPreparedClassOption(streamOption);
+
+    // Only synthetic generators can be generated in parallel
+    if (numberOfJobsOption.getValue() == 0 || !(stream instanceof BatchInstanceStream))
+      return stream;
+
+    ParallelGeneratorStream parallelStream = new ParallelGeneratorStream();
+    parallelStream.generatorOption.setCurrentObject(stream);
+    parallelStream.numberOfJobsOption.setValue(numberOfJobsOption.getValue());
+    parallelStream.prepareForUse();
+
+    return parallelStream;
+  }
+
   @Override
   protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
     // Prepare all option values
-    InstanceStream stream = (InstanceStream) getPreparedClassOption(streamOption);
+    InstanceStream stream = getInstanceStream();
     int maxInstances = maxInstancesOption.getValue();
     String topic = topicOption.getValue();
     String host = hostOption.getValue();
     String port = portOption.getValue();
 
+    boolean binary = serialisationOption.getChosenIndex() == 0;
+
     // Create the Kakfa producer
-    KafkaProducer<Long, Instance> producer = new KafkaProducer<>(
+    KafkaProducer<Long, byte[]> producer = new KafkaProducer<>(
           getProducerConfig(host, port)
     );
 
+    // Count the records the brokers failed to accept
+    AtomicLong failedSends = new AtomicLong();
+    AtomicReference<Exception> firstFailure = new AtomicReference<>();
+    Callback callback = (RecordMetadata metadata, Exception exception) -> {
+      if (exception != null) {
+        failedSends.incrementAndGet();
+        firstFailure.compareAndSet(null, exception);
+      }
+    };
+
     int i = 0;
-    while (i < maxInstances) {
-      // If the stream is depleted, finalise the topic
-      if (!stream.hasMoreInstances()) break;
+    try {
+      // Create the serialiser for the chosen form
+      InstanceCodec codec = null;
+      ObjectSerializer<Instance> objectSerializer = null;
+      if (binary) {
+        codec = new InstanceCodec(stream.getHeader());
 
-      // Get the next instance from the stream
-      Example<Instance> inst = stream.nextInstance();
+        // Every partition gets the schema ahead of its instances
+        for (PartitionInfo info : producer.partitionsFor(topic)) {
+          producer.send(
+                new ProducerRecord<>(
+                      topic, info.partition(), null, codec.schemaRecord()
+                ),
+                callback
+          );
+        }
+      }
+      else {
+        objectSerializer = new ObjectSerializer<>();
+      }
 
-      // Create a record of the instance for the topic
-      ProducerRecord<Long, Instance> record = new ProducerRecord<>(
-            topic, (long) i++, inst.getData()
-      );
+      while (i < maxInstances) {
+        // If the stream is depleted, finalise the topic
+        if (!stream.hasMoreInstances()) break;
+
+        // Get the next instance from the stream
+        Example<Instance> inst = stream.nextInstance();
+
+        // Serialise the instance
+        byte[] bytes = binary
+              ? codec.encode(inst.getData())
+              : objectSerializer.serialize(topic, inst.getData());
+
+        // Create a record of the instance for the topic
+        ProducerRecord<Long, byte[]> record = new ProducerRecord<>(
+              topic, (long) i++, bytes
+        );
+
+        // Send the record to the Kafka instance (asynchronously)
+        producer.send(record, callback);
 
-      // Send the record to the Kafka instance
-      producer.send(record);
+        // Only check on the task every so often
+        if (i % INSTANCES_BETWEEN_MONITOR_UPDATES != 0) continue;
 
-      // Abort if the task is cancelled (leaves the topic unfinished)
-      if (monitor.isCancelled()) return null;
+        // Abort if the task is cancelled (leaves the topic unfinished)
+        if (monitor.isCancelled()) return null;
 
-      // Estimate the number of instances left in the source stream
-      long remainingInstances = stream.estimatedRemainingInstances();
+        // Estimate the number of instances left in the source stream
+        long remainingInstances = stream.estimatedRemainingInstances();
 
-      // Estimate the total number of instances that will be written
-      long totalInstances = remainingInstances >= 0
-            ? i + remainingInstances
-            : maxInstances;
+        // Estimate the total number of instances that will be written
+        long totalInstances = remainingInstances >= 0
+              ? i + remainingInstances
+              : maxInstances;
 
-      // Update the task monitor on our progress
-      monitor.setCurrentActivityFractionComplete(((double) i) / totalInstances);
+        // Update the task monitor on our progress
+        monitor.setCurrentActivityFractionComplete(((double) i) / totalInstances);
+      }
+
+      // Send the null-terminator instance to every partition of the topic,
+      // with a negative key so consumers wait for the end of all partitions
+      for (PartitionInfo info : producer.partitionsFor(topic)) {
+        producer.send(
+              new ProducerRecord<>(
+                    topic, info.partition(), -1L, null
+              ),
+              callback
+        );
+      }
     }
+    finally {
+      // Stop the generation threads, if any
+      if (stream instanceof ParallelGeneratorStream)
+        ((ParallelGeneratorStream) stream).close();
 
-    // Send the null-terminator instance to the topic
-    producer.send(
-          new ProducerRecord<>(
-                topic, (long) i, null
-          )
-    );
+      // Wait for all batches to be sent, or release the producer on failure
+      producer.close();
+    }
+
+    if (failedSends.get() > 0)
+      throw new RuntimeException(
+            failedSends.get() + " records could not be written to topic " + topic,
+            firstFailure.get()
+      );
 
-    return null;
+    return i + " instances written to topic " + topic;
   }
 
   @Override
   public Class<?> getTaskResultType() {
-    return null;
+    return String.class;
   }
 
   @Override
@@ -0,0 +1,410 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * InstanceCodec.java
+ * Copyright (C) 2024 University of Waikato, Hamilton, NZ
+ */
+
+package moa.util;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+import moa.core.InstanceBatch;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact, schema-aware binary encoding of instances for Kafka records.
+ *
+ * Unlike {@link ObjectSerializer}, the header of the instances does not
+ * travel with every record. It is sent once, as a versioned schema record,
+ * and the instance records only refer to it by its schema ID:
+ *
+ *   - schema record: type, schema ID, format version, class index,
+ *     number of attributes, then the length and UTF-8 text of the ARFF
+ *     header.
+ *   - dense record: type (with a flag for a weight other than 1), schema
+ *     ID, optional weight, then the value of every attribute.
+ *   - sparse record: same prefix, then the number of stored values and,
+ *     for each one, the gap to the previous index as a varint followed by
+ *     the value.
+ *
+ * Nominal values are packed as varints of their index plus one (zero being
+ * missing), other values are written as doubles (NaN being missing).
+ *
+ * The first byte of a record never matches the first byte of a Java
+ * serialisation stream, so both kinds of record can be told apart when
+ * consuming a topic.
+ */
+public class InstanceCodec {
+
+  // The version of the format, written in schema records
+  public static final int FORMAT_VERSION = 1;
+
+  // The record types (low bits of the first byte)
+  public static final byte SCHEMA_RECORD = 1;
+  public static final byte DENSE_RECORD = 2;
+  public static final byte SPARSE_RECORD = 3;
+
+  // Mask of the record type in the first byte
+  protected static final int TYPE_MASK = 0x0F;
+
+  // Flag set in the first byte when the weight is written
+  protected static final int WEIGHTED_FLAG = 0x10;
+
+  // The header of the instances being encoded/decoded
+  protected InstancesHeader m_Header = null;
+
+  // The ID of the schema (CRC of the header record)
+  protected int m_SchemaID = 0;
+
+  // The number of attributes in the schema
+  protected int m_NumAttributes = 0;
+
+  // Which attributes are packed as nominal indices
+  protected boolean[] m_Nominal = null;
+
+  // The encoded schema record
+  protected byte[] m_SchemaRecord = null;
+
+  // Reusable buffer to encode records into
+  protected ByteBuffer m_Buffer = ByteBuffer.allocate(1 << 10);
+
+  /**
+   * Creates a codec for decoding, which learns the schema from the
+   * schema records it decodes.
+   */
+  public InstanceCodec() {
+  }
+
+  /**
+   * Creates a codec for encoding instances with the given header.
+   *
+   * @param header The header of the instances to encode.
+   */
+  public InstanceCodec(InstancesHeader header) {
+    setHeader(header);
+  }
+
+  /**
+   * Gets the header of the current schema, or null if no schema
+   * record has been decoded yet.
+   */
+  public InstancesHeader getHeader() {
+    return m_Header;
+  }
+
+  /**
+   * Gets the ID of the current schema.
+   */
+  public int getSchemaID() {
+    return m_SchemaID;
+  }
+
+  /**
+   * Gets the schema record for the current header.
+   */
+  public byte[] schemaRecord() {
+    return m_SchemaRecord;
+  }
+
+  /**
+   * Whether the given record was written by this codec (as opposed
+   * to Java serialisation).
+   */
+  public static boolean isCodecRecord(byte[] record) {
+    if (record == null || record.length == 0)
+      return false;
+
+    int type = record[0] & TYPE_MASK;
+    return (record[0] & ~(TYPE_MASK | WEIGHTED_FLAG)) == 0
+      && type >= SCHEMA_RECORD && type <= SPARSE_RECORD;
+  }
+
+  /**
+   * Whether the given record is a schema record.
+   */
+  public static boolean isSchemaRecord(byte[] record) {
+    return isCodecRecord(record) && (record[0] & TYPE_MASK) == SCHEMA_RECORD;
+  }
+
+  /**
+   * Gets the ID of the schema a record was written with.
+   */
+  public static int schemaID(byte[] record) {
+    return ByteBuffer.wrap(record).getInt(1);
+  }
+
+  /**
+   * Whether the schema of the given instance record is the current one,
+   * so that the record can be decoded.
+   */
+  public boolean hasSchemaOf(byte[] record) {
+    return m_Header != null && schemaID(record) == m_SchemaID;
+  }
+
+  /**
+   * Sets the header of the instances and builds its schema record.
+   */
+  protected void setHeader(InstancesHeader header) {
+    byte[] text = new Instances(header, 0).toString().getBytes(StandardCharsets.UTF_8);
+
+    ByteBuffer schema = ByteBuffer.allocate(1 + 5 * 4 + text.length);
+    schema.put(SCHEMA_RECORD);
+    schema.putInt(0); // schema ID, filled in below
+    schema.putInt(FORMAT_VERSION);
+    schema.putInt(header.classIndex());
+    schema.putInt(header.numAttributes());
+    schema.putInt(text.length);
+    schema.put(text);
+
+    // The ID is the CRC of everything after it
+    CRC32 crc = new CRC32();
+    crc.update(schema.array(), 5, schema.capacity() - 5);
+    schema.putInt(1, (int) crc.getValue());
+
+    m_SchemaRecord = schema.array();
+    m_SchemaID = (int) crc.getValue();
+    m_Header = header;
+    m_NumAttributes = header.numAttributes();
+    m_Nominal = new boolean[m_NumAttributes];
+    for (int i = 0; i < m_NumAttributes; i++)
+      m_Nominal[i] = header.attribute(i).isNominal();
+  }
+
+  /**
+   * Encodes an instance. Instances storing fewer values than they have
+   * attributes are written as sparse records, others as dense records.
+   *
+   * @param instance The instance to encode.
+   * @return The encoded record.
+   */
+  public byte[] encode(Instance instance) {
+    if (m_Header == null)
+      throw new IllegalStateException("No header to encode instances with");
+
+    int numValues = instance.numValues();
+    boolean sparse = numValues < m_NumAttributes;
+    boolean weighted = instance.weight() != 1.0;
+
+    // Worst case size: prefix, weight, 5-byte varint index and 9 bytes per value
+    ensureCapacity(1 + 4 + 8 + 5 + 14 * (sparse ? numValues : m_NumAttributes));
+    m_Buffer.clear();
+
+    m_Buffer.put((byte) ((sparse ? SPARSE_RECORD : DENSE_RECORD) | (weighted ? WEIGHTED_FLAG : 0)));
+    m_Buffer.putInt(m_SchemaID);
+    if (weighted)
+      m_Buffer.putDouble(instance.weight());
+
+    if (sparse) {
+      putVarInt(m_Buffer, numValues);
+      int previous = -1;
+      for (int i = 0; i < numValues; i++) {
+        int index = instance.index(i);
+        putVarInt(m_Buffer, index - previous - 1);
+        putValue(index, instance.valueSparse(i));
+        previous = index;
+      }
+    }
+    else {
+      for (int i = 0; i < m_NumAttributes; i++)
+        putValue(i, instance.value(i));
+    }
+
+    return Arrays.copyOf(m_Buffer.array(), m_Buffer.position());
+  }
+
+  /**
+   * Decodes a schema record, making its header the current schema.
+   *
+   * @param record The schema record.
+   * @return The header described by the record.
+   */
+  public InstancesHeader decodeSchema(byte[] record) {
+    if (!isSchemaRecord(record))
+      throw new IllegalArgumentException("Not a schema record");
+
+    ByteBuffer schema = ByteBuffer.wrap(record);
+    schema.position(1);
+    int schemaID = schema.getInt();
+
+    // Nothing to do if the schema is the current one
+    if (m_Header != null && schemaID == m_SchemaID)
+      return m_Header;
+
+    int version = schema.getInt();
+    if (version != FORMAT_VERSION)
+      throw new IllegalArgumentException("Unsupported instance record format version: " + version);
+    int classIndex = schema.getInt();
+    schema.getInt(); // number of attributes, implied by the header
+    int length = schema.getInt();
+    String text = new String(record, schema.position(), length, StandardCharsets.UTF_8);
+
+    Instances instances = new Instances(new StringReader(text), 1, -1);
+    instances.setClassIndex(classIndex);
+    setHeader(new InstancesHeader(instances));
+
+    return m_Header;
+  }
+
+  /**
+   * Decodes an instance record into a new instance, whose dataset is the
+   * current header.
+   *
+   * @param record The dense or sparse record.
+   * @return The decoded instance.
+   */
+  public Instance decode(byte[] record) {
+    ByteBuffer buffer = openRecord(record);
+    double weight = (record[0] & WEIGHTED_FLAG) != 0 ? buffer.getDouble() : 1.0;
+
+    Instance instance;
+    if ((record[0] & TYPE_MASK) == SPARSE_RECORD) {
+      int numValues = getVarInt(buffer);
+      double[] values = new double[numValues];
+      int[] indices = new int[numValues];
+      int index = -1;
+      for (int i = 0; i < numValues; i++) {
+        index += getVarInt(buffer) + 1;
+        indices[i] = index;
+        values[i] = getValue(buffer, index);
+      }
+      instance = new SparseInstance(weight, values, indices, m_NumAttributes);
+    }
+    else {
+      double[] values = new double[m_NumAttributes];
+      for (int i = 0; i < m_NumAttributes; i++)
+        values[i] = getValue(buffer, i);
+      instance = new DenseInstance(weight, values);
+    }
+
+    instance.setDataset(m_Header);
+    return instance;
+  }
+
+  /**
+   * Decodes an instance record as a new row of a batch, without
+   * allocating an instance.
+   *
+   * @param record The dense or sparse record.
+   * @param batch The batch to append to, with as many attributes as the header.
+   */
+  public void decode(byte[] record, InstanceBatch batch) {
+    ByteBuffer buffer = openRecord(record);
+    double weight = (record[0] & WEIGHTED_FLAG) != 0 ? buffer.getDouble() : 1.0;
+
+    int offset = batch.addRow();
+    double[] values = batch.values();
+    batch.setWeight(batch.size() - 1, weight);
+
+    if ((record[0] & TYPE_MASK) == SPARSE_RECORD) {
+      // Rows are reused, so absent values must be cleared
+      Arrays.fill(values, offset, offset + m_NumAttributes, 0.0);
+      int numValues = getVarInt(buffer);
+      int index = -1;
+      for (int i = 0; i < numValues; i++) {
+        index += getVarInt(buffer) + 1;
+        values[offset + index] = getValue(buffer, index);
+      }
+    }
+    else {
+      for (int i = 0; i < m_NumAttributes; i++)
+        values[offset + i] = getValue(buffer, i);
+    }
+  }
+
+  /**
+   * Checks an instance record against the current schema and positions
+   * a buffer after its schema ID.
+   */
+  protected ByteBuffer openRecord(byte[] record) {
+    if (!isCodecRecord(record) || isSchemaRecord(record))
+      throw new IllegalArgumentException("Not an instance record");
+
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    buffer.position(1);
+    int schemaID = buffer.getInt();
+    if (m_Header == null || schemaID != m_SchemaID)
+      throw new IllegalStateException("Instance record for unknown schema " + schemaID
+        + "; the schema record must be decoded first");
+
+    return buffer;
+  }
+
+  /**
+   * Writes a value of the given attribute to the encoding buffer.
+   */
+  protected void putValue(int attribute, double value) {
+    if (m_Nominal[attribute])
+      putVarInt(m_Buffer, Double.isNaN(value) ? 0 : (int) value + 1);
+    else
+      m_Buffer.putDouble(value);
+  }
+
+  /**
+   * Reads a value of the given attribute from a record.
+   */
+  protected double getValue(ByteBuffer buffer, int attribute) {
+    if (m_Nominal[attribute]) {
+      int packed = getVarInt(buffer);
+      return packed == 0 ? Double.NaN : packed - 1;
+    }
+
+    return buffer.getDouble();
+  }
+
+  /**
+   * Grows the encoding buffer to hold at least the given number of bytes.
+   */
+  protected void ensureCapacity(int capacity) {
+    if (m_Buffer.capacity() < capacity)
+      m_Buffer = ByteBuffer.allocate(Math.max(capacity, 2 * m_Buffer.capacity()));
+  }
+
+  /**
+   * Writes a non-negative int using 7 bits per byte.
+   */
+  protected static void putVarInt(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Reads an int written by {@link #putVarInt(ByteBuffer, int)}.
+   */
+  protected static int getVarInt(ByteBuffer buffer) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+
+    return value;
+  }
+}
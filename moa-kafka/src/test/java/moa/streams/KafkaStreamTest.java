@@ -0,0 +1,170 @@
+package moa.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.streams.generators.AgrawalGenerator;
+import moa.util.InstanceCodec;
+
+/**
+ * Test KafkaStream
+ */
+
+public class KafkaStreamTest {
+  private static double EPS=0.00000001;
+
+  private static final String TOPIC = "instances";
+
+  private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+  /**
+   * Stream reading partition 0 from a mock consumer, which returns the
+   * records in batches of the given size, one batch per poll.
+   */
+  private static class MockKafkaStream extends KafkaStream {
+    private static final long serialVersionUID = 1L;
+
+    // the offsets committed so far, still readable once the consumer is closed
+    final Map<TopicPartition, OffsetAndMetadata> commits = new ConcurrentHashMap<>();
+
+    final MockConsumer<Long, byte[]> consumer = new MockConsumer<Long, byte[]>(OffsetResetStrategy.EARLIEST) {
+      @Override
+      public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        super.commitSync(offsets);
+        commits.putAll(offsets);
+      }
+
+      @Override
+      public synchronized void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+        super.commitAsync(offsets, callback);
+        commits.putAll(offsets);
+      }
+    };
+
+    final List<ConsumerRecord<Long, byte[]>> records;
+
+    final int recordsPerPoll;
+
+    int nextRecord = 0;
+
+    MockKafkaStream(List<ConsumerRecord<Long, byte[]>> records, int recordsPerPoll, int commitInterval) {
+      this.records = records;
+      this.recordsPerPoll = recordsPerPoll;
+      topicOption.setValue(TOPIC);
+      partitionsOption.setValue("0");
+      commitIntervalOption.setValue(commitInterval);
+      consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+      consumer.schedulePollTask(this::addRecords);
+      prepareForUse();
+    }
+
+    void addRecords() {
+      for (int i = 0; i < recordsPerPoll && nextRecord < records.size(); i++)
+        consumer.addRecord(records.get(nextRecord++));
+      if (nextRecord < records.size())
+        consumer.schedulePollTask(this::addRecords);
+    }
+
+    @Override
+    protected Consumer<Long, byte[]> createConsumer() {
+      return consumer;
+    }
+
+    long committed() {
+      OffsetAndMetadata offset = commits.get(PARTITION);
+      return offset == null ? -1 : offset.offset();
+    }
+  }
+
+  private static final AgrawalGenerator GENERATOR = new AgrawalGenerator();
+
+  private static List<Instance> createInstances(int n) {
+    GENERATOR.prepareForUse();
+    List<Instance> instances = new ArrayList<>();
+    for (int i = 0; i < n; i++)
+      instances.add(GENERATOR.nextInstance().getData());
+    return instances;
+  }
+
+  /**
+   * The records WriteToTopicTask writes for the instances: the schema,
+   * one record per instance and the end-of-partition record.
+   */
+  private static List<ConsumerRecord<Long, byte[]>> createRecords(List<Instance> instances) {
+    InstanceCodec codec = new InstanceCodec(GENERATOR.getHeader());
+    List<ConsumerRecord<Long, byte[]>> records = new ArrayList<>();
+    long offset = 0;
+    records.add(new ConsumerRecord<>(TOPIC, 0, offset++, null, codec.schemaRecord()));
+    for (int i = 0; i < instances.size(); i++)
+      records.add(new ConsumerRecord<>(TOPIC, 0, offset++, (long) i, codec.encode(instances.get(i))));
+    records.add(new ConsumerRecord<Long, byte[]>(TOPIC, 0, offset, -1L, null));
+    return records;
+  }
+
+  private static void assertSameInstance(Instance expected, Instance actual) {
+    assertEquals(expected.numAttributes(), actual.numAttributes());
+    for (int j = 0; j < expected.numAttributes(); j++)
+      assertEquals(expected.value(j), actual.value(j), EPS);
+  }
+
+  @Test
+  public void testReadsAllBatchesInOrder() {
+    List<Instance> instances = createInstances(25);
+    MockKafkaStream stream = new MockKafkaStream(createRecords(instances), 4, 1000);
+    assertNotNull(stream.getHeader());
+    for (Instance expected : instances) {
+      assertTrue(stream.hasMoreInstances());
+      assertSameInstance(expected, stream.nextInstance().getData());
+    }
+    assertFalse(stream.hasMoreInstances());
+    assertEquals(0, stream.estimatedRemainingInstances());
+    // the end of the stream commits every instance and closes the consumer
+    assertEquals(26, stream.committed());
+    assertTrue(stream.consumer.closed());
+  }
+
+  @Test
+  public void testCommitsEveryInterval() throws InterruptedException {
+    List<Instance> instances = createInstances(20);
+    MockKafkaStream stream = new MockKafkaStream(createRecords(instances), 6, 3);
+    // the instances of offsets 1 to 3 are consumed once the 4th is requested
+    for (int i = 0; i < 4; i++)
+      assertSameInstance(instances.get(i), stream.nextInstance().getData());
+    for (int wait = 0; wait < 100 && stream.committed() < 4; wait++)
+      Thread.sleep(20);
+    assertEquals(4, stream.committed());
+    stream.close();
+    assertTrue(stream.consumer.closed());
+  }
+
+  @Test
+  public void testCloseCommitsOnlyConsumedInstances() {
+    List<Instance> instances = createInstances(20);
+    MockKafkaStream stream = new MockKafkaStream(createRecords(instances), 6, 1000);
+    for (int i = 0; i < 5; i++)
+      stream.nextInstance();
+    // the learner may not be done with the last instance returned
+    stream.close();
+    assertEquals(5, stream.committed());
+  }
+
+}
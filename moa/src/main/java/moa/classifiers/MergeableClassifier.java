@@ -0,0 +1,34 @@
+/*
+ *    MergeableClassifier.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *    
+ */
+package moa.classifiers;
+
+/**
+ * Interface for classifiers whose models, learned by replicas with the same
+ * options on disjoint parts of a stream, can be merged into the model of the
+ * union of these parts.
+ */
+public interface MergeableClassifier extends Classifier {
+
+    /**
+     * Adds to this model what another replica of this classifier has
+     * learned. The other replica is not modified.
+     *
+     * @param other a classifier of the same class and options
+     */
+    public void merge(MergeableClassifier other);
+}
@@ -19,18 +19,23 @@
  */
 package moa.classifiers.bayes;
 
+import java.util.Arrays;
+
 import moa.capabilities.CapabilitiesHandler;
 import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
 import moa.classifiers.AbstractClassifier;
+import moa.classifiers.MergeableClassifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.core.attributeclassobservers.AttributeClassObserver;
 import moa.classifiers.core.attributeclassobservers.GaussianNumericAttributeClassObserver;
 import moa.classifiers.core.attributeclassobservers.NominalAttributeClassObserver;
 import moa.core.AutoExpandVector;
 import moa.core.DoubleVector;
+import moa.core.GaussianEstimator;
 import moa.core.Measurement;
 import moa.core.StringUtils;
+import moa.core.Utils;
 import com.yahoo.labs.samoa.instances.Instance;
 
 /**
@@ -49,7 +54,7 @@ import com.yahoo.labs.samoa.instances.Instance;
  * @version $Revision: 7 $
  */
 public class NaiveBayes extends AbstractClassifier  implements MultiClassClassifier,
-                                                               CapabilitiesHandler {
+                                                               MergeableClassifier, CapabilitiesHandler {
 
     private static final long serialVersionUID = 1L;
 
@@ -59,33 +64,520 @@ public class NaiveBayes extends AbstractClassifier  implements MultiClassClassif
     }
     protected DoubleVector observedClassDistribution;
 
+    /**
+     * Observers of the attributes, only used when a subclass returns true
+     * from useAttributeObservers, and null otherwise.
+     *
+     * @deprecated the statistics are kept in the tables below unless
+     * useAttributeObservers is overridden
+     */
+    @Deprecated
     protected AutoExpandVector<AttributeClassObserver> attributeObservers;
 
+    /**
+     * Whether each attribute is nominal, set from the first training instance.
+     */
+    protected boolean[] nominalAttributes;
+
+    /**
+     * Index of each attribute among the attributes of its kind, in the
+     * tables of the nominal or of the numeric attributes.
+     */
+    protected int[] tableIndices;
+
+    /**
+     * Number of classes the tables have room for.
+     */
+    protected int numClasses;
+
+    /**
+     * Weight of each value of each nominal attribute, per class: the block
+     * of nominal attribute k starts at nominalOffsets[k] and holds
+     * nominalStrides[k] values per class.
+     */
+    protected double[] nominalCounts;
+
+    protected int[] nominalOffsets;
+
+    protected int[] nominalStrides;
+
+    /**
+     * Number of values of nominal attribute k counted for class c, at
+     * k * numClasses + c: one more than the largest value observed, or 0 if
+     * the class has not been observed with a value of the attribute.
+     */
+    protected int[] nominalLengths;
+
+    /**
+     * Gaussian estimate of numeric attribute k for class c, at
+     * (k * numClasses + c) * 3: weight, mean and variance sum, updated as in
+     * GaussianEstimator.
+     */
+    protected double[] gaussians;
+
+    /**
+     * Whether numeric attribute k has been observed for class c, at
+     * k * numClasses + c.
+     */
+    protected boolean[] gaussianSeen;
+
+    /**
+     * For each nominal attribute and class, the denominator of the
+     * probabilities of its values.
+     */
+    protected double[] nominalDenominators;
+
+    /**
+     * For each numeric attribute and class, at (k * numClasses + c) * 4:
+     * standard deviation, normalising factor of the density, twice the
+     * variance and logarithm of the normalising factor.
+     */
+    protected double[] gaussianFactors;
+
+    /**
+     * Classes trained on since nominalDenominators and gaussianFactors were
+     * computed for them. They are computed again at the end of each training
+     * step, so that predicting only reads the model.
+     */
+    protected boolean[] staleClasses;
+
     @Override
     public void resetLearningImpl() {
         this.observedClassDistribution = new DoubleVector();
-        this.attributeObservers = new AutoExpandVector<AttributeClassObserver>();
+        this.attributeObservers = useAttributeObservers()
+                ? new AutoExpandVector<AttributeClassObserver>() : null;
+        this.nominalAttributes = null;
+        this.tableIndices = null;
+        this.numClasses = 0;
+        this.nominalCounts = null;
+        this.nominalOffsets = null;
+        this.nominalStrides = null;
+        this.nominalLengths = null;
+        this.gaussians = null;
+        this.gaussianSeen = null;
+        this.nominalDenominators = null;
+        this.gaussianFactors = null;
+        this.staleClasses = null;
     }
 
     @Override
     public void trainOnInstanceImpl(Instance inst) {
-        this.observedClassDistribution.addToValue((int) inst.classValue(), inst.weight());
-        for (int i = 0; i < inst.numAttributes() - 1; i++) {
-            int instAttIndex = modelAttIndexToInstanceAttIndex(i, inst);
-            AttributeClassObserver obs = this.attributeObservers.get(i);
-            if (obs == null) {
-                obs = inst.attribute(instAttIndex).isNominal() ? newNominalClassObserver()
-                        : newNumericClassObserver();
-                this.attributeObservers.set(i, obs);
+        int classValue = (int) inst.classValue();
+        double weight = inst.weight();
+        this.observedClassDistribution.addToValue(classValue, weight);
+        if (this.attributeObservers != null) {
+            for (int i = 0; i < inst.numAttributes() - 1; i++) {
+                int instAttIndex = modelAttIndexToInstanceAttIndex(i, inst);
+                AttributeClassObserver obs = this.attributeObservers.get(i);
+                if (obs == null) {
+                    obs = inst.attribute(instAttIndex).isNominal() ? newNominalClassObserver()
+                            : newNumericClassObserver();
+                    this.attributeObservers.set(i, obs);
+                }
+                obs.observeAttributeClass(inst.value(instAttIndex), classValue, weight);
+            }
+            return;
+        }
+        if (this.nominalAttributes == null) {
+            initTables(inst);
+        }
+        if (classValue >= this.numClasses) {
+            resizeTables(classValue + 1, this.nominalStrides);
+        }
+        int numAttributes = Math.min(this.nominalAttributes.length, inst.numAttributes() - 1);
+        for (int i = 0; i < numAttributes; i++) {
+            double value = inst.value(modelAttIndexToInstanceAttIndex(i, inst));
+            if (Utils.isMissingValue(value)) {
+                continue;
+            }
+            int k = this.tableIndices[i];
+            int index = k * this.numClasses + classValue;
+            if (this.nominalAttributes[i]) {
+                int valueIndex = (int) value;
+                if (valueIndex >= this.nominalStrides[k]) {
+                    int[] strides = this.nominalStrides.clone();
+                    strides[k] = valueIndex + 1;
+                    resizeTables(this.numClasses, strides);
+                    index = k * this.numClasses + classValue;
+                }
+                this.nominalCounts[this.nominalOffsets[k] + classValue * this.nominalStrides[k] + valueIndex] += weight;
+                if (this.nominalLengths[index] <= valueIndex) {
+                    this.nominalLengths[index] = valueIndex + 1;
+                }
+            } else {
+                this.gaussianSeen[index] = true;
+                if (Double.isInfinite(value)) {
+                    continue;
+                }
+                int g = index * 3;
+                double weightSum = this.gaussians[g];
+                if (weightSum > 0.0) {
+                    weightSum += weight;
+                    double lastMean = this.gaussians[g + 1];
+                    double mean = lastMean + weight * (value - lastMean) / weightSum;
+                    this.gaussians[g] = weightSum;
+                    this.gaussians[g + 1] = mean;
+                    this.gaussians[g + 2] += weight * (value - lastMean) * (value - mean);
+                } else {
+                    this.gaussians[g] = weight;
+                    this.gaussians[g + 1] = value;
+                }
+            }
+        }
+        this.staleClasses[classValue] = true;
+        refreshStaleClasses();
+    }
+
+    private void initTables(Instance inst) {
+        int numAttributes = inst.numAttributes() - 1;
+        this.nominalAttributes = new boolean[numAttributes];
+        this.tableIndices = new int[numAttributes];
+        int numNominal = 0;
+        int numNumeric = 0;
+        for (int i = 0; i < numAttributes; i++) {
+            this.nominalAttributes[i] = inst.attribute(modelAttIndexToInstanceAttIndex(i, inst)).isNominal();
+            this.tableIndices[i] = this.nominalAttributes[i] ? numNominal++ : numNumeric++;
+        }
+        int[] strides = new int[numNominal];
+        for (int i = 0; i < numAttributes; i++) {
+            if (this.nominalAttributes[i]) {
+                int numValues = inst.attribute(modelAttIndexToInstanceAttIndex(i, inst)).numValues();
+                strides[this.tableIndices[i]] = Math.max(numValues, 1);
+            }
+        }
+        this.numClasses = 0;
+        resizeTables(Math.max(inst.numClasses(), 1), strides);
+    }
+
+    /**
+     * Lays the tables out again for a number of classes and of values of the
+     * nominal attributes that are at least the current ones.
+     */
+    private void resizeTables(int newNumClasses, int[] newStrides) {
+        int numNominal = newStrides.length;
+        int numNumeric = this.nominalAttributes.length - numNominal;
+        int[] newOffsets = new int[numNominal];
+        int total = 0;
+        for (int k = 0; k < numNominal; k++) {
+            newOffsets[k] = total;
+            total += newNumClasses * newStrides[k];
+        }
+        double[] newCounts = new double[total];
+        int[] newLengths = new int[numNominal * newNumClasses];
+        double[] newGaussians = new double[numNumeric * newNumClasses * 3];
+        boolean[] newSeen = new boolean[numNumeric * newNumClasses];
+        for (int c = 0; c < this.numClasses; c++) {
+            for (int k = 0; k < numNominal; k++) {
+                System.arraycopy(this.nominalCounts, this.nominalOffsets[k] + c * this.nominalStrides[k],
+                        newCounts, newOffsets[k] + c * newStrides[k], this.nominalStrides[k]);
+                newLengths[k * newNumClasses + c] = this.nominalLengths[k * this.numClasses + c];
+            }
+            for (int k = 0; k < numNumeric; k++) {
+                System.arraycopy(this.gaussians, (k * this.numClasses + c) * 3,
+                        newGaussians, (k * newNumClasses + c) * 3, 3);
+                newSeen[k * newNumClasses + c] = this.gaussianSeen[k * this.numClasses + c];
+            }
+        }
+        this.numClasses = newNumClasses;
+        this.nominalCounts = newCounts;
+        this.nominalOffsets = newOffsets;
+        this.nominalStrides = newStrides;
+        this.nominalLengths = newLengths;
+        this.gaussians = newGaussians;
+        this.gaussianSeen = newSeen;
+        this.nominalDenominators = new double[newLengths.length];
+        this.gaussianFactors = new double[newSeen.length * 4];
+        this.staleClasses = new boolean[newNumClasses];
+        Arrays.fill(this.staleClasses, true);
+    }
+
+    /**
+     * Computes the denominators and the Gaussian factors of the classes
+     * trained on since they were last computed, as NominalAttributeClassObserver
+     * and GaussianEstimator compute them.
+     */
+    private void refreshStaleClasses() {
+        if (this.staleClasses == null) {
+            return;
+        }
+        int numNominal = this.nominalStrides.length;
+        int numNumeric = this.nominalAttributes.length - numNominal;
+        for (int c = 0; c < this.numClasses; c++) {
+            if (!this.staleClasses[c]) {
+                continue;
+            }
+            for (int k = 0; k < numNominal; k++) {
+                int index = k * this.numClasses + c;
+                int length = this.nominalLengths[index];
+                int offset = this.nominalOffsets[k] + c * this.nominalStrides[k];
+                double sum = 0.0;
+                for (int v = 0; v < length; v++) {
+                    sum += this.nominalCounts[offset + v];
+                }
+                this.nominalDenominators[index] = sum + length;
+            }
+            for (int k = 0; k < numNumeric; k++) {
+                int index = k * this.numClasses + c;
+                double weightSum = this.gaussians[index * 3];
+                if (weightSum > 0.0) {
+                    double variance = weightSum > 1.0 ? this.gaussians[index * 3 + 2] / (weightSum - 1.0) : 0.0;
+                    double stdDev = Math.sqrt(variance);
+                    int f = index * 4;
+                    this.gaussianFactors[f] = stdDev;
+                    this.gaussianFactors[f + 1] = 1.0 / (GaussianEstimator.NORMAL_CONSTANT * stdDev);
+                    this.gaussianFactors[f + 2] = 2.0 * stdDev * stdDev;
+                    this.gaussianFactors[f + 3] = Math.log(this.gaussianFactors[f + 1]);
+                }
+            }
+            this.staleClasses[c] = false;
+        }
+    }
+
+    @Override
+    public void merge(MergeableClassifier other) {
+        NaiveBayes nb = (NaiveBayes) other;
+        if (this.observedClassDistribution == null) {
+            resetLearning();
+        }
+        if (nb.observedClassDistribution == null) {
+            return;
+        }
+        if (this.attributeObservers != null || nb.attributeObservers != null) {
+            throw new IllegalArgumentException("Cannot merge models with custom attribute observers");
+        }
+        this.observedClassDistribution.addValues(nb.observedClassDistribution);
+        if (nb.nominalAttributes != null) {
+            mergeTables(nb);
+        }
+        this.trainingWeightSeenByModel += nb.trainingWeightSeenByModel;
+    }
+
+    private void mergeTables(NaiveBayes nb) {
+        if (this.nominalAttributes == null) {
+            this.nominalAttributes = nb.nominalAttributes.clone();
+            this.tableIndices = nb.tableIndices.clone();
+            this.numClasses = 0;
+            resizeTables(nb.numClasses, nb.nominalStrides.clone());
+        } else if (!Arrays.equals(this.nominalAttributes, nb.nominalAttributes)) {
+            throw new IllegalArgumentException("Cannot merge models of nominal and numeric attributes");
+        }
+        int[] strides = this.nominalStrides.clone();
+        for (int k = 0; k < strides.length; k++) {
+            strides[k] = Math.max(strides[k], nb.nominalStrides[k]);
+        }
+        if (nb.numClasses > this.numClasses || !Arrays.equals(strides, this.nominalStrides)) {
+            resizeTables(Math.max(this.numClasses, nb.numClasses), strides);
+        }
+        int numNominal = strides.length;
+        int numNumeric = this.nominalAttributes.length - numNominal;
+        for (int c = 0; c < nb.numClasses; c++) {
+            for (int k = 0; k < numNominal; k++) {
+                int otherIndex = k * nb.numClasses + c;
+                int length = nb.nominalLengths[otherIndex];
+                int offset = this.nominalOffsets[k] + c * this.nominalStrides[k];
+                int otherOffset = nb.nominalOffsets[k] + c * nb.nominalStrides[k];
+                for (int v = 0; v < length; v++) {
+                    this.nominalCounts[offset + v] += nb.nominalCounts[otherOffset + v];
+                }
+                int index = k * this.numClasses + c;
+                this.nominalLengths[index] = Math.max(this.nominalLengths[index], length);
+            }
+            for (int k = 0; k < numNumeric; k++) {
+                int otherIndex = k * nb.numClasses + c;
+                if (!nb.gaussianSeen[otherIndex]) {
+                    continue;
+                }
+                int index = k * this.numClasses + c;
+                int g = index * 3;
+                int og = otherIndex * 3;
+                if (!this.gaussianSeen[index]) {
+                    System.arraycopy(nb.gaussians, og, this.gaussians, g, 3);
+                    this.gaussianSeen[index] = true;
+                } else if ((this.gaussians[g] > 0.0) && (nb.gaussians[og] > 0.0)) {
+                    // Same combination as GaussianEstimator.addObservations
+                    double weightSum = this.gaussians[g];
+                    double otherWeightSum = nb.gaussians[og];
+                    double oldMean = this.gaussians[g + 1];
+                    double otherMean = nb.gaussians[og + 1];
+                    this.gaussians[g + 1] = (oldMean * (weightSum / (weightSum + otherWeightSum)))
+                            + (otherMean * (otherWeightSum / (weightSum + otherWeightSum)));
+                    this.gaussians[g + 2] += nb.gaussians[og + 2] + (weightSum * otherWeightSum / (weightSum + otherWeightSum) *
+                            Math.pow(otherMean - oldMean, 2));
+                    this.gaussians[g] += otherWeightSum;
+                }
             }
-            obs.observeAttributeClass(inst.value(instAttIndex), (int) inst.classValue(), inst.weight());
         }
+        Arrays.fill(this.staleClasses, true);
+        refreshStaleClasses();
     }
 
     @Override
     public double[] getVotesForInstance(Instance inst) {
-        return doNaiveBayesPrediction(inst, this.observedClassDistribution,
-                this.attributeObservers);
+        if (this.attributeObservers != null) {
+            return doNaiveBayesPrediction(inst, this.observedClassDistribution,
+                    this.attributeObservers);
+        }
+        double[] votes = new double[this.observedClassDistribution.numValues()];
+        fillVotes(inst, votes, this.observedClassDistribution.sumOfValues());
+        return votes;
+    }
+
+    /**
+     * Returns the natural logarithms of the votes for an instance, summed in
+     * log-space so that they do not underflow when there are many
+     * attributes. A class with a zero probability gets negative infinity.
+     */
+    public double[] getLogVotesForInstance(Instance inst) {
+        if (this.attributeObservers != null) {
+            double[] votes = getVotesForInstance(inst);
+            for (int c = 0; c < votes.length; c++) {
+                votes[c] = Math.log(votes[c]);
+            }
+            return votes;
+        }
+        double[] votes = new double[this.observedClassDistribution.numValues()];
+        fillLogVotes(inst, votes, this.observedClassDistribution.sumOfValues());
+        return votes;
+    }
+
+    /**
+     * Returns the votes for each of the instances, the same as
+     * getVotesForInstance.
+     */
+    public double[][] getVotesForInstances(Instance[] instances) {
+        double[][] votes = new double[instances.length][this.observedClassDistribution.numValues()];
+        if (this.attributeObservers != null) {
+            for (int n = 0; n < instances.length; n++) {
+                votes[n] = getVotesForInstance(instances[n]);
+            }
+            return votes;
+        }
+        double observedClassSum = this.observedClassDistribution.sumOfValues();
+        for (int n = 0; n < instances.length; n++) {
+            fillVotes(instances[n], votes[n], observedClassSum);
+        }
+        return votes;
+    }
+
+    /**
+     * Returns the logarithms of the votes for each of the instances, the
+     * same as getLogVotesForInstance.
+     */
+    public double[][] getLogVotesForInstances(Instance[] instances) {
+        double[][] votes = new double[instances.length][this.observedClassDistribution.numValues()];
+        if (this.attributeObservers != null) {
+            for (int n = 0; n < instances.length; n++) {
+                votes[n] = getLogVotesForInstance(instances[n]);
+            }
+            return votes;
+        }
+        double observedClassSum = this.observedClassDistribution.sumOfValues();
+        for (int n = 0; n < instances.length; n++) {
+            fillLogVotes(instances[n], votes[n], observedClassSum);
+        }
+        return votes;
+    }
+
+    /**
+     * Same products, in the same order, as doNaiveBayesPrediction with
+     * NominalAttributeClassObserver and GaussianNumericAttributeClassObserver.
+     */
+    private void fillVotes(Instance inst, double[] votes, double observedClassSum) {
+        for (int c = 0; c < votes.length; c++) {
+            votes[c] = this.observedClassDistribution.getValue(c) / observedClassSum;
+        }
+        if (this.nominalAttributes == null) {
+            return;
+        }
+        int numAttributes = Math.min(this.nominalAttributes.length, inst.numAttributes() - 1);
+        for (int i = 0; i < numAttributes; i++) {
+            int instAttIndex = modelAttIndexToInstanceAttIndex(i, inst);
+            if (inst.isMissing(instAttIndex)) {
+                continue;
+            }
+            double value = inst.value(instAttIndex);
+            int k = this.tableIndices[i];
+            if (this.nominalAttributes[i]) {
+                int valueIndex = (int) value;
+                int stride = this.nominalStrides[k];
+                boolean inRange = valueIndex >= 0 && valueIndex < stride;
+                int offset = this.nominalOffsets[k] + valueIndex;
+                for (int c = 0; c < votes.length; c++) {
+                    int index = k * this.numClasses + c;
+                    if (this.nominalLengths[index] > 0) {
+                        double count = inRange ? this.nominalCounts[offset + c * stride] : 0.0;
+                        votes[c] *= (count + 1.0) / this.nominalDenominators[index];
+                    } else {
+                        votes[c] *= 0.0;
+                    }
+                }
+            } else {
+                for (int c = 0; c < votes.length; c++) {
+                    int index = k * this.numClasses + c;
+                    double density = 0.0;
+                    if (this.gaussians[index * 3] > 0.0) {
+                        double mean = this.gaussians[index * 3 + 1];
+                        if (this.gaussianFactors[index * 4] > 0.0) {
+                            double diff = value - mean;
+                            density = this.gaussianFactors[index * 4 + 1]
+                                    * Math.exp(-(diff * diff / this.gaussianFactors[index * 4 + 2]));
+                        } else {
+                            density = value == mean ? 1.0 : 0.0;
+                        }
+                    }
+                    votes[c] *= density;
+                }
+            }
+        }
+    }
+
+    private void fillLogVotes(Instance inst, double[] votes, double observedClassSum) {
+        for (int c = 0; c < votes.length; c++) {
+            votes[c] = Math.log(this.observedClassDistribution.getValue(c) / observedClassSum);
+        }
+        if (this.nominalAttributes == null) {
+            return;
+        }
+        int numAttributes = Math.min(this.nominalAttributes.length, inst.numAttributes() - 1);
+        for (int i = 0; i < numAttributes; i++) {
+            int instAttIndex = modelAttIndexToInstanceAttIndex(i, inst);
+            if (inst.isMissing(instAttIndex)) {
+                continue;
+            }
+            double value = inst.value(instAttIndex);
+            int k = this.tableIndices[i];
+            if (this.nominalAttributes[i]) {
+                int valueIndex = (int) value;
+                int stride = this.nominalStrides[k];
+                boolean inRange = valueIndex >= 0 && valueIndex < stride;
+                int offset = this.nominalOffsets[k] + valueIndex;
+                for (int c = 0; c < votes.length; c++) {
+                    int index = k * this.numClasses + c;
+                    if (this.nominalLengths[index] > 0) {
+                        double count = inRange ? this.nominalCounts[offset + c * stride] : 0.0;
+                        votes[c] += Math.log((count + 1.0) / this.nominalDenominators[index]);
+                    } else {
+                        votes[c] = Double.NEGATIVE_INFINITY;
+                    }
+                }
+            } else {
+                for (int c = 0; c < votes.length; c++) {
+                    int index = k * this.numClasses + c;
+                    double logDensity = Double.NEGATIVE_INFINITY;
+                    if (this.gaussians[index * 3] > 0.0) {
+                        double mean = this.gaussians[index * 3 + 1];
+                        if (this.gaussianFactors[index * 4] > 0.0) {
+                            double diff = value - mean;
+                            logDensity = this.gaussianFactors[index * 4 + 3]
+                                    - diff * diff / this.gaussianFactors[index * 4 + 2];
+                        } else if (value == mean) {
+                            logDensity = 0.0;
+                        }
+                    }
+                    votes[c] += logDensity;
+                }
+            }
+        }
     }
 
     @Override
@@ -107,13 +599,40 @@ public class NaiveBayes extends AbstractClassifier  implements MultiClassClassif
             out.append(" / prob = ");
             out.append(this.observedClassDistribution.getValue(i)
                     / this.observedClassDistribution.sumOfValues());
-            for (int j = 0; j < this.attributeObservers.size(); j++) {
+            if (this.attributeObservers != null) {
+                for (int j = 0; j < this.attributeObservers.size(); j++) {
+                    StringUtils.appendNewlineIndented(out, indent + 1,
+                            "Observations for ");
+                    out.append(getAttributeNameString(j));
+                    out.append(": ");
+                    out.append(this.attributeObservers.get(j));
+                }
+                StringUtils.appendNewline(out);
+                continue;
+            }
+            int numAttributes = this.nominalAttributes == null ? 0 : this.nominalAttributes.length;
+            for (int j = 0; j < numAttributes; j++) {
                 StringUtils.appendNewlineIndented(out, indent + 1,
                         "Observations for ");
                 out.append(getAttributeNameString(j));
                 out.append(": ");
-                // TODO: implement observer output
-                out.append(this.attributeObservers.get(j));
+                int index = this.tableIndices[j] * this.numClasses + i;
+                if (this.nominalAttributes[j]) {
+                    int offset = this.nominalOffsets[this.tableIndices[j]] + i * this.nominalStrides[this.tableIndices[j]];
+                    out.append("{");
+                    for (int v = 0; v < this.nominalLengths[index]; v++) {
+                        if (v > 0) {
+                            out.append("|");
+                        }
+                        out.append(StringUtils.doubleToString(this.nominalCounts[offset + v], 3));
+                    }
+                    out.append("}");
+                } else if (this.gaussians[index * 3] > 0.0) {
+                    out.append("mean = ");
+                    out.append(StringUtils.doubleToString(this.gaussians[index * 3 + 1], 3));
+                    out.append(", std dev = ");
+                    out.append(StringUtils.doubleToString(this.gaussianFactors[index * 4], 3));
+                }
             }
             StringUtils.appendNewline(out);
         }
@@ -124,14 +643,34 @@ public class NaiveBayes extends AbstractClassifier  implements MultiClassClassif
         return false;
     }
 
+    /**
+     * @deprecated only called when useAttributeObservers returns true, the
+     * tables are used otherwise
+     */
+    @Deprecated
     protected AttributeClassObserver newNominalClassObserver() {
         return new NominalAttributeClassObserver();
     }
 
+    /**
+     * @deprecated only called when useAttributeObservers returns true, the
+     * tables are used otherwise
+     */
+    @Deprecated
     protected AttributeClassObserver newNumericClassObserver() {
         return new GaussianNumericAttributeClassObserver();
     }
 
+    /**
+     * Whether the observers created by newNominalClassObserver and
+     * newNumericClassObserver are trained and used instead of the tables.
+     * Subclasses that override these hooks must override this method to
+     * return true.
+     */
+    protected boolean useAttributeObservers() {
+        return false;
+    }
+
     public static double[] doNaiveBayesPrediction(Instance inst,
             DoubleVector observedClassDistribution,
             AutoExpandVector<AttributeClassObserver> attributeObservers) {
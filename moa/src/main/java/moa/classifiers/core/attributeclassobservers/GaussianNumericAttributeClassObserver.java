@@ -79,6 +79,31 @@ public class GaussianNumericAttributeClassObserver extends AbstractOptionHandler
         }
     }
 
+    /**
+     * Adds the observations of another observer to this one.
+     */
+    public void addObservations(GaussianNumericAttributeClassObserver obs) {
+        for (int classVal = 0; classVal < obs.attValDistPerClass.size(); classVal++) {
+            GaussianEstimator otherDist = obs.attValDistPerClass.get(classVal);
+            if (otherDist != null) {
+                GaussianEstimator valDist = this.attValDistPerClass.get(classVal);
+                if (valDist == null) {
+                    this.attValDistPerClass.set(classVal, (GaussianEstimator) otherDist.copy());
+                    this.minValueObservedPerClass.setValue(classVal, obs.minValueObservedPerClass.getValue(classVal));
+                    this.maxValueObservedPerClass.setValue(classVal, obs.maxValueObservedPerClass.getValue(classVal));
+                } else {
+                    valDist.addObservations(otherDist);
+                    if (obs.minValueObservedPerClass.getValue(classVal) < this.minValueObservedPerClass.getValue(classVal)) {
+                        this.minValueObservedPerClass.setValue(classVal, obs.minValueObservedPerClass.getValue(classVal));
+                    }
+                    if (obs.maxValueObservedPerClass.getValue(classVal) > this.maxValueObservedPerClass.getValue(classVal)) {
+                        this.maxValueObservedPerClass.setValue(classVal, obs.maxValueObservedPerClass.getValue(classVal));
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal) {
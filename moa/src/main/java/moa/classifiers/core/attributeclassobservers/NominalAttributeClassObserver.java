@@ -66,6 +66,25 @@ public class NominalAttributeClassObserver extends AbstractOptionHandler impleme
         this.totalWeightObserved += weight;
     }
 
+    /**
+     * Adds the observations of another observer to this one.
+     */
+    public void addObservations(NominalAttributeClassObserver obs) {
+        for (int classVal = 0; classVal < obs.attValDistPerClass.size(); classVal++) {
+            DoubleVector otherDist = obs.attValDistPerClass.get(classVal);
+            if (otherDist != null) {
+                DoubleVector valDist = this.attValDistPerClass.get(classVal);
+                if (valDist == null) {
+                    this.attValDistPerClass.set(classVal, new DoubleVector(otherDist));
+                } else {
+                    valDist.addValues(otherDist);
+                }
+            }
+        }
+        this.totalWeightObserved += obs.totalWeightObserved;
+        this.missingWeightObserved += obs.missingWeightObserved;
+    }
+
     @Override
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal) {
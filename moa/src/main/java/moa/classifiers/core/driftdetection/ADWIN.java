@@ -344,6 +344,14 @@ public class ADWIN extends AbstractMOAObject {
         return mintClock;
     }
 
+    /**
+     * Gets whether the next input may detect a change, which is only tested
+     * for every mintClock inputs.
+     */
+    public boolean mayDetectChangeOnNextInput() {
+        return (mintTime + 1) % mintClock == 0;
+    }
+
     public boolean getWarning() {
         return false;
     }
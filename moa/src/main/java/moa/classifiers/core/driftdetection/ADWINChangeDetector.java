@@ -57,6 +57,12 @@ public class ADWINChangeDetector extends AbstractChangeDetector {
         this.estimation = adwin.getEstimation();
     }
 
+    @Override
+    public boolean mayDetectChangeOnNextInput() {
+        // a new ADWIN is created for the first input
+        return this.adwin != null && this.adwin.mayDetectChangeOnNextInput();
+    }
+
     @Override
     public void resetLearning() {
         adwin = new ADWIN((double) this.deltaAdwinOption.getValue());
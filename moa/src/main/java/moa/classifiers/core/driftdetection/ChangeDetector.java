@@ -52,6 +52,17 @@ public interface ChangeDetector extends OptionHandler {
      */
     public boolean getChange();
 
+    /**
+     * Gets whether the next input may make the detector signal a change.
+     * Detectors that test for change only every so many inputs can rule it
+     * out; the others always answer true.
+     *
+     * @return false if the next input cannot signal a change
+     */
+    public default boolean mayDetectChangeOnNextInput() {
+        return true;
+    }
+
     /**
      * Gets whether the change detector is in the warning zone, after a warning alert and before a change alert.
      *
@@ -66,7 +66,9 @@ import java.util.concurrent.*;
  * <li>-n : Normalize data.</li>
  * <li>-b : Skip back propagation loss threshold.</li>
  * <li>-d : Choose device to run the model(For GPU, needs CUDA installed on the system. Use CPU if GPUs are not available)</li>
+ * <li>-R : Reuse the native arrays of the mini batch from one batch to the next.</li>
  * <li>-t : Do NOT train each MLP using a separate thread.</li>
+ * <li>-j : Number of threads training and scoring the MLPs (-1 = as many as there are processors).</li>
  * <li>-f : Votes dump file name.</li>
  * <li>-F : Stats dump file name.</li>
  * </ul>
@@ -151,8 +153,14 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
             new String[]{"GPU (Needs CUDA installed on the system. Use CPU if not available)", "CPU"},
             MLP.deviceTypeOptionCPU);
 
+    public FlagOption reuseMiniBatchArrays = new FlagOption("reuseMiniBatchArrays", 'R',
+            "Reuse the native arrays of the mini batch from one batch to the next");
+
     public FlagOption doNotTrainEachMLPUsingASeparateThread = new FlagOption("doNotTrainEachMLPUsingASeparateThread", 't',
             "Do NOT train each MLP using a separate thread");
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Number of threads training and scoring the MLPs (-1 = as much as possible, 0 = do not use multithreading)",
+            -1, -1, Integer.MAX_VALUE);
     public StringOption votesDumpFileName = new StringOption("votesDumpFileName", 'f',
             "Votes dump file name",
             "" );
@@ -169,8 +177,10 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
     @Override
     public void resetLearningImpl() {
         if (nn != null) {
-            exService.shutdownNow();
-            exService = null;
+            if (exService != null) {
+                exService.shutdownNow();
+                exService = null;
+            }
             for (int i = 0; i < this.nn.length; i++) {
                 nn[i] = null;
             }
@@ -181,6 +191,10 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
             featureValues = null;
             class_value = null;
         }
+        if (miniBatch != null) {
+            miniBatch.discardMiniBatch();
+            miniBatch = null;
+        }
     }
 
     @Override
@@ -192,7 +206,7 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
         class_value[0] = instance.classValue();
 
         if (miniBatch == null){
-            miniBatch = new MiniBatch(this.nn[0].nnmodel.getNDManager().getDevice(), miniBatchSize.getValue());
+            miniBatch = new MiniBatch(this.nn[0].nnmodel.getNDManager().getDevice(), miniBatchSize.getValue(), reuseMiniBatchArrays.isSet());
 //            System.out.println("For training mini batch using device: " + trainingNDManager.getDevice());
         }
 
@@ -227,61 +241,58 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
                 trainNetwork[nnIndex] = true;
             }
 
-            class TrainThread implements Callable<Boolean> {
-                private final MLP mlp;
-                private final MiniBatch miniBatch;
-                private final boolean trainNet;
-
-                public TrainThread(MLP mlp, MiniBatch miniBatch, boolean trainNet) {
-                    this.mlp = mlp;
-                    this.miniBatch = miniBatch;
-                    this.trainNet = trainNet;
+            if (exService == null){
+                for (int i =0; i < this.nn.length; i++) {
+                    this.nn[i].initializeNetwork(instance);
+                    this.nn[i].trainOnMiniBatch(miniBatch, trainNetwork[i]);
                 }
-
-                @Override
-                public Boolean call() {
+                miniBatch.clearMiniBatch();
+            }else{
+                // one task per MLP, as their training times differ with their sizes and with trainNetwork
+                final MiniBatch batch = this.miniBatch;
+                Future<?> [] training = new Future[this.nn.length];
+                for (int i =0; i < this.nn.length; i++) {
+                    final MLP mlp = this.nn[i];
+                    final boolean trainNet = trainNetwork[i];
+                    training[i] = exService.submit(() -> mlp.trainOnMiniBatch(batch, trainNet));
+                }
+                for (Future<?> future : training) {
                     try {
-                        this.mlp.trainOnMiniBatch(this.miniBatch, this.trainNet);
-                    } catch (NullPointerException e){
+                        future.get();
+                    } catch (InterruptedException | ExecutionException e) {
                         e.printStackTrace();
-                        System.exit(1);
                     }
-                    return Boolean.TRUE;
                 }
+                miniBatch.clearMiniBatch();
             }
+        }
+    }
 
-            final Future<Boolean> [] runFuture = new Future[this.nn.length];
-
-            for (int i =0; i < this.nn.length; i++) {
-                if (! this.doNotTrainEachMLPUsingASeparateThread.isSet()){
-                    //start thread
-                    runFuture[i] = exService.submit(new TrainThread(this.nn[i], this.miniBatch, trainNetwork[i]));
-                }else{
-                    this.nn[i].initializeNetwork(instance);
-                    this.nn[i].trainOnMiniBatch(miniBatch, trainNetwork[i]);
-                }
+    /**
+     * Scores the instance in featureValues with all the MLPs, in parallel
+     * when there is a thread pool.
+     */
+    private double[][] getVotesOfAllMLPs(Instance instance){
+        double[][] allVotes = new double[this.nn.length][];
+        if (exService == null){
+            for (int i = 0; i < this.nn.length; i++) {
+                allVotes[i] = this.nn[i].getVotesForFeatureValues(instance, featureValues);
             }
-
-            if (! this.doNotTrainEachMLPUsingASeparateThread.isSet()){
-                // wait for threads to complete
-                int runningCount = this.nn.length;
-                while (runningCount != 0){
-                    runningCount = 0;
-                    for (int i =0; i < this.nn.length; i++) {
-                        try {
-                            final Boolean returnedValue = runFuture[i].get();
-                            if (!returnedValue.equals(Boolean.TRUE)){
-                                runningCount++;
-                            }
-                        } catch (InterruptedException | ExecutionException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+            return allVotes;
+        }
+        Future<double[]> [] runFuture = new Future[this.nn.length];
+        for (int i = 0; i < this.nn.length; i++) {
+            final MLP mlp = this.nn[i];
+            runFuture[i] = exService.submit(() -> mlp.getVotesForFeatureValues(instance, featureValues));
+        }
+        for (int i = 0; i < this.nn.length; i++) {
+            try {
+                allVotes[i] = runFuture[i].get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
             }
-            miniBatch.discardMiniBatch();
-            miniBatch = null;
         }
+        return allVotes;
     }
 
     private void printStats(){
@@ -310,6 +321,7 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
 
     private void printVotes(Instance instance){
         if (votesDumpFile != null) {
+            double[][] allVotes = getVotesOfAllMLPs(instance);
             for (int i = 0; i < this.nn.length; i++) {
                 try {
                     votesDumpFile.write(samplesSeen + ","
@@ -317,7 +329,7 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
                             + this.nn[i].lossEstimator.getEstimation() + ","
                             + instance.classValue() + ","
                             + instance.classIndex() + ","
-                            + Arrays.toString(this.nn[i].getVotesForFeatureValues(instance, featureValues))
+                            + Arrays.toString(allVotes[i])
                             + "\n");
                 } catch (IOException e) {
                     System.out.println("An error occurred.");
@@ -333,9 +345,12 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
         double [] votes;
         samplesSeen ++;
 
-        if(this.nn == null) {
+        boolean firstInstance = this.nn == null;
+        if (firstInstance) {
             initNNs(instance);
-        }else {
+        }
+        MLP.setFeatureValuesArray(instance, featureValues, useOneHotEncode.isSet(), true, normalizeInfo, samplesSeen);
+        if (!firstInstance) {
             double minEstimation = Double.MAX_VALUE;
             for (int i = 0 ; i < this.nn.length ; i++) {
                 if (this.nn[i].getLossEstimation() < minEstimation){
@@ -344,7 +359,6 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
                 }
             }
         }
-        MLP.setFeatureValuesArray(instance, featureValues, useOneHotEncode.isSet(), true, normalizeInfo, samplesSeen);
 
         votes = this.nn[chosenIndex].getVotesForFeatureValues(instance, featureValues);
         performanceEvaluator.addResult(new InstanceExample(instance), votes);
@@ -470,7 +484,11 @@ public class CAND extends AbstractClassifier implements MultiClassClassifier, Ca
             e.printStackTrace();
         }
 
-        exService = Executors.newFixedThreadPool(nnConfigs.length);
+        int numberOfJobs = numberOfJobsOption.getValue() == -1 ? Runtime.getRuntime().availableProcessors() : numberOfJobsOption.getValue();
+        numberOfJobs = Math.min(numberOfJobs, nnConfigs.length);
+        if (! this.doNotTrainEachMLPUsingASeparateThread.isSet() && numberOfJobs > 1) {
+            exService = Executors.newFixedThreadPool(numberOfJobs);
+        }
 
         class_value = new double[1];
         featureValuesArraySize = MLP.getFeatureValuesArraySize(instance, useOneHotEncode.isSet());
@@ -47,98 +47,148 @@ import ai.djl.training.loss.Loss;
 import ai.djl.training.tracker.Tracker;
 import ai.djl.training.optimizer.Optimizer;
 
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.text.DecimalFormat;
 import java.lang.Math;
 import java.util.*;
 
 import static ai.djl.ndarray.types.DataType.FLOAT32;
 
+/**
+ * Mini batch of training instances for the MLPs. The features and the labels
+ * of the instances are copied into preallocated buffers as they are added,
+ * and each buffer is turned into a single NDArray once the batch is full.
+ * The arrays of a batch belong to a sub-manager of the mini batch's manager,
+ * closed when the batch is cleared, unless the arrays are reused: they are
+ * then created for the first batch and refilled in place for the next ones.
+ * Reusing them saves creating the tensors and their sub-manager, but not a
+ * copy: with DJL 0.9.0, setting float or double data still goes through a
+ * temporary direct buffer allocated by the array's manager.
+ */
 class MiniBatch {
 	private transient NDManager trainingNDManager;
+	private transient NDManager batchNDManager = null;
 	public transient NDArray trainMiniBatchData = null;
 	public transient NDArray trainMiniBatchLabels = null;
 	public int itemsInMiniBatch = 0;
 	public int miniBatchSize = 1;
 	public NDList d = null;
 	public NDList l = null;
+	private final boolean reuseArrays;
+	private int featureLength = 0;
+	private int labelLength = 0;
+	private float[] featureBuffer = null;
+	// labels keep the type they had before batching: float for instances, double otherwise
+	private float[] floatLabelBuffer = null;
+	private double[] doubleLabelBuffer = null;
 
 	public MiniBatch(Device device, int miniBatchSize) {
+		this(device, miniBatchSize, false);
+	}
+
+	public MiniBatch(Device device, int miniBatchSize, boolean reuseArrays) {
 		this.trainingNDManager = NDManager.newBaseManager(device);
 		this.miniBatchSize = miniBatchSize;
+		this.reuseArrays = reuseArrays;
 	}
 
-	public void addToMiniBatch(double[] featureValues, double [] classValue) {
-		if (itemsInMiniBatch == 0) {
-			// initialize and create NDArrays
-			trainMiniBatchData = trainingNDManager.create(featureValues).toType(FLOAT32, false);
-			trainMiniBatchLabels = trainingNDManager.create(classValue);
-		} else {
-			// add item to the mini batch
-			if (itemsInMiniBatch == 1) {
-				trainMiniBatchData = trainMiniBatchData.stack(trainingNDManager.create(featureValues).toType(FLOAT32, false), 0);
-				trainMiniBatchLabels = trainMiniBatchLabels.stack(trainingNDManager.create(classValue), 0);
+	private void allocateBuffers(int featureLength, int labelLength, boolean floatLabels) {
+		if (featureBuffer == null) {
+			this.featureLength = featureLength;
+			this.labelLength = labelLength;
+			featureBuffer = new float[miniBatchSize * featureLength];
+			if (floatLabels) {
+				floatLabelBuffer = new float[miniBatchSize * labelLength];
 			} else {
-				trainMiniBatchData = trainMiniBatchData.concat(trainingNDManager.create(featureValues, new Shape(1, featureValues.length)).toType(FLOAT32, false), 0);
-				trainMiniBatchLabels = trainMiniBatchLabels.concat(trainingNDManager.create(classValue, new Shape(1, classValue.length)), 0);
+				doubleLabelBuffer = new double[miniBatchSize * labelLength];
 			}
 		}
-		itemsInMiniBatch++;
-		if (itemsInMiniBatch == miniBatchSize){
-			d = new NDList(trainMiniBatchData);
-			l = new NDList(trainMiniBatchLabels);
+	}
+
+	public void addToMiniBatch(double[] featureValues, double [] classValue) {
+		allocateBuffers(featureValues.length, classValue.length, false);
+		int offset = itemsInMiniBatch * featureLength;
+		for (int i = 0; i < featureLength; i++) {
+			featureBuffer[offset + i] = (float) featureValues[i];
 		}
+		System.arraycopy(classValue, 0, doubleLabelBuffer, itemsInMiniBatch * labelLength, labelLength);
+		itemAdded();
 	}
 
 	public void addToMiniBatch(Instance inst) {
-		double [] instDoubleA = inst.toDoubleArray();
-		NDArray dataAndLabel = trainingNDManager.create(instDoubleA).toType(FLOAT32, false);
-		int featureLength = instDoubleA.length -1;
-		int classLength = 1;
-		NDArray data = dataAndLabel.get("0:" + Integer.toString(featureLength));
-		NDArray label = dataAndLabel.get(Integer.toString(featureLength) +":" + Integer.toString(featureLength+1));
-
-		if (itemsInMiniBatch == 0) {
-			// initialize and create NDArrays
-			trainMiniBatchData = data;
-			trainMiniBatchLabels = label;
-		} else {
-			// add item to the mini batch
-			if (itemsInMiniBatch == 1) {
-				trainMiniBatchData = trainMiniBatchData.stack(data, 0);
-				trainMiniBatchLabels = trainMiniBatchLabels.stack(label, 0);
-			} else {
-				trainMiniBatchData = trainMiniBatchData.concat(data.reshape(new Shape(1, featureLength)), 0);
-				trainMiniBatchLabels = trainMiniBatchLabels.concat(label.reshape(new Shape(1, classLength)), 0);
-			}
+		int featureLength = inst.numAttributes() - 1;
+		allocateBuffers(featureLength, 1, true);
+		int offset = itemsInMiniBatch * featureLength;
+		for (int i = 0; i < featureLength; i++) {
+			featureBuffer[offset + i] = (float) inst.value(i);
 		}
+		floatLabelBuffer[itemsInMiniBatch] = (float) inst.value(featureLength);
+		itemAdded();
+	}
+
+	private void itemAdded() {
 		itemsInMiniBatch++;
 		if (itemsInMiniBatch == miniBatchSize){
-			d = new NDList(trainMiniBatchData);
-			l = new NDList(trainMiniBatchLabels);
+			createArrays();
+		}
+	}
+
+	private void createArrays() {
+		if (reuseArrays && (trainMiniBatchData != null)) {
+			trainMiniBatchData.set(FloatBuffer.wrap(featureBuffer));
+			trainMiniBatchLabels.set(floatLabelBuffer != null ? FloatBuffer.wrap(floatLabelBuffer) : DoubleBuffer.wrap(doubleLabelBuffer));
+			return;
 		}
+		// a batch of one instance is a vector, as it was before batching
+		Shape featureShape = (miniBatchSize == 1) ? new Shape(featureLength) : new Shape(miniBatchSize, featureLength);
+		Shape labelShape = (miniBatchSize == 1) ? new Shape(labelLength) : new Shape(miniBatchSize, labelLength);
+		NDManager manager = trainingNDManager;
+		if (!reuseArrays) {
+			batchNDManager = trainingNDManager.newSubManager();
+			manager = batchNDManager;
+		}
+		trainMiniBatchData = manager.create(featureBuffer, featureShape);
+		trainMiniBatchLabels = (floatLabelBuffer != null) ? manager.create(floatLabelBuffer, labelShape) : manager.create(doubleLabelBuffer, labelShape);
+		d = new NDList(trainMiniBatchData);
+		l = new NDList(trainMiniBatchLabels);
 	}
 
 	public boolean miniBatchFull(){
 		return (itemsInMiniBatch == miniBatchSize);
 	}
 
-	public void discardMiniBatch(){
-		if (d != null){
-			d.close();
-			d = null;
-		}
-		if (trainMiniBatchData != null){
-			trainMiniBatchData.close();
-			trainMiniBatchData = null;
+	/**
+	 * Empties the mini batch so that the next one can be added to it.
+	 */
+	public void clearMiniBatch(){
+		if (!reuseArrays) {
+			closeArrays();
 		}
-		if (l != null){
-			l.close();
-			l =  null;
+		itemsInMiniBatch = 0;
+	}
+
+	private void closeArrays(){
+		d = null;
+		l = null;
+		trainMiniBatchData = null;
+		trainMiniBatchLabels = null;
+		if (batchNDManager != null){
+			batchNDManager.close();
+			batchNDManager = null;
 		}
-		if (trainMiniBatchLabels != null){
+	}
+
+	/**
+	 * Releases the native memory of the mini batch, which cannot be used
+	 * afterwards.
+	 */
+	public void discardMiniBatch(){
+		if (reuseArrays && (trainMiniBatchData != null)){
+			trainMiniBatchData.close();
 			trainMiniBatchLabels.close();
-			trainMiniBatchLabels = null;
 		}
+		closeArrays();
 		trainingNDManager.close();
 		trainingNDManager = null;
 		itemsInMiniBatch = 0;
@@ -211,6 +261,9 @@ public class MLP extends AbstractClassifier implements MultiClassClassifier {
 			"Mini Batch Size",
 			1, 1, 2048);
 
+	public FlagOption reuseMiniBatchArrays = new FlagOption("reuseMiniBatchArrays", 'R',
+			"Reuse the native arrays of the mini batch from one batch to the next");
+
 	public static final int deviceTypeOptionGPU = 0;
 	public static final int deviceTypeOptionCPU = 1;
 	public MultiChoiceOption deviceTypeOption = new MultiChoiceOption("deviceType", 'd',
@@ -287,7 +340,7 @@ public class MLP extends AbstractClassifier implements MultiClassClassifier {
 
 
 		if (miniBatch == null){
-			miniBatch = new MiniBatch(nnmodel.getNDManager().getDevice(), miniBatchSize.getValue());
+			miniBatch = new MiniBatch(nnmodel.getNDManager().getDevice(), miniBatchSize.getValue(), reuseMiniBatchArrays.isSet());
 		}
 
 		if (useNormalization.isSet() || useOneHotEncode.isSet()){
@@ -299,8 +352,7 @@ public class MLP extends AbstractClassifier implements MultiClassClassifier {
 
 		if (miniBatch.miniBatchFull() ){
 			trainOnMiniBatch(miniBatch, true);
-			miniBatch.discardMiniBatch();
-			miniBatch = null;
+			miniBatch.clearMiniBatch();
 		}
     }
 
@@ -25,7 +25,7 @@ import java.util.Random;
 import moa.classifiers.AbstractClassifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.lazy.neighboursearch.KDTree;
-import moa.classifiers.lazy.neighboursearch.LinearNNSearch;
+import moa.classifiers.lazy.neighboursearch.MatrixNNSearch;
 import moa.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
 import moa.core.Measurement;
 /**
@@ -116,8 +116,8 @@ public class RW_kNN extends AbstractClassifier implements MultiClassClassifier {
             NearestNeighbourSearch search;
             NearestNeighbourSearch searchR;
             if (this.nearestNeighbourSearchOption.getChosenIndex() == 0) {
-                search = new LinearNNSearch(this.window);
-                searchR = new LinearNNSearch(this.reservoir);
+                search = new MatrixNNSearch(this.window);
+                searchR = new MatrixNNSearch(this.reservoir);
             } else {
                 search = new KDTree();
                 searchR = new KDTree();
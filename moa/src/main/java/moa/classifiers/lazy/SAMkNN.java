@@ -15,9 +15,11 @@
  *    
  */
 package moa.classifiers.lazy;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.*;
 
-import com.yahoo.labs.samoa.instances.InstanceImpl;
 import moa.capabilities.CapabilitiesHandler;
 import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
@@ -25,7 +27,6 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.core.Measurement;
 import com.yahoo.labs.samoa.instances.Instance;
-import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.FloatOption;
@@ -73,6 +74,9 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 
     public FlagOption recalculateSTMErrorOption = new FlagOption("recalculateError", 'r',
             "Recalculates the error rate of the STM for size adaption (Costly operation). Otherwise, an approximation is used.");
+
+    public FlagOption synchronousCompressionOption = new FlagOption("synchronousCompression", 's',
+            "Compresses the LTM on the calling thread. Otherwise, it is compressed on a background thread while the STM is updated.");
 	private int maxClassValue = 0;
 
     @Override
@@ -80,17 +84,24 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
         return "SAMkNN: special.";
     }
 
-    private Instances stm;
-	private Instances ltm;
+    private SampleMemory stm;
+	private SampleMemory ltm;
 	private int maxLTMSize;
 	private int maxSTMSize;
 	private List<Integer> stmHistory;
 	private List<Integer> ltmHistory;
 	private List<Integer> cmHistory;
+	//STM distances indexed by the slots of the STM ring buffer, entry [i][j] holds the distance of sample i to the older sample j
 	private double[][] distanceMatrixSTM;
+	//a row of the STM distances in STM order
+	private double[] rowBuffer;
+	//indices of the input attributes within the rows of the memories
+	private int[] inputIndices;
 	//private int trainStepCount;
 	private Map<Integer, List<Integer>> predictionHistories;
 	private Random random;
+	private transient Thread compressionThread;
+	private transient volatile Throwable compressionFailure;
 
     protected void init(){
     	this.maxLTMSize = (int)(relativeLTMSizeOption.getValue() * limitOption.getValue());
@@ -98,8 +109,9 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
     	this.stmHistory = new ArrayList<>();
     	this.ltmHistory = new ArrayList<>();
     	this.cmHistory = new ArrayList<>();
-    	//store calculated STM distances in a matrix to avoid recalculation, are reused in the STM adaption phase
+    	//store calculated STM distances in a matrix to avoid recalculation, are reused in the STM adaption phase and for cleaning
 		this.distanceMatrixSTM = new double[limitOption.getValue()+1][limitOption.getValue()+1];
+		this.rowBuffer = new double[limitOption.getValue()+1];
 		this.predictionHistories = new HashMap<>();
 		this.random = new Random();
 
@@ -108,10 +120,15 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 	@Override
 	public void setModelContext(InstancesHeader context) {
 		try {
-			this.stm = new Instances(context,0);
-			this.stm.setClassIndex(context.classIndex());
-			this.ltm = new Instances(context,0); 
-			this.ltm.setClassIndex(context.classIndex());
+			awaitCompression();
+			int numAttributes = context.numAttributes();
+			int classIndex = context.classIndex();
+			this.stm = new SampleMemory(numAttributes, classIndex, limitOption.getValue()+1, false);
+			this.ltm = new SampleMemory(numAttributes, classIndex, 16, true);
+			this.inputIndices = new int[numAttributes-1];
+			for (int i = 0; i < this.inputIndices.length; i++){
+				this.inputIndices[i] = i < classIndex ? i : i+1;
+			}
 			this.init();
 		} catch(Exception e) {
 			System.err.println("Error: no Model Context available.");
@@ -122,6 +139,7 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 
     @Override
     public void resetLearningImpl() {
+		awaitCompression();
 		this.stm = null;
 		this.ltm = null;
 		this.stmHistory = null;
@@ -136,38 +154,45 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
         //this.trainStepCount++;
 		if (inst.classValue() > maxClassValue)
 			maxClassValue = (int)inst.classValue();
+		awaitCompression();
 		this.stm.add(inst);
 		memorySizeCheck();
-		clean(this.stm, this.ltm, true);
-		double distancesSTM[] = this.get1ToNDistances(inst, this.stm);
-		for (int i =0; i < this.stm.numInstances();i++){
-			this.distanceMatrixSTM[this.stm.numInstances()-1][i] = distancesSTM[i];
+
+		//the LTM may now be compressed in the background, the following steps only use the STM
+		int last = this.stm.size()-1;
+		int lastOffset = this.stm.offset(last);
+		double lastClassValue = this.stm.classValue(last);
+		double distancesSTM[] = this.distanceMatrixSTM[this.stm.slot(last)];
+		for (int i = 0; i < this.stm.size(); i++){
+			distancesSTM[this.stm.slot(i)] = this.getDistance(this.stm.values, lastOffset, this.stm.values, this.stm.offset(i));
 		}
-		int oldWindowSize = this.stm.numInstances();
+		boolean cleanLTM = this.stm.size() > this.kOption.getValue();
+		double cleaningThreshold = cleanLTM ? this.getCleaningThreshold(last) : 0;
+		int oldWindowSize = this.stm.size();
 		int newWindowSize = this.getNewSTMSize(recalculateSTMErrorOption.isSet());
 
+		awaitCompression();
+		if (cleanLTM && this.ltm.size() > 0){
+			this.cleanSamples(this.stm.values, lastOffset, lastClassValue, cleaningThreshold, this.ltm);
+		}
 		if (newWindowSize < oldWindowSize) {
 			int diff = oldWindowSize - newWindowSize;
-			Instances discardedSTMInstances = new Instances(this.stm, 0);
+			SampleMemory discardedSTMInstances = new SampleMemory(this.stm.numAttributes, this.stm.classIndex, diff, false);
 
-			for (int i = diff; i>0;i--){
-				discardedSTMInstances.add(this.stm.get(0).copy());
-				this.stm.delete(0);
-			}
-			for (int i = 0; i < this.stm.numInstances(); i++){
-				for (int j = 0; j < this.stm.numInstances(); j++){
-					this.distanceMatrixSTM[i][j] = this.distanceMatrixSTM[diff+i][diff+j];
-				}
+			for (int i = 0; i < diff; i++){
+				discardedSTMInstances.add(this.stm, i);
 			}
+			//the remaining distances keep their slots
+			this.stm.removeFirst(diff);
 			for (int i = 0; i < diff; i++) {
 				if(this.stmHistory.size() > 0)	this.stmHistory.remove(0);
 				if(this.ltmHistory.size() > 0)	this.ltmHistory.remove(0);
 				if(this.cmHistory.size()  > 0)	 this.cmHistory.remove(0);
 			}
 
-			this.clean(this.stm, discardedSTMInstances, false);
-			for (int i = 0; i < discardedSTMInstances.numInstances(); i++){
-				this.ltm.add(discardedSTMInstances.get(i).copy());
+			this.clean(discardedSTMInstances, false);
+			for (int i = 0; i < discardedSTMInstances.size(); i++){
+				this.ltm.add(discardedSTMInstances, i);
 			}
 			memorySizeCheck();
 		}
@@ -188,15 +213,17 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
         int predClassLTM = 0;
         int predClassCM = 0;
 		try {
-			if (this.stm.numInstances()>0) {
-				distancesSTM = get1ToNDistances(inst, this.stm);
+			awaitCompression();
+			if (this.stm.size()>0) {
+				double sample[] = this.stm.toRow(inst);
+				distancesSTM = get1ToNDistances(sample, this.stm);
 				int nnIndicesSTM[] = nArgMin(Math.min(distancesSTM.length, this.kOption.getValue()), distancesSTM);
 				vSTM = getDistanceWeightedVotes(distancesSTM, nnIndicesSTM, this.stm);
                 predClassSTM = this.getClassFromVotes(vSTM);
-                distancesLTM = get1ToNDistances(inst, this.ltm);
+                distancesLTM = get1ToNDistances(sample, this.ltm);
                 vCM = getCMVotes(distancesSTM, this.stm, distancesLTM, this.ltm);
                 predClassCM = this.getClassFromVotes(vCM);
-				if (this.ltm.numInstances() >= 0) {
+				if (this.ltm.size() >= 0) {
                     int nnIndicesLTM[] = nArgMin(Math.min(distancesLTM.length, this.kOption.getValue()), distancesLTM);
                     vLTM = getDistanceWeightedVotes(distancesLTM, nnIndicesLTM, this.ltm);
                     predClassLTM = this.getClassFromVotes(vLTM);
@@ -238,6 +265,10 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
         return false;
     }
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		awaitCompression();
+		out.defaultWriteObject();
+	}
 
 	private int historySum(List<Integer> history){
 		int sum = 0;
@@ -257,16 +288,16 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 	/**
 	 * Performs classwise kMeans++ clustering for given samples with corresponding labels. The number of samples is halved per class.
 	 */
-	private void clusterDown(){
-		int classIndex = this.ltm.classIndex();
-		for (int c = 0; c <= this.maxClassValue; c++){
+	private void clusterDown(SampleMemory ltm, int maxClassValue){
+		int classIndex = ltm.classIndex;
+		for (int c = 0; c <= maxClassValue; c++){
 			List<double[]> classSamples = new ArrayList<>();
-			for (int i = this.ltm.numInstances()-1; i >-1 ; i--) {
-				if (this.ltm.get(i).classValue() == c) {
-					classSamples.add(this.ltm.get(i).toDoubleArray());
-					this.ltm.delete(i);
+			for (int i = ltm.size()-1; i >-1 ; i--) {
+				if (ltm.classValue(i) == c) {
+					classSamples.add(ltm.toDoubleArray(i));
 				}
 			}
+			ltm.removeClass(c);
 			if (classSamples.size() > 0) {
 				//used kMeans++ implementation expects the weight of each sample at the first index,
 				// make sure that the first value gets the uniform weight 1, overwrite class value
@@ -281,69 +312,133 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 
 				for (double[] centroid : centroids) {
 
-					double[] attributes = new double[this.ltm.numAttributes()];
+					double[] attributes = new double[ltm.numAttributes];
 					//returned centroids do not contain the weight anymore, but simply the data
-					System.arraycopy(centroid, 0, attributes, 1, this.ltm.numAttributes() - 1);
+					System.arraycopy(centroid, 0, attributes, 1, ltm.numAttributes - 1);
 					//switch back if necessary
 					if (classIndex != 0) {
 						attributes[0] = attributes[classIndex];
 					}
 					attributes[classIndex] = c;
-					Instance inst = new InstanceImpl(1, attributes);
-					inst.setDataset(this.ltm);
-					this.ltm.add(inst);
+					ltm.add(attributes);
 				}
 			}
 
 		}
 	}
 
+    /**
+     * Compresses the LTM, on a background thread unless synchronous compression is set.
+     * Only one compression runs at a time and it is awaited before the LTM is used again,
+     * so the memories are the same as with synchronous compression.
+     */
+	private void compressLTM(){
+		final SampleMemory ltm = this.ltm;
+		final int maxClassValue = this.maxClassValue;
+		if (this.synchronousCompressionOption.isSet()){
+			this.clusterDown(ltm, maxClassValue);
+			return;
+		}
+		this.compressionThread = new Thread(() -> {
+			try {
+				clusterDown(ltm, maxClassValue);
+			} catch (Throwable t) {
+				compressionFailure = t;
+			}
+		}, "SAMkNN-LTM-compression");
+		this.compressionThread.setDaemon(true);
+		this.compressionThread.start();
+	}
+
+    /**
+     * Waits for the compression of the LTM, if one is running.
+     */
+	private void awaitCompression(){
+		if (this.compressionThread == null){
+			return;
+		}
+		boolean interrupted = false;
+		while (this.compressionThread.isAlive()){
+			try {
+				this.compressionThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		this.compressionThread = null;
+		if (interrupted){
+			Thread.currentThread().interrupt();
+		}
+		if (this.compressionFailure != null){
+			Throwable failure = this.compressionFailure;
+			this.compressionFailure = null;
+			throw new RuntimeException("Compression of the LTM failed", failure);
+		}
+	}
+
     /**
      * Makes sure that the STM and LTM combined doe not surpass the maximum size.
      */
 	private void memorySizeCheck(){
-		if (this.stm.numInstances() + this.ltm.numInstances() > this.maxSTMSize + this.maxLTMSize){
-			if (this.ltm.numInstances() > this.maxLTMSize){
-				this.clusterDown();
+		if (this.stm.size() + this.ltm.size() > this.maxSTMSize + this.maxLTMSize){
+			if (this.ltm.size() > this.maxLTMSize){
+				this.compressLTM();
 			}else{ //shift values from STM directly to LTM since STM is full
-				int numShifts = this.maxLTMSize - this.ltm.numInstances() + 1;
+				int numShifts = this.maxLTMSize - this.ltm.size() + 1;
 				for (int i = 0; i < numShifts; i++){
-					this.ltm.add(this.stm.get(0).copy());
-					this.stm.delete(0);
+					this.ltm.add(this.stm, 0);
+					this.stm.removeFirst(1);
 					this.stmHistory.remove(0);
 					this.ltmHistory.remove(0);
 					this.cmHistory.remove(0);
 				}
-				this.clusterDown();
+				this.compressLTM();
 				this.predictionHistories.clear();
-				for (int i = 0; i < this.stm.numInstances(); i++){
-					for (int j = 0; j < this.stm.numInstances(); j++){
-						this.distanceMatrixSTM[i][j] = this.distanceMatrixSTM[numShifts+i][numShifts+j];
-					}
-				}
+				//the STM distances are indexed by slots, so they need no shifting
 			}
 		}
 	}
 
-	private void cleanSingle(Instances cleanAgainst, int cleanAgainstindex, Instances toClean){
-		Instances cleanAgainstTmp = new Instances(cleanAgainst);
-		cleanAgainstTmp.delete(cleanAgainstindex);
-		double distancesSTM[] = get1ToNDistances(cleanAgainst.get(cleanAgainstindex), cleanAgainstTmp);
-		int nnIndicesSTM[] = nArgMin(Math.min(this.kOption.getValue(), distancesSTM.length), distancesSTM);
+    /**
+     * Returns the distance of two samples of the STM.
+     */
+	private double getSTMDistance(int i, int j){
+		return i > j ? this.distanceMatrixSTM[this.stm.slot(i)][this.stm.slot(j)]
+				: this.distanceMatrixSTM[this.stm.slot(j)][this.stm.slot(i)];
+	}
 
-		double distancesLTM[] = get1ToNDistances(cleanAgainst.get(cleanAgainstindex), toClean);
-		int nnIndicesLTM[] = nArgMin(Math.min(this.kOption.getValue(), distancesLTM.length), distancesLTM);
+    /**
+     * Returns the largest distance of an STM sample to those of its k nearest STM neighbours with the same label.
+     */
+	private double getCleaningThreshold(int cleanAgainstindex){
+		double distancesSTM[] = new double[this.stm.size()-1];
+		for (int j = 0, p = 0; j < this.stm.size(); j++){
+			if (j != cleanAgainstindex){
+				distancesSTM[p++] = this.getSTMDistance(cleanAgainstindex, j);
+			}
+		}
+		int nnIndicesSTM[] = nArgMin(Math.min(this.kOption.getValue(), distancesSTM.length), distancesSTM);
 		double distThreshold = 0;
 		for (int nnIdx: nnIndicesSTM){
-			if (cleanAgainstTmp.get(nnIdx).classValue() == cleanAgainst.get(cleanAgainstindex).classValue()){
+			int j = nnIdx < cleanAgainstindex ? nnIdx : nnIdx+1;
+			if (this.stm.classValue(j) == this.stm.classValue(cleanAgainstindex)){
 				if (distancesSTM[nnIdx] > distThreshold){
 					distThreshold = distancesSTM[nnIdx];
 				}
 			}
 		}
+		return distThreshold;
+	}
+
+    /**
+     * Removes the k nearest samples of a sample which have another label and are within the threshold.
+     */
+	private void cleanSamples(double[] sample, int offset, double classValue, double distThreshold, SampleMemory toClean){
+		double distancesLTM[] = get1ToNDistances(sample, offset, toClean);
+		int nnIndicesLTM[] = nArgMin(Math.min(this.kOption.getValue(), distancesLTM.length), distancesLTM);
 		List<Integer> delIndices = new ArrayList<>();
         for (int nnIdx: nnIndicesLTM){
-			if (toClean.get(nnIdx).classValue() != cleanAgainst.get(cleanAgainstindex).classValue()) {
+			if (toClean.classValue(nnIdx) != classValue) {
 				if (distancesLTM[nnIdx] <= distThreshold){
 					delIndices.add(nnIdx);
 				}
@@ -351,18 +446,23 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 		}
 		Collections.sort(delIndices, Collections.reverseOrder());
 		for (Integer idx : delIndices)
-			toClean.delete(idx);
+			toClean.remove(idx);
+	}
+
+	private void cleanSingle(int cleanAgainstindex, SampleMemory toClean){
+		this.cleanSamples(this.stm.values, this.stm.offset(cleanAgainstindex), this.stm.classValue(cleanAgainstindex),
+				this.getCleaningThreshold(cleanAgainstindex), toClean);
 	}
     /**
      * Removes distance-based all instances from the input samples that contradict those in the STM.
      */
-	private void clean(Instances cleanAgainst, Instances toClean, boolean onlyLast) {
-		if (cleanAgainst.numInstances() > this.kOption.getValue() && toClean.numInstances() > 0){
+	private void clean(SampleMemory toClean, boolean onlyLast) {
+		if (this.stm.size() > this.kOption.getValue() && toClean.size() > 0){
 			if (onlyLast){
-				cleanSingle(cleanAgainst, (cleanAgainst.numInstances()-1), toClean);
+				cleanSingle((this.stm.size()-1), toClean);
 			}else{
-				for (int i=0; i < cleanAgainst.numInstances(); i++){
-					cleanSingle(cleanAgainst, i, toClean);
+				for (int i=0; i < this.stm.size(); i++){
+					cleanSingle(i, toClean);
 				}
 			}
 		}
@@ -370,22 +470,22 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
     /**
      * Returns the distance weighted votes.
      */
-	private double [] getDistanceWeightedVotes(double distances[], int[] nnIndices, Instances instances){
+	private double [] getDistanceWeightedVotes(double distances[], int[] nnIndices, SampleMemory instances){
 
 		double v[] = new double[this.maxClassValue +1];
         for (int nnIdx : nnIndices) {
-            v[(int)instances.instance(nnIdx).classValue()] += 1./Math.max(distances[nnIdx], 0.000000001);
+            v[(int)instances.classValue(nnIdx)] += 1./Math.max(distances[nnIdx], 0.000000001);
         }
 		return v;
 	}
 
-	private double [] getDistanceWeightedVotesCM(double distances[], int[] nnIndices, Instances stm, Instances ltm){
+	private double [] getDistanceWeightedVotesCM(double distances[], int[] nnIndices, SampleMemory stm, SampleMemory ltm){
 		double v[] = new double[this.maxClassValue +1];
         for (int nnIdx : nnIndices) {
-			if (nnIdx < stm.numInstances()) {
-				v[(int) stm.instance(nnIdx).classValue()] += 1. / Math.max(distances[nnIdx], 0.000000001);
+			if (nnIdx < stm.size()) {
+				v[(int) stm.classValue(nnIdx)] += 1. / Math.max(distances[nnIdx], 0.000000001);
 			} else{
-				v[(int) ltm.instance((nnIdx-stm.numInstances())).classValue()] += 1. / Math.max(distances[nnIdx], 0.000000001);
+				v[(int) ltm.classValue(nnIdx-stm.size())] += 1. / Math.max(distances[nnIdx], 0.000000001);
 			}
 		}
 		return v;
@@ -394,7 +494,7 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
     /**
      * Returns the distance weighted votes for the combined memory (CM).
      */
-	private double [] getCMVotes(double distancesSTM[], Instances stm, double distancesLTM[], Instances ltm){
+	private double [] getCMVotes(double distancesSTM[], SampleMemory stm, double distancesLTM[], SampleMemory ltm){
 		double[] distancesCM = new double[distancesSTM.length + distancesLTM.length];
 		System.arraycopy(distancesSTM, 0, distancesCM, 0, distancesSTM.length);
 		System.arraycopy(distancesLTM, 0, distancesCM, distancesSTM.length, distancesLTM.length);
@@ -417,21 +517,29 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
 		return maxVoteClass;
 	}
 
-	private int getLabelFct(double distances[], Instances instances, int startIdx, int endIdx){
+    /**
+     * Returns the label predicted for the STM sample i by the STM samples from startIdx to endIdx.
+     */
+	private int getLabelFct(int i, SampleMemory instances, int startIdx, int endIdx){
+		double distances[] = this.rowBuffer;
+		double row[] = this.distanceMatrixSTM[instances.slot(i)];
+		for (int j = startIdx; j <= endIdx; j++){
+			distances[j] = row[instances.slot(j)];
+		}
 		int nnIndices[] = nArgMin(Math.min(this.kOption.getValue(), distances.length), distances, startIdx, endIdx);
 		double votes[] = getDistanceWeightedVotes(distances, nnIndices, instances);
 		return this.getClassFromVotes(votes);
 	}
 
     /**
-     * Returns the Euclidean distance.
+     * Returns the Euclidean distance of two samples stored in rows.
      */
-	private double getDistance(Instance sample, Instance sample2)
+	private double getDistance(double[] sample, int offset, double[] sample2, int offset2)
     {
         double sum=0;
-        for (int i=0; i<sample.numInputAttributes(); i++)
+        for (int i : this.inputIndices)
         {
-            double diff = sample.valueInputAttribute(i)-sample2.valueInputAttribute(i);
+            double diff = sample[offset+i]-sample2[offset2+i];
             sum += diff*diff;
         }
         return Math.sqrt(sum);
@@ -440,35 +548,40 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
     /**
      * Returns the Euclidean distance between one sample and a collection of samples in an 1D-array.
      */
-	private double[] get1ToNDistances(Instance sample, Instances samples){
-		double distances[] = new double[samples.numInstances()];
-		for (int i=0; i<samples.numInstances(); i++){
-			distances[i] = this.getDistance(sample, samples.get(i));
+	private double[] get1ToNDistances(double[] sample, int offset, SampleMemory samples){
+		double distances[] = new double[samples.size()];
+		for (int i=0; i<samples.size(); i++){
+			distances[i] = this.getDistance(sample, offset, samples.values, samples.offset(i));
 		}
 		return distances;
 	}
 
+	private double[] get1ToNDistances(double[] sample, SampleMemory samples){
+		return get1ToNDistances(sample, 0, samples);
+	}
+
     /**
      * Returns the n smallest indices of the smallest values (sorted).
+     * Keeps the n smallest values seen so far in a sorted primitive buffer, ties go to the lowest index;
+     * values that are not below Double.MAX_VALUE are never selected and unfilled indices stay 0.
      */
 	private int[] nArgMin(int n, double[] values, int startIdx, int endIdx){
 		int indices[] = new int[n];
-		for (int i=0; i<n; i++){
-			double minValue = Double.MAX_VALUE;
-			for (int j=startIdx; j<endIdx+1; j++){
-				if (values[j] < minValue){
-					boolean alreadyUsed = false;
-					for (int k=0; k<i; k++){
-						if (indices[k]==j){
-							alreadyUsed = true;
-						}
-					}
-					if (!alreadyUsed){
-						indices[i] = j;
-						minValue = values[j];
-					}
-				}
+		double selected[] = new double[n];
+		int count = 0;
+		for (int j = startIdx; j < endIdx+1 && n > 0; j++){
+			double value = values[j];
+			if (!(value < Double.MAX_VALUE) || (count == n && !(value < selected[n-1]))){
+				continue;
+			}
+			int pos = count < n ? count++ : n-1;
+			while (pos > 0 && selected[pos-1] > value){
+				selected[pos] = selected[pos-1];
+				indices[pos] = indices[pos-1];
+				pos--;
 			}
+			selected[pos] = value;
+			indices[pos] = j;
 		}
 		return indices;
 	}
@@ -495,19 +608,19 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
     /**
      * Creates a prediction history incrementally by using the previous predictions.
      */
-	private List<Integer> getIncrementalTestTrainPredHistory(Instances instances, int startIdx, List<Integer> predictionHistory){
-		for (int i= startIdx + this.kOption.getValue() + predictionHistory.size(); i < instances.numInstances(); i++){
-			predictionHistory.add((this.getLabelFct(distanceMatrixSTM[i], instances, startIdx,  i-1)==instances.get(i).classValue()) ? 1 : 0);
+	private List<Integer> getIncrementalTestTrainPredHistory(SampleMemory instances, int startIdx, List<Integer> predictionHistory){
+		for (int i= startIdx + this.kOption.getValue() + predictionHistory.size(); i < instances.size(); i++){
+			predictionHistory.add((this.getLabelFct(i, instances, startIdx,  i-1)==instances.classValue(i)) ? 1 : 0);
 		}
 		return predictionHistory;
 	}
     /**
      * Creates a prediction history from the scratch.
      */
-	private List<Integer> getTestTrainPredHistory(Instances instances, int startIdx){
+	private List<Integer> getTestTrainPredHistory(SampleMemory instances, int startIdx){
 		List<Integer> predictionHistory = new ArrayList<>();
-		for (int i= startIdx + this.kOption.getValue(); i < instances.numInstances(); i++){
-			predictionHistory.add((this.getLabelFct(distanceMatrixSTM[i], instances, startIdx, i-1)==instances.get(i).classValue()) ? 1 : 0);
+		for (int i= startIdx + this.kOption.getValue(); i < instances.size(); i++){
+			predictionHistory.add((this.getLabelFct(i, instances, startIdx, i-1)==instances.classValue(i)) ? 1 : 0);
 		}
 		return predictionHistory;
 	}
@@ -516,7 +629,7 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
      */
 	private int getMinErrorRateWindowSize() {
 
-		int numSamples = this.stm.numInstances();
+		int numSamples = this.stm.size();
 		if (numSamples < 2 * this.minSTMSizeOption.getValue()) {
 			return numSamples;
 		} else {
@@ -567,7 +680,7 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
      * Returns the window size with the minimum Interleaved test-train error, using bisection (without recalculation using an incremental approximation).
      */
 	private int getMinErrorRateWindowSizeIncremental() {
-		int numSamples = this.stm.numInstances();
+		int numSamples = this.stm.size();
 		if (numSamples < 2 * this.minSTMSizeOption.getValue()) {
 			return numSamples;
 		} else {
@@ -629,4 +742,126 @@ public class SAMkNN extends AbstractClassifier implements MultiClassClassifier,
     else
       return new ImmutableCapabilities(Capability.VIEW_STANDARD);
   }
+
+	/**
+	 * Samples stored as rows of all their attribute values in a primitive ring buffer.
+	 * Removing the oldest samples does not move the others, so their slots can index other arrays.
+	 */
+	private static class SampleMemory implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int numAttributes;
+
+		private final int classIndex;
+
+		private final boolean growable;
+
+		private double[] values;
+
+		private int capacity;
+
+		private int start;
+
+		private int size;
+
+		SampleMemory(int numAttributes, int classIndex, int capacity, boolean growable){
+			this.numAttributes = numAttributes;
+			this.classIndex = classIndex;
+			this.growable = growable;
+			this.capacity = Math.max(capacity, 1);
+			this.values = new double[this.capacity * numAttributes];
+		}
+
+		int size(){
+			return this.size;
+		}
+
+		int slot(int i){
+			int slot = this.start + i;
+			return slot >= this.capacity ? slot - this.capacity : slot;
+		}
+
+		int offset(int i){
+			return slot(i) * this.numAttributes;
+		}
+
+		double classValue(int i){
+			return this.values[offset(i) + this.classIndex];
+		}
+
+		double[] toDoubleArray(int i){
+			int offset = offset(i);
+			return Arrays.copyOfRange(this.values, offset, offset + this.numAttributes);
+		}
+
+		double[] toRow(Instance inst){
+			double row[] = new double[this.numAttributes];
+			for (int j = 0; j < this.numAttributes; j++){
+				row[j] = inst.value(j);
+			}
+			return row;
+		}
+
+		private int append(){
+			if (this.size == this.capacity){
+				if (!this.growable){
+					throw new IllegalStateException("Memory is full");
+				}
+				double grown[] = new double[2 * this.capacity * this.numAttributes];
+				for (int i = 0; i < this.size; i++){
+					System.arraycopy(this.values, offset(i), grown, i * this.numAttributes, this.numAttributes);
+				}
+				this.values = grown;
+				this.capacity *= 2;
+				this.start = 0;
+			}
+			return offset(this.size++);
+		}
+
+		void add(Instance inst){
+			int offset = append();
+			for (int j = 0; j < this.numAttributes; j++){
+				this.values[offset + j] = inst.value(j);
+			}
+		}
+
+		void add(double[] row){
+			int offset = append();
+			System.arraycopy(row, 0, this.values, offset, this.numAttributes);
+		}
+
+		void add(SampleMemory other, int i){
+			int offset = append();
+			System.arraycopy(other.values, other.offset(i), this.values, offset, this.numAttributes);
+		}
+
+		void removeFirst(int n){
+			this.start = (this.start + n) % this.capacity;
+			this.size -= n;
+		}
+
+		void remove(int i){
+			for (int j = i; j < this.size - 1; j++){
+				System.arraycopy(this.values, offset(j + 1), this.values, offset(j), this.numAttributes);
+			}
+			this.size--;
+		}
+
+		/**
+		 * Removes all samples with the given label, keeping the order of the others.
+		 */
+		void removeClass(double classValue){
+			int kept = 0;
+			for (int i = 0; i < this.size; i++){
+				if (classValue(i) != classValue){
+					if (kept != i){
+						System.arraycopy(this.values, offset(i), this.values, offset(kept), this.numAttributes);
+					}
+					kept++;
+				}
+			}
+			this.size = kept;
+		}
+	}
 }
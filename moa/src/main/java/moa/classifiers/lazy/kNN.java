@@ -25,8 +25,9 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.Regressor;
 import moa.classifiers.lazy.neighboursearch.KDTree;
-import moa.classifiers.lazy.neighboursearch.LinearNNSearch;
+import moa.classifiers.lazy.neighboursearch.MatrixNNSearch;
 import moa.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import moa.classifiers.lazy.neighboursearch.SlidingWindowIndex;
 import moa.core.Measurement;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
@@ -72,6 +73,10 @@ public class kNN extends AbstractClassifier implements MultiClassClassifier, Reg
 
     protected Instances window; 
 
+    /** Window and neighbour index maintained incrementally by this class;
+     * subclasses that manage the window themselves leave it null. */
+    protected SlidingWindowIndex index;
+
 	@Override
 	public void setModelContext(InstancesHeader context) {
 		try {
@@ -87,28 +92,30 @@ public class kNN extends AbstractClassifier implements MultiClassClassifier, Reg
     @Override
     public void resetLearningImpl() {
 		this.window = null;
+		this.index = null;
     }
 
     @Override
     public void trainOnInstanceImpl(Instance inst) {
 		if (inst.classValue() > C)
 			C = (int)inst.classValue();
-		if (this.window == null) {
-			this.window = new Instances(inst.dataset());
-		}
-		if (this.limitOption.getValue() <= this.window.numInstances()) {
-			this.window.delete(0);
+		if (this.index == null) {
+			this.index = new SlidingWindowIndex(inst.dataset(), this.limitOption.getValue(),
+					this.nearestNeighbourSearchOption.getChosenIndex() == 1);
 		}
-		this.window.add(inst);
+		this.index.add(inst);
     }
 
 	@Override
     public double[] getVotesForInstance(Instance inst) {
 		double v[] = new double[C+1];
 		try {
+			if (this.index != null) {
+				return getVotesFromIndex(inst, v);
+			}
 			NearestNeighbourSearch search;
 			if (this.nearestNeighbourSearchOption.getChosenIndex()== 0) {
-				search = new LinearNNSearch(this.window);  
+				search = new MatrixNNSearch(this.window);
 			} else {
 				search = new KDTree();
 				search.setInstances(this.window);
@@ -166,6 +173,43 @@ public class kNN extends AbstractClassifier implements MultiClassClassifier, Reg
 		return v;
     }
 
+	/**
+	 * Votes from the neighbours found by the incremental index, which are the
+	 * same as those of a search over the window.
+	 */
+	protected double[] getVotesFromIndex(Instance inst, double[] v) {
+		if (this.index.size() == 0) {
+			return v;
+		}
+		int num = this.index.kNearestNeighbours(inst, Math.min(kOption.getValue(), this.index.size()));
+		if (inst.classAttribute().isNumeric()) {
+			double[] result = new double[1];
+			if (medianOption.isSet()) {
+				double[] classValues = new double[num];
+				for (int i = 0; i < num; i++) {
+					classValues[i] = this.index.neighbourClassValue(i);
+				}
+				Arrays.sort(classValues);
+				if (num % 2 == 1) {
+					result[0] = classValues[num / 2];
+				} else {
+					result[0] = (classValues[num / 2 - 1] + classValues[num / 2]) / 2;
+				}
+			} else {
+				double sum = 0;
+				for (int i = 0; i < num; i++) {
+					sum += this.index.neighbourClassValue(i);
+				}
+				result[0] = sum / num;
+			}
+			return result;
+		}
+		for (int i = 0; i < num; i++) {
+			v[(int) this.index.neighbourClassValue(i)]++;
+		}
+		return v;
+	}
+
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
         return null;
@@ -0,0 +1,375 @@
+/*
+ *    MatrixNNSearch.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.lazy.neighboursearch;
+
+import java.util.Arrays;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Brute force nearest neighbour search over a primitive matrix.
+ *
+ * The instances are copied once into a row-major block of normalised values,
+ * leaving out the class, and the distances are computed with plain loops over
+ * that block instead of going through the instances and the distance function
+ * for every attribute. The k nearest are selected with a primitive heap.
+ *
+ * The neighbours, their order and their distances are the same as those of
+ * {@link LinearNNSearch} with the default Euclidean distance: the ranges and
+ * the normalisation are computed in the same way, missing values are handled
+ * in the same way, and the squared differences are summed in attribute order.
+ * Hence it only works with a normalised {@link EuclideanDistance}.
+ */
+public class MatrixNNSearch extends NearestNeighbourSearch {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of attributes summed between checks against the cutoff. */
+    protected static final int BLOCK = 8;
+
+    protected int numRows;
+
+    protected int numColumns;
+
+    /** Attribute of each column. */
+    protected int[] columnAttribute;
+
+    protected boolean[] nominalColumn;
+
+    protected boolean hasNominalColumns;
+
+    /** Raw values, row-major. */
+    protected double[] raw = new double[0];
+
+    /** Normalised values of the numeric columns, raw values of the others. */
+    protected double[] normalised = new double[0];
+
+    /** Whether each row has a missing value. */
+    protected boolean[] rowMissing = new boolean[0];
+
+    /** Number of rows normalised with the current ranges. */
+    protected int numNormalised;
+
+    protected double[] rangeMin, rangeMax, rangeWidth;
+
+    protected final NeighbourHeap heap = new NeighbourHeap();
+
+    protected double[] target;
+
+    protected double[] m_Distances;
+
+    /**
+     * Constructor. Needs setInstances(Instances) to be called before the class
+     * is usable.
+     */
+    public MatrixNNSearch() {
+        super();
+    }
+
+    /**
+     * Constructor that uses the supplied set of instances.
+     *
+     * @param insts the instances to use
+     */
+    public MatrixNNSearch(Instances insts) {
+        super(insts);
+        setInstances(insts);
+    }
+
+    @Override
+    public String globalInfo() {
+        return "Class implementing the brute force search algorithm for nearest "
+                + "neighbour search over a primitive matrix.";
+    }
+
+    /**
+     * sets the distance function to use for nearest neighbour search.
+     *
+     * @param df the distance function to use
+     * @throws Exception if not a normalised EuclideanDistance
+     */
+    @Override
+    public void setDistanceFunction(DistanceFunction df) throws Exception {
+        if (!(df instanceof EuclideanDistance) || ((EuclideanDistance) df).getDontNormalize()) {
+            throw new Exception("MatrixNNSearch currently only works with "
+                    + "normalised EuclideanDistance.");
+        }
+        m_DistanceFunction = df;
+    }
+
+    /**
+     * Sets the instances comprising the current neighbourhood and copies
+     * them into the matrix.
+     *
+     * @param insts the set of instances on which the search is carried out
+     */
+    @Override
+    public void setInstances(Instances insts) {
+        m_Instances = insts;
+        int numAttributes = insts.numAttributes();
+        int classIndex = insts.classIndex();
+        this.numColumns = classIndex >= 0 && classIndex < numAttributes ? numAttributes - 1 : numAttributes;
+        this.columnAttribute = new int[this.numColumns];
+        this.nominalColumn = new boolean[this.numColumns];
+        this.hasNominalColumns = false;
+        for (int j = 0, c = 0; j < numAttributes; j++) {
+            if (j != classIndex) {
+                this.columnAttribute[c] = j;
+                this.nominalColumn[c] = insts.attribute(j).isNominal();
+                this.hasNominalColumns |= this.nominalColumn[c];
+                c++;
+            }
+        }
+        this.rangeMin = new double[this.numColumns];
+        this.rangeMax = new double[this.numColumns];
+        this.rangeWidth = new double[this.numColumns];
+        Arrays.fill(this.rangeMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(this.rangeMax, Double.NEGATIVE_INFINITY);
+        Arrays.fill(this.rangeWidth, Double.POSITIVE_INFINITY);
+        this.target = new double[this.numColumns];
+
+        this.numRows = 0;
+        this.numNormalised = 0;
+        ensureRows(insts.numInstances());
+        for (int i = 0; i < insts.numInstances(); i++) {
+            addRow(insts.instance(i));
+        }
+    }
+
+    /**
+     * Updates the search to cater for a new instance, which must have been
+     * added at the end of the instances.
+     *
+     * @param ins the instance added
+     */
+    @Override
+    public void update(Instance ins) throws Exception {
+        if (m_Instances == null) {
+            throw new Exception("No instances supplied yet. Cannot update without"
+                    + "supplying a set of instances first.");
+        }
+        ensureRows(this.numRows + 1);
+        addRow(ins);
+    }
+
+    protected void ensureRows(int n) {
+        if (this.rowMissing.length < n) {
+            int length = Math.max(n, 2 * this.rowMissing.length);
+            this.raw = Arrays.copyOf(this.raw, length * this.numColumns);
+            this.normalised = Arrays.copyOf(this.normalised, length * this.numColumns);
+            this.rowMissing = Arrays.copyOf(this.rowMissing, length);
+        }
+    }
+
+    /**
+     * Copies an instance into the next row and widens the ranges, which
+     * invalidates the normalised rows if they change.
+     */
+    protected void addRow(Instance inst) {
+        int offset = this.numRows * this.numColumns;
+        boolean missing = false;
+        boolean rangesChanged = false;
+        for (int c = 0; c < this.numColumns; c++) {
+            double value = inst.value(this.columnAttribute[c]);
+            this.raw[offset + c] = value;
+            if (Double.isNaN(value)) {
+                missing = true;
+            } else if (!this.nominalColumn[c]) {
+                if (value < this.rangeMin[c]) {
+                    this.rangeMin[c] = value;
+                    rangesChanged = true;
+                }
+                if (value > this.rangeMax[c]) {
+                    this.rangeMax[c] = value;
+                    rangesChanged = true;
+                }
+            }
+        }
+        this.rowMissing[this.numRows] = missing;
+        this.numRows++;
+        if (rangesChanged) {
+            for (int c = 0; c < this.numColumns; c++) {
+                this.rangeWidth[c] = this.rangeMax[c] - this.rangeMin[c];
+            }
+            this.numNormalised = 0;
+        }
+    }
+
+    /**
+     * Same as NormalizableDistance.norm.
+     */
+    protected double norm(double x, int c) {
+        if (Double.isNaN(this.rangeMin[c]) || (this.rangeMax[c] == this.rangeMin[c])) {
+            return 0;
+        }
+        return (x - this.rangeMin[c]) / this.rangeWidth[c];
+    }
+
+    /**
+     * Normalises the rows added since the ranges last changed.
+     */
+    protected void normaliseRows() {
+        for (int i = this.numNormalised; i < this.numRows; i++) {
+            int offset = i * this.numColumns;
+            for (int c = 0; c < this.numColumns; c++) {
+                double value = this.raw[offset + c];
+                this.normalised[offset + c] = this.nominalColumn[c] || Double.isNaN(value)
+                        ? value : norm(value, c);
+            }
+        }
+        this.numNormalised = this.numRows;
+    }
+
+    /**
+     * Finds the k nearest neighbours of an instance, plus those at the same
+     * distance as the k-th one. The instance itself is skipped if it belongs
+     * to the instances searched.
+     *
+     * @return the number of neighbours, which can be read in the order of
+     * LinearNNSearch with {@link #neighbourIndex(int)} and
+     * {@link #neighbourDistance(int)}
+     */
+    public int search(Instance targetInstance, int k) {
+        normaliseRows();
+        boolean targetMissing = false;
+        for (int c = 0; c < this.numColumns; c++) {
+            double value = targetInstance.value(this.columnAttribute[c]);
+            if (Double.isNaN(value)) {
+                targetMissing = true;
+                this.target[c] = value;
+            } else {
+                this.target[c] = this.nominalColumn[c] ? value : norm(value, c);
+            }
+        }
+        boolean simple = !this.hasNominalColumns && !targetMissing;
+
+        this.heap.reset(k);
+        for (int i = 0; i < this.numRows; i++) {
+            if (targetInstance == m_Instances.instance(i)) { // for hold-one-out cross-validation
+                continue;
+            }
+            double cutOff = this.heap.threshold();
+            double distance = simple && !this.rowMissing[i]
+                    ? squaredDistance(i * this.numColumns, cutOff)
+                    : squaredDistanceWithMissing(i * this.numColumns, cutOff);
+            this.heap.offer(i, distance);
+        }
+        this.heap.sort();
+        return this.heap.size();
+    }
+
+    /**
+     * Sums the squared differences of numeric values, checking the cutoff
+     * every block of attributes. The partial sums only grow, so stopping at a
+     * block boundary gives the same answer as checking every attribute.
+     */
+    protected double squaredDistance(int offset, double cutOff) {
+        final double[] row = this.normalised;
+        final double[] t = this.target;
+        final int n = this.numColumns;
+        double distance = 0;
+        int c = 0;
+        while (c < n) {
+            int end = Math.min(n, c + BLOCK);
+            for (; c < end; c++) {
+                double diff = t[c] - row[offset + c];
+                distance += diff * diff;
+            }
+            if (distance > cutOff) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Same as NormalizableDistance.difference, for nominal attributes and
+     * missing values.
+     */
+    protected double squaredDistanceWithMissing(int offset, double cutOff) {
+        double distance = 0;
+        for (int c = 0; c < this.numColumns; c++) {
+            double val1 = this.target[c];
+            double val2 = this.normalised[offset + c];
+            double diff;
+            if (this.nominalColumn[c]) {
+                diff = Double.isNaN(val1) || Double.isNaN(val2) || ((int) val1 != (int) val2) ? 1 : 0;
+            } else if (Double.isNaN(val1) || Double.isNaN(val2)) {
+                if (Double.isNaN(val1) && Double.isNaN(val2)) {
+                    diff = 1;
+                } else {
+                    diff = Double.isNaN(val2) ? val1 : val2;
+                    if (diff < 0.5) {
+                        diff = 1.0 - diff;
+                    }
+                }
+            } else {
+                diff = val1 - val2;
+            }
+            distance += diff * diff;
+            if (distance > cutOff) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the index in the instances of the i-th neighbour found by the
+     * last search.
+     */
+    public int neighbourIndex(int i) {
+        return this.heap.index(i);
+    }
+
+    /**
+     * Returns the squared distance of the i-th neighbour found by the last
+     * search.
+     */
+    public double neighbourDistance(int i) {
+        return this.heap.distance(i);
+    }
+
+    @Override
+    public Instance nearestNeighbour(Instance target) throws Exception {
+        return (kNearestNeighbours(target, 1)).instance(0);
+    }
+
+    @Override
+    public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
+        int n = search(target, kNN);
+        Instances neighbours = new Instances(m_Instances, n);
+        m_Distances = new double[n];
+        for (int i = 0; i < n; i++) {
+            neighbours.add(m_Instances.instance(neighbourIndex(i)));
+            m_Distances[i] = neighbourDistance(i);
+        }
+        m_DistanceFunction.postProcessDistances(m_Distances);
+        return neighbours;
+    }
+
+    @Override
+    public double[] getDistances() throws Exception {
+        if (m_Distances == null) {
+            throw new Exception("No distances available. Please call either "
+                    + "kNearestNeighbours or nearestNeighbours first.");
+        }
+        return m_Distances;
+    }
+}
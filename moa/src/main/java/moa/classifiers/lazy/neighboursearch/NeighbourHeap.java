@@ -0,0 +1,208 @@
+/*
+ *    NeighbourHeap.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.lazy.neighboursearch;
+
+import java.io.Serializable;
+
+/**
+ * Primitive max-heap selecting the k nearest neighbours, with the same
+ * semantics as the heap of {@link NearestNeighbourSearch}: candidates at the
+ * same distance as the k-th nearest are kept as well, so the result is every
+ * candidate whose distance is at most the k-th smallest distance. The heap
+ * operations are those of MyHeap, so {@link #sort()} orders the neighbours
+ * exactly as {@link LinearNNSearch} returns them.
+ *
+ * The heap is meant to be reused across queries, so it allocates nothing
+ * once it has grown to the size of the queries.
+ */
+public class NeighbourHeap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected int k;
+
+    /** Heap of the k nearest from index 1, the farthest at the root. */
+    protected int[] heapIndex = new int[1];
+
+    protected double[] heapDistance = new double[1];
+
+    protected int heapSize;
+
+    /** Candidates at the same distance as the root of the heap. */
+    protected int[] tieIndex = new int[8];
+
+    protected int numTies;
+
+    /** Neighbours ordered by {@link #sort()}, or null. */
+    protected int[] sortedIndex;
+
+    protected double[] sortedDistance;
+
+    protected int numSorted;
+
+    protected boolean sorted;
+
+    /**
+     * Empties the heap for a new query.
+     *
+     * @param k the number of neighbours to select
+     */
+    public void reset(int k) {
+        this.k = k;
+        if (this.heapIndex.length < k + 1) {
+            this.heapIndex = new int[k + 1];
+            this.heapDistance = new double[k + 1];
+        }
+        this.heapSize = 0;
+        this.numTies = 0;
+        this.sorted = false;
+    }
+
+    /**
+     * Returns the distance a candidate must not exceed to be selected, which
+     * can be used to stop computing its distance early.
+     */
+    public double threshold() {
+        return this.heapSize < this.k ? Double.POSITIVE_INFINITY : this.heapDistance[1];
+    }
+
+    /**
+     * Offers a candidate.
+     *
+     * @param index the index of the candidate
+     * @param distance its distance to the target
+     */
+    public void offer(int index, double distance) {
+        if (this.heapSize < this.k) {
+            put(index, distance);
+        } else if (this.k > 0 && distance < this.heapDistance[1]) {
+            int oldIndex = this.heapIndex[1];
+            double oldDistance = this.heapDistance[1];
+            removeRoot();
+            put(index, distance);
+            if (oldDistance == this.heapDistance[1]) {
+                addTie(oldIndex);
+            } else {
+                this.numTies = 0;
+            }
+        } else if (this.k > 0 && distance == this.heapDistance[1]) {
+            addTie(index);
+        }
+    }
+
+    protected void put(int index, double distance) {
+        int i = ++this.heapSize;
+        this.heapIndex[i] = index;
+        this.heapDistance[i] = distance;
+        // upheap
+        while (i > 1 && this.heapDistance[i] > this.heapDistance[i / 2]) {
+            swap(i, i / 2);
+            i = i / 2;
+        }
+    }
+
+    protected void removeRoot() {
+        this.heapIndex[1] = this.heapIndex[this.heapSize];
+        this.heapDistance[1] = this.heapDistance[this.heapSize];
+        this.heapSize--;
+        // downheap
+        int i = 1;
+        while ((2 * i <= this.heapSize && this.heapDistance[i] < this.heapDistance[2 * i])
+                || (2 * i + 1 <= this.heapSize && this.heapDistance[i] < this.heapDistance[2 * i + 1])) {
+            int child = 2 * i;
+            if (child + 1 <= this.heapSize && !(this.heapDistance[child] > this.heapDistance[child + 1])) {
+                child++;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    protected void swap(int i, int j) {
+        int index = this.heapIndex[i];
+        double distance = this.heapDistance[i];
+        this.heapIndex[i] = this.heapIndex[j];
+        this.heapDistance[i] = this.heapDistance[j];
+        this.heapIndex[j] = index;
+        this.heapDistance[j] = distance;
+    }
+
+    protected void addTie(int index) {
+        if (this.numTies == this.tieIndex.length) {
+            int[] grown = new int[2 * this.tieIndex.length];
+            System.arraycopy(this.tieIndex, 0, grown, 0, this.numTies);
+            this.tieIndex = grown;
+        }
+        this.tieIndex[this.numTies++] = index;
+    }
+
+    /**
+     * Orders the selected neighbours as LinearNNSearch does: by increasing
+     * distance, with the candidates tied with the k-th nearest last. This
+     * empties the heap, the neighbours remain readable until the next reset.
+     */
+    public void sort() {
+        int n = size();
+        if (this.sortedIndex == null || this.sortedIndex.length < n) {
+            this.sortedIndex = new int[n];
+            this.sortedDistance = new double[n];
+        }
+        int i = 1;
+        while (this.numTies > 0) {
+            this.sortedIndex[n - i] = this.tieIndex[--this.numTies];
+            this.sortedDistance[n - i] = this.heapDistance[1];
+            i++;
+        }
+        while (this.heapSize > 0) {
+            this.sortedIndex[n - i] = this.heapIndex[1];
+            this.sortedDistance[n - i] = this.heapDistance[1];
+            removeRoot();
+            i++;
+        }
+        this.numSorted = n;
+        this.sorted = true;
+    }
+
+    /**
+     * Returns the number of selected neighbours, ties included.
+     */
+    public int size() {
+        return this.sorted ? this.numSorted : this.heapSize + this.numTies;
+    }
+
+    /**
+     * Returns the index of the i-th selected neighbour, in no particular order
+     * unless the heap has been sorted.
+     */
+    public int index(int i) {
+        if (this.sorted) {
+            return this.sortedIndex[i];
+        }
+        return i < this.heapSize ? this.heapIndex[i + 1] : this.tieIndex[i - this.heapSize];
+    }
+
+    /**
+     * Returns the distance of the i-th selected neighbour.
+     */
+    public double distance(int i) {
+        if (this.sorted) {
+            return this.sortedDistance[i];
+        }
+        return i < this.heapSize ? this.heapDistance[i + 1] : this.heapDistance[1];
+    }
+}
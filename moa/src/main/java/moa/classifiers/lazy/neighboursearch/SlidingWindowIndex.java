@@ -0,0 +1,704 @@
+/*
+ *    SlidingWindowIndex.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.lazy.neighboursearch;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Sliding window of instances with a nearest neighbour index that is updated
+ * as instances enter and leave the window, instead of being rebuilt for every
+ * query.
+ *
+ * The attribute values of the window are kept in a primitive ring buffer. The
+ * ranges used to normalise the distances are maintained with one monotonic
+ * queue of minima and one of maxima per attribute, so they always are the
+ * ranges of the current window, as with {@link LinearNNSearch}. Queries
+ * return the same neighbours as LinearNNSearch over the same window: all the
+ * instances within the distance of the k-th nearest one. As with
+ * LinearNNSearch, the instances identical to the query can be skipped.
+ *
+ * Optionally, the instances are also indexed by a KD-tree over their raw
+ * values: an instance is inserted in its leaf and removed from it in time
+ * proportional to the depth of the tree, leaves are split as they grow, and
+ * the tree is rebuilt once as many instances as the window holds have been
+ * inserted. The tree only prunes subtrees whose lower bound on the
+ * normalised distance, computed with the current ranges, exceeds the
+ * distance of the k-th nearest neighbour, so the result does not depend on
+ * it. Instances with missing numeric values are
+ * not indexed and are always compared.
+ */
+public class SlidingWindowIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of instances below which a subtree is a single leaf. */
+    protected static final int LEAF_SIZE = 16;
+
+    protected static final int NOT_INDEXED = -1;
+
+    protected static final int INITIAL_LENGTH = 1024;
+
+    protected final int capacity;
+
+    protected final int numAttributes;
+
+    protected final int classIndex;
+
+    protected final boolean[] nominal;
+
+    /** Numeric attributes other than the class. */
+    protected final int[] numericAttributes;
+
+    /** Ring buffer of the attribute values, one row per slot. */
+    protected double[] values;
+
+    protected Instance[] instances;
+
+    /** Slot of the oldest instance. */
+    protected int start;
+
+    protected int size;
+
+    /** Slots of increasing values per numeric attribute, oldest first. */
+    protected int[][] minQueue;
+
+    /** Slots of decreasing values per numeric attribute, oldest first. */
+    protected int[][] maxQueue;
+
+    protected final int[] minHead, minCount, maxHead, maxCount;
+
+    protected final double[] rangeMin, rangeMax, rangeWidth;
+
+    protected final boolean useTree;
+
+    // KD-tree nodes: leaves have a bucket of slots, inner nodes a split
+    protected int numNodes;
+
+    protected int root = -1;
+
+    protected int[] splitAttribute = new int[16];
+
+    protected double[] splitValue = new double[16];
+
+    protected int[] left = new int[16];
+
+    protected int[] right = new int[16];
+
+    protected int[][] bucket = new int[16][];
+
+    protected int[] bucketSize = new int[16];
+
+    /** Leaf of each slot, or NOT_INDEXED. */
+    protected int[] slotLeaf;
+
+    /** Position of each slot in its bucket or in the unindexed slots. */
+    protected int[] slotPosition;
+
+    protected int[] unindexed;
+
+    protected int numUnindexed;
+
+    protected int insertionsSinceBuild;
+
+    /** Whether to skip instances from the neighbours that are identical to the query instance. */
+    protected boolean skipIdentical = false;
+
+    // Query state, reused across queries
+    protected final NeighbourHeap heap = new NeighbourHeap();
+
+    protected final double[] target;
+
+    protected final double[] normalisedTarget;
+
+    protected final double[] boundOffsets;
+
+    protected double[] sortBuffer = new double[2 * LEAF_SIZE + 1];
+
+    /**
+     * Creates an empty window.
+     *
+     * @param header the header of the instances
+     * @param capacity the maximum number of instances in the window
+     * @param useTree whether to index the instances with a KD-tree
+     */
+    public SlidingWindowIndex(Instances header, int capacity, boolean useTree) {
+        this.capacity = capacity;
+        this.numAttributes = header.numAttributes();
+        this.classIndex = header.classIndex();
+        this.useTree = useTree;
+        this.nominal = new boolean[this.numAttributes];
+        int numNumeric = 0;
+        for (int j = 0; j < this.numAttributes; j++) {
+            this.nominal[j] = header.attribute(j).isNominal();
+            if (!this.nominal[j] && j != this.classIndex) {
+                numNumeric++;
+            }
+        }
+        this.numericAttributes = new int[numNumeric];
+        for (int j = 0, n = 0; j < this.numAttributes; j++) {
+            if (!this.nominal[j] && j != this.classIndex) {
+                this.numericAttributes[n++] = j;
+            }
+        }
+        // the buffers grow with the window up to its capacity
+        int length = Math.min(capacity, INITIAL_LENGTH);
+        this.values = new double[length * this.numAttributes];
+        this.instances = new Instance[length];
+        this.minQueue = new int[this.numAttributes][];
+        this.maxQueue = new int[this.numAttributes][];
+        for (int j : this.numericAttributes) {
+            this.minQueue[j] = new int[length];
+            this.maxQueue[j] = new int[length];
+        }
+        this.minHead = new int[this.numAttributes];
+        this.minCount = new int[this.numAttributes];
+        this.maxHead = new int[this.numAttributes];
+        this.maxCount = new int[this.numAttributes];
+        this.rangeMin = new double[this.numAttributes];
+        this.rangeMax = new double[this.numAttributes];
+        this.rangeWidth = new double[this.numAttributes];
+        this.slotLeaf = new int[length];
+        this.slotPosition = new int[length];
+        this.unindexed = new int[length];
+        this.target = new double[this.numAttributes];
+        this.normalisedTarget = new double[this.numAttributes];
+        this.boundOffsets = new double[this.numAttributes];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Sets whether instances at a distance of zero from the query are
+     * skipped from the neighbours, as LinearNNSearch.setSkipIdentical.
+     */
+    public void setSkipIdentical(boolean skip) {
+        this.skipIdentical = skip;
+    }
+
+    public boolean getSkipIdentical() {
+        return this.skipIdentical;
+    }
+
+    /**
+     * Returns the i-th oldest instance of the window.
+     */
+    public Instance instance(int i) {
+        return this.instances[(this.start + i) % this.capacity];
+    }
+
+    /**
+     * Adds an instance to the window, removing the oldest one if the window
+     * is full.
+     */
+    public void add(Instance inst) {
+        if (this.size == this.capacity) {
+            removeOldest();
+        }
+        if (this.start + this.size == this.instances.length && this.instances.length < this.capacity) {
+            grow();
+        }
+        int slot = (this.start + this.size) % this.capacity;
+        this.size++;
+        int offset = slot * this.numAttributes;
+        for (int j = 0; j < this.numAttributes; j++) {
+            this.values[offset + j] = inst.value(j);
+        }
+        this.instances[slot] = inst;
+
+        for (int j : this.numericAttributes) {
+            double value = this.values[offset + j];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            int[] queue = this.minQueue[j];
+            while (this.minCount[j] > 0
+                    && this.values[queue[(this.minHead[j] + this.minCount[j] - 1) % this.capacity] * this.numAttributes + j] >= value) {
+                this.minCount[j]--;
+            }
+            queue[(this.minHead[j] + this.minCount[j]++) % this.capacity] = slot;
+            queue = this.maxQueue[j];
+            while (this.maxCount[j] > 0
+                    && this.values[queue[(this.maxHead[j] + this.maxCount[j] - 1) % this.capacity] * this.numAttributes + j] <= value) {
+                this.maxCount[j]--;
+            }
+            queue[(this.maxHead[j] + this.maxCount[j]++) % this.capacity] = slot;
+        }
+
+        if (this.useTree) {
+            insertInTree(slot);
+        }
+    }
+
+    /**
+     * Doubles the length of the buffers. The window has never been full, so
+     * neither the window nor the queues have wrapped around.
+     */
+    protected void grow() {
+        int length = (int) Math.min(this.capacity, 2L * this.instances.length);
+        this.values = Arrays.copyOf(this.values, length * this.numAttributes);
+        this.instances = Arrays.copyOf(this.instances, length);
+        for (int j : this.numericAttributes) {
+            this.minQueue[j] = Arrays.copyOf(this.minQueue[j], length);
+            this.maxQueue[j] = Arrays.copyOf(this.maxQueue[j], length);
+        }
+        this.slotLeaf = Arrays.copyOf(this.slotLeaf, length);
+        this.slotPosition = Arrays.copyOf(this.slotPosition, length);
+        this.unindexed = Arrays.copyOf(this.unindexed, length);
+    }
+
+    /**
+     * Removes the oldest instance of the window.
+     */
+    public void removeOldest() {
+        if (this.size == 0) {
+            return;
+        }
+        int slot = this.start;
+        for (int j : this.numericAttributes) {
+            if (this.minCount[j] > 0 && this.minQueue[j][this.minHead[j]] == slot) {
+                this.minHead[j] = (this.minHead[j] + 1) % this.capacity;
+                this.minCount[j]--;
+            }
+            if (this.maxCount[j] > 0 && this.maxQueue[j][this.maxHead[j]] == slot) {
+                this.maxHead[j] = (this.maxHead[j] + 1) % this.capacity;
+                this.maxCount[j]--;
+            }
+        }
+        if (this.useTree) {
+            removeFromTree(slot);
+        }
+        this.instances[slot] = null;
+        this.start = (this.start + 1) % this.capacity;
+        this.size--;
+    }
+
+    /**
+     * Finds the k nearest neighbours of an instance in the window, plus the
+     * instances at the same distance as the k-th one.
+     *
+     * @return the number of neighbours found, which can be read with
+     * {@link #neighbour(int)}
+     */
+    public int kNearestNeighbours(Instance inst, int k) {
+        updateRanges();
+        for (int j = 0; j < this.numAttributes; j++) {
+            this.target[j] = inst.value(j);
+            if (!this.nominal[j] && !Double.isNaN(this.target[j])) {
+                this.normalisedTarget[j] = norm(this.target[j], j);
+            }
+        }
+        this.heap.reset(k);
+        if (!this.useTree || this.root < 0) {
+            for (int i = 0; i < this.size; i++) {
+                offer((this.start + i) % this.capacity);
+            }
+        } else {
+            for (int i = 0; i < this.numUnindexed; i++) {
+                offer(this.unindexed[i]);
+            }
+            Arrays.fill(this.boundOffsets, 0.0);
+            search(this.root);
+        }
+        return this.heap.size();
+    }
+
+    /**
+     * Returns the i-th neighbour found by the last query, in no particular
+     * order.
+     */
+    public Instance neighbour(int i) {
+        return this.instances[this.heap.index(i)];
+    }
+
+    /**
+     * Returns the class value of the i-th neighbour found by the last query,
+     * as it was when the neighbour was added to the window.
+     */
+    public double neighbourClassValue(int i) {
+        return this.values[this.heap.index(i) * this.numAttributes + this.classIndex];
+    }
+
+    protected void offer(int slot) {
+        double distance = distance(slot, this.heap.threshold());
+        if (distance == 0.0 && this.skipIdentical) {
+            return;
+        }
+        this.heap.offer(slot, distance);
+    }
+
+    /**
+     * Computes the squared distance between the target and an instance of the
+     * window, exactly as EuclideanDistance does.
+     *
+     * @return the distance, or infinity as soon as it exceeds the cutoff
+     */
+    protected double distance(int slot, double cutOffValue) {
+        int offset = slot * this.numAttributes;
+        double distance = 0;
+        for (int j = 0; j < this.numAttributes; j++) {
+            if (j == this.classIndex) {
+                continue;
+            }
+            double diff = difference(j, this.target[j], this.values[offset + j]);
+            distance += diff * diff;
+            if (distance > cutOffValue) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Same as NormalizableDistance.difference, with normalisation.
+     */
+    protected double difference(int index, double val1, double val2) {
+        if (this.nominal[index]) {
+            if (Double.isNaN(val1) || Double.isNaN(val2) || ((int) val1 != (int) val2)) {
+                return 1;
+            }
+            return 0;
+        }
+        if (Double.isNaN(val1) || Double.isNaN(val2)) {
+            if (Double.isNaN(val1) && Double.isNaN(val2)) {
+                return 1;
+            }
+            double diff = Double.isNaN(val2) ? this.normalisedTarget[index] : norm(val2, index);
+            if (diff < 0.5) {
+                diff = 1.0 - diff;
+            }
+            return diff;
+        }
+        return this.normalisedTarget[index] - norm(val2, index);
+    }
+
+    /**
+     * Same as NormalizableDistance.norm.
+     */
+    protected double norm(double x, int i) {
+        if (Double.isNaN(this.rangeMin[i]) || (this.rangeMax[i] == this.rangeMin[i])) {
+            return 0;
+        }
+        return (x - this.rangeMin[i]) / this.rangeWidth[i];
+    }
+
+    /**
+     * Reads the ranges of the window from the heads of the queues.
+     */
+    protected void updateRanges() {
+        for (int j : this.numericAttributes) {
+            if (this.minCount[j] == 0) {
+                this.rangeMin[j] = Double.POSITIVE_INFINITY;
+                this.rangeMax[j] = Double.NEGATIVE_INFINITY;
+                this.rangeWidth[j] = Double.POSITIVE_INFINITY;
+            } else {
+                this.rangeMin[j] = this.values[this.minQueue[j][this.minHead[j]] * this.numAttributes + j];
+                this.rangeMax[j] = this.values[this.maxQueue[j][this.maxHead[j]] * this.numAttributes + j];
+                this.rangeWidth[j] = this.rangeMax[j] - this.rangeMin[j];
+            }
+        }
+    }
+
+    protected void search(int node) {
+        if (this.bucket[node] != null) {
+            int[] slots = this.bucket[node];
+            for (int i = 0; i < this.bucketSize[node]; i++) {
+                offer(slots[i]);
+            }
+            return;
+        }
+        int att = this.splitAttribute[node];
+        double t = this.target[att];
+        if (Double.isNaN(t)) {
+            search(this.left[node]);
+            search(this.right[node]);
+            return;
+        }
+        boolean nearIsLeft = t <= this.splitValue[node];
+        search(nearIsLeft ? this.left[node] : this.right[node]);
+
+        // Every instance on the far side is at least as far as the split
+        // along this attribute; norm is monotonic, so the bound is exact.
+        double offset = nearIsLeft
+                ? norm(this.splitValue[node], att) - this.normalisedTarget[att]
+                : this.normalisedTarget[att] - norm(this.splitValue[node], att);
+        double previous = this.boundOffsets[att];
+        if (offset > previous) {
+            this.boundOffsets[att] = offset;
+        }
+        if (lowerBound() <= this.heap.threshold()) {
+            search(nearIsLeft ? this.right[node] : this.left[node]);
+        }
+        this.boundOffsets[att] = previous;
+    }
+
+    /**
+     * Sums the squared offsets in attribute order, so that the bound never
+     * exceeds a distance summed in the same order.
+     */
+    protected double lowerBound() {
+        double bound = 0;
+        for (int j : this.numericAttributes) {
+            double offset = this.boundOffsets[j];
+            bound += offset * offset;
+        }
+        return bound;
+    }
+
+    protected boolean hasMissingNumericValue(int slot) {
+        int offset = slot * this.numAttributes;
+        for (int j : this.numericAttributes) {
+            if (Double.isNaN(this.values[offset + j])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void insertInTree(int slot) {
+        this.insertionsSinceBuild++;
+        if (this.insertionsSinceBuild >= Math.max(this.size, 4 * LEAF_SIZE)) {
+            buildTree();
+            return;
+        }
+        if (hasMissingNumericValue(slot)) {
+            this.slotLeaf[slot] = NOT_INDEXED;
+            this.slotPosition[slot] = this.numUnindexed;
+            this.unindexed[this.numUnindexed++] = slot;
+            return;
+        }
+        if (this.root < 0) {
+            this.root = newLeaf(new int[2 * LEAF_SIZE + 1], 0);
+        }
+        int node = this.root;
+        int offset = slot * this.numAttributes;
+        while (this.bucket[node] == null) {
+            node = this.values[offset + this.splitAttribute[node]] <= this.splitValue[node]
+                    ? this.left[node] : this.right[node];
+        }
+        int[] slots = this.bucket[node];
+        if (this.bucketSize[node] == slots.length) {
+            slots = Arrays.copyOf(slots, 2 * slots.length);
+            this.bucket[node] = slots;
+        }
+        this.slotLeaf[slot] = node;
+        this.slotPosition[slot] = this.bucketSize[node];
+        slots[this.bucketSize[node]++] = slot;
+        // leaves of equal instances cannot be split, so only retry every
+        // LEAF_SIZE insertions
+        if (this.bucketSize[node] > 2 * LEAF_SIZE && (this.bucketSize[node] - 1) % LEAF_SIZE == 0) {
+            splitLeaf(node);
+        }
+    }
+
+    protected void removeFromTree(int slot) {
+        int position = this.slotPosition[slot];
+        if (this.slotLeaf[slot] == NOT_INDEXED) {
+            int last = this.unindexed[--this.numUnindexed];
+            this.unindexed[position] = last;
+            this.slotPosition[last] = position;
+        } else {
+            int node = this.slotLeaf[slot];
+            int last = this.bucket[node][--this.bucketSize[node]];
+            this.bucket[node][position] = last;
+            this.slotPosition[last] = position;
+        }
+    }
+
+    /**
+     * Rebuilds the tree from the instances of the window.
+     */
+    protected void buildTree() {
+        this.insertionsSinceBuild = 0;
+        this.numNodes = 0;
+        this.root = -1;
+        this.numUnindexed = 0;
+        int[] slots = new int[this.size];
+        int n = 0;
+        for (int i = 0; i < this.size; i++) {
+            int slot = (this.start + i) % this.capacity;
+            if (hasMissingNumericValue(slot)) {
+                this.slotLeaf[slot] = NOT_INDEXED;
+                this.slotPosition[slot] = this.numUnindexed;
+                this.unindexed[this.numUnindexed++] = slot;
+            } else {
+                slots[n++] = slot;
+            }
+        }
+        if (n > 0) {
+            updateRanges();
+            this.root = build(slots, 0, n);
+        }
+    }
+
+    protected int build(int[] slots, int from, int to) {
+        int att = to - from > LEAF_SIZE ? chooseSplit(slots, from, to) : -1;
+        if (att < 0) {
+            int[] leafSlots = new int[Math.max(2 * LEAF_SIZE + 1, to - from)];
+            System.arraycopy(slots, from, leafSlots, 0, to - from);
+            return newLeaf(leafSlots, to - from);
+        }
+        double value = this.splitValue[this.numNodes];
+        int mid = partition(slots, from, to, att, value);
+        int node = newNode();
+        this.splitAttribute[node] = att;
+        this.splitValue[node] = value;
+        int l = build(slots, from, mid);
+        int r = build(slots, mid, to);
+        this.left[node] = l;
+        this.right[node] = r;
+        return node;
+    }
+
+    protected void splitLeaf(int node) {
+        int[] slots = this.bucket[node];
+        int n = this.bucketSize[node];
+        updateRanges();
+        int att = chooseSplit(slots, 0, n);
+        if (att < 0) {
+            return; // all the instances of the leaf are equal
+        }
+        double value = this.splitValue[this.numNodes];
+        int mid = partition(slots, 0, n, att, value);
+        int[] leftSlots = new int[2 * LEAF_SIZE + 1];
+        int[] rightSlots = new int[2 * LEAF_SIZE + 1];
+        System.arraycopy(slots, 0, leftSlots, 0, mid);
+        System.arraycopy(slots, mid, rightSlots, 0, n - mid);
+        int l = newLeaf(leftSlots, mid);
+        int r = newLeaf(rightSlots, n - mid);
+        this.bucket[node] = null;
+        this.bucketSize[node] = 0;
+        this.splitAttribute[node] = att;
+        this.splitValue[node] = value;
+        this.left[node] = l;
+        this.right[node] = r;
+    }
+
+    /**
+     * Chooses the numeric attribute with the largest normalised spread among
+     * some slots, and a split value leaving instances on both sides. The split
+     * value is stored at index numNodes of splitValue.
+     *
+     * @return the attribute, or -1 if no attribute can split the slots
+     */
+    protected int chooseSplit(int[] slots, int from, int to) {
+        int bestAtt = -1;
+        double bestSpread = 0;
+        for (int j : this.numericAttributes) {
+            if (!(this.rangeWidth[j] > 0) || Double.isInfinite(this.rangeWidth[j])) {
+                continue;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = this.values[slots[i] * this.numAttributes + j];
+                if (value < min) {
+                    min = value;
+                }
+                if (value > max) {
+                    max = value;
+                }
+            }
+            double spread = (max - min) / this.rangeWidth[j];
+            if (spread > bestSpread) {
+                bestSpread = spread;
+                bestAtt = j;
+            }
+        }
+        if (bestAtt < 0) {
+            return -1;
+        }
+        int n = to - from;
+        if (this.sortBuffer.length < n) {
+            this.sortBuffer = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            this.sortBuffer[i] = this.values[slots[from + i] * this.numAttributes + bestAtt];
+        }
+        Arrays.sort(this.sortBuffer, 0, n);
+        // the median, or the largest value below the maximum
+        int m = n / 2 - 1;
+        while (m > 0 && this.sortBuffer[m] >= this.sortBuffer[n - 1]) {
+            m--;
+        }
+        ensureNodeCapacity(this.numNodes + 1);
+        this.splitValue[this.numNodes] = this.sortBuffer[m];
+        return bestAtt;
+    }
+
+    /**
+     * Moves the slots whose value is at most the split value first.
+     *
+     * @return the index of the first slot above the split value
+     */
+    protected int partition(int[] slots, int from, int to, int att, double value) {
+        int i = from;
+        int j = to - 1;
+        while (i <= j) {
+            if (this.values[slots[i] * this.numAttributes + att] <= value) {
+                i++;
+            } else {
+                int tmp = slots[i];
+                slots[i] = slots[j];
+                slots[j] = tmp;
+                j--;
+            }
+        }
+        return i;
+    }
+
+    protected int newNode() {
+        ensureNodeCapacity(this.numNodes + 1);
+        int node = this.numNodes++;
+        this.bucket[node] = null;
+        this.bucketSize[node] = 0;
+        return node;
+    }
+
+    protected int newLeaf(int[] slots, int n) {
+        int node = newNode();
+        this.bucket[node] = slots;
+        this.bucketSize[node] = n;
+        for (int i = 0; i < n; i++) {
+            this.slotLeaf[slots[i]] = node;
+            this.slotPosition[slots[i]] = i;
+        }
+        return node;
+    }
+
+    protected void ensureNodeCapacity(int n) {
+        if (n >= this.splitAttribute.length) {
+            int length = 2 * n;
+            this.splitAttribute = Arrays.copyOf(this.splitAttribute, length);
+            this.splitValue = Arrays.copyOf(this.splitValue, length);
+            this.left = Arrays.copyOf(this.left, length);
+            this.right = Arrays.copyOf(this.right, length);
+            this.bucket = Arrays.copyOf(this.bucket, length);
+            this.bucketSize = Arrays.copyOf(this.bucketSize, length);
+        }
+    }
+}
@@ -37,8 +37,12 @@ import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.MultiChoiceOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import moa.classifiers.trees.ARFHoeffdingTree;
 import moa.evaluation.BasicClassificationPerformanceEvaluator;
@@ -144,6 +148,8 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
     protected BasicClassificationPerformanceEvaluator evaluator;
 
     private ExecutorService executor;
+
+    private int numberOfJobs;
     
     @Override
     public void resetLearningImpl() {
@@ -154,15 +160,14 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         this.evaluator = new BasicClassificationPerformanceEvaluator();
         
         // Multi-threading
-        int numberOfJobs;
         if(this.numberOfJobsOption.getValue() == -1) 
-            numberOfJobs = Runtime.getRuntime().availableProcessors();
+            this.numberOfJobs = Runtime.getRuntime().availableProcessors();
         else 
-            numberOfJobs = this.numberOfJobsOption.getValue();
+            this.numberOfJobs = this.numberOfJobsOption.getValue();
         // SINGLE_THREAD and requesting for only 1 thread are equivalent. 
         // this.executor will be null and not used...
-        if(numberOfJobs != AdaptiveRandomForest.SINGLE_THREAD && numberOfJobs != 1)
-            this.executor = Executors.newFixedThreadPool(numberOfJobs);
+        if(this.numberOfJobs != AdaptiveRandomForest.SINGLE_THREAD && this.numberOfJobs != 1)
+            this.executor = Executors.newFixedThreadPool(this.numberOfJobs);
     }
 
     @Override
@@ -197,27 +202,129 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         }
     }
 
+    /**
+     * Combines the votes of the members. With multiple jobs the members vote 
+     * in parallel, each job on its own contiguous share of the ensemble, and 
+     * their votes are then added in the order of the ensemble, so that the 
+     * result is the same as with a single thread.
+     */
     @Override
     public double[] getVotesForInstance(Instance instance) {
-        Instance testInstance = instance.copy();
+        final Instance testInstance = instance.copy();
         if(this.ensemble == null) 
             initEnsemble(testInstance);
-        DoubleVector combinedVote = new DoubleVector();
+        if(this.executor == null || this.ensemble.length < 2)
+            return getCombinedVote(testInstance);
+
+        // one row per member, allocated per call so that concurrent calls do not share them
+        final double[][] votes = new double[this.ensemble.length][];
+        int numberOfTasks = Math.min(this.numberOfJobs, this.ensemble.length);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberOfTasks);
+        for(int t = 0 ; t < numberOfTasks ; ++t) {
+            final int from = this.ensemble.length * t / numberOfTasks;
+            final int to = this.ensemble.length * (t + 1) / numberOfTasks;
+            tasks.add(() -> {
+                for(int i = from ; i < to ; ++i)
+                    votes[i] = getWeightedVote(this.ensemble[i], testInstance);
+                return null;
+            });
+        }
+        invokeAllAndWait(tasks);
+
+        double[] combinedVote = new double[0];
+        for(int i = 0 ; i < votes.length ; ++i) {
+            if(votes[i] != null)
+                combinedVote = addVote(combinedVote, votes[i]);
+        }
+        return combinedVote;
+    }
+
+    /**
+     * Returns the votes for each of the instances, the same as 
+     * getVotesForInstance. With multiple jobs each job predicts its own 
+     * contiguous share of the instances.
+     */
+    public double[][] getVotesForInstances(final Instance[] instances) {
+        final double[][] votes = new double[instances.length][];
+        if(instances.length == 0)
+            return votes;
+        if(this.ensemble == null) 
+            initEnsemble(instances[0].copy());
+        if(this.executor == null || instances.length < 2) {
+            for(int n = 0 ; n < instances.length ; ++n)
+                votes[n] = getCombinedVote(instances[n].copy());
+            return votes;
+        }
+
+        int numberOfTasks = Math.min(this.numberOfJobs, instances.length);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberOfTasks);
+        for(int t = 0 ; t < numberOfTasks ; ++t) {
+            final int from = (int) ((long) instances.length * t / numberOfTasks);
+            final int to = (int) ((long) instances.length * (t + 1) / numberOfTasks);
+            tasks.add(() -> {
+                for(int n = from ; n < to ; ++n)
+                    votes[n] = getCombinedVote(instances[n].copy());
+                return null;
+            });
+        }
+        invokeAllAndWait(tasks);
+        return votes;
+    }
 
+    private double[] getCombinedVote(Instance testInstance) {
+        double[] combinedVote = new double[0];
         for(int i = 0 ; i < this.ensemble.length ; ++i) {
-            DoubleVector vote = new DoubleVector(this.ensemble[i].getVotesForInstance(testInstance));
-            if (vote.sumOfValues() > 0.0) {
-                vote.normalize();
-                double acc = this.ensemble[i].evaluator.getPerformanceMeasurements()[1].getValue();
-                if(! this.disableWeightedVote.isSet() && acc > 0.0) {                        
-                    for(int v = 0 ; v < vote.numValues() ; ++v) {
-                        vote.setValue(v, vote.getValue(v) * acc);
-                    }
-                }
-                combinedVote.addValues(vote);
-            }
+            double[] vote = getWeightedVote(this.ensemble[i], testInstance);
+            if(vote != null)
+                combinedVote = addVote(combinedVote, vote);
+        }
+        return combinedVote;
+    }
+
+    /**
+     * Returns the vote of a member normalized and, unless disabled, weighted 
+     * by the member's accuracy, or null if the member has no vote.
+     */
+    private double[] getWeightedVote(ARFBaseLearner learner, Instance testInstance) {
+        double[] vote = learner.getVotesForInstance(testInstance);
+        double sum = 0.0;
+        double sumOfAbsoluteValues = 0.0;
+        for(double v : vote) {
+            sum += v;
+            sumOfAbsoluteValues += (v > 0.0) ? v : -v;
+        }
+        if(!(sum > 0.0))
+            return null;
+        double scale = 1.0 / sumOfAbsoluteValues;
+        for(int v = 0 ; v < vote.length ; ++v)
+            vote[v] = vote[v] * scale;
+        // the same value as the accuracy in the evaluator's measurements
+        double acc = learner.evaluator.getFractionCorrectlyClassified() * 100.0;
+        if(! this.disableWeightedVote.isSet() && acc > 0.0) {
+            for(int v = 0 ; v < vote.length ; ++v)
+                vote[v] = vote[v] * acc;
+        }
+        return vote;
+    }
+
+    private static double[] addVote(double[] combinedVote, double[] vote) {
+        if(vote.length > combinedVote.length)
+            combinedVote = Arrays.copyOf(combinedVote, vote.length);
+        for(int v = 0 ; v < vote.length ; ++v)
+            combinedVote[v] += vote[v];
+        return combinedVote;
+    }
+
+    private void invokeAllAndWait(List<Callable<Void>> tasks) {
+        try {
+            for(Future<Void> future : this.executor.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Could not call invokeAll() on prediction threads.");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
         }
-        return combinedVote.getArrayRef();
     }
 
     @Override
@@ -36,6 +36,8 @@ import com.yahoo.labs.samoa.instances.Instance;
 import moa.core.DoubleVector;
 import moa.core.Measurement;
 import moa.core.MiscUtils;
+import moa.core.RangeExecutor;
+import moa.core.Utils;
 
 /**
  * Leveraging Bagging for evolving data streams using ADWIN. Leveraging Bagging
@@ -84,6 +86,9 @@ public class LeveragingBag extends AbstractClassifier implements MultiClassClass
                 "Leveraging Subagging using resampling without replacement."
             }, 0);
 
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Total number of concurrent jobs used for processing (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+
     protected Classifier[] ensemble;
 
     protected ADWIN[] ADError;
@@ -146,6 +151,12 @@ public class LeveragingBag extends AbstractClassifier implements MultiClassClass
         }
 
 
+        int numberOfJobs = this.numberOfJobsOption.getValue();
+        if (numberOfJobs != 0 && numberOfJobs != 1 && this.ensemble.length > 1) {
+            trainOnInstanceInParallel(inst, RangeExecutor.getShared(numberOfJobs));
+            return;
+        }
+
         boolean Change = false;
         Instance weightedInst = (Instance) inst.copy();
         double w = this.weightShrinkOption.getValue();
@@ -191,23 +202,108 @@ public class LeveragingBag extends AbstractClassifier implements MultiClassClass
             }
         }
         if (Change) {
-            numberOfChangesDetected++;
-            double max = 0.0;
-            int imax = -1;
-            for (int i = 0; i < this.ensemble.length; i++) {
-                if (max < this.ADError[i].getEstimation()) {
-                    max = this.ADError[i].getEstimation();
-                    imax = i;
+            resetWorstMember();
+        }
+    }
+
+    /**
+     * Trains the members in parallel, with the same result as one after the
+     * other. The weights are drawn first, in the order of the members and
+     * from the votes they had before training for LeveragingBagME, and each
+     * member then trains on its own copy of the instance, with the class and
+     * weight that the shared instance of the serial loop would have had.
+     */
+    protected void trainOnInstanceInParallel(final Instance inst, RangeExecutor executor) {
+        final int n = this.ensemble.length;
+        final int algorithm = this.leveraginBagAlgorithmOption.getChosenIndex();
+        final int[] predictedClasses = new int[n];
+        if (algorithm == 1) {
+            executor.run(n, 1, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    predictedClasses[i] = Utils.maxIndex(this.ensemble[i].getVotesForInstance(inst));
+                }
+            });
+        }
+
+        final double[] k = new double[n];
+        final double[] classValues = new double[n];
+        double w = this.weightShrinkOption.getValue();
+        double classValue = inst.classValue();
+        for (int i = 0; i < n; i++) {
+            switch (algorithm) {
+                case 0: //LeveragingBag
+                    k[i] = MiscUtils.poisson(w, this.classifierRandom);
+                    break;
+                case 1: //LeveragingBagME
+                    double error = this.ADError[i].getEstimation();
+                    k[i] = predictedClasses[i] != (int) classValue ? 1.0 : (this.classifierRandom.nextDouble() < (error / (1.0 - error)) ? 1.0 : 0.0);
+                    break;
+                case 2: //LeveragingBagHalf
+                    w = 1.0;
+                    k[i] = this.classifierRandom.nextBoolean() ? 0.0 : w;
+                    break;
+                case 3: //LeveragingBagWT
+                    w = 1.0;
+                    k[i] = 1.0 + MiscUtils.poisson(w, this.classifierRandom);
+                    break;
+                case 4: //LeveragingSubag
+                    w = 1.0;
+                    k[i] = MiscUtils.poisson(1, this.classifierRandom);
+                    k[i] = (k[i] > 0) ? w : 0;
+                    break;
+            }
+            if (k[i] > 0 && this.outputCodesOption.isSet()) {
+                classValue = (double) this.matrixCodes[i][(int) inst.classValue()];
+            }
+            classValues[i] = classValue;
+        }
+
+        final boolean[] changes = new boolean[n];
+        executor.run(n, 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Instance weightedInst = (Instance) inst.copy();
+                weightedInst.setClassValue(classValues[i]);
+                if (k[i] > 0) {
+                    weightedInst.setWeight(inst.weight() * k[i]);
+                    this.ensemble[i].trainOnInstance(weightedInst);
+                }
+                boolean correctlyClassifies = this.ensemble[i].correctlyClassifies(weightedInst);
+                double ErrEstim = this.ADError[i].getEstimation();
+                if (this.ADError[i].setInput(correctlyClassifies ? 0 : 1)) {
+                    if (this.ADError[i].getEstimation() > ErrEstim) {
+                        changes[i] = true;
+                    }
                 }
             }
-            if (imax != -1) {
-                this.ensemble[imax].resetLearning();
-                //this.ensemble[imax].trainOnInstance(inst);
-                this.ADError[imax] = new ADWIN((double) this.deltaAdwinOption.getValue());
+        });
+        for (int i = 0; i < n; i++) {
+            if (changes[i]) {
+                resetWorstMember();
+                break;
             }
         }
     }
 
+    /**
+     * Resets the member with the highest estimated error, after a change.
+     */
+    protected void resetWorstMember() {
+        numberOfChangesDetected++;
+        double max = 0.0;
+        int imax = -1;
+        for (int i = 0; i < this.ensemble.length; i++) {
+            if (max < this.ADError[i].getEstimation()) {
+                max = this.ADError[i].getEstimation();
+                imax = i;
+            }
+        }
+        if (imax != -1) {
+            this.ensemble[imax].resetLearning();
+            //this.ensemble[imax].trainOnInstance(inst);
+            this.ADError[imax] = new ADWIN((double) this.deltaAdwinOption.getValue());
+        }
+    }
+
     @Override
     public double[] getVotesForInstance(Instance inst) {
         if (this.outputCodesOption.isSet()) {
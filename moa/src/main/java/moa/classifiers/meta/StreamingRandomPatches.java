@@ -65,6 +65,7 @@ import java.util.Random;
  * <li>-w : Should use weighted voting?</li>
  * <li>-u : Should use drift detection? If disabled, then the bkg learner is also disabled.</li>
  * <li>-q : Should use bkg learner? If disabled, then trees are reset immediately.</li>
+ * <li>-j : Number of threads used to train the learners, with the same results as a single thread.</li>
  * </ul>
  *
  * @author Heitor Murilo Gomes (heitor dot gomes at waikato dot ac dot nz)
@@ -118,6 +119,9 @@ public class StreamingRandomPatches extends AbstractClassifier implements MultiC
     public FlagOption disableBackgroundLearnerOption = new FlagOption("disableBackgroundLearner", 'q',
             "Should use bkg learner? If disabled, then trees are reset immediately.");
 
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Total number of concurrent jobs used for processing (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+
     public static final int TRAIN_RANDOM_SUBSPACES = 0;
     public static final int TRAIN_RESAMPLING = 1;
     public static final int TRAIN_RANDOM_PATCHES = 2;
@@ -142,6 +146,12 @@ public class StreamingRandomPatches extends AbstractClassifier implements MultiC
         if(this.ensemble == null)
             initEnsemble(instance);
 
+        int numberOfJobs = this.numberOfJobsOption.getValue();
+        if(numberOfJobs != 0 && numberOfJobs != 1 && this.ensemble.length > 1) {
+            trainOnInstanceInParallel(instance, RangeExecutor.getShared(numberOfJobs));
+            return;
+        }
+
         for (int i = 0 ; i < this.ensemble.length ; i++) {
             double[] rawVote = this.ensemble[i].getVotesForInstance(instance);
             DoubleVector vote = new DoubleVector(rawVote);
@@ -163,6 +173,47 @@ public class StreamingRandomPatches extends AbstractClassifier implements MultiC
         }
     }
 
+    /**
+     * Trains the learners in parallel, with the same results as one after the
+     * other. The learners only use the shared random generator when one of
+     * their detectors signals, to pick a new subspace, and the next weights
+     * are drawn from it, so the learners are trained in runs that end with
+     * the first learner whose detectors may signal on this instance.
+     */
+    protected void trainOnInstanceInParallel(final Instance instance, RangeExecutor executor) {
+        final int n = this.ensemble.length;
+        // Each learner's vote depends on itself only
+        executor.run(n, 1, (from, to) -> {
+            for(int i = from ; i < to ; ++i) {
+                DoubleVector vote = new DoubleVector(this.ensemble[i].getVotesForInstance(instance));
+                InstanceExample example = new InstanceExample(instance);
+                this.ensemble[i].evaluator.addResult(example, vote.getArrayRef());
+            }
+        });
+
+        final double[] weights = new double[n];
+        for(int start = 0 ; start < n ; ) {
+            int end = start;
+            boolean mayUseRandom = false;
+            while(end < n && !mayUseRandom) {
+                if(this.trainingMethodOption.getChosenIndex() == TRAIN_RANDOM_SUBSPACES)
+                    weights[end] = 1;
+                else
+                    weights[end] = MiscUtils.poisson(this.lambdaOption.getValue(), this.classifierRandom);
+                mayUseRandom = weights[end] > 0 && this.ensemble[end].mayUseRandom();
+                ++end;
+            }
+            final int first = start;
+            executor.run(end - start, 1, (from, to) -> {
+                for(int i = first + from ; i < first + to ; ++i) {
+                    if(weights[i] > 0)
+                        this.ensemble[i].trainOnInstance(instance, weights[i], this.instancesSeen, this.classifierRandom);
+                }
+            });
+            start = end;
+        }
+    }
+
     @Override
     public double[] getVotesForInstance(Instance instance) {
         Instance testInstance = instance.copy();
@@ -577,6 +628,17 @@ public class StreamingRandomPatches extends AbstractClassifier implements MultiC
             }
         }
 
+        /**
+         * @return whether training on the next instance may draw from the random generator, which only happens
+         * when a detector of a learner with a subspace signals
+         */
+        public boolean mayUseRandom() {
+            if(this.subset == null || this.disableDriftDetector || this.isBackgroundLearner)
+                return false;
+            return this.driftDetectionMethod.mayDetectChangeOnNextInput()
+                    || (!this.disableBkgLearner && this.warningDetectionMethod.mayDetectChangeOnNextInput());
+        }
+
         public void triggerWarning(Instance instance, long instancesSeen, Random random) {
             Classifier bkgClassifier = this.classifier.copy();
             bkgClassifier.resetLearning();
@@ -23,7 +23,7 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.core.driftdetection.ADWIN;
-import moa.classifiers.lazy.neighboursearch.LinearNNSearch;
+import moa.classifiers.lazy.neighboursearch.MatrixNNSearch;
 import moa.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
 import weka.core.Attribute;
 
@@ -308,7 +308,7 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
     	Instance instanceI = minoritySamples.instance(pos);    	
     	
     	NearestNeighbourSearch search;
-    	search = new LinearNNSearch(minoritySamples);     	 
+    	search = new MatrixNNSearch(minoritySamples);     	 
 		try {
 			Instances neighbours = search.kNearestNeighbours(instanceI,Math.min(this.neighbors,minoritySamples.numInstances()-1));			
 			// create synthetic sample    	
@@ -40,7 +40,7 @@ import java.util.Enumeration;
 import java.util.Random;
 
 import moa.classifiers.core.driftdetection.ADWIN;
-import moa.classifiers.lazy.neighboursearch.LinearNNSearch;
+import moa.classifiers.lazy.neighboursearch.MatrixNNSearch;
 import moa.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
 
 
@@ -242,7 +242,7 @@ public class OnlineSMOTEBagging extends AbstractClassifier implements MultiClass
     	int k = 5;
     	if (this.posSamples.numInstances() > 1) {
     		Instance x = this.posSamples.instance(this.posSamples.numInstances() - 1);    		
-    		NearestNeighbourSearch search = new LinearNNSearch(this.posSamples);
+    		NearestNeighbourSearch search = new MatrixNNSearch(this.posSamples);
     		try {
 				Instances neighbours = search.kNearestNeighbours(x,Math.min(k,this.posSamples.numInstances()-1));
 				// create synthetic sample    	
@@ -31,8 +31,9 @@ package moa.classifiers.rules;
  * 
  **/
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.List;
 
 import moa.classifiers.AbstractClassifier;
 import moa.classifiers.rules.core.Rule;
@@ -197,41 +198,37 @@ public abstract class AbstractAMRules extends AbstractClassifier {
 		numInstances+=instance.weight();
 		debug("Train",3);
 		debug("Nº instance "+numInstances + " - " + instance.toString(),3);
-		boolean rulesCoveringInstance = false;
-		Iterator<Rule> ruleIterator= this.ruleSet.iterator();
-		while (ruleIterator.hasNext()) { 
-			Rule rule = ruleIterator.next();
-			if (rule.isCovering(instance) == true) {
-				rulesCoveringInstance = true;
-				if (isAnomaly(instance, rule) == false) {
-					//Update Change Detection Tests
-					double error = rule.computeError(instance); //Use adaptive mode error
-					boolean changeDetected = rule.getLearningNode().updateChangeDetection(error);
-					if (changeDetected == true) {
-						debug("I) Drift Detected. Exa. : " +  this.numInstances + " (" + rule.getInstancesSeen() +") Remove Rule: " +rule.getRuleNumberID(),1);
-
-						ruleIterator.remove();
-						this.numChangesDetected+=instance.weight();  //Just for statistics 
-					} else {
-						rule.updateStatistics(instance);
-						if (rule.getInstancesSeen()  % this.gracePeriodOption.getValue() == 0.0) {
-							if (rule.tryToExpand(this.splitConfidenceOption.getValue(), this.tieThresholdOption.getValue()) ) 
-							{
-								rule.split();
-								debug("Rule Expanded:",2);
-								debug(rule.printRule(),2);
-							}	
-						}
+		List<Rule> coveringRules = new ArrayList<Rule>();
+		this.ruleSet.getCoveringRules(instance, !this.unorderedRulesOption.isSet(), coveringRules);
+		boolean rulesCoveringInstance = !coveringRules.isEmpty();
+		for (Rule rule : coveringRules) {
+			if (isAnomaly(instance, rule) == false) {
+				//Update Change Detection Tests
+				double error = rule.computeError(instance); //Use adaptive mode error
+				boolean changeDetected = rule.getLearningNode().updateChangeDetection(error);
+				if (changeDetected == true) {
+					debug("I) Drift Detected. Exa. : " +  this.numInstances + " (" + rule.getInstancesSeen() +") Remove Rule: " +rule.getRuleNumberID(),1);
+
+					this.ruleSet.remove(rule);
+					this.numChangesDetected+=instance.weight();  //Just for statistics 
+				} else {
+					rule.updateStatistics(instance);
+					if (rule.getInstancesSeen()  % this.gracePeriodOption.getValue() == 0.0) {
+						if (rule.tryToExpand(this.splitConfidenceOption.getValue(), this.tieThresholdOption.getValue()) ) 
+						{
+							rule.split();
+							this.ruleSet.ruleChanged(rule);
+							debug("Rule Expanded:",2);
+							debug(rule.printRule(),2);
+						}	
 					}
 				}
-				else {
-					debug("Anomaly Detected: " + this.numInstances + " Rule: " +rule.getRuleNumberID() ,1);
-					this.numAnomaliesDetected+=instance.weight();//Just for statistics
-				}
-				if (!this.unorderedRulesOption.isSet()) 
-					break;
 			}
-		}	
+			else {
+				debug("Anomaly Detected: " + this.numInstances + " Rule: " +rule.getRuleNumberID() ,1);
+				this.numAnomaliesDetected+=instance.weight();//Just for statistics
+			}
+		}
 
 		if (rulesCoveringInstance == false){ 
 			defaultRule.updateStatistics(instance);
@@ -407,19 +404,17 @@ public abstract class AbstractAMRules extends AbstractClassifier {
 		int numberOfRulesCovering = 0;
 
 		VerboseToConsole(instance); // Verbose to console Dataset name.
-		for (Rule rule : ruleSet) {
-			if (rule.isCovering(instance) == true){
-				numberOfRulesCovering++;
-				//DoubleVector vote = new DoubleVector(rule.getPrediction(instance));
-				double [] vote=rule.getPrediction(instance);
-				double error= rule.getCurrentError();
-				debug("Rule No"+ rule.getRuleNumberID() + " Vote: " + Arrays.toString(vote) + " Error: " + error + " Y: " + instance.classValue(),3); //predictionValueForThisRule);
-				errorWeightedVote.addVote(vote,error);
-				//combinedVote.addValues(vote);
-				if (!this.unorderedRulesOption.isSet()) { // Ordered Rules Option.
-					break; // Only one rule cover the instance.
-				}
-			}
+		List<Rule> coveringRules = new ArrayList<Rule>();
+		// Ordered Rules Option: only one rule covers the instance.
+		ruleSet.getCoveringRules(instance, !this.unorderedRulesOption.isSet(), coveringRules);
+		for (Rule rule : coveringRules) {
+			numberOfRulesCovering++;
+			//DoubleVector vote = new DoubleVector(rule.getPrediction(instance));
+			double [] vote=rule.getPrediction(instance);
+			double error= rule.getCurrentError();
+			debug("Rule No"+ rule.getRuleNumberID() + " Vote: " + Arrays.toString(vote) + " Error: " + error + " Y: " + instance.classValue(),3); //predictionValueForThisRule);
+			errorWeightedVote.addVote(vote,error);
+			//combinedVote.addValues(vote);
 		}
 
 		if (numberOfRulesCovering == 0) {
@@ -103,6 +103,10 @@ public class NominalRulePredicate extends AbstractMOAObject implements Predicate
 		return inputAttributeIndex;
 	}
 
+	public double getAttributeValue() {
+		return attributeValue;
+	}
+
 	@Override
 	public boolean isEqualOrLess() {
 		return isEqual;
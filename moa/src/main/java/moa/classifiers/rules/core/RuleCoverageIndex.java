@@ -0,0 +1,452 @@
+/*
+ *    RuleCoverageIndex.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+package moa.classifiers.rules.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the rules of a rule set covering each region of the instance
+ * space, used by the rule sets of AMRules to find the rules covering an
+ * instance without testing all of them.
+ *
+ * The predicates of a rule are compiled into arrays of conditions on the
+ * values of single attributes. One condition of each rule, its anchor, goes
+ * in a list of the conditions of the same kind on the same attribute, sorted
+ * by value, so that the rules whose anchor holds for an instance are a range
+ * of that list, found by binary search. Only these rules have their other
+ * conditions tested. The anchor of a rule is the condition that the most
+ * values seen so far fail. Rules with predicates that cannot be compiled are
+ * tested with the rule set's own test.
+ *
+ * The owner of the index rebuilds it when rules are added or removed, and
+ * calls ruleChanged when the predicates of a rule change.
+ */
+public class RuleCoverageIndex<R> {
+
+	/** value &lt;= condition value */
+	public static final int LOWER_OR_EQUAL = 0;
+
+	/** not (value &lt;= condition value) */
+	public static final int NOT_LOWER_OR_EQUAL = 1;
+
+	/** value == condition value */
+	public static final int EQUAL = 2;
+
+	/** not (value == condition value) */
+	public static final int NOT_EQUAL = 3;
+
+	/**
+	 * Compiles the predicates of a rule.
+	 */
+	public interface RuleCompiler<R> {
+
+		/**
+		 * Adds the conditions of the rule, none of which holds for a missing
+		 * value.
+		 *
+		 * @return false if the rule has predicates that are not such
+		 * conditions
+		 */
+		boolean compile(R rule, Conditions conditions);
+	}
+
+	/**
+	 * Tests a rule that could not be compiled.
+	 */
+	public interface CoverageTest<R> {
+
+		boolean isCovering(R rule);
+	}
+
+	public static class Conditions {
+		int size;
+		int[] attributes = new int[4];
+		int[] tests = new int[4];
+		double[] values = new double[4];
+
+		public void add(int attribute, int test, double value) {
+			if (size == attributes.length) {
+				attributes = Arrays.copyOf(attributes, 2 * size);
+				tests = Arrays.copyOf(tests, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			attributes[size] = attribute;
+			tests[size] = test;
+			values[size] = value;
+			size++;
+		}
+	}
+
+	private static class CompiledRule<R> {
+		final R rule;
+		final int position;
+		boolean compiled;
+		int[] attributes;
+		int[] tests;
+		double[] values;
+		// index of the anchor condition, -1 if the rule is always tested
+		int anchor;
+
+		CompiledRule(R rule, int position) {
+			this.rule = rule;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * Anchor conditions of one kind on one attribute, sorted by value.
+	 */
+	private static class AnchorList {
+		double[] values = new double[8];
+		CompiledRule<?>[] rules = new CompiledRule<?>[8];
+		int size;
+
+		/**
+		 * @return the index of the first condition value not lower than the value
+		 */
+		int firstNotLower(double value) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (values[mid] < value) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @return the index of the first condition value greater than the value
+		 */
+		int firstGreater(double value) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (values[mid] <= value) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		void add(double value, CompiledRule<?> rule) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+				rules = Arrays.copyOf(rules, 2 * size);
+			}
+			int i = firstGreater(value);
+			System.arraycopy(values, i, values, i + 1, size - i);
+			System.arraycopy(rules, i, rules, i + 1, size - i);
+			values[i] = value;
+			rules[i] = rule;
+			size++;
+		}
+
+		void remove(double value, CompiledRule<?> rule) {
+			int i = firstNotLower(value);
+			while (rules[i] != rule) {
+				i++;
+			}
+			System.arraycopy(values, i + 1, values, i, size - i - 1);
+			System.arraycopy(rules, i + 1, rules, i, size - i - 1);
+			size--;
+			rules[size] = null;
+		}
+	}
+
+	private final RuleCompiler<? super R> compiler;
+
+	private final Conditions conditions = new Conditions();
+
+	private Map<R, CompiledRule<R>> compiledRules = new IdentityHashMap<R, CompiledRule<R>>();
+
+	private List<CompiledRule<R>> byPosition = new ArrayList<CompiledRule<R>>();
+
+	private List<CompiledRule<R>> unanchored = new ArrayList<CompiledRule<R>>();
+
+	private AnchorList[][] anchors = new AnchorList[3][0];
+
+	// range of the values seen for each attribute, to choose the anchors
+	private double[] minValues = new double[0];
+
+	private double[] maxValues = new double[0];
+
+	private double[] instanceValues = new double[0];
+
+	private boolean[] instanceMissing = new boolean[0];
+
+	private int[] coveringPositions = new int[0];
+
+	public RuleCoverageIndex(RuleCompiler<? super R> compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Indexes the rules, in the order given.
+	 */
+	public void rebuild(Iterable<? extends R> rules) {
+		compiledRules.clear();
+		byPosition.clear();
+		unanchored.clear();
+		for (AnchorList[] lists : anchors) {
+			for (AnchorList list : lists) {
+				list.size = 0;
+				Arrays.fill(list.rules, null);
+			}
+		}
+		for (R rule : rules) {
+			CompiledRule<R> c = new CompiledRule<R>(rule, byPosition.size());
+			compiledRules.put(rule, c);
+			byPosition.add(c);
+			compile(c);
+			anchor(c);
+		}
+		coveringPositions = new int[byPosition.size()];
+	}
+
+	/**
+	 * Updates the index after the predicates of an indexed rule changed.
+	 */
+	public void ruleChanged(R rule) {
+		CompiledRule<R> c = compiledRules.get(rule);
+		if (c != null) {
+			unanchor(c);
+			compile(c);
+			anchor(c);
+		}
+	}
+
+	/**
+	 * @return the number of attributes that the conditions of the rules test
+	 */
+	public int getNumberOfAttributes() {
+		return instanceValues.length;
+	}
+
+	/**
+	 * @return the array to fill with the values of the instance to test,
+	 * for each attribute
+	 */
+	public double[] getInstanceValues() {
+		return instanceValues;
+	}
+
+	/**
+	 * @return the array to fill with whether each value of the instance to
+	 * test is missing
+	 */
+	public boolean[] getInstanceMissing() {
+		return instanceMissing;
+	}
+
+	/**
+	 * Adds the rules covering the instance whose values were set to the list,
+	 * in the order of the rule set, or only the first of them.
+	 *
+	 * @param firstOnly whether to stop at the first covering rule, as with
+	 * an ordered rule set
+	 * @param test the test of the rules that could not be compiled
+	 * @param coveringRules the list receiving the rules
+	 */
+	public void getCoveringRules(boolean firstOnly, CoverageTest<? super R> test, List<? super R> coveringRules) {
+		int numAttributes = instanceValues.length;
+		for (int i = 0; i < numAttributes; i++) {
+			double value = instanceValues[i];
+			if (value < minValues[i]) {
+				minValues[i] = value;
+			}
+			if (value > maxValues[i]) {
+				maxValues[i] = value;
+			}
+		}
+
+		int count = 0;
+		AnchorList[] lowerOrEqual = anchors[LOWER_OR_EQUAL];
+		AnchorList[] notLowerOrEqual = anchors[NOT_LOWER_OR_EQUAL];
+		AnchorList[] equal = anchors[EQUAL];
+		for (int i = 0; i < numAttributes; i++) {
+			if (instanceMissing[i]) {
+				continue;
+			}
+			double value = instanceValues[i];
+			if (Double.isNaN(value)) {
+				// only the negated comparisons hold
+				count = addCovering(notLowerOrEqual[i], 0, notLowerOrEqual[i].size, count);
+				continue;
+			}
+			int lower = lowerOrEqual[i].firstNotLower(value);
+			count = addCovering(lowerOrEqual[i], lower, lowerOrEqual[i].size, count);
+			count = addCovering(notLowerOrEqual[i], 0, notLowerOrEqual[i].firstNotLower(value), count);
+			if (equal[i].size > 0) {
+				count = addCovering(equal[i], equal[i].firstNotLower(value), equal[i].firstGreater(value), count);
+			}
+		}
+		for (CompiledRule<R> c : unanchored) {
+			if (c.compiled ? covers(c) : test.isCovering(c.rule)) {
+				coveringPositions[count++] = c.position;
+			}
+		}
+
+		if (count == 0) {
+			return;
+		}
+		if (firstOnly) {
+			int first = coveringPositions[0];
+			for (int i = 1; i < count; i++) {
+				first = Math.min(first, coveringPositions[i]);
+			}
+			coveringRules.add(byPosition.get(first).rule);
+		} else {
+			Arrays.sort(coveringPositions, 0, count);
+			for (int i = 0; i < count; i++) {
+				coveringRules.add(byPosition.get(coveringPositions[i]).rule);
+			}
+		}
+	}
+
+	private int addCovering(AnchorList list, int from, int to, int count) {
+		for (int j = from; j < to; j++) {
+			CompiledRule<?> c = list.rules[j];
+			if (covers(c)) {
+				coveringPositions[count++] = c.position;
+			}
+		}
+		return count;
+	}
+
+	private boolean covers(CompiledRule<?> c) {
+		for (int i = 0; i < c.attributes.length; i++) {
+			int attribute = c.attributes[i];
+			if (instanceMissing[attribute]) {
+				return false;
+			}
+			double value = instanceValues[attribute];
+			boolean holds;
+			switch (c.tests[i]) {
+			case LOWER_OR_EQUAL:
+				holds = value <= c.values[i];
+				break;
+			case NOT_LOWER_OR_EQUAL:
+				holds = !(value <= c.values[i]);
+				break;
+			case EQUAL:
+				holds = value == c.values[i];
+				break;
+			default:
+				holds = !(value == c.values[i]);
+			}
+			if (!holds) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void compile(CompiledRule<R> c) {
+		conditions.size = 0;
+		c.compiled = compiler.compile(c.rule, conditions) && conditions.size > 0;
+		int maxAttribute = -1;
+		for (int i = 0; i < conditions.size && c.compiled; i++) {
+			if (Double.isNaN(conditions.values[i]) || conditions.attributes[i] < 0) {
+				c.compiled = false;
+			}
+			maxAttribute = Math.max(maxAttribute, conditions.attributes[i]);
+		}
+		if (!c.compiled) {
+			c.attributes = null;
+			c.tests = null;
+			c.values = null;
+			return;
+		}
+		c.attributes = Arrays.copyOf(conditions.attributes, conditions.size);
+		c.tests = Arrays.copyOf(conditions.tests, conditions.size);
+		c.values = Arrays.copyOf(conditions.values, conditions.size);
+		ensureAttributes(maxAttribute + 1);
+	}
+
+	private void ensureAttributes(int numAttributes) {
+		int old = instanceValues.length;
+		if (numAttributes <= old) {
+			return;
+		}
+		for (int k = 0; k < anchors.length; k++) {
+			anchors[k] = Arrays.copyOf(anchors[k], numAttributes);
+			for (int i = old; i < numAttributes; i++) {
+				anchors[k][i] = new AnchorList();
+			}
+		}
+		minValues = Arrays.copyOf(minValues, numAttributes);
+		maxValues = Arrays.copyOf(maxValues, numAttributes);
+		Arrays.fill(minValues, old, numAttributes, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxValues, old, numAttributes, Double.NEGATIVE_INFINITY);
+		instanceValues = new double[numAttributes];
+		instanceMissing = new boolean[numAttributes];
+	}
+
+	private void anchor(CompiledRule<R> c) {
+		c.anchor = -1;
+		if (!c.compiled) {
+			unanchored.add(c);
+			return;
+		}
+		// the condition holding for the smallest part of the range seen
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < c.attributes.length; i++) {
+			double min = minValues[c.attributes[i]];
+			double max = maxValues[c.attributes[i]];
+			double fraction;
+			if (c.tests[i] == NOT_EQUAL) {
+				continue;
+			} else if (c.tests[i] == EQUAL) {
+				fraction = 0;
+			} else if (max > min) {
+				double below = Math.min(Math.max((c.values[i] - min) / (max - min), 0), 1);
+				fraction = c.tests[i] == LOWER_OR_EQUAL ? below : 1 - below;
+			} else {
+				fraction = 0.5;
+			}
+			if (fraction < best) {
+				best = fraction;
+				c.anchor = i;
+			}
+		}
+		if (c.anchor < 0) {
+			unanchored.add(c);
+		} else {
+			anchors[c.tests[c.anchor]][c.attributes[c.anchor]].add(c.values[c.anchor], c);
+		}
+	}
+
+	private void unanchor(CompiledRule<R> c) {
+		if (c.anchor < 0) {
+			unanchored.remove(c);
+		} else {
+			anchors[c.tests[c.anchor]][c.attributes[c.anchor]].remove(c.values[c.anchor], c);
+		}
+	}
+}
@@ -20,9 +20,89 @@
 package moa.classifiers.rules.core;
 
 import java.util.ArrayList;
+import java.util.List;
 
+import moa.classifiers.rules.core.conditionaltests.NumericAttributeBinaryRulePredicate;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * The rules of AMRules, in order, with a RuleCoverageIndex to find the rules
+ * covering an instance. The index is rebuilt when rules are added or
+ * removed, and ruleChanged must be called when the predicates of a rule
+ * change.
+ */
 public class RuleSet extends ArrayList<Rule> {
 
 	private static final long serialVersionUID = 1L;
 	
+	private transient RuleCoverageIndex<Rule> coverageIndex;
+
+	private transient int indexedModCount;
+
+	/**
+	 * Adds the rules covering the instance to the list, in their order in the
+	 * set, or only the first of them.
+	 *
+	 * @param inst the instance
+	 * @param firstOnly whether to stop at the first covering rule, as with
+	 * an ordered rule set
+	 * @param coveringRules the list receiving the rules
+	 */
+	public void getCoveringRules(Instance inst, boolean firstOnly, List<Rule> coveringRules) {
+		if (coverageIndex == null) {
+			coverageIndex = new RuleCoverageIndex<Rule>(RuleSet::compile);
+			indexedModCount = modCount - 1;
+		}
+		if (indexedModCount != modCount) {
+			coverageIndex.rebuild(this);
+			indexedModCount = modCount;
+		}
+		double[] values = coverageIndex.getInstanceValues();
+		boolean[] missing = coverageIndex.getInstanceMissing();
+		for (int i = 0; i < values.length; i++) {
+			// same attribute index as the rule predicates
+			int instAttIndex = i < inst.classIndex() ? i : i + 1;
+			missing[i] = inst.isMissing(instAttIndex);
+			values[i] = inst.value(instAttIndex);
+		}
+		coverageIndex.getCoveringRules(firstOnly, rule -> rule.isCovering(inst), coveringRules);
+	}
+
+	/**
+	 * Updates the index after the predicates of a rule of the set changed.
+	 */
+	public void ruleChanged(Rule rule) {
+		if (coverageIndex != null && indexedModCount == modCount) {
+			coverageIndex.ruleChanged(rule);
+		}
+	}
+
+	private static boolean compile(Rule rule, RuleCoverageIndex.Conditions conditions) {
+		for (RuleSplitNode node : rule.getNodeList()) {
+			if (!(node.getSplitTest() instanceof NumericAttributeBinaryRulePredicate)) {
+				return false;
+			}
+			NumericAttributeBinaryRulePredicate predicate = (NumericAttributeBinaryRulePredicate) node.getSplitTest();
+			if (!predicate.isEqualOrLess()) {
+				// a negated predicate holds for missing values
+				return false;
+			}
+			switch (predicate.getOperator()) {
+			case 0:
+				conditions.add(predicate.getAttributeIndex(), RuleCoverageIndex.EQUAL, predicate.getSplitValue());
+				break;
+			case 1:
+				conditions.add(predicate.getAttributeIndex(), RuleCoverageIndex.LOWER_OR_EQUAL, predicate.getSplitValue());
+				break;
+			case 2:
+				// the same as greater for the values that are not missing
+				conditions.add(predicate.getAttributeIndex(), RuleCoverageIndex.NOT_LOWER_OR_EQUAL, predicate.getSplitValue());
+				break;
+			default:
+				return false;
+			}
+		}
+		return true;
+	}
 }
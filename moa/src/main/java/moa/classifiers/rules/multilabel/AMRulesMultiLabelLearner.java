@@ -20,6 +20,8 @@
 
 package moa.classifiers.rules.multilabel;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 
 import moa.classifiers.AbstractMultiLabelLearner;
@@ -202,20 +204,18 @@ public abstract class AMRulesMultiLabelLearner extends AbstractMultiLabelLearner
 		//int numberOfRulesCovering = 0;
 
 		VerboseToConsole(instance); // Verbose to console Dataset name.
-		for (MultiLabelRule rule : ruleSet) {
-			if (rule.isCovering(instance) == true){
-				//numberOfRulesCovering++;
-				Prediction vote=rule.getPredictionForInstance(instance);
-				if (vote!=null){ //should only happen for first instance
-					double [] errors= rule.getCurrentErrors();
-					if(errors==null) //if errors==null, rule has seen no predictions since expansion: return maximum error, since prediction is not reliable
-						errors=defaultRuleErrors(vote);
-					debug("Rule No"+ rule.getRuleNumberID() + " Vote: " + vote.toString() + " Error: " + errors + " Y: " + instance.classValue(),3); //predictionValueForThisRule);
-					errorWeightedVote.addVote(vote,errors);
-				}
-				if (!this.unorderedRulesOption.isSet()) { // Ordered Rules Option.
-					break; // Only one rule cover the instance.
-				}
+		List<MultiLabelRule> coveringRules = new ArrayList<MultiLabelRule>();
+		// Ordered Rules Option: only one rule covers the instance.
+		ruleSet.getCoveringRules(instance, !this.unorderedRulesOption.isSet(), coveringRules);
+		for (MultiLabelRule rule : coveringRules) {
+			//numberOfRulesCovering++;
+			Prediction vote=rule.getPredictionForInstance(instance);
+			if (vote!=null){ //should only happen for first instance
+				double [] errors= rule.getCurrentErrors();
+				if(errors==null) //if errors==null, rule has seen no predictions since expansion: return maximum error, since prediction is not reliable
+					errors=defaultRuleErrors(vote);
+				debug("Rule No"+ rule.getRuleNumberID() + " Vote: " + vote.toString() + " Error: " + errors + " Y: " + instance.classValue(),3); //predictionValueForThisRule);
+				errorWeightedVote.addVote(vote,errors);
 			}
 		}
 
@@ -305,12 +305,16 @@ public abstract class AMRulesMultiLabelLearner extends AbstractMultiLabelLearner
 		numInstances+=instance.weight();
 		debug("Train",3);
 		debug("Nº instance "+numInstances + " - " + instance.toString(),3);
-		boolean rulesCoveringInstance = false;
+		List<MultiLabelRule> coveringRules = new ArrayList<MultiLabelRule>();
+		this.ruleSet.getCoveringRules(instance, !this.unorderedRulesOption.isSet(), coveringRules);
+		boolean rulesCoveringInstance = !coveringRules.isEmpty();
+		int nextCoveringRule = 0;
 		ListIterator<MultiLabelRule> ruleIterator= this.ruleSet.listIterator();
-		while (ruleIterator.hasNext()) { 
+		// walk the set to remove and insert rules in place, as the covering rules come in its order
+		while (nextCoveringRule < coveringRules.size()) { 
 			MultiLabelRule rule = ruleIterator.next();
-			if (rule.isCovering(instance) == true) {
-				rulesCoveringInstance = true;
+			if (rule == coveringRules.get(nextCoveringRule)) {
+				nextCoveringRule++;
 				if (!rule.updateAnomalyDetection(instance)) {
 					if (rule.updateChangeDetection(instance)) {
 						debug("I) Drift Detected. Exa. : " +  this.numInstances + " (" + rule.getWeightSeenSinceExpansion() +") Remove Rule: " +rule.getRuleNumberID(),1);
@@ -325,6 +329,7 @@ public abstract class AMRulesMultiLabelLearner extends AbstractMultiLabelLearner
 						if (rule.getWeightSeenSinceExpansion()  % this.gracePeriodOption.getValue() == 0.0) {
 							if (rule.tryToExpand(this.splitConfidenceOption.getValue(), this.tieThresholdOption.getValue()) ) 
 							{
+								this.ruleSet.ruleChanged(rule);
 
 								MultiLabelRule otherMultiLabelRule=rule.getNewRuleFromOtherOutputs(); //Need to be outside to make sure other rules are cleaned
 								if(!dropOldRuleAfterExpansionOption.isSet() && rule.hasNewRuleFromOtherOutputs()){
@@ -346,9 +351,6 @@ public abstract class AMRulesMultiLabelLearner extends AbstractMultiLabelLearner
 					debug("Anomaly Detected: " + this.numInstances + " Rule: " +rule.getRuleNumberID() ,1);
 					this.numAnomaliesDetected+=instance.weight();//Just for statistics
 				}
-				if (!this.unorderedRulesOption.isSet()) 
-					break;
-
 			}
 		}	
 
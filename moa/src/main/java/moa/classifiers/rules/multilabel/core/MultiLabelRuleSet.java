@@ -20,9 +20,81 @@
 package moa.classifiers.rules.multilabel.core;
 
 import java.util.LinkedList;
+import java.util.List;
 
+import moa.classifiers.rules.core.NominalRulePredicate;
+import moa.classifiers.rules.core.NumericRulePredicate;
+import moa.classifiers.rules.core.Predicate;
+import moa.classifiers.rules.core.RuleCoverageIndex;
+
+import com.yahoo.labs.samoa.instances.MultiLabelInstance;
+
+/**
+ * The rules of the multi-label AMRules, in order, with a RuleCoverageIndex
+ * to find the rules covering an instance. The index is rebuilt when rules
+ * are added or removed, and ruleChanged must be called when the literals of
+ * a rule change.
+ */
 public class MultiLabelRuleSet extends LinkedList<MultiLabelRule> {
 
 	private static final long serialVersionUID = 1L;
 	
+	private transient RuleCoverageIndex<MultiLabelRule> coverageIndex;
+
+	private transient int indexedModCount;
+
+	/**
+	 * Adds the rules covering the instance to the list, in their order in the
+	 * set, or only the first of them.
+	 *
+	 * @param inst the instance
+	 * @param firstOnly whether to stop at the first covering rule, as with
+	 * an ordered rule set
+	 * @param coveringRules the list receiving the rules
+	 */
+	public void getCoveringRules(MultiLabelInstance inst, boolean firstOnly, List<MultiLabelRule> coveringRules) {
+		if (coverageIndex == null) {
+			coverageIndex = new RuleCoverageIndex<MultiLabelRule>(MultiLabelRuleSet::compile);
+			indexedModCount = modCount - 1;
+		}
+		if (indexedModCount != modCount) {
+			coverageIndex.rebuild(this);
+			indexedModCount = modCount;
+		}
+		double[] values = coverageIndex.getInstanceValues();
+		boolean[] missing = coverageIndex.getInstanceMissing();
+		for (int i = 0; i < values.length; i++) {
+			// the predicates check the instance index for missing values
+			missing[i] = inst.isMissing(i);
+			values[i] = inst.valueInputAttribute(i);
+		}
+		coverageIndex.getCoveringRules(firstOnly, rule -> rule.isCovering(inst), coveringRules);
+	}
+
+	/**
+	 * Updates the index after the literals of a rule of the set changed.
+	 */
+	public void ruleChanged(MultiLabelRule rule) {
+		if (coverageIndex != null && indexedModCount == modCount) {
+			coverageIndex.ruleChanged(rule);
+		}
+	}
+
+	private static boolean compile(MultiLabelRule rule, RuleCoverageIndex.Conditions conditions) {
+		for (Literal literal : rule.getLiterals()) {
+			Predicate predicate = literal.getPredicate();
+			if (predicate.getClass() == NumericRulePredicate.class) {
+				conditions.add(predicate.getAttributeIndex(),
+						predicate.isEqualOrLess() ? RuleCoverageIndex.LOWER_OR_EQUAL : RuleCoverageIndex.NOT_LOWER_OR_EQUAL,
+						((NumericRulePredicate) predicate).getAttributeValue());
+			} else if (predicate.getClass() == NominalRulePredicate.class) {
+				conditions.add(predicate.getAttributeIndex(),
+						predicate.isEqualOrLess() ? RuleCoverageIndex.EQUAL : RuleCoverageIndex.NOT_EQUAL,
+						((NominalRulePredicate) predicate).getAttributeValue());
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
 }
@@ -0,0 +1,180 @@
+/*
+ *    KernelCentres.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+package moa.clusterers.clustream;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import moa.core.RangeExecutor;
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Centres and radii of the Clustream kernels in primitive arrays, so that the
+ * closest kernel to a point is found without allocating, and the distances
+ * between the centres, so that merging only recomputes the distances to the
+ * kernels changed since the last merge.
+ *
+ * The arrays must be told of every change of a kernel with
+ * {@link #kernelChanged(int)}. The distances are computed in the same way
+ * as by the kernels themselves, so the kernels chosen are the same.
+ */
+public class KernelCentres implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ClustreamKernel[] kernels;
+	private final int dimensions;
+	private final int numberOfJobs;
+	/** Centres of the kernels, row-major. */
+	private final double[] centres;
+	private final double[] radii;
+	/** Distances between the centres, only the upper triangle is used. */
+	private double[] pairDistances;
+	/** Kernels changed since the pair distances were last computed. */
+	private final boolean[] changed;
+	private final double[] point;
+	private double nearestDistance;
+
+	public KernelCentres(ClustreamKernel[] kernels, int dimensions, int numberOfJobs) {
+		this.kernels = kernels;
+		this.dimensions = dimensions;
+		this.numberOfJobs = numberOfJobs;
+		this.centres = new double[kernels.length * dimensions];
+		this.radii = new double[kernels.length];
+		this.changed = new boolean[kernels.length];
+		this.point = new double[dimensions];
+		for ( int i = 0; i < kernels.length; i++ ) {
+			kernelChanged(i);
+		}
+	}
+
+	/**
+	 * Copies the centre and the radius of a kernel into the arrays.
+	 */
+	public void kernelChanged(int i) {
+		double[] ls = kernels[i].LS;
+		double n = kernels[i].getN();
+		int offset = i * dimensions;
+		for ( int j = 0; j < dimensions; j++ ) {
+			centres[offset + j] = ls[j] / n;
+		}
+		radii[i] = kernels[i].getRadius();
+		changed[i] = true;
+	}
+
+	public double getRadius(int i) {
+		return radii[i];
+	}
+
+	/**
+	 * Returns the kernel with the closest centre, the first one if there are
+	 * ties.
+	 */
+	public int nearest(Instance instance) {
+		for ( int j = 0; j < dimensions; j++ ) {
+			point[j] = instance.value(j);
+		}
+		int closest = -1;
+		double minDistance = Double.MAX_VALUE;
+		for ( int i = 0; i < kernels.length; i++ ) {
+			double distance = distance(point, 0, centres, i * dimensions);
+			if ( distance < minDistance ) {
+				closest = i;
+				minDistance = distance;
+			}
+		}
+		nearestDistance = minDistance;
+		return closest;
+	}
+
+	/**
+	 * Returns the distance found by the last call to {@link #nearest(Instance)}.
+	 */
+	public double getNearestDistance() {
+		return nearestDistance;
+	}
+
+	/**
+	 * Returns the distance of the centre of a kernel to the closest other centre.
+	 */
+	public double nearestOtherDistance(int k) {
+		double radius = Double.MAX_VALUE;
+		for ( int i = 0; i < kernels.length; i++ ) {
+			if ( i == k ) {
+				continue;
+			}
+			radius = Math.min( distance(centres, i * dimensions, centres, k * dimensions), radius );
+		}
+		return radius;
+	}
+
+	/**
+	 * Returns the closest two kernels, encoded as i * number of kernels + j
+	 * with i < j. The rows of the distances are updated and searched in
+	 * parallel batches, and the first pair with the smallest distance is the
+	 * same as with a scan over all pairs.
+	 */
+	public int closestPair() {
+		final int k = kernels.length;
+		if ( pairDistances == null ) {
+			pairDistances = new double[k * k];
+			Arrays.fill(changed, true);
+		}
+		final double[] rowMin = new double[k];
+		final int[] rowArgMin = new int[k];
+		RangeExecutor.getShared(numberOfJobs).run(k, 16, (from, to) -> {
+			for ( int i = from; i < to; i++ ) {
+				int row = i * k;
+				double min = Double.MAX_VALUE;
+				int argMin = 0;
+				for ( int j = i + 1; j < k; j++ ) {
+					if ( changed[i] || changed[j] ) {
+						pairDistances[row + j] = distance(centres, i * dimensions, centres, j * dimensions);
+					}
+					if ( pairDistances[row + j] < min ) {
+						min = pairDistances[row + j];
+						argMin = j;
+					}
+				}
+				rowMin[i] = min;
+				rowArgMin[i] = argMin;
+			}
+		});
+		Arrays.fill(changed, false);
+		int closestA = 0;
+		int closestB = 0;
+		double minDistance = Double.MAX_VALUE;
+		for ( int i = 0; i < k; i++ ) {
+			if ( rowMin[i] < minDistance ) {
+				minDistance = rowMin[i];
+				closestA = i;
+				closestB = rowArgMin[i];
+			}
+		}
+		return closestA * k + closestB;
+	}
+
+	private double distance(double[] a, int offsetA, double[] b, int offsetB) {
+		double distance = 0.0;
+		for ( int i = 0; i < dimensions; i++ ) {
+			double d = a[offsetA + i] - b[offsetB + i];
+			distance += d * d;
+		}
+		return Math.sqrt(distance);
+	}
+}
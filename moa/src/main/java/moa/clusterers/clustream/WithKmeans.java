@@ -56,6 +56,9 @@ public class WithKmeans extends AbstractClusterer {
 	public IntOption kernelRadiFactorOption = new IntOption(
 			"kernelRadiFactor", 't',
 			"Multiplier for the kernel radius", 2);
+
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Total number of concurrent jobs used for merging kernels (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
 	
 	public IntOption kOption = new IntOption(
 			"k", 'k',
@@ -69,6 +72,7 @@ public class WithKmeans extends AbstractClusterer {
 	private int bufferSize;
 	private double t;
 	private int m;
+	private KernelCentres centres;
 	
 	public WithKmeans() {
 	
@@ -83,6 +87,7 @@ public class WithKmeans extends AbstractClusterer {
 		this.bufferSize = maxNumKernelsOption.getValue();
 		t = kernelRadiFactorOption.getValue();
 		m = maxNumKernelsOption.getValue();
+		this.centres = null;
 	}
 
 	@Override
@@ -101,44 +106,30 @@ public class WithKmeans extends AbstractClusterer {
 	
 				buffer.clear();
 				initialized = true;
+				centres = new KernelCentres(kernels, dim, numberOfJobsOption.getValue());
 			}
 		}
 
 
 		// 1. Determine closest kernel
-		ClustreamKernel closestKernel = null;
-		double minDistance = Double.MAX_VALUE;
-		for ( int i = 0; i < kernels.length; i++ ) {
-			//System.out.println(i+" "+kernels[i].getWeight()+" "+kernels[i].getDeviation());
-			double distance = distance(instance.toDoubleArray(), kernels[i].getCenter());
-			if (distance < minDistance) {
-				closestKernel = kernels[i];
-				minDistance = distance;
-			}
-		}
+		int closest = centres.nearest(instance);
+		ClustreamKernel closestKernel = kernels[closest];
+		double minDistance = centres.getNearestDistance();
 
 		// 2. Check whether instance fits into closestKernel
 		double radius = 0.0;
 		if ( closestKernel.getWeight() == 1 ) {
 			// Special case: estimate radius by determining the distance to the
 			// next closest cluster
-			radius = Double.MAX_VALUE;
-			double[] center = closestKernel.getCenter();
-			for ( int i = 0; i < kernels.length; i++ ) {
-				if ( kernels[i] == closestKernel ) {
-					continue;
-				}
-
-				double distance = distance(kernels[i].getCenter(), center );
-				radius = Math.min( distance, radius );
-			}
+			radius = centres.nearestOtherDistance(closest);
 		} else {
-			radius = closestKernel.getRadius();
+			radius = centres.getRadius(closest);
 		}
 
 		if ( minDistance < radius ) {
 			// Date fits, put into kernel and be happy
 			closestKernel.insert( instance, timestamp );
+			centres.kernelChanged(closest);
 			return;
 		}
 
@@ -150,29 +141,21 @@ public class WithKmeans extends AbstractClusterer {
 		for ( int i = 0; i < kernels.length; i++ ) {
 			if ( kernels[i].getRelevanceStamp() < threshold ) {
 				kernels[i] = new ClustreamKernel( instance, dim, timestamp, t, m );
+				centres.kernelChanged(i);
 				return;
 			}
 		}
 
 		// 3.2 Merge closest two kernels
-		int closestA = 0;
-		int closestB = 0;
-		minDistance = Double.MAX_VALUE;
-		for ( int i = 0; i < kernels.length; i++ ) {
-			double[] centerA = kernels[i].getCenter();
-			for ( int j = i + 1; j < kernels.length; j++ ) {
-				double dist = distance( centerA, kernels[j].getCenter() );
-				if ( dist < minDistance ) {
-					minDistance = dist;
-					closestA = i;
-					closestB = j;
-				}
-			}
-		}
+		int closestPair = centres.closestPair();
+		int closestA = closestPair / kernels.length;
+		int closestB = closestPair % kernels.length;
 		assert (closestA != closestB);
 
 		kernels[closestA].add( kernels[closestB] );
 		kernels[closestB] = new ClustreamKernel( instance, dim, timestamp, t,  m );
+		centres.kernelChanged(closestA);
+		centres.kernelChanged(closestB);
 	}
 	
 	@Override
@@ -56,22 +56,6 @@ public class MicroCluster extends CFCluster {
         return lastEditT;
     }
 
-    private double[] calcCF2(long dt) {
-        double[] cf2 = new double[SS.length];
-        for (int i = 0; i < SS.length; i++) {
-            cf2[i] = Math.pow(2, -lambda * dt) * SS[i];
-        }
-        return cf2;
-    }
-
-    private double[] calcCF1(long dt) {
-        double[] cf1 = new double[LS.length];
-        for (int i = 0; i < LS.length; i++) {
-            cf1[i] = Math.pow(2, -lambda * dt) * LS[i];
-        }
-        return cf1;
-    }
-
     @Override
     public double getWeight() {
         return getWeight(currentTimestamp.getTimestamp());
@@ -110,16 +94,30 @@ public class MicroCluster extends CFCluster {
 
     public double getRadius(long timestamp) {
         long dt = timestamp - lastEditT;
-        double[] cf1 = calcCF1(dt);
-        double[] cf2 = calcCF2(dt);
+        double decay = Math.pow(2, -lambda * dt);
         double w = getWeight(timestamp);
         double max = 0;
-        double sum = 0;
         for (int i = 0; i < SS.length; i++) {
-            double x1 = cf2[i] / w;
-            double x2 = Math.pow(cf1[i] / w, 2);
-            //sum += Math.pow(x1 - x2,2);
-            sum += (x1 - x2);
+            double x1 = decay * SS[i] / w;
+            double x2 = Math.pow(decay * LS[i] / w, 2);
+            if (Math.sqrt(x1 - x2) > max) {
+                max = Math.sqrt(x1 - x2);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the radius this cluster would have right after inserting the
+     * point, without changing the cluster. The insertion is its last edit,
+     * so nothing has decayed yet.
+     */
+    public double getRadiusWithPoint(double[] point) {
+        double w = N + 1;
+        double max = 0;
+        for (int i = 0; i < SS.length; i++) {
+            double x1 = (SS[i] + point[i] * point[i]) / w;
+            double x2 = Math.pow((LS[i] + point[i]) / w, 2);
             if (Math.sqrt(x1 - x2) > max) {
                 max = Math.sqrt(x1 - x2);
             }
@@ -127,6 +125,22 @@ public class MicroCluster extends CFCluster {
         return max;
     }
 
+    /**
+     * Returns the distance from the point to the center at the given time,
+     * without allocating the center.
+     */
+    public double getCenterDistance(double[] point, long timestamp) {
+        long dt = timestamp - lastEditT;
+        double decay = Math.pow(2, -lambda * dt);
+        double w = getWeight(timestamp);
+        double distance = 0.0;
+        for (int i = 0; i < point.length; i++) {
+            double d = point[i] - LS[i] * decay / w;
+            distance += d * d;
+        }
+        return Math.sqrt(distance);
+    }
+
     @Override
     public MicroCluster copy() {
         MicroCluster copy = new MicroCluster(this.LS.clone(), this.LS.length, this.getCreationTime(), this.lambda, this.currentTimestamp);
@@ -25,12 +25,15 @@
 package moa.clusterers.denstream;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.clusterers.AbstractClusterer;
 import moa.clusterers.macro.dbscan.DBScan;
+import moa.core.AutoExpandVector;
 import moa.core.Measurement;
+import moa.core.RangeExecutor;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.DenseInstance;
@@ -64,6 +67,9 @@ public class WithDBSCAN extends AbstractClusterer {
 	 public IntOption speedOption = new IntOption("processingSpeed", 's',
 				"Number of incoming points per time unit.", 100, 1, 1000);
 
+	 public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+				"Total number of concurrent jobs used for the periodic cluster removal (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+
 	private double weightThreshold = 0.01;
 	double lambda;
 	double epsilon;
@@ -84,6 +90,11 @@ public class WithDBSCAN extends AbstractClusterer {
 	protected int numInitPoints;
 	protected int numProcessedPerUnit;
 	protected int processingSpeed;
+
+	/* Values of the points in the initialization buffer, row-major */
+	private double[] initValues;
+	private int[] neighbourIDs;
+	private boolean[] removed;
 	// TODO Some variables to prevent duplicated processes
 
 	private class DenPoint extends DenseInstance {
@@ -123,13 +134,21 @@ public class WithDBSCAN extends AbstractClusterer {
 	}
 
 	public void initialDBScan() {
+		int dimensions = initBuffer.isEmpty() ? 0 : initBuffer.get(0).numAttributes();
+		initValues = new double[initBuffer.size() * dimensions];
+		for (int p = 0; p < initBuffer.size(); p++) {
+			DenPoint point = initBuffer.get(p);
+			for (int i = 0; i < dimensions; i++) {
+				initValues[p * dimensions + i] = point.value(i);
+			}
+		}
+		neighbourIDs = new int[initBuffer.size()];
 		for (int p = 0; p < initBuffer.size(); p++) {
 			DenPoint point = initBuffer.get(p);
 			if (!point.covered) {
 				point.covered = true;
-				ArrayList<Integer> neighbourhood = getNeighbourhoodIDs(point,
-						initBuffer, epsilon);
-				if (neighbourhood.size() > minPoints) {
+				int[] neighbourhood = getNeighbourhoodIDs(p, initBuffer, epsilon);
+				if (neighbourhood.length > minPoints) {
 					MicroCluster mc = new MicroCluster(point,
 							point.numAttributes(), timestamp, lambda,
 							currentTimestamp);
@@ -140,6 +159,8 @@ public class WithDBSCAN extends AbstractClusterer {
 				}
 			}
 		}
+		initValues = null;
+		neighbourIDs = null;
 	}
 
 	@Override
@@ -167,21 +188,18 @@ public class WithDBSCAN extends AbstractClusterer {
 			// Merging(p)//
 			// ////////////
 			boolean merged = false;
+			double[] values = point.toDoubleArray();
 			if (p_micro_cluster.getClustering().size() != 0) {
-				MicroCluster x = nearestCluster(point, p_micro_cluster);
-				MicroCluster xCopy = x.copy();
-				xCopy.insert(point, timestamp);
-				if (xCopy.getRadius(timestamp) <= epsilon) {
+				MicroCluster x = nearestCluster(values, p_micro_cluster);
+				if (x.getRadiusWithPoint(values) <= epsilon) {
 					x.insert(point, timestamp);
 					merged = true;
 				}
 			}
 			if (!merged && (o_micro_cluster.getClustering().size() != 0)) {
-				MicroCluster x = nearestCluster(point, o_micro_cluster);
-				MicroCluster xCopy = x.copy();
-				xCopy.insert(point, timestamp);
+				MicroCluster x = nearestCluster(values, o_micro_cluster);
 
-				if (xCopy.getRadius(timestamp) <= epsilon) {
+				if (x.getRadiusWithPoint(values) <= epsilon) {
 					x.insert(point, timestamp);
 					merged = true;
 					if (x.getWeight() > beta * mu) {
@@ -201,67 +219,92 @@ public class WithDBSCAN extends AbstractClusterer {
 			// Periodic cluster removal//
 			// //////////////////////////
 			if (timestamp % tp == 0) {
-				ArrayList<MicroCluster> removalList = new ArrayList<MicroCluster>();
-				for (Cluster c : p_micro_cluster.getClustering()) {
-					if (((MicroCluster) c).getWeight() < beta * mu) {
-						removalList.add((MicroCluster) c);
-					}
-				}
-				for (Cluster c : removalList) {
-					p_micro_cluster.getClustering().remove(c);
-				}
+				removeClusters(p_micro_cluster, false);
+				removeClusters(o_micro_cluster, true);
+			}
+
+		}
+	}
 
-				for (Cluster c : o_micro_cluster.getClustering()) {
-					long t0 = ((MicroCluster) c).getCreationTime();
-					double xsi1 = Math
-							.pow(2, (-lambda * (timestamp - t0 + tp))) - 1;
-					double xsi2 = Math.pow(2, -lambda * tp) - 1;
+	/**
+	 * Removes the potential micro-clusters that became too light, or the
+	 * outlier micro-clusters that did not grow as expected. The clusters are
+	 * checked in parallel batches and the others keep their order.
+	 */
+	private void removeClusters(Clustering clustering, final boolean outliers) {
+		final AutoExpandVector<Cluster> clusters = clustering.getClustering();
+		if (clusters.isEmpty()) {
+			return;
+		}
+		if (removed == null || removed.length < clusters.size()) {
+			removed = new boolean[Math.max(clusters.size(), 2 * (removed == null ? 0 : removed.length))];
+		}
+		final double xsi2 = Math.pow(2, -lambda * tp) - 1;
+		RangeExecutor.getShared(numberOfJobsOption.getValue()).run(clusters.size(), 64, (from, to) -> {
+			for (int c = from; c < to; c++) {
+				MicroCluster mc = (MicroCluster) clusters.get(c);
+				if (outliers) {
+					long t0 = mc.getCreationTime();
+					double xsi1 = Math.pow(2, (-lambda * (timestamp - t0 + tp))) - 1;
 					double xsi = xsi1 / xsi2;
-					if (((MicroCluster) c).getWeight() < xsi) {
-						removalList.add((MicroCluster) c);
-					}
-				}
-				for (Cluster c : removalList) {
-					o_micro_cluster.getClustering().remove(c);
+					removed[c] = mc.getWeight() < xsi;
+				} else {
+					removed[c] = mc.getWeight() < beta * mu;
 				}
 			}
-
+		});
+		int kept = 0;
+		for (int c = 0; c < clusters.size(); c++) {
+			if (!removed[c]) {
+				clusters.set(kept++, clusters.get(c));
+			}
+		}
+		while (clusters.size() > kept) {
+			clusters.remove(clusters.size() - 1);
 		}
 	}
 
 	private void expandCluster(MicroCluster mc, ArrayList<DenPoint> points,
-			ArrayList<Integer> neighbourhood) {
+			int[] neighbourhood) {
 		for (int p : neighbourhood) {
 			DenPoint npoint = points.get(p);
 			if (!npoint.covered) {
 				npoint.covered = true;
 				mc.insert(npoint, timestamp);
-				ArrayList<Integer> neighbourhood2 = getNeighbourhoodIDs(npoint,
-						initBuffer, epsilon);
-				if (neighbourhood.size() > minPoints) {
+				int[] neighbourhood2 = getNeighbourhoodIDs(p, initBuffer, epsilon);
+				if (neighbourhood.length > minPoints) {
 					expandCluster(mc, points, neighbourhood2);
 				}
 			}
 		}
 	}
 
-	private ArrayList<Integer> getNeighbourhoodIDs(DenPoint point,
-			ArrayList<DenPoint> points, double eps) {
-		ArrayList<Integer> neighbourIDs = new ArrayList<Integer>();
+	/**
+	 * Returns the uncovered points of the initialization buffer closer than
+	 * eps to the given one.
+	 */
+	private int[] getNeighbourhoodIDs(int point, ArrayList<DenPoint> points,
+			double eps) {
+		int dimensions = initValues.length / points.size();
+		int offset = point * dimensions;
+		int size = 0;
 		for (int p = 0; p < points.size(); p++) {
-			DenPoint npoint = points.get(p);
-			if (!npoint.covered) {
-				double dist = distance(point.toDoubleArray(), points.get(p)
-						.toDoubleArray());
-				if (dist < eps) {
-					neighbourIDs.add(p);
+			if (!points.get(p).covered) {
+				int offsetP = p * dimensions;
+				double distance = 0.0;
+				for (int i = 0; i < dimensions; i++) {
+					double d = initValues[offset + i] - initValues[offsetP + i];
+					distance += d * d;
+				}
+				if (Math.sqrt(distance) < eps) {
+					neighbourIDs[size++] = p;
 				}
 			}
 		}
-		return neighbourIDs;
+		return Arrays.copyOf(neighbourIDs, size);
 	}
 
-	private MicroCluster nearestCluster(DenPoint p, Clustering cl) {
+	private MicroCluster nearestCluster(double[] point, Clustering cl) {
 		MicroCluster min = null;
 		double minDist = 0;
 		for (int c = 0; c < cl.size(); c++) {
@@ -269,7 +312,7 @@ public class WithDBSCAN extends AbstractClusterer {
 			if (min == null) {
 				min = x;
 			}
-			double dist = distance(p.toDoubleArray(), x.getCenter());
+			double dist = x.getCenterDistance(point, timestamp);
 			dist -= x.getRadius(timestamp);
 			if (dist < minDist) {
 				minDist = dist;
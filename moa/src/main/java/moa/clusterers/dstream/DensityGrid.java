@@ -59,6 +59,11 @@ public class DensityGrid extends CFCluster
 	 */
 	private boolean isVisited;
 	
+	/**
+	 * The hash code of the coordinates, which do not change.
+	 */
+	private int hashCode;
+	
 	/**
 	 * A constructor method for a density grid
 	 * 
@@ -81,6 +86,7 @@ public class DensityGrid extends CFCluster
 			SS[i] += Math.pow((double)cI, 2);
 		}
 		
+		this.hashCode = hashCoordinates();
 		this.isVisited = false;
 	}
 
@@ -107,6 +113,7 @@ public class DensityGrid extends CFCluster
 			SS[i] += Math.pow((double)cI, 2);
 		}
 		
+		this.hashCode = hashCoordinates();
 		this.isVisited = false;
 	}
 	
@@ -148,6 +155,11 @@ public class DensityGrid extends CFCluster
 	 */
 	@Override
 	public int hashCode()
+	{
+		return this.hashCode;
+	}
+	
+	private int hashCoordinates()
 	{
 		//int[] primes = {31, 37, 41, 43, 47, 53, 59};
 		int hc = 1;
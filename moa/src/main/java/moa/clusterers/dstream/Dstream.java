@@ -121,14 +121,25 @@ public class Dstream extends AbstractClusterer {
 	 * A list of all density grids which are being monitored;
 	 * given in figure 1 of Chen and Tu 2007
 	 */
-	private HashMap<DensityGrid,CharacteristicVector> grid_list;
+	private GridStore grid_list;
 	
 	/**
 	 * A list of all density grids which have been deleted;
 	 * allows the recording of tm - the last time when the 
 	 * grid is removed from grid list as a sporadic grid (if ever).
 	 */
-	private HashMap<DensityGrid,Integer> deleted_grids;
+	private GridStore deleted_grids;
+	
+	/**
+	 * The coordinates of the density grid that contains the current instance.
+	 */
+	private int[] coordinates;
+	
+	/**
+	 * The grids of grid_list before this index have been inspected by the
+	 * current call to adjustClustering, or their attribute has not changed.
+	 */
+	private int inspectFrom;
 	
 	
 	/**
@@ -203,8 +214,8 @@ public class Dstream extends AbstractClusterer {
 		//System.out.println("Option values set...");
 
 		this.initialized = false;
-		this.grid_list = new HashMap<DensityGrid, CharacteristicVector>();
-		this.deleted_grids = new HashMap<DensityGrid, Integer>();
+		this.grid_list = null;
+		this.deleted_grids = null;
 		this.cluster_list = new ArrayList<GridCluster>();
 		//System.out.println("Data structures initialized...");
 
@@ -244,6 +255,9 @@ public class Dstream extends AbstractClusterer {
 			//System.out.println("d = "+this.d);
 			this.minVals = new int[this.d];
 			this.maxVals = new int[this.d];
+			this.coordinates = new int[this.d];
+			this.grid_list = new GridStore(this.d);
+			this.deleted_grids = new GridStore(this.d);
 			//System.out.println("...data initialized");
 			
 			for(int i = 0 ; i < this.d ; i++)
@@ -265,7 +279,7 @@ public class Dstream extends AbstractClusterer {
 
 		// 2. Determine the density grid g that contains x
 		//System.out.print(" & Step 2 ");
-		g = new int[this.d];
+		g = this.coordinates;
 
 		for (int i = 0 ; i < this.d ; i++)
 		{
@@ -319,20 +333,20 @@ public class Dstream extends AbstractClusterer {
 			//System.out.println(" A is "+optionA+", B is "+optionB+" and gap = "+gap);
 		}
 
-		dg = new DensityGrid(g);
-		//System.out.println(dg.toString());
-		
 		// 3. If (g not in grid_list) insert dg to grid_list
 		//System.out.println(" & Step 3 or 4");
+		int index = this.grid_list.indexOf(g);
 		
-		if(!this.grid_list.containsKey(dg))
+		if(index == -1)
 		{
 			//System.out.print("3 - dg wasn't in grid_list!");
-			if(this.deleted_grids.containsKey(dg))
+			dg = new DensityGrid(g);
+			int deleted = this.deleted_grids.indexOf(g);
+			if(deleted != -1)
 			{
 				//System.out.print(" but it was in deleted_grids!");
-				cv = new CharacteristicVector(this.getCurrTime(), this.deleted_grids.get(dg).intValue(), 1.0, -1, false, this.getDL(), this.getDM());
-				this.deleted_grids.remove(dg);
+				cv = new CharacteristicVector(this.getCurrTime(), this.deleted_grids.getValue(deleted), 1.0, -1, false, this.getDL(), this.getDM());
+				this.deleted_grids.removeAt(deleted);
 			}
 			else
 				cv = new CharacteristicVector(this.getCurrTime(), -1, 1.0, -1, false, this.getDL(), this.getDM());
@@ -345,15 +359,13 @@ public class Dstream extends AbstractClusterer {
 		else
 		{
 			//System.out.print("4 - dg was in grid_list!");
-			cv = this.grid_list.get(dg);
+			cv = this.grid_list.getVector(index);
 				
 			cv.densityWithNew(this.getCurrTime(), this.getDecayFactor());
 				
 			cv.setUpdateTime(this.getCurrTime());
 		
 			//System.out.println(" "+dg.toString()+" "+cv.toString());
-		
-			grid_list.put(dg, cv);
 		}
 
 		// 5. If tc == gap, then initial clustering
@@ -413,14 +425,10 @@ public class Dstream extends AbstractClusterer {
 		// 2. Assign each dense grid to a distinct cluster
 		// and
 		// 3. Label all other grids as NO_CLASS	
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> glIter = this.grid_list.entrySet().iterator();
-		HashMap<DensityGrid, CharacteristicVector> newGL = new HashMap<DensityGrid, CharacteristicVector>();
-		
-		while(glIter.hasNext())
+		for (int i = 0 ; i < this.grid_list.size() ; i++)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = glIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cvOfG = grid.getValue();
+			DensityGrid dg = this.grid_list.getGrid(i);
+			CharacteristicVector cvOfG = this.grid_list.getVector(i);
 
 			//System.out.print(dg.toString());
 			if(cvOfG.getAttribute() == DENSE)
@@ -436,10 +444,8 @@ public class Dstream extends AbstractClusterer {
 				cvOfG.setLabel(NO_CLASS);
 
 			//System.out.println();
-			newGL.put(dg, cvOfG);
 		}
 
-		this.grid_list = newGL;
 		//printGridClusters();
 		
 		// 4. Make changes to grid labels by doing:
@@ -560,6 +566,7 @@ public class Dstream extends AbstractClusterer {
 
 		updateGridListDensity();
 		//printGridList();
+		this.inspectFrom = 0;
 		
 		// 2. For each grid dg whose attribute is changed since last call
 		//    a. If dg is sparse
@@ -593,13 +600,14 @@ public class Dstream extends AbstractClusterer {
 	private boolean inspectChangedGrids()
 	{
 		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> gridIter = this.grid_list.entrySet().iterator();
 		
-		while (gridIter.hasNext() && glNew.isEmpty())
+		// Grids are only marked as visited here and their attributes do not change
+		// until the next adjustClustering, so the search resumes where it stopped
+		while (this.inspectFrom < this.grid_list.size() && glNew.isEmpty())
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = gridIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			DensityGrid dg = this.grid_list.getGrid(this.inspectFrom);
+			CharacteristicVector cv = this.grid_list.getVector(this.inspectFrom);
+			this.inspectFrom++;
 			int dgClass = cv.getLabel();
 			
 			if(cv.isAttChanged() && !dg.isVisited())
@@ -1156,16 +1164,12 @@ public class Dstream extends AbstractClusterer {
 		//    b. Else
 		//       i. If (S1 && S2), mark as sporadic
 		
-		// For each grid g in grid_list
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> glIter = this.grid_list.entrySet().iterator();
-		HashMap<DensityGrid, CharacteristicVector> newGL = new HashMap<DensityGrid, CharacteristicVector>();
-		ArrayList<DensityGrid> remGL = new ArrayList<DensityGrid>();
-				
-		while(glIter.hasNext())
+		// For each grid g in grid_list, from the last one so that removing a grid
+		// only moves grids which have already been assessed
+		for (int i = this.grid_list.size() - 1 ; i >= 0 ; i--)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = glIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			DensityGrid dg = this.grid_list.getGrid(i);
+			CharacteristicVector cv = this.grid_list.getVector(i);
 			
 			// If g is sporadic
 			if (cv.isSporadic())
@@ -1178,15 +1182,15 @@ public class Dstream extends AbstractClusterer {
 					if (dgClass != -1)
 						this.cluster_list.get(dgClass).removeGrid(dg);
 					
-					remGL.add(dg);
-					//System.out.println("Removed "+dg.toString()+" from cluster "+dgClass);
+					//System.out.println("Removing sporadic grid "+dg.toString()+" at time "+this.getCurrTime()+".");
+					this.deleted_grids.putValue(dg, this.getCurrTime());
+					this.grid_list.removeAt(i);
 				}
 				// Else if (S1 && S2), mark as sporadic - Else mark as normal
 				else
 				{
 					cv.setSporadic(checkIfSporadic(cv));
 					//System.out.println("within gap" + dg.toString() + " sporadicity assessed "+cv.isSporadic());
-					newGL.put(dg, cv);
 				}
 				
 			}
@@ -1195,23 +1199,8 @@ public class Dstream extends AbstractClusterer {
 			{
 				cv.setSporadic(checkIfSporadic(cv));
 				//System.out.println(dg.toString() + " sporadicity assessed "+cv.isSporadic());
-				newGL.put(dg, cv);
 			}
 		}
-		
-		this.grid_list.putAll(newGL);
-		
-		//System.out.println(" - Removed "+remGL.size()+" grids from grid_list.");
-		Iterator<DensityGrid> remIter = remGL.iterator();
-		
-		while(remIter.hasNext())
-		{
-			DensityGrid sporadicDG = remIter.next();
-			//System.out.println("Removing sporadic grid "+sporadicDG.toString()+" at time "+this.getCurrTime()+".");
-			this.deleted_grids.put(sporadicDG, new Integer(this.getCurrTime()));
-			this.grid_list.remove(sporadicDG);
-		}
-		
 	}
 
 	/**
@@ -1256,16 +1245,14 @@ public class Dstream extends AbstractClusterer {
 	{		
 		//System.out.println("Merge clusters "+smallClus+" and "+bigClus+".");
 		// Iterate through the density grids in grid_list to find those which are in highClass
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int i = 0 ; i < this.grid_list.size() ; i++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			CharacteristicVector cv = this.grid_list.getVector(i);
 
 			// Assign density grids in smallClus to bigClus
 			if(cv.getLabel() == smallClus)
 			{
 				cv.setLabel(bigClus);
-				this.grid_list.put(dg, cv);
 			}
 		}
 		//System.out.println("Density grids assigned to cluster "+bigClus+".");
@@ -1285,15 +1272,13 @@ public class Dstream extends AbstractClusterer {
 	 */
 	private void updateGridListDensity()
 	{
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int i = 0 ; i < this.grid_list.size() ; i++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cvOfG = grid.getValue();
+			DensityGrid dg = this.grid_list.getGrid(i);
+			CharacteristicVector cvOfG = this.grid_list.getVector(i);
 
 			dg.setVisited(false);
 			cvOfG.updateGridDensity(this.getCurrTime(), this.getDecayFactor(), this.getDL(), this.getDM());
-
-			this.grid_list.put(dg, cvOfG);
 		}
 	}
 
@@ -1379,10 +1364,10 @@ public class Dstream extends AbstractClusterer {
 	public void printGridList()
 	{
 		System.out.println("Grid List. Size "+this.grid_list.size()+".");
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int i = 0 ; i < this.grid_list.size() ; i++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			DensityGrid dg = this.grid_list.getGrid(i);
+			CharacteristicVector cv = this.grid_list.getVector(i);
 			
 			if (cv.getAttribute() != SPARSE)
 			{
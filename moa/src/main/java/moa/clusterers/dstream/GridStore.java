@@ -0,0 +1,297 @@
+/**
+ *    GridStore.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package moa.clusterers.dstream;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Map from the coordinates of density grids to their characteristic vectors,
+ * and to an int value per grid, for D-Stream.
+ *
+ * The coordinates of all the grids are packed in a single int array and an
+ * open addressing table with linear probing indexes them, so a grid can be
+ * looked up from its coordinates without building a DensityGrid. The entries
+ * are kept in dense arrays: iterating is a loop over the indices from 0 to
+ * size(), and removing an entry moves the last one into its place.
+ */
+public class GridStore implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int EMPTY = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The number of coordinates of each grid
+	 */
+	private final int dimensions;
+
+	private int size;
+
+	/**
+	 * The coordinates of the grids, entry by entry
+	 */
+	private int[] coordinates;
+
+	/**
+	 * The spread hash code of each entry
+	 */
+	private int[] hashes;
+
+	private DensityGrid[] grids;
+
+	private CharacteristicVector[] vectors;
+
+	private int[] values;
+
+	/**
+	 * The entry stored in each slot of the table, or EMPTY
+	 */
+	private int[] table;
+
+	public GridStore(int dimensions)
+	{
+		this.dimensions = dimensions;
+		this.coordinates = new int[INITIAL_CAPACITY * dimensions];
+		this.hashes = new int[INITIAL_CAPACITY];
+		this.grids = new DensityGrid[INITIAL_CAPACITY];
+		this.vectors = new CharacteristicVector[INITIAL_CAPACITY];
+		this.values = new int[INITIAL_CAPACITY];
+		this.table = new int[2 * INITIAL_CAPACITY];
+		Arrays.fill(this.table, EMPTY);
+	}
+
+	/**
+	 * Same as DensityGrid.hashCode, followed by a spreading step so that
+	 * close coordinates do not fill neighbouring slots.
+	 */
+	private static int hash(int[] c)
+	{
+		int hc = 1;
+		for (int i = 0 ; i < c.length ; i++)
+			hc = (hc * 31) + c[i];
+		return spread(hc);
+	}
+
+	private static int spread(int hc)
+	{
+		int h = hc * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	public DensityGrid getGrid(int index)
+	{
+		return this.grids[index];
+	}
+
+	public CharacteristicVector getVector(int index)
+	{
+		return this.vectors[index];
+	}
+
+	public int getValue(int index)
+	{
+		return this.values[index];
+	}
+
+	/**
+	 * @param c the coordinates of a density grid
+	 * @return the index of the grid's entry, or -1 if it is not in the store
+	 */
+	public int indexOf(int[] c)
+	{
+		return indexOf(c, hash(c));
+	}
+
+	public int indexOf(DensityGrid dg)
+	{
+		return indexOf(dg.getCoordinates(), spread(dg.hashCode()));
+	}
+
+	private int indexOf(int[] c, int h)
+	{
+		int mask = this.table.length - 1;
+		for (int slot = h & mask ; ; slot = (slot + 1) & mask)
+		{
+			int e = this.table[slot];
+			if (e == EMPTY)
+				return -1;
+			if (this.hashes[e] == h && sameCoordinates(e, c))
+				return e;
+		}
+	}
+
+	private boolean sameCoordinates(int e, int[] c)
+	{
+		int offset = e * this.dimensions;
+		for (int i = 0 ; i < this.dimensions ; i++)
+		{
+			if (this.coordinates[offset + i] != c[i])
+				return false;
+		}
+		return true;
+	}
+
+	public boolean containsKey(DensityGrid dg)
+	{
+		return indexOf(dg) != -1;
+	}
+
+	/**
+	 * @return the characteristic vector of the grid, or null if it is not in the store
+	 */
+	public CharacteristicVector get(DensityGrid dg)
+	{
+		int e = indexOf(dg);
+		return e == -1 ? null : this.vectors[e];
+	}
+
+	/**
+	 * Associates a characteristic vector with a grid. As with a HashMap, the
+	 * grid already in the store is kept if there is one.
+	 *
+	 * @return the index of the grid's entry
+	 */
+	public int put(DensityGrid dg, CharacteristicVector cv)
+	{
+		int e = indexOf(dg);
+		if (e == -1)
+			e = add(dg, spread(dg.hashCode()));
+		this.vectors[e] = cv;
+		return e;
+	}
+
+	/**
+	 * Associates an int value with a grid, keeping the grid already in the
+	 * store if there is one.
+	 *
+	 * @return the index of the grid's entry
+	 */
+	public int putValue(DensityGrid dg, int value)
+	{
+		int e = indexOf(dg);
+		if (e == -1)
+			e = add(dg, spread(dg.hashCode()));
+		this.values[e] = value;
+		return e;
+	}
+
+	public void putAll(Map<DensityGrid, CharacteristicVector> map)
+	{
+		for (Map.Entry<DensityGrid, CharacteristicVector> entry : map.entrySet())
+			put(entry.getKey(), entry.getValue());
+	}
+
+	private int add(DensityGrid dg, int h)
+	{
+		if (this.size == this.hashes.length)
+			grow();
+		int e = this.size++;
+		System.arraycopy(dg.getCoordinates(), 0, this.coordinates, e * this.dimensions, this.dimensions);
+		this.hashes[e] = h;
+		this.grids[e] = dg;
+		insertSlot(e);
+		return e;
+	}
+
+	private void insertSlot(int e)
+	{
+		int mask = this.table.length - 1;
+		int slot = this.hashes[e] & mask;
+		while (this.table[slot] != EMPTY)
+			slot = (slot + 1) & mask;
+		this.table[slot] = e;
+	}
+
+	private void grow()
+	{
+		int capacity = 2 * this.hashes.length;
+		this.coordinates = Arrays.copyOf(this.coordinates, capacity * this.dimensions);
+		this.hashes = Arrays.copyOf(this.hashes, capacity);
+		this.grids = Arrays.copyOf(this.grids, capacity);
+		this.vectors = Arrays.copyOf(this.vectors, capacity);
+		this.values = Arrays.copyOf(this.values, capacity);
+		this.table = new int[2 * capacity];
+		Arrays.fill(this.table, EMPTY);
+		for (int e = 0 ; e < this.size ; e++)
+			insertSlot(e);
+	}
+
+	private int slotOf(int e)
+	{
+		int mask = this.table.length - 1;
+		int slot = this.hashes[e] & mask;
+		while (this.table[slot] != e)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Removes an entry. The last entry takes its index, so a loop removing
+	 * entries should go from the last index to the first.
+	 */
+	public void removeAt(int e)
+	{
+		// Empty the slot, shifting back the entries that probed past it
+		int mask = this.table.length - 1;
+		int hole = slotOf(e);
+		int slot = hole;
+		while (true)
+		{
+			slot = (slot + 1) & mask;
+			int other = this.table[slot];
+			if (other == EMPTY)
+				break;
+			int home = this.hashes[other] & mask;
+			boolean canMove = hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot);
+			if (canMove)
+			{
+				this.table[hole] = other;
+				hole = slot;
+			}
+		}
+		this.table[hole] = EMPTY;
+
+		// Move the last entry into the gap
+		int last = this.size - 1;
+		if (e != last)
+		{
+			this.table[slotOf(last)] = e;
+			System.arraycopy(this.coordinates, last * this.dimensions, this.coordinates, e * this.dimensions, this.dimensions);
+			this.hashes[e] = this.hashes[last];
+			this.grids[e] = this.grids[last];
+			this.vectors[e] = this.vectors[last];
+			this.values[e] = this.values[last];
+		}
+		this.grids[last] = null;
+		this.vectors[last] = null;
+		this.size--;
+	}
+}
@@ -160,19 +160,18 @@ public class MCOD extends MCODBase {
             if (bTrace) { Print("mcClosest.nodes: "); PrintNodeList(mcClosest.nodes); } 
             
             if (bTrace) Println("Update neighbors of set PD"); 
-            Vector<ISBNode> nodes;
-            nodes = ISB_PD.GetAllNodes();
-            for (ISBNode q : nodes) {
+            Vector<ISBSearchResult> resultNodes;
+            resultNodes = ISB_PD.RangeSearch(nodeNew, m_radius);
+            for (ISBSearchResult sr : resultNodes) {
+                ISBNode q = sr.node;
                 if (q.Rmc.contains(mcClosest)) {
-                    if (GetEuclideanDist(q, nodeNew) <= m_radius) {
-                        if (bNewNode) {
-                            // update q.count_after and its' outlierness
+                    if (bNewNode) {
+                        // update q.count_after and its' outlierness
+                        AddNeighbor(q, nodeNew, true);
+                    } else {
+                        if (nodesReinsert.contains(q)) {
+                            // update q.count_after or q.nn_before and its' outlierness
                             AddNeighbor(q, nodeNew, true);
-                        } else {
-                            if (nodesReinsert.contains(q)) {
-                                // update q.count_after or q.nn_before and its' outlierness
-                                AddNeighbor(q, nodeNew, true);
-                            }
                         }
                     }
                 }
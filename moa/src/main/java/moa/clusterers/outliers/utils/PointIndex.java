@@ -0,0 +1,227 @@
+/*
+ *    PointIndex.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.outliers.utils;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import moa.clusterers.outliers.utils.mtree.DistanceFunctions.EuclideanCoordinate;
+
+/**
+ * Euclidean range-query index over the nodes of a sliding window, shared by
+ * the distance-based outlier detectors.
+ *
+ * The coordinates of the nodes are kept in a single double array, in the
+ * order the nodes were inserted, and a range query is a scan of that array.
+ * A removed node leaves a hole that is reclaimed when the array is
+ * compacted, so removing the oldest node, which is what happens every time
+ * the window slides, only moves the start of the live entries.
+ *
+ * Distances are computed as in DistanceFunctions.euclidean, so a node is
+ * found by a range query if and only if it would be found by an M-tree
+ * range query with the same radius.
+ */
+public class PointIndex<N> {
+
+    public interface RangeVisitor<N> {
+        void visit(N node, double distance);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int dimensions = -1;
+    private double[] points;
+    private Object[] nodes;
+    // live entries are between head and end, holes have a null node
+    private int head;
+    private int end;
+    private int size;
+    private Map<N, Integer> positions;
+    private double[] query;
+
+    public PointIndex() {
+        nodes = new Object[INITIAL_CAPACITY];
+        positions = new IdentityHashMap<N, Integer>();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(N node) {
+        return positions.containsKey(node);
+    }
+
+    /**
+     * Adds a node with the coordinates of the point. A node that is already
+     * in the index is left as it is.
+     */
+    public void insert(N node, EuclideanCoordinate point) {
+        if (positions.containsKey(node)) {
+            return;
+        }
+        if (dimensions < 0) {
+            dimensions = point.dimensions();
+            points = new double[nodes.length * dimensions];
+            query = new double[dimensions];
+        } else if (point.dimensions() != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions
+                    + " dimensions, got " + point.dimensions());
+        }
+        if (end == nodes.length) {
+            makeRoom();
+        }
+        int offset = end * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            points[offset + i] = point.get(i);
+        }
+        nodes[end] = node;
+        positions.put(node, end);
+        end++;
+        size++;
+    }
+
+    public boolean remove(N node) {
+        Integer pos = positions.remove(node);
+        if (pos == null) {
+            return false;
+        }
+        nodes[pos] = null;
+        size--;
+        if (size == 0) {
+            head = 0;
+            end = 0;
+        } else {
+            while (nodes[head] == null) {
+                head++;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(nodes, 0, end, null);
+        positions.clear();
+        head = 0;
+        end = 0;
+        size = 0;
+    }
+
+    /**
+     * Adds the nodes to the list, in the order they were inserted.
+     */
+    @SuppressWarnings("unchecked")
+    public void getNodes(List<? super N> list) {
+        for (int e = head; e < end; e++) {
+            if (nodes[e] != null) {
+                list.add((N) nodes[e]);
+            }
+        }
+    }
+
+    /**
+     * Visits the nodes within the radius of the point, in the order they
+     * were inserted.
+     */
+    public void rangeSearch(EuclideanCoordinate point, double radius, RangeVisitor<? super N> visitor) {
+        if (size == 0) {
+            return;
+        }
+        for (int i = 0; i < dimensions; i++) {
+            query[i] = point.get(i);
+        }
+        rangeSearch(query, radius, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void rangeSearch(double[] point, double radius, RangeVisitor<? super N> visitor) {
+        double bound = abandonBound(radius);
+        for (int e = head; e < end; e++) {
+            if (nodes[e] == null) {
+                continue;
+            }
+            double sum = squaredDistance(point, e, bound);
+            if (sum <= bound) {
+                double distance = Math.sqrt(sum);
+                if (distance <= radius) {
+                    visitor.visit((N) nodes[e], distance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Squared distance above which the distance is certainly greater than
+     * the radius, with a margin for the rounding of the square root.
+     */
+    private static double abandonBound(double radius) {
+        return radius * radius * (1 + 1e-9);
+    }
+
+    /**
+     * Same sum as DistanceFunctions.euclidean, given up as soon as it goes
+     * past the bound.
+     */
+    private double squaredDistance(double[] point, int e, double bound) {
+        int offset = e * dimensions;
+        double sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            double diff = point[i] - points[offset + i];
+            sum += diff * diff;
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Compacts the live entries to the start of the arrays, and grows them
+     * unless that frees at least half of the room.
+     */
+    @SuppressWarnings("unchecked")
+    private void makeRoom() {
+        int capacity = nodes.length;
+        if (size > capacity / 2) {
+            capacity *= 2;
+        }
+        double[] newPoints = capacity == nodes.length ? points : new double[capacity * dimensions];
+        Object[] newNodes = capacity == nodes.length ? nodes : new Object[capacity];
+        int live = 0;
+        for (int e = head; e < end; e++) {
+            if (nodes[e] == null) {
+                continue;
+            }
+            if (live != e || newNodes != nodes) {
+                System.arraycopy(points, e * dimensions, newPoints, live * dimensions, dimensions);
+                newNodes[live] = nodes[e];
+                positions.put((N) nodes[e], live);
+            }
+            live++;
+        }
+        if (newNodes == nodes) {
+            Arrays.fill(nodes, live, end, null);
+        }
+        points = newPoints;
+        nodes = newNodes;
+        head = 0;
+        end = live;
+    }
+}
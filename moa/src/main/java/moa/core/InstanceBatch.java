@@ -0,0 +1,150 @@
+/*
+ *    InstanceBatch.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.core;
+
+import java.util.Arrays;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.AbstractMOAObject;
+
+/**
+ * Reusable batch of dense instances stored in primitive arrays. The values
+ * of all the attributes, class included, are stored row by row in a single
+ * array, so a batch can be refilled many times without allocating.
+ */
+public class InstanceBatch extends AbstractMOAObject {
+
+    private static final long serialVersionUID = 1L;
+
+    protected int numAttributes;
+
+    protected int size;
+
+    /** Attribute values, row-major: the value of attribute j of row i is at i * numAttributes + j. */
+    protected double[] values;
+
+    protected double[] weights;
+
+    public InstanceBatch(int numAttributes, int capacity) {
+        this.numAttributes = numAttributes;
+        this.values = new double[numAttributes * Math.max(1, capacity)];
+        this.weights = new double[Math.max(1, capacity)];
+    }
+
+    public int numAttributes() {
+        return this.numAttributes;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.weights.length;
+    }
+
+    /**
+     * Empties the batch, keeping its storage.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.weights.length) {
+            int newCapacity = Math.max(capacity, 2 * this.weights.length);
+            this.values = Arrays.copyOf(this.values, newCapacity * this.numAttributes);
+            this.weights = Arrays.copyOf(this.weights, newCapacity);
+        }
+    }
+
+    /**
+     * Appends a row of weight 1 to the batch. Its values must be written by
+     * the caller, at the returned offset of {@link #values()}.
+     *
+     * @return the offset of the new row in the value array
+     */
+    public int addRow() {
+        ensureCapacity(this.size + 1);
+        this.weights[this.size] = 1.0;
+        return this.numAttributes * this.size++;
+    }
+
+    /**
+     * Appends a copy of the values and weight of an instance to the batch.
+     *
+     * @param inst the instance to copy, with the same number of attributes as the batch
+     */
+    public void add(Instance inst) {
+        int offset = addRow();
+        for (int j = 0; j < this.numAttributes; j++) {
+            this.values[offset + j] = inst.value(j);
+        }
+        this.weights[this.size - 1] = inst.weight();
+    }
+
+    /**
+     * Returns the backing array of values. The array is replaced when the
+     * batch grows, so it should not be kept across calls to {@link #addRow()}.
+     *
+     * @return the row-major array of values
+     */
+    public double[] values() {
+        return this.values;
+    }
+
+    public int offset(int row) {
+        return row * this.numAttributes;
+    }
+
+    public double value(int row, int attIndex) {
+        return this.values[row * this.numAttributes + attIndex];
+    }
+
+    public double weight(int row) {
+        return this.weights[row];
+    }
+
+    public void setWeight(int row, double weight) {
+        this.weights[row] = weight;
+    }
+
+    /**
+     * Creates a new dense instance holding a copy of a row of the batch.
+     *
+     * @param row the row to copy
+     * @param header the header of the new instance
+     * @return the new instance
+     */
+    public Instance instance(int row, Instances header) {
+        int offset = row * this.numAttributes;
+        Instance inst = new DenseInstance(this.weights[row],
+                Arrays.copyOfRange(this.values, offset, offset + this.numAttributes));
+        inst.setDataset(header);
+        return inst;
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+        sb.append("InstanceBatch of ").append(this.size).append(" instances with ")
+                .append(this.numAttributes).append(" attributes");
+    }
+}
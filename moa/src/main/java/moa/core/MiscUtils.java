@@ -67,6 +67,23 @@ public class MiscUtils {
         return (int) Math.floor(x);
     }
 
+    /**
+     * Derives the seed of an independent random stream from a base seed,
+     * using the SplitMix64 finaliser. The same base seed and stream index
+     * always give the same seed, so streams can be split across threads
+     * reproducibly.
+     *
+     * @param seed the base seed
+     * @param streamIndex the index of the stream
+     * @return the seed of the stream
+     */
+    public static long randomStreamSeed(long seed, long streamIndex) {
+        long z = seed + (streamIndex + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     public static String getStackTraceString(Exception ex) {
         StringWriter stackTraceWriter = new StringWriter();
         ex.printStackTrace(new PrintWriter(stackTraceWriter));
@@ -0,0 +1,148 @@
+/*
+ *    RangeExecutor.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a loop over a range of indices in batches on a fixed pool of daemon
+ * threads. The range is cut into contiguous batches, a few per thread so
+ * that uneven batches balance out, and the call returns when all of them
+ * are done. With a single job the loop runs on the calling thread, and so
+ * does a loop started from inside a batch, so that nested loops cannot
+ * wait on a pool busy with their callers.
+ */
+public class RangeExecutor {
+
+    /** Number of batches per job. */
+    protected static final int BATCHES_PER_JOB = 4;
+
+    /**
+     * Body of the loop, called once per batch.
+     */
+    public interface RangeTask {
+
+        void run(int from, int to);
+    }
+
+    private static final Map<Integer, RangeExecutor> SHARED = new HashMap<Integer, RangeExecutor>();
+
+    private static final ThreadLocal<Boolean> IN_BATCH = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    protected final int numberOfJobs;
+
+    protected final ExecutorService executor;
+
+    private boolean shared;
+
+    /**
+     * Creates an executor.
+     *
+     * @param numberOfJobs the number of threads, -1 for as many as there are
+     * processors, 0 or 1 to run on the calling thread
+     */
+    public RangeExecutor(int numberOfJobs) {
+        this.numberOfJobs = numberOfJobs == -1
+                ? Runtime.getRuntime().availableProcessors() : Math.max(numberOfJobs, 1);
+        this.executor = this.numberOfJobs == 1 ? null
+                : Executors.newFixedThreadPool(this.numberOfJobs, runnable -> {
+                    Thread thread = new Thread(runnable, "RangeExecutor");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Returns the executor shared by everything asking for this number of
+     * jobs, such as the members of an ensemble evaluated in several folds.
+     * Shutting it down does nothing.
+     *
+     * @param numberOfJobs the number of threads, -1 for as many as there are
+     * processors
+     */
+    public static synchronized RangeExecutor getShared(int numberOfJobs) {
+        int jobs = numberOfJobs == -1
+                ? Runtime.getRuntime().availableProcessors() : Math.max(numberOfJobs, 1);
+        RangeExecutor executor = SHARED.get(jobs);
+        if (executor == null) {
+            executor = new RangeExecutor(jobs);
+            executor.shared = true;
+            SHARED.put(jobs, executor);
+        }
+        return executor;
+    }
+
+    public int getNumberOfJobs() {
+        return this.numberOfJobs;
+    }
+
+    /**
+     * Runs the task over the indices from 0 to n, excluded.
+     *
+     * @param n the number of indices
+     * @param minBatchSize the size below which a batch is not worth
+     * handing to another thread
+     * @param task the body of the loop
+     */
+    public void run(int n, int minBatchSize, RangeTask task) {
+        int numBatches = this.executor == null ? 1
+                : Math.min(this.numberOfJobs * BATCHES_PER_JOB, n / Math.max(minBatchSize, 1));
+        if (numBatches <= 1 || IN_BATCH.get()) {
+            task.run(0, n);
+            return;
+        }
+        List<Callable<Void>> batches = new ArrayList<Callable<Void>>(numBatches);
+        for (int b = 0; b < numBatches; b++) {
+            final int from = (int) ((long) n * b / numBatches);
+            final int to = (int) ((long) n * (b + 1) / numBatches);
+            batches.add(() -> {
+                IN_BATCH.set(Boolean.TRUE);
+                try {
+                    task.run(from, to);
+                } finally {
+                    IN_BATCH.set(Boolean.FALSE);
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : this.executor.invokeAll(batches)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        if (this.executor != null && !this.shared) {
+            this.executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *    MappedFile.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.recommender.rc.data.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reads or writes of primitive values. Reads go through memory
+ * mappings of the file, one window at a time, so that it can be larger than
+ * a single mapping. Writes go through a direct buffer written to the channel
+ * whenever it is full: a mapping cannot be released on demand, and a file
+ * still mapped cannot always be resized.
+ */
+class MappedFile implements Closeable {
+
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final boolean writing;
+
+    private final long length;
+
+    private ByteBuffer buffer;
+
+    private long windowStart;
+
+    private MappedFile(File f, boolean writing) throws IOException {
+        this.file = new RandomAccessFile(f, writing ? "rw" : "r");
+        this.channel = file.getChannel();
+        this.writing = writing;
+        this.length = writing ? Long.MAX_VALUE : channel.size();
+        if (writing) {
+            file.setLength(0);
+            buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        } else {
+            map(0);
+        }
+    }
+
+    static MappedFile create(File f) throws IOException {
+        return new MappedFile(f, true);
+    }
+
+    static MappedFile open(File f) throws IOException {
+        return new MappedFile(f, false);
+    }
+
+    private void map(long start) throws IOException {
+        long size = Math.min(WINDOW_SIZE, length - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Makes the window or the write buffer hold the next bytes, moving the
+     * window or writing the buffer out if fewer remain.
+     */
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            if (writing) {
+                flush();
+                return;
+            }
+            long start = windowStart + buffer.position();
+            if (length - start < bytes) {
+                throw new EOFException();
+            }
+            map(start);
+        }
+    }
+
+    void putInt(int v) throws IOException {
+        require(4);
+        buffer.putInt(v);
+    }
+
+    void putDouble(double v) throws IOException {
+        require(8);
+        buffer.putDouble(v);
+    }
+
+    void putInts(int[] a, int n) throws IOException {
+        for (int off = 0; off < n; ) {
+            require(4);
+            int len = Math.min(n - off, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(a, off, len);
+            buffer.position(buffer.position() + 4 * len);
+            off += len;
+        }
+    }
+
+    void putDoubles(double[] a, int n) throws IOException {
+        for (int off = 0; off < n; ) {
+            require(8);
+            int len = Math.min(n - off, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(a, off, len);
+            buffer.position(buffer.position() + 8 * len);
+            off += len;
+        }
+    }
+
+    int getInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    double getDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    int[] getInts(int n) throws IOException {
+        int[] a = new int[Math.max(n, 1)];
+        for (int off = 0; off < n; ) {
+            require(4);
+            int len = Math.min(n - off, buffer.remaining() / 4);
+            buffer.asIntBuffer().get(a, off, len);
+            buffer.position(buffer.position() + 4 * len);
+            off += len;
+        }
+        return a;
+    }
+
+    double[] getDoubles(int n) throws IOException {
+        double[] a = new double[Math.max(n, 1)];
+        for (int off = 0; off < n; ) {
+            require(8);
+            int len = Math.min(n - off, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().get(a, off, len);
+            buffer.position(buffer.position() + 8 * len);
+            off += len;
+        }
+        return a;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writing) {
+                flush();
+            }
+        } finally {
+            buffer = null;
+            file.close();
+        }
+    }
+}
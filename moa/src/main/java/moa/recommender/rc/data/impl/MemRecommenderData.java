@@ -20,31 +20,30 @@
 
 package moa.recommender.rc.data.impl;
 
-import java.io.Serializable;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import moa.recommender.rc.data.AbstractRecommenderData;
 import moa.recommender.rc.utils.Rating;
 import moa.recommender.rc.utils.SparseVector;
 
+/**
+ * Ratings kept in memory, in a SparseRatingTable from the users to the items
+ * and another from the items to the users, without boxing. They can be saved
+ * to a file and loaded back, through memory mappings of the file (see
+ * MappedFile).
+ */
 public class MemRecommenderData extends AbstractRecommenderData {
 
     private static final long serialVersionUID = 2844235954903772074L;
 
-    class EntityStats implements Serializable {
-        private static final long serialVersionUID = -8933750377510577120L;
-        public double sum = 0;
-        public double num = 0;
-    }
-    
-    protected Map<Integer, Map<Integer, Double>> ratingsUser;
-    protected Map<Integer, Map<Integer, Double>> ratingsItem;
-    protected Map<Integer, EntityStats> usersStats;
-    protected Map<Integer, EntityStats> itemsStats;
+    private static final int FILE_MAGIC = 0x4d524431;
+
+    protected SparseRatingTable ratingsUser;
+    protected SparseRatingTable ratingsItem;
     
     protected int nItems = 0;
     protected int nUsers = 0;
@@ -54,59 +53,30 @@ public class MemRecommenderData extends AbstractRecommenderData {
     protected double maxRating = 0;
     
     protected class RatingIterator implements Iterator<Rating> {
-        private int currentUser = -1;
-        private Iterator<Integer> userIt = null;
-        private Iterator<Entry<Integer, Double>> ratsIt = null;
-        private boolean calculated = false;
-        private boolean result = true;
+        private int slot = 0;
+        private int position = 0;
         
-        RatingIterator() throws Exception {
+        RatingIterator() {
         }
         
         @Override
         public boolean hasNext() {
-            if (calculated)
-                return result;
-            
-            calculated = true;
-            result = false;
-            if (ratsIt == null) {
-                if (!ratingsUser.isEmpty()) {
-                    userIt = ratingsUser.keySet().iterator();
-                    if (userIt.hasNext()) {
-                        Integer first = userIt.next();
-                        currentUser = first;
-                        ratsIt = ratingsUser.get(first).entrySet().iterator();
-                        if (ratsIt.hasNext()) {
-                            result = true;
-                        }
-                    }
-                }
-            }
-            else {
-                if (ratsIt.hasNext()) {
-                    result = true;
-                }
-                else if (userIt.hasNext()) {
-                    Integer first = userIt.next();
-                    currentUser = first;
-                    ratsIt = ratingsUser.get(first).entrySet().iterator();
-                    if (ratsIt.hasNext()) {
-                        result = true;
-                    }
-                }
+            while (slot < ratingsUser.getNumSlots()
+                    && (!ratingsUser.isAlive(slot) || position >= ratingsUser.count(slot))) {
+                ++slot;
+                position = 0;
             }
-            return result;
+            return slot < ratingsUser.getNumSlots();
         }
 
         @Override
         public Rating next() {
-            if (!calculated)
-                hasNext();
-            calculated = false;
-            Entry<Integer, Double> pair = ratsIt.next();
-            
-            return new Rating(currentUser, pair.getKey(), pair.getValue());
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Rating rating = new Rating(ratingsUser.getId(slot), ratingsUser.getKey(slot, position),
+                    ratingsUser.getValue(slot, position));
+            ++position;
+            return rating;
         }
 
         @Override
@@ -119,18 +89,15 @@ public class MemRecommenderData extends AbstractRecommenderData {
     
     public MemRecommenderData() {
         super();
-        ratingsItem = new HashMap<Integer, Map<Integer, Double>>();
-        ratingsUser = new HashMap<Integer, Map<Integer, Double>>();
-        usersStats = new HashMap<Integer, EntityStats>();
-        itemsStats = new HashMap<Integer, EntityStats>();
+        ratingsItem = new SparseRatingTable();
+        ratingsUser = new SparseRatingTable();
     }
     
     @Override
     public void addUser(int userID, List<Integer> ratedItems, List<Double> ratings) {
         super.addUser(userID, ratedItems, ratings);
         
-        ratingsUser.put(userID, new HashMap<Integer, Double>());
-        usersStats.put(userID, new EntityStats());
+        ratingsUser.addEntity(userID);
         
         int n = ratedItems.size();
         
@@ -142,16 +109,14 @@ public class MemRecommenderData extends AbstractRecommenderData {
     @Override
     public void removeUser(int userID) {
         super.removeUser(userID);
-        ratingsUser.remove(userID);
-        usersStats.remove(userID);
+        ratingsUser.removeEntity(userID);
     }
 
     @Override
     public void addItem(int itemID, List<Integer> ratingUsers, List<Double> ratings) {
         super.addItem(itemID, ratingUsers, ratings);
         
-        ratingsItem.put(itemID, new HashMap<Integer, Double>());
-        itemsStats.put(itemID, new EntityStats());
+        ratingsItem.addEntity(itemID);
         int n = ratingUsers.size();
         for (int i = 0; i < n; ++i)
             auxSetRating(ratingUsers.get(i), itemID, ratings.get(i));
@@ -161,8 +126,7 @@ public class MemRecommenderData extends AbstractRecommenderData {
     @Override
     public void removeItem(int itemID) {
         super.removeItem(itemID);
-        ratingsItem.remove(itemID);
-        itemsStats.remove(itemID);
+        ratingsItem.removeEntity(itemID);
     }
 
     private void auxSetRating(int userID, int itemID, double rating) {
@@ -175,42 +139,33 @@ public class MemRecommenderData extends AbstractRecommenderData {
             maxRating = Math.max(maxRating, rating);
         }
         
-        EntityStats userStats = usersStats.get(userID);
-        EntityStats itemStats = itemsStats.get(itemID);
-        if (userStats == null) {
+        int user = ratingsUser.slotOf(userID);
+        int item = ratingsItem.slotOf(itemID);
+        if (user == -1) {
             ++nUsers;
-            ratingsUser.put(userID, new HashMap<Integer, Double>());
-            userStats = new EntityStats();
-            usersStats.put(userID, userStats);
+            user = ratingsUser.addEntity(userID);
         }
         
-        if (itemStats == null) {
+        if (item == -1) {
             ++nItems;
-            ratingsItem.put(itemID, new HashMap<Integer, Double>());
-            itemStats = new EntityStats();
-            itemsStats.put(itemID, itemStats);
+            item = ratingsItem.addEntity(itemID);
         }
         
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        Map<Integer, Double> ratItem = ratingsItem.get(itemID);
-        Double rat = ratUser.get(itemID);
-        if (rat != null) {
+        int position = ratingsUser.indexOf(user, itemID);
+        if (position != -1) {
+            double rat = ratingsUser.getValue(user, position);
             sumRatings -= rat;
-            userStats.sum -= rat;
-            userStats.num--;
-            itemStats.sum -= rat;
-            itemStats.num--;
+            ratingsUser.addToStats(user, -rat, -1);
+            ratingsItem.addToStats(item, -rat, -1);
             --nRatings;
         }
         
-        userStats.sum += rating;
-        userStats.num++;
-        itemStats.sum += rating;
-        itemStats.num++;
+        ratingsUser.addToStats(user, rating, 1);
+        ratingsItem.addToStats(item, rating, 1);
         sumRatings += rating;
         ++nRatings;
-        ratUser.put(itemID, rating);
-        ratItem.put(userID, rating);
+        ratingsUser.put(user, itemID, rating);
+        ratingsItem.put(item, userID, rating);
     }
     
     @Override
@@ -223,33 +178,40 @@ public class MemRecommenderData extends AbstractRecommenderData {
     public void removeRating(int userID, int itemID) {
         super.removeRating(userID, itemID);
         
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        Map<Integer, Double> ratItem = ratingsItem.get(itemID);
-        Double rat = ratUser.get(itemID);
-        EntityStats userStats = usersStats.get(userID);
-        EntityStats itemStats = itemsStats.get(itemID);
-        if (rat != null) {
+        int user = ratingsUser.slotOf(userID);
+        int item = ratingsItem.slotOf(itemID);
+        int position = (user != -1 ? ratingsUser.indexOf(user, itemID) : -1);
+        if (position != -1) {
+            double rat = ratingsUser.getValue(user, position);
             sumRatings -= rat;
             --nRatings;
-            userStats.sum -= rat;
-            userStats.num--;
-            itemStats.sum -= rat;
-            itemStats.num--;
-            ratUser.remove(itemID);
-            ratItem.remove(userID);
+            ratingsUser.addToStats(user, -rat, -1);
+            ratingsUser.remove(user, itemID);
+            if (item != -1) {
+                ratingsItem.addToStats(item, -rat, -1);
+                ratingsItem.remove(item, userID);
+            }
         }
     }
 
+    private double getAvgRating(SparseRatingTable table, int id) {
+        int slot = table.slotOf(id);
+        double sum = (slot != -1 ? table.getSum(slot) : 0);
+        double num = (slot != -1 ? table.getNum(slot) : 0);
+        double mean = (nRatings > 0 ? sumRatings/(double)nRatings : (minRating + maxRating)/2.0);
+        return (mean*25 + sum)/(25 + num);
+    }
+
     @Override
     public SparseVector getRatingsUser(int userID) {
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        return new SparseVector(ratUser);
+        return ratingsUser.ratingsOf(userID);
     }
     
     @Override
     public double getRating(int userID, int itemID) {
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        return (ratUser.get(itemID) != null ? ratUser.get(itemID) : 0);
+        int user = ratingsUser.slotOf(userID);
+        int position = (user != -1 ? ratingsUser.indexOf(user, itemID) : -1);
+        return (position != -1 ? ratingsUser.getValue(user, position) : 0);
     }
 
     @Override
@@ -264,20 +226,12 @@ public class MemRecommenderData extends AbstractRecommenderData {
     
     @Override
     public double getAvgRatingUser(int userID) {
-        EntityStats stats = usersStats.get(userID);
-        double sum = (stats != null ? stats.sum : 0);
-        double num = (stats != null ? stats.num : 0);
-        double mean = (nRatings > 0 ? sumRatings/(double)nRatings : (minRating + maxRating)/2.0);
-        return (mean*25 + sum)/(25 + num);
+        return getAvgRating(ratingsUser, userID);
     }
 
     @Override
     public double getAvgRatingItem(int itemID) {
-        EntityStats stats = itemsStats.get(itemID);
-        double sum = (stats != null ? stats.sum : 0);
-        double num = (stats != null ? stats.num : 0);
-        double mean = (nRatings > 0 ? sumRatings/(double)nRatings : (minRating + maxRating)/2.0);
-        return (mean*25 + sum)/(25 + num);
+        return getAvgRating(ratingsItem, itemID);
     }
     
     @Override
@@ -292,18 +246,17 @@ public class MemRecommenderData extends AbstractRecommenderData {
 
     @Override
     public Set<Integer> getUsers() {
-        return usersStats.keySet();
+        return ratingsUser.idSet();
     }
 
     @Override
     public SparseVector getRatingsItem(int itemID) {
-        Map<Integer, Double> ratItem = ratingsItem.get(itemID);
-        return new SparseVector(ratItem);
+        return ratingsItem.ratingsOf(itemID);
     }
 
     @Override
     public Set<Integer> getItems() {
-        return itemsStats.keySet();
+        return ratingsItem.idSet();
     }
 
     @Override
@@ -313,20 +266,19 @@ public class MemRecommenderData extends AbstractRecommenderData {
 
     @Override
     public int countRatingsUser(int userID) {
-        EntityStats stats = usersStats.get(userID);
-        return (stats != null ? (int)stats.num : 0);
+        int slot = ratingsUser.slotOf(userID);
+        return (slot != -1 ? (int)ratingsUser.getNum(slot) : 0);
     }
 
     @Override
     public int countRatingsItem(int itemID) {
-        EntityStats stats = itemsStats.get(itemID);
-        return (stats != null ? (int)stats.num : 0);
+        int slot = ratingsItem.slotOf(itemID);
+        return (slot != -1 ? (int)ratingsItem.getNum(slot) : 0);
     }
 
     @Override
     public Iterator<Rating> ratingIterator() {
-        // TODO Auto-generated method stub
-        return null;
+        return new RatingIterator();
     }
 
     @Override
@@ -336,21 +288,55 @@ public class MemRecommenderData extends AbstractRecommenderData {
     
     @Override
     public boolean userExists(int userID) {
-        return usersStats.containsKey(userID);
+        return ratingsUser.slotOf(userID) != -1;
     }
     @Override
     public boolean itemExists(int itemID) {
-        return itemsStats.containsKey(itemID);
+        return ratingsItem.slotOf(itemID) != -1;
     }
 
     @Override
     public void clear() {
-        usersStats.clear();
-        itemsStats.clear();
         minRating = maxRating = nItems = nUsers = 0;
         sumRatings = nRatings = 0;
         ratingsUser.clear();
         ratingsItem.clear();
     }
+
+    /**
+     * Writes the ratings and the statistics to a file, from which load
+     * restores them.
+     */
+    public void save(File file) throws IOException {
+        try (MappedFile out = MappedFile.create(file)) {
+            out.putInt(FILE_MAGIC);
+            out.putInt(nItems);
+            out.putInt(nUsers);
+            out.putDouble(sumRatings);
+            out.putInt(nRatings);
+            out.putDouble(minRating);
+            out.putDouble(maxRating);
+            ratingsUser.write(out);
+            ratingsItem.write(out);
+        }
+    }
+
+    /**
+     * Replaces the ratings and the statistics with those saved to a file.
+     */
+    public void load(File file) throws IOException {
+        try (MappedFile in = MappedFile.open(file)) {
+            if (in.getInt() != FILE_MAGIC)
+                throw new IOException("Not a rating file: " + file);
+            nItems = in.getInt();
+            nUsers = in.getInt();
+            sumRatings = in.getDouble();
+            nRatings = in.getInt();
+            minRating = in.getDouble();
+            maxRating = in.getDouble();
+            ratingsUser.read(in);
+            ratingsItem.read(in);
+        }
+    }
 }
 
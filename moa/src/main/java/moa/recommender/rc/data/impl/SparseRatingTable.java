@@ -0,0 +1,562 @@
+/*
+ *    SparseRatingTable.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.recommender.rc.data.impl;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import moa.recommender.rc.utils.Pair;
+import moa.recommender.rc.utils.SparseVector;
+
+/**
+ * One side of a sparse rating matrix: for each entity, user or item, the ids
+ * of the entities of the other side it has ratings with, the ratings, and
+ * the sum and number of ratings used for its average.
+ *
+ * The entities have slots, in the order they were added, and an open
+ * addressing table maps their ids to their slots. The ratings of an entity
+ * are kept in primitive arrays, in the order they were first set, and an
+ * entity with many ratings has its own open addressing table from the ids
+ * to the positions in these arrays.
+ *
+ * The ratings of an entity and the ids of the entities can be read through
+ * views backed by the table, which iterate them in that order.
+ */
+public class SparseRatingTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int INITIAL_RATINGS = 4;
+
+    /** Number of ratings from which an entity has its own table */
+    private static final int MIN_INDEXED = 16;
+
+    private int numSlots;
+    private int numEntities;
+    private int[] ids;
+    private boolean[] alive;
+    private double[] sums;
+    private double[] nums;
+    private int[] counts;
+    private int[][] keys;
+    private double[][] values;
+    private int[][] indexes;
+    private int[] table;
+
+    public SparseRatingTable() {
+        clear();
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public void clear() {
+        numSlots = 0;
+        numEntities = 0;
+        ids = new int[INITIAL_CAPACITY];
+        alive = new boolean[INITIAL_CAPACITY];
+        sums = new double[INITIAL_CAPACITY];
+        nums = new double[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        keys = new int[INITIAL_CAPACITY][];
+        values = new double[INITIAL_CAPACITY][];
+        indexes = new int[INITIAL_CAPACITY][];
+        table = new int[2 * INITIAL_CAPACITY];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * @return the number of entities
+     */
+    public int size() {
+        return numEntities;
+    }
+
+    /**
+     * @return the number of slots, which includes those of removed entities
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public boolean isAlive(int slot) {
+        return alive[slot];
+    }
+
+    public int getId(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * @return the slot of the entity, or -1 if there is no entity with this id
+     */
+    public int slotOf(int id) {
+        int mask = table.length - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == EMPTY) {
+                return -1;
+            }
+            if (ids[slot] == id) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Adds an entity with no ratings. An entity that already exists keeps its
+     * slot but loses its ratings and statistics.
+     *
+     * @return the slot of the entity
+     */
+    public int addEntity(int id) {
+        int slot = slotOf(id);
+        if (slot == -1) {
+            if (numSlots == ids.length) {
+                makeRoom();
+            }
+            slot = numSlots++;
+            ids[slot] = id;
+            alive[slot] = true;
+            numEntities++;
+            insertSlot(slot);
+        }
+        sums[slot] = 0;
+        nums[slot] = 0;
+        counts[slot] = 0;
+        keys[slot] = new int[INITIAL_RATINGS];
+        values[slot] = new double[INITIAL_RATINGS];
+        indexes[slot] = null;
+        return slot;
+    }
+
+    public void removeEntity(int id) {
+        int slot = slotOf(id);
+        if (slot == -1) {
+            return;
+        }
+        alive[slot] = false;
+        keys[slot] = null;
+        values[slot] = null;
+        indexes[slot] = null;
+        numEntities--;
+        rebuildTable(table.length);
+    }
+
+    private void insertSlot(int slot) {
+        int mask = table.length - 1;
+        int i = hash(ids[slot]) & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+    }
+
+    private void rebuildTable(int length) {
+        table = new int[length];
+        Arrays.fill(table, EMPTY);
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (alive[slot]) {
+                insertSlot(slot);
+            }
+        }
+    }
+
+    /**
+     * Drops the slots of the removed entities if they are the majority, and
+     * grows the arrays otherwise. The slots keep their order.
+     */
+    private void makeRoom() {
+        int capacity = ids.length;
+        if (2 * numEntities > numSlots) {
+            capacity *= 2;
+        }
+        int[] newIds = new int[capacity];
+        boolean[] newAlive = new boolean[capacity];
+        double[] newSums = new double[capacity];
+        double[] newNums = new double[capacity];
+        int[] newCounts = new int[capacity];
+        int[][] newKeys = new int[capacity][];
+        double[][] newValues = new double[capacity][];
+        int[][] newIndexes = new int[capacity][];
+        int n = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (alive[slot]) {
+                newIds[n] = ids[slot];
+                newAlive[n] = true;
+                newSums[n] = sums[slot];
+                newNums[n] = nums[slot];
+                newCounts[n] = counts[slot];
+                newKeys[n] = keys[slot];
+                newValues[n] = values[slot];
+                newIndexes[n] = indexes[slot];
+                n++;
+            }
+        }
+        ids = newIds;
+        alive = newAlive;
+        sums = newSums;
+        nums = newNums;
+        counts = newCounts;
+        keys = newKeys;
+        values = newValues;
+        indexes = newIndexes;
+        numSlots = n;
+        rebuildTable(2 * capacity);
+    }
+
+    public double getSum(int slot) {
+        return sums[slot];
+    }
+
+    public double getNum(int slot) {
+        return nums[slot];
+    }
+
+    public void addToStats(int slot, double sum, double num) {
+        sums[slot] += sum;
+        nums[slot] += num;
+    }
+
+    /**
+     * @return the number of ratings of the entity
+     */
+    public int count(int slot) {
+        return counts[slot];
+    }
+
+    public int getKey(int slot, int position) {
+        return keys[slot][position];
+    }
+
+    public double getValue(int slot, int position) {
+        return values[slot][position];
+    }
+
+    /**
+     * @return the position of the rating with the other entity, or -1 if
+     * there is none
+     */
+    public int indexOf(int slot, int key) {
+        int[] index = indexes[slot];
+        int[] k = keys[slot];
+        if (index == null) {
+            int n = counts[slot];
+            for (int i = 0; i < n; i++) {
+                if (k[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int position = index[i];
+            if (position == EMPTY) {
+                return -1;
+            }
+            if (k[position] == key) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Sets the rating with the other entity, which keeps its position if it
+     * was already set.
+     */
+    public void put(int slot, int key, double value) {
+        int position = indexOf(slot, key);
+        if (position != -1) {
+            values[slot][position] = value;
+            return;
+        }
+        position = counts[slot]++;
+        if (position == keys[slot].length) {
+            int capacity = Math.max(INITIAL_RATINGS, position + (position >> 1));
+            keys[slot] = Arrays.copyOf(keys[slot], capacity);
+            values[slot] = Arrays.copyOf(values[slot], capacity);
+        }
+        keys[slot][position] = key;
+        values[slot][position] = value;
+        int[] index = indexes[slot];
+        if (index != null && 2 * counts[slot] <= index.length) {
+            insertPosition(index, keys[slot], position);
+        } else if (counts[slot] >= MIN_INDEXED) {
+            rebuildIndex(slot);
+        }
+    }
+
+    /**
+     * Removes the rating with the other entity. The ratings after it keep
+     * their order.
+     *
+     * @return whether there was such a rating
+     */
+    public boolean remove(int slot, int key) {
+        int position = indexOf(slot, key);
+        if (position == -1) {
+            return false;
+        }
+        int n = --counts[slot];
+        System.arraycopy(keys[slot], position + 1, keys[slot], position, n - position);
+        System.arraycopy(values[slot], position + 1, values[slot], position, n - position);
+        if (indexes[slot] != null) {
+            rebuildIndex(slot);
+        }
+        return true;
+    }
+
+    private static void insertPosition(int[] index, int[] k, int position) {
+        int mask = index.length - 1;
+        int i = hash(k[position]) & mask;
+        while (index[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        index[i] = position;
+    }
+
+    private void rebuildIndex(int slot) {
+        int n = counts[slot];
+        if (n < MIN_INDEXED) {
+            indexes[slot] = null;
+            return;
+        }
+        int length = Integer.highestOneBit(n) * 4;
+        int[] index = new int[length];
+        Arrays.fill(index, EMPTY);
+        for (int position = 0; position < n; position++) {
+            insertPosition(index, keys[slot], position);
+        }
+        indexes[slot] = index;
+    }
+
+    /**
+     * Writes the entities, without the slots of those removed.
+     */
+    void write(MappedFile out) throws IOException {
+        out.putInt(numEntities);
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (alive[slot]) {
+                out.putInt(ids[slot]);
+                out.putDouble(sums[slot]);
+                out.putDouble(nums[slot]);
+                out.putInt(counts[slot]);
+                out.putInts(keys[slot], counts[slot]);
+                out.putDoubles(values[slot], counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the entities with those written by write.
+     */
+    void read(MappedFile in) throws IOException {
+        clear();
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            int slot = addEntity(in.getInt());
+            sums[slot] = in.getDouble();
+            nums[slot] = in.getDouble();
+            int count = in.getInt();
+            counts[slot] = count;
+            keys[slot] = in.getInts(count);
+            values[slot] = in.getDoubles(count);
+            rebuildIndex(slot);
+        }
+    }
+
+    /**
+     * @return the ratings of the entity, read from the table without copying
+     * them, or an empty vector if there is no entity with this id
+     */
+    public SparseVector ratingsOf(int id) {
+        return new RatingsView(id);
+    }
+
+    /**
+     * @return the ids of the entities, read from the table without copying
+     * them
+     */
+    public Set<Integer> idSet() {
+        return new IdSet();
+    }
+
+    /**
+     * Read-only view of the ratings of an entity, which finds the slot of the
+     * entity on every call since slots move when removed entities are
+     * dropped.
+     */
+    protected class RatingsView extends SparseVector {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int id;
+
+        RatingsView(int id) {
+            super(Collections.<Integer, Double>emptyMap());
+            this.id = id;
+        }
+
+        @Override
+        public int size() {
+            int slot = slotOf(id);
+            return slot == -1 ? 0 : counts[slot];
+        }
+
+        @Override
+        public void set(int index, double val) {
+            throw new UnsupportedOperationException("Ratings views are read-only");
+        }
+
+        @Override
+        public void remove(int index) {
+            throw new UnsupportedOperationException("Ratings views are read-only");
+        }
+
+        @Override
+        public Double get(int index) {
+            int slot = slotOf(id);
+            int position = slot == -1 ? -1 : indexOf(slot, index);
+            return position == -1 ? null : values[slot][position];
+        }
+
+        @Override
+        public Set<Integer> getIdxs() {
+            return new AbstractSet<Integer>() {
+
+                @Override
+                public boolean contains(Object o) {
+                    return o instanceof Integer && get((Integer) o) != null;
+                }
+
+                @Override
+                public Iterator<Integer> iterator() {
+                    final Iterator<Pair<Integer, Double>> it = RatingsView.this.iterator();
+                    return new Iterator<Integer>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Integer next() {
+                            return it.next().getFirst();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return RatingsView.this.size();
+                }
+            };
+        }
+
+        @Override
+        public SparseVector copy() {
+            Map<Integer, Double> map = new HashMap<Integer, Double>();
+            Iterator<Pair<Integer, Double>> it = iterator();
+            while (it.hasNext()) {
+                Pair<Integer, Double> p = it.next();
+                map.put(p.getFirst(), p.getSecond());
+            }
+            return new SparseVector(map);
+        }
+
+        @Override
+        public Iterator<Pair<Integer, Double>> iterator() {
+            final int slot = slotOf(id);
+            return new Iterator<Pair<Integer, Double>>() {
+                private int position = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return slot != -1 && position < counts[slot];
+                }
+
+                @Override
+                public Pair<Integer, Double> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Pair<Integer, Double> p = new Pair<Integer, Double>(
+                            keys[slot][position], values[slot][position]);
+                    position++;
+                    return p;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of the ids of the entities, in the order of their slots.
+     */
+    protected class IdSet extends AbstractSet<Integer> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer && slotOf((Integer) o) != -1;
+        }
+
+        @Override
+        public int size() {
+            return numEntities;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                private int slot = 0;
+
+                @Override
+                public boolean hasNext() {
+                    while (slot < numSlots && !alive[slot]) {
+                        slot++;
+                    }
+                    return slot < numSlots;
+                }
+
+                @Override
+                public Integer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return ids[slot++];
+                }
+            };
+        }
+    }
+}
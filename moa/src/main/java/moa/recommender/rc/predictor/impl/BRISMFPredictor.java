@@ -21,10 +21,15 @@
 package moa.recommender.rc.predictor.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import moa.core.RangeExecutor;
 import moa.recommender.rc.data.RecommenderData;
 import moa.recommender.rc.utils.Pair;
 import moa.recommender.rc.utils.Rating;
@@ -55,6 +60,10 @@ import moa.recommender.rc.utils.Updatable;
  *      regularization</li>
  * <li> iterations - the number of iterations to be used when retraining
  *      user and item features (online training). </li>
+ * <li> threads - the number of threads used by batch training, which 
+ *      update the features without locks, Hogwild style, each thread on 
+ *      its own share of the ratings. With one thread the ratings are 
+ *      used in order. </li>
  * </lu>
  * 
  */
@@ -69,6 +78,7 @@ public class BRISMFPredictor implements Updatable {
     protected double lRate = 0.01;
     protected double rFactor = 0.02;
     protected int nIterations = 30;
+    protected int nThreads = 1;
     
     public void setLRate(double lRate) {
         this.lRate = lRate;
@@ -78,6 +88,14 @@ public class BRISMFPredictor implements Updatable {
         this.rFactor = rFactor;
     }
     
+    /**
+     * Sets the number of threads of batch training, -1 for as many as there 
+     * are processors.
+     */
+    public void setNThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+    
     public void setNIterations(int nIterations) {
         this.nIterations = nIterations; 
     }
@@ -109,11 +127,14 @@ public class BRISMFPredictor implements Updatable {
     }
     
     private void resetFeatures(float[] feats, boolean userFeats) {
-        int n = feats.length;
+        resetFeatures(feats, 0, feats.length, userFeats);
+    }
+    
+    private void resetFeatures(float[] feats, int offset, int n, boolean userFeats) {
         for (int i = 0; i < n; ++i)
-            feats[i] = (float)0.01*(rnd.nextFloat()*2 - 1);
-        if (userFeats) feats[0] = 1;
-        else feats[1] = 1;
+            feats[offset + i] = (float)0.01*(rnd.nextFloat()*2 - 1);
+        if (userFeats) feats[offset] = 1;
+        else feats[offset + 1] = 1;
     }
     
     public double predictRating(int userID, int itemID) {
@@ -252,82 +273,146 @@ public class BRISMFPredictor implements Updatable {
         itemFeature.put(itemID, trainItemFeats(itemID, usr, rat, nIts));
     }
     
+    /**
+     * Trains all the features from scratch, on flat arrays with the features 
+     * of the users and of the items one after the other, until the error on 
+     * every trainDiv-th rating stops decreasing.
+     */
     public void train() {
         userFeature.clear();
         itemFeature.clear();
         
         int n = data.getNumRatings();
         
+        HashMap<Integer, Integer> userRow = new HashMap<Integer, Integer>();
         Iterator<Integer> it = data.getUsers().iterator();
-        while (it.hasNext()) {
-            float[] feats = new float[nFeatures];
-            resetFeatures(feats, true);
-            userFeature.put(it.next(), feats);
-        }
+        while (it.hasNext())
+            userRow.put(it.next(), userRow.size());
+        final float[] userFeats = new float[userRow.size()*nFeatures];
+        for (int row = 0; row < userRow.size(); ++row)
+            resetFeatures(userFeats, row*nFeatures, nFeatures, true);
         
+        HashMap<Integer, Integer> itemRow = new HashMap<Integer, Integer>();
         it = data.getItems().iterator();
-        while (it.hasNext()) {
-            float[] feats = new float[nFeatures];
-            resetFeatures(feats, false);
-            itemFeature.put(it.next(), feats);
-        }
+        while (it.hasNext())
+            itemRow.put(it.next(), itemRow.size());
+        final float[] itemFeats = new float[itemRow.size()*nFeatures];
+        for (int row = 0; row < itemRow.size(); ++row)
+            resetFeatures(itemFeats, row*nFeatures, nFeatures, false);
 
-        int exit = 0;
-        double lastRMSE = 1e20;
-        
-        int count = 0;
         int trainDiv = Math.max(20, n/1000000);
-        ArrayList<Rating> ratTest = new ArrayList<Rating>(n/trainDiv);
-        do {
-            long start = System.currentTimeMillis();
-            Iterator<Rating> ratIt = data.ratingIterator();
-            int idx = 0;
-            
-            while (ratIt.hasNext()) {
-                Rating rat = ratIt.next();
+        int nTest = 0;
+        int nTrain = 0;
+        int[] testUsers = new int[n/trainDiv + 1];
+        int[] testItems = new int[testUsers.length];
+        double[] testRatings = new double[testUsers.length];
+        int[] trainUsers = new int[n];
+        int[] trainItems = new int[n];
+        double[] trainRatings = new double[n];
+        Iterator<Rating> ratIt = data.ratingIterator();
+        int idx = 0;
+        while (ratIt.hasNext()) {
+            Rating rat = ratIt.next();
+            Integer user = userRow.get(rat.userID);
+            Integer item = itemRow.get(rat.itemID);
+            if (user != null && item != null) {
                 if (idx%trainDiv == 0) {
-                    if (count == 0) ratTest.add(rat);
+                    if (nTest == testUsers.length) {
+                        testUsers = Arrays.copyOf(testUsers, 2*nTest);
+                        testItems = Arrays.copyOf(testItems, 2*nTest);
+                        testRatings = Arrays.copyOf(testRatings, 2*nTest);
+                    }
+                    testUsers[nTest] = user;
+                    testItems[nTest] = item;
+                    testRatings[nTest] = rat.rating;
+                    ++nTest;
                 }
                 else {
-                    int userID = rat.userID;
-                    int itemID = rat.itemID;
-                    double rating = rat.rating;
-                    float[] userFeats = userFeature.get(userID);
-                    float[] itemFeats = itemFeature.get(itemID);
-                    
-                    double pred = predictRating(userFeats, itemFeats);
-                    double err = rating - pred;
-                    
-                    itemFeats[0] += lRate*(err*userFeats[0] - rFactor*itemFeats[0]);
-                    userFeats[1] += lRate*(err*itemFeats[1] - rFactor*userFeats[1]);
-                    for (int j = 2; j < nFeatures; ++j) {
-                        double uv = userFeats[j];
-                        userFeats[j] += lRate*(err*itemFeats[j] - rFactor*userFeats[j]);
-                        itemFeats[j] += lRate*(err*uv - rFactor*itemFeats[j]);
+                    if (nTrain == trainUsers.length) {
+                        trainUsers = Arrays.copyOf(trainUsers, 2*nTrain + 1);
+                        trainItems = Arrays.copyOf(trainItems, 2*nTrain + 1);
+                        trainRatings = Arrays.copyOf(trainRatings, 2*nTrain + 1);
                     }
+                    trainUsers[nTrain] = user;
+                    trainItems[nTrain] = item;
+                    trainRatings[nTrain] = rat.rating;
+                    ++nTrain;
                 }
-                ++idx;
             }
-            int nTest = ratTest.size();
+            ++idx;
+        }
+        final int[] users = trainUsers;
+        final int[] items = trainItems;
+        final double[] ratings = trainRatings;
+
+        int exit = 0;
+        double lastRMSE = 1e20;
+        
+        RangeExecutor executor = RangeExecutor.getShared(nThreads);
+        do {
+            long start = System.currentTimeMillis();
+            executor.run(nTrain, 1000, (from, to) -> trainRatings(userFeats, itemFeats, 
+                    users, items, ratings, from, to));
 
             double sum = 0;
             for (int i = 0; i < nTest; ++i) {
-                int userID = ratTest.get(i).userID;
-                int itemID = ratTest.get(i).itemID;
-                double rating = ratTest.get(i).rating;
-                double pred = predictRating(userID, itemID);
-                sum += Math.pow(rating - pred, 2);
+                double pred = predictRating(userFeats, testUsers[i]*nFeatures, itemFeats, testItems[i]*nFeatures);
+                sum += Math.pow(testRatings[i] - pred, 2);
             }
             
             double curRMSE = Math.sqrt(sum/(double)nTest);
-            System.out.println(curRMSE + " " + (System.currentTimeMillis() - start)/1000);
+            Logger.getLogger(BRISMFPredictor.class.getName()).log(Level.FINE,
+                    "RMSE {0} after {1} ms", new Object[]{curRMSE, System.currentTimeMillis() - start});
             if (curRMSE + 0.0001 >= lastRMSE) {
                 ++exit;
             }
             lastRMSE = curRMSE;
-            ++count;
         }
         while (exit < 1);
+        
+        for (Map.Entry<Integer, Integer> e : userRow.entrySet()) {
+            int offset = e.getValue()*nFeatures;
+            userFeature.put(e.getKey(), Arrays.copyOfRange(userFeats, offset, offset + nFeatures));
+        }
+        for (Map.Entry<Integer, Integer> e : itemRow.entrySet()) {
+            int offset = e.getValue()*nFeatures;
+            itemFeature.put(e.getKey(), Arrays.copyOfRange(itemFeats, offset, offset + nFeatures));
+        }
+    }
+    
+    private double predictRating(float[] userFeats, int userOffset, float[] itemFeats, int itemOffset) {
+        double ret = data.getGlobalMean();
+        for (int i = 0; i < nFeatures; ++i)
+            ret += userFeats[userOffset + i]*itemFeats[itemOffset + i];
+
+        if (ret < data.getMinRating()) ret = data.getMinRating();
+        else if (ret > data.getMaxRating()) ret = data.getMaxRating();
+        
+        return ret;
+    }
+    
+    /**
+     * One pass of stochastic gradient descent over some of the training 
+     * ratings. The passes of the threads update the same features without 
+     * locks, as in Hogwild!, since two ratings seldom share both a user and 
+     * an item.
+     */
+    private void trainRatings(float[] userFeats, float[] itemFeats, int[] users, int[] items, 
+            double[] ratings, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            int u = users[i]*nFeatures;
+            int v = items[i]*nFeatures;
+            double pred = predictRating(userFeats, u, itemFeats, v);
+            double err = ratings[i] - pred;
+            
+            itemFeats[v] += lRate*(err*userFeats[u] - rFactor*itemFeats[v]);
+            userFeats[u + 1] += lRate*(err*itemFeats[v + 1] - rFactor*userFeats[u + 1]);
+            for (int j = 2; j < nFeatures; ++j) {
+                double uv = userFeats[u + j];
+                userFeats[u + j] += lRate*(err*itemFeats[v + j] - rFactor*userFeats[u + j]);
+                itemFeats[v + j] += lRate*(err*uv - rFactor*itemFeats[v + j]);
+            }
+        }
     }
     
     public float[] getUserFeatures(int userID) {
@@ -0,0 +1,65 @@
+/*
+ *    BatchInstanceStream.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import moa.core.InstanceBatch;
+
+/**
+ * Interface for instance streams that can generate many instances at once
+ * into a reusable primitive batch, and that can be restarted on independent
+ * random streams to generate instances in parallel.
+ */
+public interface BatchInstanceStream extends InstanceStream {
+
+    /**
+     * Appends the next instances of this stream to a batch. The instances
+     * are the same as the ones returned by the same number of calls to
+     * {@link #nextInstance()}, without allocating an instance for each one.
+     *
+     * @param n the maximum number of instances to generate
+     * @param batch the batch to append to, with as many attributes as the header
+     * @return the number of instances appended to the batch
+     */
+    public default int nextInstances(int n, InstanceBatch batch) {
+        for (int i = 0; i < n; i++) {
+            int offset = batch.addRow();
+            generateInstance(batch.values(), offset);
+        }
+        return n;
+    }
+
+    /**
+     * Generates the values of the next instance of this stream, class last,
+     * into an array.
+     *
+     * @param attVals the array to write the values to
+     * @param offset the position of the first value in the array
+     */
+    public void generateInstance(double[] attVals, int offset);
+
+    /**
+     * Restarts this stream, drawing the instances from the independent random
+     * stream with the given index instead of the one of the instance seed.
+     * The model of the stream (centroids, tree, concept, ...) is the same
+     * for all the random streams, and restarting twice on the same index
+     * gives the same instances.
+     *
+     * @param streamIndex the index of the random stream
+     */
+    public void restartOnRandomStream(long streamIndex);
+}
@@ -0,0 +1,294 @@
+/*
+ *    BinaryFileStream.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.capabilities.CapabilitiesHandler;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.core.InstanceBatch;
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.tasks.TaskMonitor;
+
+/**
+ * A stream read from a binary file written by {@link BinaryInstanceWriter},
+ * for instance with the WriteStreamToBinaryFile task.
+ *
+ * The file is memory-mapped, so no parsing is needed and any instance can be
+ * read from its index. With the shuffle option the instances are returned in
+ * a random order, like with CacheShuffledStream but without copying the
+ * instances in memory.
+ */
+public class BinaryFileStream extends AbstractOptionHandler implements
+        InstanceStream, CapabilitiesHandler {
+
+    @Override
+    public String getPurposeString() {
+        return "A stream read from a memory-mapped binary instance file.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /** Largest size of a mapped segment of the file. */
+    protected static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    public FileOption binaryFileOption = new FileOption("binaryFile", 'f',
+            "Binary instance file to load.", null, "bin", false);
+
+    public FlagOption shuffleOption = new FlagOption("shuffle", 'h',
+            "Return the instances of the file in a random order.");
+
+    public IntOption shuffleRandomSeedOption = new IntOption(
+            "shuffleRandomSeed", 'r',
+            "Seed for random shuffling of instances.", 1);
+
+    protected InstancesHeader header;
+
+    protected int numAttributes;
+
+    protected int recordSize;
+
+    protected long dataOffset;
+
+    protected long numInstances;
+
+    protected int recordsPerSegment;
+
+    protected transient MappedByteBuffer[] segments;
+
+    /** Order in which the instances are returned when shuffling. */
+    protected int[] order;
+
+    protected long streamPos;
+
+    public BinaryFileStream() {
+    }
+
+    public BinaryFileStream(String binaryFileName) {
+        this.binaryFileOption.setValue(binaryFileName);
+        restart();
+    }
+
+    @Override
+    public void prepareForUseImpl(TaskMonitor monitor,
+            ObjectRepository repository) {
+        restart();
+    }
+
+    @Override
+    public InstancesHeader getHeader() {
+        return this.header;
+    }
+
+    @Override
+    public long estimatedRemainingInstances() {
+        return this.numInstances - this.streamPos;
+    }
+
+    @Override
+    public boolean hasMoreInstances() {
+        return this.streamPos < this.numInstances;
+    }
+
+    @Override
+    public InstanceExample nextInstance() {
+        long index = this.order == null ? this.streamPos : this.order[(int) this.streamPos];
+        this.streamPos++;
+        return new InstanceExample(instance(index));
+    }
+
+    @Override
+    public boolean isRestartable() {
+        return true;
+    }
+
+    @Override
+    public void restart() {
+        if (this.segments == null || this.header == null) {
+            open();
+        }
+        this.streamPos = 0;
+        this.order = null;
+        if (this.shuffleOption.isSet()) {
+            if (this.numInstances > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many instances to shuffle: " + this.numInstances);
+            }
+            // Fisher-Yates, as Instances.randomize
+            Random random = new Random(this.shuffleRandomSeedOption.getValue());
+            this.order = new int[(int) this.numInstances];
+            for (int i = 0; i < this.order.length; i++) {
+                this.order[i] = i;
+            }
+            for (int j = this.order.length - 1; j > 0; j--) {
+                int k = random.nextInt(j + 1);
+                int tmp = this.order[j];
+                this.order[j] = this.order[k];
+                this.order[k] = tmp;
+            }
+        }
+    }
+
+    /**
+     * Reads the header of the file and maps its records in memory.
+     */
+    protected void open() {
+        try (RandomAccessFile file = new RandomAccessFile(this.binaryFileOption.getFile(), "r")) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer prefix = ByteBuffer.allocate(5 * 4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, prefix, 0);
+            if (prefix.getInt(0) != BinaryInstanceWriter.MAGIC) {
+                throw new IOException("Not a binary instance file: " + this.binaryFileOption.getFile());
+            }
+            if (prefix.getInt(4) != BinaryInstanceWriter.VERSION) {
+                throw new IOException("Unsupported binary instance file version: " + prefix.getInt(4));
+            }
+            int classIndex = prefix.getInt(8);
+            this.numAttributes = prefix.getInt(12);
+            int headerLength = prefix.getInt(16);
+            ByteBuffer headerBytes = ByteBuffer.allocate(headerLength);
+            readFully(channel, headerBytes, prefix.capacity());
+            Instances instances = new Instances(new StringReader(
+                    new String(headerBytes.array(), StandardCharsets.UTF_8)), 1, -1);
+            instances.setClassIndex(classIndex);
+            this.header = new InstancesHeader(instances);
+
+            this.recordSize = BinaryInstanceWriter.recordSize(this.numAttributes);
+            this.dataOffset = BinaryInstanceWriter.dataOffset(headerLength);
+            this.numInstances = (channel.size() - this.dataOffset) / this.recordSize;
+            // segments hold whole records, so that no record is split between two segments
+            this.recordsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / this.recordSize);
+            int numSegments = (int) ((this.numInstances + this.recordsPerSegment - 1) / this.recordsPerSegment);
+            this.segments = new MappedByteBuffer[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                long first = (long) s * this.recordsPerSegment;
+                long count = Math.min(this.recordsPerSegment, this.numInstances - first);
+                this.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        this.dataOffset + first * this.recordSize, count * this.recordSize);
+                this.segments[s].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("BinaryFileStream failed to open "
+                    + this.binaryFileOption.getFile(), ioe);
+        }
+    }
+
+    protected static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of binary instance file.");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of instances in the file.
+     */
+    public long numInstances() {
+        return this.numInstances;
+    }
+
+    /**
+     * Reads the instance with the given index in the file.
+     *
+     * @param index the index of the instance, from 0 to numInstances() - 1
+     * @return a new dense instance
+     */
+    public Instance instance(long index) {
+        double[] values = new double[this.numAttributes];
+        double weight = read(index, values, 0);
+        Instance inst = new DenseInstance(weight, values);
+        inst.setDataset(this.header);
+        return inst;
+    }
+
+    /**
+     * Appends the instances of the file from first to first + n - 1 to a batch.
+     *
+     * @return the number of instances appended
+     */
+    public int instances(long first, int n, InstanceBatch batch) {
+        int count = (int) Math.max(0, Math.min(n, this.numInstances - first));
+        for (int i = 0; i < count; i++) {
+            int offset = batch.addRow();
+            batch.setWeight(batch.size() - 1, read(first + i, batch.values(), offset));
+        }
+        return count;
+    }
+
+    /**
+     * Copies the values of an instance of the file into an array.
+     *
+     * @return the weight of the instance
+     */
+    protected double read(long index, double[] values, int offset) {
+        if (index < 0 || index >= this.numInstances) {
+            throw new IndexOutOfBoundsException("Instance " + index + " of " + this.numInstances);
+        }
+        if (this.segments == null) {
+            open();
+        }
+        MappedByteBuffer segment = this.segments[(int) (index / this.recordsPerSegment)];
+        int position = (int) (index % this.recordsPerSegment) * this.recordSize;
+        double weight = segment.getDouble(position);
+        for (int j = 0; j < this.numAttributes; j++) {
+            values[offset + j] = segment.getDouble(position + 8 * (j + 1));
+        }
+        return weight;
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+        sb.append("BinaryFileStream: ");
+        sb.append(this.binaryFileOption.getValue());
+        sb.append(", instances: ");
+        sb.append(this.numInstances);
+        sb.append(", attributes: ");
+        sb.append(this.numAttributes);
+        if (this.shuffleOption.isSet()) {
+            sb.append(", shuffled with seed ");
+            sb.append(this.shuffleRandomSeedOption.getValue());
+        }
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        if (this.getClass() == BinaryFileStream.class)
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD, Capability.VIEW_LITE);
+        else
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *    BinaryInstanceWriter.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.core.InstanceBatch;
+
+/**
+ * Writes instances to a binary file that can be read back, memory-mapped,
+ * by {@link BinaryFileStream}.
+ *
+ * The file is little-endian and made of:
+ * <ul>
+ * <li>the magic number "MOAB" and the format version (two ints),</li>
+ * <li>the class index and the number of attributes (two ints),</li>
+ * <li>the length in bytes and the UTF-8 text of the ARFF header,</li>
+ * <li>padding up to a multiple of 8 bytes,</li>
+ * <li>one fixed-size record per instance: its weight followed by the values
+ * of all its attributes, as doubles, missing values being NaN.</li>
+ * </ul>
+ * Fixed-size records give random access to any instance from its index.
+ * The records are dense: every attribute takes 8 bytes even when the
+ * instances are sparse, so sparse data with many attributes makes much
+ * larger files than its ARFF version.
+ */
+public class BinaryInstanceWriter implements Closeable {
+
+    public static final int MAGIC = 0x42414F4D; // "MOAB" read as little-endian
+
+    public static final int VERSION = 1;
+
+    protected FileChannel channel;
+
+    protected ByteBuffer buffer;
+
+    protected int numAttributes;
+
+    protected long numInstancesWritten;
+
+    public BinaryInstanceWriter(File file, Instances header) throws IOException {
+        this.numAttributes = header.numAttributes();
+        int recordSize = recordSize(this.numAttributes);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(recordSize, (1 << 16) / recordSize * recordSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = new FileOutputStream(file).getChannel();
+        try {
+            writeHeader(header);
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            this.channel = null;
+            throw e;
+        }
+    }
+
+    protected void writeHeader(Instances header) throws IOException {
+        byte[] headerText = new Instances(header, 0).toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer prefix = ByteBuffer.allocate(dataOffset(headerText.length)).order(ByteOrder.LITTLE_ENDIAN);
+        prefix.putInt(MAGIC);
+        prefix.putInt(VERSION);
+        prefix.putInt(header.classIndex());
+        prefix.putInt(this.numAttributes);
+        prefix.putInt(headerText.length);
+        prefix.put(headerText);
+        prefix.position(0);
+        while (prefix.hasRemaining()) {
+            this.channel.write(prefix);
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the record of an instance.
+     */
+    public static int recordSize(int numAttributes) {
+        return 8 * (numAttributes + 1);
+    }
+
+    /**
+     * Returns the offset of the first record in a file whose ARFF header
+     * takes the given number of bytes.
+     */
+    public static int dataOffset(int headerLength) {
+        int offset = 5 * 4 + headerLength;
+        return (offset + 7) & ~7;
+    }
+
+    public void write(Instance inst) throws IOException {
+        if (this.buffer.remaining() < recordSize(this.numAttributes)) {
+            flush();
+        }
+        this.buffer.putDouble(inst.weight());
+        for (int j = 0; j < this.numAttributes; j++) {
+            this.buffer.putDouble(inst.value(j));
+        }
+        this.numInstancesWritten++;
+    }
+
+    public void write(InstanceBatch batch) throws IOException {
+        double[] values = batch.values();
+        for (int i = 0; i < batch.size(); i++) {
+            if (this.buffer.remaining() < recordSize(this.numAttributes)) {
+                flush();
+            }
+            this.buffer.putDouble(batch.weight(i));
+            int offset = batch.offset(i);
+            for (int j = 0; j < this.numAttributes; j++) {
+                this.buffer.putDouble(values[offset + j]);
+            }
+            this.numInstancesWritten++;
+        }
+    }
+
+    public long numInstancesWritten() {
+        return this.numInstancesWritten;
+    }
+
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            flush();
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+}
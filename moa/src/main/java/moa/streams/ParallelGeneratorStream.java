@@ -0,0 +1,313 @@
+/*
+ *    ParallelGeneratorStream.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.capabilities.CapabilitiesHandler;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.core.InstanceBatch;
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.options.ClassOption;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Stream that runs a synthetic generator on several threads.
+ *
+ * The index space of the stream is cut into blocks of consecutive instances.
+ * Block b is generated by a copy of the generator restarted on the random
+ * stream b, and the blocks are dealt round-robin to the jobs. The blocks are
+ * merged back in order through bounded queues, so instance k of the stream
+ * only depends on the generator options and the block size, not on the
+ * number of jobs. State that the generator carries from one instance to the
+ * next (drift, class balancing) restarts at every block.
+ *
+ * The jobs keep generating blocks ahead of the reader until the stream is
+ * closed or restarted, or until their queues have stayed full for
+ * {@link #IDLE_TIMEOUT} milliseconds because nothing reads the stream any
+ * more. Reading the stream again starts new jobs where it left off. Callers
+ * that know they are done should still call {@link #close()} to release the
+ * threads at once.
+ *
+ * Example:
+ *<br/><br/>
+ * <code>ParallelGeneratorStream -s (generators.RandomRBFGenerator -a 100) -j 8 -b 10000</code>
+ */
+public class ParallelGeneratorStream extends AbstractOptionHandler implements
+        InstanceStream, CapabilitiesHandler {
+
+    @Override
+    public String getPurposeString() {
+        return "Generates the instances of a synthetic generator on several threads, in a reproducible order.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /** Milliseconds a job waits for the reader before stopping, by default. */
+    public static final long IDLE_TIMEOUT = 10000;
+
+    public ClassOption generatorOption = new ClassOption("generator", 's',
+            "Generator to run in parallel.", BatchInstanceStream.class,
+            "generators.RandomTreeGenerator");
+
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Total number of concurrent jobs used for generation (-1 = as much as possible, 0 = generate on the calling thread)", -1, -1, Integer.MAX_VALUE);
+
+    public IntOption blockSizeOption = new IntOption("blockSize", 'b',
+            "Number of consecutive instances generated from the same random stream.", 10000, 1, Integer.MAX_VALUE);
+
+    public IntOption queueSizeOption = new IntOption("queueSize", 'q',
+            "Maximum number of generated blocks waiting in the queue of each job.", 4, 1, Integer.MAX_VALUE);
+
+    protected BatchInstanceStream generator;
+
+    protected int numberOfJobs;
+
+    /** Index of the next block to read. */
+    protected long nextBlock;
+
+    protected InstanceBatch currentBatch;
+
+    protected int currentPosition;
+
+    protected transient GeneratorJob[] jobs;
+
+    /** Milliseconds the jobs wait for the reader, {@link #IDLE_TIMEOUT} by default. */
+    protected long idleTimeout = IDLE_TIMEOUT;
+
+    @Override
+    public void prepareForUseImpl(TaskMonitor monitor,
+            ObjectRepository repository) {
+        this.generator = (BatchInstanceStream) getPreparedClassOption(this.generatorOption);
+        if (this.numberOfJobsOption.getValue() == -1) {
+            this.numberOfJobs = Runtime.getRuntime().availableProcessors();
+        } else {
+            this.numberOfJobs = this.numberOfJobsOption.getValue();
+        }
+        restart();
+    }
+
+    @Override
+    public InstancesHeader getHeader() {
+        return this.generator.getHeader();
+    }
+
+    @Override
+    public long estimatedRemainingInstances() {
+        return -1;
+    }
+
+    @Override
+    public boolean hasMoreInstances() {
+        return true;
+    }
+
+    @Override
+    public boolean isRestartable() {
+        return true;
+    }
+
+    @Override
+    public InstanceExample nextInstance() {
+        if (this.currentBatch == null || this.currentPosition >= this.currentBatch.size()) {
+            nextBatch();
+        }
+        return new InstanceExample(this.currentBatch.instance(this.currentPosition++, getHeader()));
+    }
+
+    /**
+     * Replaces the current batch by the next block of the stream, giving the
+     * current batch back to the job that generated it.
+     */
+    protected void nextBatch() {
+        if (this.numberOfJobs == 0) {
+            if (this.currentBatch == null) {
+                this.currentBatch = new InstanceBatch(getHeader().numAttributes(),
+                        this.blockSizeOption.getValue());
+            }
+            this.currentBatch.clear();
+            generateBlock(this.generator, this.nextBlock++, this.currentBatch);
+        } else {
+            if (this.jobs == null) {
+                startJobs();
+            }
+            if (this.currentBatch != null) {
+                this.jobs[(int) ((this.nextBlock - 1) % this.numberOfJobs)].free.offer(this.currentBatch);
+            }
+            InstanceBatch batch;
+            while ((batch = this.jobs[(int) (this.nextBlock % this.numberOfJobs)].take()) == null) {
+                // the jobs stopped while the stream was not read
+                stopJobs();
+                startJobs();
+            }
+            this.currentBatch = batch;
+            this.nextBlock++;
+        }
+        this.currentPosition = 0;
+    }
+
+    protected void generateBlock(BatchInstanceStream blockGenerator, long block, InstanceBatch batch) {
+        blockGenerator.restartOnRandomStream(block);
+        blockGenerator.nextInstances(this.blockSizeOption.getValue(), batch);
+    }
+
+    protected void startJobs() {
+        this.jobs = new GeneratorJob[this.numberOfJobs];
+        for (int i = 0; i < this.numberOfJobs; i++) {
+            // the first block of the job not yet read, when restarted after close
+            long firstBlock = this.nextBlock + Math.floorMod(i - this.nextBlock, (long) this.numberOfJobs);
+            this.jobs[i] = new GeneratorJob((BatchInstanceStream) this.generator.copy(), i, firstBlock);
+            Thread thread = new Thread(this.jobs[i], "ParallelGeneratorStream-" + i);
+            thread.setDaemon(true);
+            this.jobs[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    protected void stopJobs() {
+        if (this.jobs != null) {
+            for (GeneratorJob job : this.jobs) {
+                job.thread.interrupt();
+            }
+            this.jobs = null;
+        }
+    }
+
+    @Override
+    public void restart() {
+        stopJobs();
+        this.generator.restart();
+        this.nextBlock = 0;
+        this.currentBatch = null;
+        this.currentPosition = 0;
+    }
+
+    /**
+     * Stops the jobs and releases their blocks. Reading the stream again
+     * starts new jobs where it left off.
+     */
+    public void close() {
+        stopJobs();
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+        sb.append("ParallelGeneratorStream: ");
+        sb.append(this.generatorOption.getValueAsCLIString());
+        sb.append(", jobs: ");
+        sb.append(this.numberOfJobs);
+        sb.append(", block size: ");
+        sb.append(this.blockSizeOption.getValue());
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        if (this.getClass() == ParallelGeneratorStream.class)
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD, Capability.VIEW_LITE);
+        else
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+
+    /**
+     * Job generating the blocks firstBlock, firstBlock + numberOfJobs, ...
+     * with its own copy of the generator.
+     */
+    protected class GeneratorJob implements Runnable {
+
+        protected final BatchInstanceStream jobGenerator;
+
+        protected final int jobIndex;
+
+        protected final long firstBlock;
+
+        protected final BlockingQueue<InstanceBatch> filled;
+
+        /** Batches already read by the stream, reused for the next blocks. */
+        protected final BlockingQueue<InstanceBatch> free;
+
+        protected Thread thread;
+
+        protected volatile Throwable failure;
+
+        /** Whether the job stopped because its blocks were not read. */
+        protected volatile boolean idle;
+
+        public GeneratorJob(BatchInstanceStream jobGenerator, int jobIndex, long firstBlock) {
+            this.jobGenerator = jobGenerator;
+            this.jobIndex = jobIndex;
+            this.firstBlock = firstBlock;
+            int queueSize = queueSizeOption.getValue();
+            this.filled = new ArrayBlockingQueue<InstanceBatch>(queueSize);
+            // the batch being read by the stream is in neither queue
+            this.free = new ArrayBlockingQueue<InstanceBatch>(queueSize + 1);
+        }
+
+        @Override
+        public void run() {
+            int numAttributes = this.jobGenerator.getHeader().numAttributes();
+            int blockSize = blockSizeOption.getValue();
+            try {
+                for (long block = this.firstBlock; !Thread.currentThread().isInterrupted(); block += numberOfJobs) {
+                    InstanceBatch batch = this.free.poll();
+                    if (batch == null) {
+                        batch = new InstanceBatch(numAttributes, blockSize);
+                    }
+                    batch.clear();
+                    generateBlock(this.jobGenerator, block, batch);
+                    if (!this.filled.offer(batch, idleTimeout, TimeUnit.MILLISECONDS)) {
+                        this.idle = true;
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stream closed or restarted
+            } catch (Throwable t) {
+                this.failure = t;
+            }
+        }
+
+        /**
+         * Waits for the next block generated by this job. Returns null if
+         * the job stopped idle and all its blocks were read.
+         */
+        public InstanceBatch take() {
+            try {
+                InstanceBatch batch;
+                while ((batch = this.filled.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                    if (this.idle && this.filled.isEmpty()) {
+                        return null;
+                    }
+                    if (this.failure != null) {
+                        throw new RuntimeException("Generation failed in job " + this.jobIndex, this.failure);
+                    }
+                }
+                return batch;
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for generated instances.", e);
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
-
-
 package moa.streams.filters;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashFunction;
@@ -9,14 +8,22 @@ import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
 import moa.core.FastVector;
 import moa.core.InstanceExample;
 import moa.streams.InstanceStream;
 
+import java.util.Arrays;
+
 /**
  *    Filter to perform feature hashing to reduce the number of attributes by applying
  *    a hash function to features.
  *
+ *    The bucket and sign of every input attribute are hashed once and cached, and
+ *    only the stored values of the input instances are visited, so sparse input
+ *    streams are hashed in time proportional to their non-zero values. With the
+ *    sparse output option the filter emits <code>SparseInstance</code>s.
+ *
  *   @author Maroua Bahri
  */
 
@@ -27,16 +34,36 @@ public class HashingTrickFilter extends AbstractStreamFilter {
     public IntOption dim = new IntOption("OutputFeatureDimension", 'd',
             "the target feature dimension.", 10);
 
+    public FlagOption sparseOutputOption = new FlagOption("sparseOutput", 's',
+            "Output sparse instances containing only the non-zero buckets.");
+
+    public FlagOption unsignedOption = new FlagOption("unsigned", 'u',
+            "Always add +1 to the bucket instead of using the sign of the hash.");
+
     protected InstancesHeader streamHeader;
 
     protected FastVector attributes;
 
+    /** Cached bucket of every input attribute. */
+    protected int[] attributeBucket;
+
+    /** Cached sign (+1/-1) of every input attribute. */
+    protected double[] attributeSign;
+
+    /** Accumulator of the bucket values, reset after every instance. */
+    protected transient double[] bucketValues;
+
+    /** Buckets touched by the current instance, for the sparse output. */
+    protected transient int[] touchedBuckets;
+
     @Override
     public String getPurposeString() { return "Reduces the number of input features using a hash function.";  }
 
     @Override
     protected void restartImpl() {
         this.streamHeader = null;
+        this.attributeBucket = null;
+        this.attributeSign = null;
     }
 
     @Override
@@ -61,22 +88,43 @@ public class HashingTrickFilter extends AbstractStreamFilter {
             this.streamHeader.setClassIndex(this.streamHeader.numAttributes() - 1);
         }
 
+        if (this.attributeBucket == null || this.attributeBucket.length < sparseInstance.numAttributes() - 1) {
+            cacheHashes(sparseInstance.numAttributes() - 1, this.dim.getValue(), Hashing.murmur3_128());
+        }
 
-        double [] hashVal = hashVector(sparseInstance,this.dim.getValue(), Hashing.murmur3_128());
+        if (this.sparseOutputOption.isSet()) {
+            return new InstanceExample(sparseTransformedInstance(sparseInstance));
+        }
+        double [] hashVal = hashVector(sparseInstance, this.dim.getValue());
 
         return new InstanceExample(transformedInstance(sparseInstance, hashVal));
     }
 
-
+    /**
+     * Hashes the indices of the input attributes once into buckets and signs.
+     *
+     * @param numInputAttributes the number of input attributes, class excluded
+     * @param n the number of buckets
+     * @param hashFunction the hash function
+     */
+    protected void cacheHashes(int numInputAttributes, int n, HashFunction hashFunction) {
+        this.attributeBucket = new int[numInputAttributes];
+        this.attributeSign = new double[numInputAttributes];
+        for (int i = 0; i < numInputAttributes; i++) {
+            int hash = hashFunction.hashInt(i).asInt();
+            this.attributeBucket[i] = Math.abs(hash % n);
+            this.attributeSign[i] = (hash < 0 && !this.unsignedOption.isSet()) ? -1d : 1d;
+        }
+        this.bucketValues = new double[n];
+        this.touchedBuckets = new int[n];
+    }
 
     public DenseInstance transformedInstance(Instance sparseInst, double [] hashVal) {
 
         Instances header = this.streamHeader;
         double[] attributeValues = new double[header.numAttributes()];
 
-        for(int i = 0 ; i < header.numAttributes()-1 ; i++) {
-            attributeValues[i] = hashVal[i];
-        }
+        System.arraycopy(hashVal, 0, attributeValues, 0, header.numAttributes()-1);
 
         attributeValues[attributeValues.length-1] = sparseInst.classValue();
         DenseInstance newInstance = new DenseInstance(1.0, attributeValues);
@@ -84,29 +132,107 @@ public class HashingTrickFilter extends AbstractStreamFilter {
         return newInstance;
     }
 
+    /**
+     * Hashes an instance into a sparse instance holding only the non-zero
+     * buckets, in increasing order, followed by the class value.
+     *
+     * @param sparseInst the instance to hash
+     * @return the hashed sparse instance
+     */
+    public SparseInstance sparseTransformedInstance(Instance sparseInst) {
+        if (this.bucketValues == null) {
+            this.bucketValues = new double[this.dim.getValue()];
+            this.touchedBuckets = new int[this.dim.getValue()];
+        }
+        double[] acc = this.bucketValues;
+        int numTouched = 0;
+        int numInputAttributes = sparseInst.numAttributes() - 1;
+        int numOutputAttributes = this.streamHeader.numAttributes() - 1;
+        int numValues = sparseInst.numValues();
+        for (int p = 0; p < numValues; p++) {
+            int index = sparseInst.index(p);
+            if (index >= numInputAttributes || index >= this.attributeBucket.length) {
+                continue;
+            }
+            if (Math.abs(sparseInst.valueSparse(p)) > Double.MIN_NORMAL) {
+                int bucket = this.attributeBucket[index];
+                if (acc[bucket] == 0d) {
+                    if (numTouched == this.touchedBuckets.length) {
+                        this.touchedBuckets = Arrays.copyOf(this.touchedBuckets, 2 * numTouched);
+                    }
+                    this.touchedBuckets[numTouched++] = bucket;
+                }
+                acc[bucket] += this.attributeSign[index];
+            }
+        }
+        Arrays.sort(this.touchedBuckets, 0, numTouched);
+
+        int[] indexValues = new int[numTouched + 1];
+        double[] attributeValues = new double[numTouched + 1];
+        int numStored = 0;
+        for (int i = 0; i < numTouched; i++) {
+            int bucket = this.touchedBuckets[i];
+            // a bucket may be touched again after cancelling out to zero
+            if (acc[bucket] != 0d && (numStored == 0 || indexValues[numStored - 1] != bucket)) {
+                indexValues[numStored] = bucket;
+                attributeValues[numStored] = acc[bucket];
+                numStored++;
+            }
+            acc[bucket] = 0d;
+        }
+        indexValues[numStored] = numOutputAttributes;
+        attributeValues[numStored] = sparseInst.classValue();
+        numStored++;
+
+        SparseInstance newInstance = new SparseInstance(1.0,
+                Arrays.copyOf(attributeValues, numStored), Arrays.copyOf(indexValues, numStored),
+                this.streamHeader.numAttributes());
+        newInstance.setDataset(this.streamHeader);
+        return newInstance;
+    }
+
     @Override
     public void getDescription(StringBuilder sb, int indent) {
         // TODO Auto-generated method stub
     }
 
+    /**
+     * Hashes the input attributes of an instance into a dense array of
+     * <code>n</code> buckets, using the cached attribute hashes.
+     *
+     * @param instance the instance to hash
+     * @param n the number of buckets
+     * @return the bucket values
+     */
+    public double[] hashVector(Instance instance, int n) {
+        double [] denseValues = new double [n];
+        int numValues = instance.numValues();
+        for (int p = 0; p < numValues; p++) {
+            int index = instance.index(p);
+            if (index >= instance.numAttributes() - 1 || index >= this.attributeBucket.length) {
+                continue;
+            }
+            if (Math.abs(instance.valueSparse(p)) > Double.MIN_NORMAL) {
+                denseValues[this.attributeBucket[index]] += this.attributeSign[index];
+            }
+        }
+        return denseValues;
+    }
 
     public  double[] hashVector(Instance instance, int n, HashFunction hashFunction) {
 
         double [] denseValues = new double [n];
-        for (int i = 0 ; i < n ; i++) {
-            denseValues[i] = 0d;
-        }
         for (int i = 0; i < instance.numAttributes()-1 ; i++){
                 double diff = Math.abs(instance.value(i));
                 if( diff  > Double.MIN_NORMAL) {
                     int  hash = hashFunction.hashInt(i).asInt();
-                    int bucket = Math.abs(hash) % n;
-                    denseValues[bucket] += (hash < 0 ? -1d : 1d);
+                    int bucket = Math.abs(hash % n);
+                    denseValues[bucket] += (hash < 0 && !this.unsignedOption.isSet() ? -1d : 1d);
                 }
         }
-        
+
         return denseValues;
     }
 
 
-}
\ No newline at end of file
+}
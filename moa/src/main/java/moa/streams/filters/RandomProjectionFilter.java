@@ -3,6 +3,7 @@
 package moa.streams.filters;
 
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.*;
 import moa.core.FastVector;
 import moa.core.InstanceExample;
@@ -10,11 +11,15 @@ import moa.streams.InstanceStream;
 
 import java.util.Arrays;
 import java.util.Random;
-import java.util.stream.IntStream;
 
 /**
  *    Filter to perform random projection to reduce the number of attributes. It applies
- *    a Gaussian matrix on features to project them into a lower-dimensional space.
+ *    a random matrix on features to project them into a lower-dimensional space.
+ *
+ *    The matrix is either dense Gaussian, sparse with density 1/3 (Achlioptas, 2003)
+ *    or very sparse with density 1/sqrt(d) (Li, Hastie and Church, 2006). Sparse
+ *    matrices are stored by input column, so that only the non-zero entries of the
+ *    matrix and of the input instance are visited when projecting.
  *
  *   @author Maroua Bahri
  */
@@ -24,53 +29,184 @@ public class RandomProjectionFilter extends AbstractStreamFilter {
 
     public IntOption dim = new IntOption("OutputFeatureDimension", 'd',
             "the target feature dimension.", 10);
+
+    public MultiChoiceOption projectionOption = new MultiChoiceOption(
+            "projection", 'p', "Distribution of the projection matrix entries.",
+            new String[]{"Gaussian", "Sparse", "VerySparse"},
+            new String[]{"Dense matrix with N(0,1) entries.",
+                    "Achlioptas matrix with entries sqrt(3)*{+1,0,-1} drawn with probabilities {1/6,2/3,1/6}.",
+                    "Very sparse matrix with entries sqrt(s)*{+1,0,-1}, s = sqrt(d), drawn with probabilities {1/2s,1-1/s,1/2s}."},
+            0);
+
+    public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
+            "Seed for the projection matrix.", 1);
+
     protected InstancesHeader streamHeader;
-    protected double[][] GaussMatrix ;
 
+    /** Dense projection matrix in column-major order: entry (i, j) is at j * dim + i. */
+    protected double[] denseMatrix;
+
+    /** Start offsets of each input column in the sparse matrix arrays. */
+    protected int[] columnStart;
+
+    /** Output rows of the non-zero entries of the sparse matrix, grouped by column. */
+    protected int[] rowIndex;
+
+    /** Signs (+1/-1) of the non-zero entries of the sparse matrix, grouped by column. */
+    protected byte[] rowSign;
+
+    /** Magnitude shared by all the non-zero entries of the sparse matrix. */
+    protected double sparseScale;
+
+    /** Number of input features, the class attribute excluded. */
+    protected int numInputFeatures;
+
+    /** Index of the class attribute in the input instances. */
+    protected int inputClassIndex;
 
     public String getPurposeString() { return "Reduces the number of input features using random projection.";  }
 
     @Override
     protected void restartImpl() {
         this.streamHeader = null;
+        this.denseMatrix = null;
+        this.columnStart = null;
+        this.rowIndex = null;
+        this.rowSign = null;
     }
 
     @Override
     public InstancesHeader getHeader() {
-        Instance sparseInstance = (Instance) this.inputStream.nextInstance().getData();
-        Random r = new Random(System.currentTimeMillis());
-        this.GaussMatrix = new double[this.dim.getValue()][sparseInstance.numAttributes()-1] ;
-        for(int i = 0 ; i < this.dim.getValue() ; i++){
-            for(int j = 0; j < sparseInstance.numAttributes()-1 ; j++){
-                this.GaussMatrix[i][j]= r.nextGaussian();
-            }
-        }
-
-        if (streamHeader == null) {
-            //Create a new header
-            FastVector attributes = new FastVector();
-            for (int i = 0; i < this.dim.getValue(); i++) {
-                attributes.addElement(new Attribute("numeric" + (i + 1)));
-            }
-
-            attributes.addElement(sparseInstance.classAttribute());
-            this.streamHeader = new InstancesHeader(new Instances(
-                    getCLICreationString(InstanceStream.class), attributes, 0));
-            this.streamHeader.setClassIndex(this.streamHeader.numAttributes() - 1);
-
+        if (this.streamHeader == null) {
+            prepareProjection(this.inputStream.getHeader());
         }
         return this.streamHeader;
-
     }
 
     @Override
     public InstanceExample nextInstance() {
         Instance sparseInstance = (Instance) this.inputStream.nextInstance().getData();
+        if (this.streamHeader == null) {
+            prepareProjection(sparseInstance.dataset());
+        }
+        double[] attributeValues = new double[this.streamHeader.numAttributes()];
+        project(sparseInstance, attributeValues);
+        attributeValues[attributeValues.length - 1] = sparseInstance.classValue();
+        DenseInstance newInstance = new DenseInstance(sparseInstance.weight(), attributeValues);
+        newInstance.setDataset(this.streamHeader);
+        return new InstanceExample(newInstance);
+    }
 
-        return new InstanceExample(transformedInstance(sparseInstance,
-                randomProjection(sparseInstance,this.GaussMatrix)));
+    /**
+     * Creates the output header and draws the projection matrix for the given input header.
+     *
+     * @param inputHeader the header of the input stream
+     */
+    protected void prepareProjection(Instances inputHeader) {
+        this.numInputFeatures = inputHeader.numAttributes() - 1;
+        this.inputClassIndex = inputHeader.classIndex() < 0
+                ? inputHeader.numAttributes() - 1 : inputHeader.classIndex();
+        int k = this.dim.getValue();
+        Random r = new Random(this.randomSeedOption.getValue());
+        switch (this.projectionOption.getChosenIndex()) {
+            case 1:
+                buildSparseMatrix(r, k, 3.0);
+                break;
+            case 2:
+                buildSparseMatrix(r, k, Math.max(1.0, Math.sqrt(this.numInputFeatures)));
+                break;
+            default:
+                this.denseMatrix = new double[this.numInputFeatures * k];
+                // drawn row by row, as in the original dense implementation
+                for (int i = 0; i < k; i++) {
+                    for (int j = 0; j < this.numInputFeatures; j++) {
+                        this.denseMatrix[j * k + i] = r.nextGaussian();
+                    }
+                }
+        }
+
+        //Create a new header
+        FastVector attributes = new FastVector();
+        for (int i = 0; i < k; i++) {
+            attributes.addElement(new Attribute("numeric" + (i + 1)));
+        }
+        attributes.addElement(inputHeader.attribute(this.inputClassIndex));
+        this.streamHeader = new InstancesHeader(new Instances(
+                getCLICreationString(InstanceStream.class), attributes, 0));
+        this.streamHeader.setClassIndex(this.streamHeader.numAttributes() - 1);
+    }
+
+    /**
+     * Draws a sparse matrix whose entries are sqrt(s) * {+1, 0, -1} with
+     * probabilities {1/2s, 1 - 1/s, 1/2s}, stored in compressed column form.
+     */
+    protected void buildSparseMatrix(Random r, int k, double s) {
+        int[] rows = new int[Math.max(16, (int) (2 * k * (long) this.numInputFeatures / s))];
+        byte[] signs = new byte[rows.length];
+        this.columnStart = new int[this.numInputFeatures + 1];
+        double half = 0.5 / s;
+        int nnz = 0;
+        for (int j = 0; j < this.numInputFeatures; j++) {
+            this.columnStart[j] = nnz;
+            for (int i = 0; i < k; i++) {
+                double u = r.nextDouble();
+                if (u < 2 * half) {
+                    if (nnz == rows.length) {
+                        rows = Arrays.copyOf(rows, rows.length * 2);
+                        signs = Arrays.copyOf(signs, signs.length * 2);
+                    }
+                    rows[nnz] = i;
+                    signs[nnz] = u < half ? (byte) 1 : (byte) -1;
+                    nnz++;
+                }
+            }
+        }
+        this.columnStart[this.numInputFeatures] = nnz;
+        this.rowIndex = Arrays.copyOf(rows, nnz);
+        this.rowSign = Arrays.copyOf(signs, nnz);
+        this.sparseScale = Math.sqrt(s);
     }
 
+    /**
+     * Projects the input features of an instance into the first <code>dim</code>
+     * positions of <code>out</code>. Only the stored values of the instance are
+     * visited, so sparse instances cost time proportional to their non-zeros.
+     * An output is missing if one of the features it is computed from is.
+     *
+     * @param instance the instance to project
+     * @param out the output array, with at least <code>dim</code> positions
+     */
+    public void project(Instance instance, double[] out) {
+        int k = this.dim.getValue();
+        Arrays.fill(out, 0, k, 0.0);
+        int numValues = instance.numValues();
+        for (int p = 0; p < numValues; p++) {
+            int index = instance.index(p);
+            if (index == this.inputClassIndex) {
+                continue;
+            }
+            // a missing value, NaN, makes the outputs it contributes to missing
+            double x = instance.valueSparse(p);
+            if (x == 0.0) {
+                continue;
+            }
+            int column = index < this.inputClassIndex ? index : index - 1;
+            if (this.denseMatrix != null) {
+                // axpy over a contiguous column, which the JIT can vectorise
+                double[] m = this.denseMatrix;
+                int offset = column * k;
+                for (int i = 0; i < k; i++) {
+                    out[i] += x * m[offset + i];
+                }
+            } else {
+                double v = x * this.sparseScale;
+                int end = this.columnStart[column + 1];
+                for (int q = this.columnStart[column]; q < end; q++) {
+                    out[this.rowIndex[q]] += this.rowSign[q] * v;
+                }
+            }
+        }
+    }
 
     public DenseInstance transformedInstance(Instance sparseInst, double [] val) {
 
@@ -91,27 +227,36 @@ public class RandomProjectionFilter extends AbstractStreamFilter {
         // TODO Auto-generated method stub
     }
 
-    public  double[] randomProjection(Instance instance, double[][] gm) {
-
-        double [] denseValues;
+    public  double[] randomProjection(Instance instance) {
+        double[] denseValues = new double[this.dim.getValue()];
+        project(instance, denseValues);
+        return denseValues;
+    }
 
+    /**
+     * Projects the first numAttributes - 1 values of the instance with the
+     * given matrix, which has one row per output feature.
+     */
+    public  double[] randomProjection(Instance instance, double[][] gm) {
         double[] ins = new double [instance.numAttributes()-1];
         for(int i = 0 ; i < instance.numAttributes()-1 ; i++) {
             ins[i] = instance.value(i);
         }
-        denseValues = multiply(gm, ins);
-
-        return denseValues;
+        return multiply(gm, ins);
     }
 
     public static double[] multiply(double[][] matrix, double[] vector) {
-        return Arrays.stream(matrix)
-                .mapToDouble(row ->
-                        IntStream.range(0, row.length)
-                                .mapToDouble(col -> row[col] * vector[col])
-                                .sum()
-                ).toArray();
+        double[] result = new double[matrix.length];
+        for (int i = 0; i < matrix.length; i++) {
+            double[] row = matrix[i];
+            double sum = 0.0;
+            for (int j = 0; j < row.length; j++) {
+                sum += row[j] * vector[j];
+            }
+            result[i] = sum;
+        }
+        return result;
     }
 
 
-}
\ No newline at end of file
+}
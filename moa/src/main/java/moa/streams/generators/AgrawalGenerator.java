@@ -31,6 +31,7 @@ import com.yahoo.labs.samoa.instances.Instances;
 import java.util.Random;
 
 import moa.core.InstanceExample;
+import moa.core.MiscUtils;
 
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.ObjectRepository;
@@ -38,6 +39,7 @@ import moa.options.AbstractOptionHandler;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
+import moa.streams.BatchInstanceStream;
 import moa.streams.InstanceStream;
 import moa.tasks.TaskMonitor;
 
@@ -62,7 +64,7 @@ import moa.tasks.TaskMonitor;
  * @version $Revision: 7 $
  */
 public class AgrawalGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        BatchInstanceStream, CapabilitiesHandler {
 
     @Override
     public String getPurposeString() {
@@ -336,6 +338,23 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        InstancesHeader header = getHeader();
+        double[] attVals = new double[header.numAttributes()];
+        generateInstance(attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(header);
+        return new InstanceExample(inst);
+    }
+
+    @Override
+    public void restartOnRandomStream(long streamIndex) {
+        restart();
+        this.instanceRandom = new Random(MiscUtils.randomStreamSeed(
+                this.instanceRandomSeedOption.getValue(), streamIndex));
+    }
+
+    @Override
+    public void generateInstance(double[] attVals, int offset) {
         double salary = 0, commission = 0, hvalue = 0, loan = 0;
         int age = 0, elevel = 0, car = 0, zipcode = 0, hyears = 0, group = 0;
         boolean desiredClassFound = false;
@@ -380,21 +399,16 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
             hyears = (int) Math.round(perturbValue(hyears, 1, 30));
             loan = perturbValue(loan, 0, 500000);
         }
-        // construct instance
-        InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        inst.setValue(0, salary);
-        inst.setValue(1, commission);
-        inst.setValue(2, age);
-        inst.setValue(3, elevel);
-        inst.setValue(4, car);
-        inst.setValue(5, zipcode);
-        inst.setValue(6, hvalue);
-        inst.setValue(7, hyears);
-        inst.setValue(8, loan);
-        inst.setDataset(header);
-        inst.setClassValue(group);
-        return new InstanceExample(inst);
+        attVals[offset] = salary;
+        attVals[offset + 1] = commission;
+        attVals[offset + 2] = age;
+        attVals[offset + 3] = elevel;
+        attVals[offset + 4] = car;
+        attVals[offset + 5] = zipcode;
+        attVals[offset + 6] = hvalue;
+        attVals[offset + 7] = hyears;
+        attVals[offset + 8] = loan;
+        attVals[offset + 9] = group;
     }
 
     protected double perturbValue(double val, double min, double max) {
@@ -27,8 +27,10 @@ import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
 import moa.core.FastVector;
 import moa.core.InstanceExample;
+import moa.core.MiscUtils;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
+import moa.streams.BatchInstanceStream;
 import moa.streams.InstanceStream;
 import moa.tasks.TaskMonitor;
 import com.yahoo.labs.samoa.instances.Attribute;
@@ -44,7 +46,7 @@ import com.yahoo.labs.samoa.instances.InstancesHeader;
  * @version $Revision: 7 $
  */
 public class HyperplaneGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        BatchInstanceStream, CapabilitiesHandler {
 
     @Override
     public String getPurposeString() {
@@ -131,14 +133,32 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        double[] attVals = new double[this.numAttsOption.getValue() + 1];
+        generateInstance(attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(getHeader());
+        return new InstanceExample(inst);
+    }
+
+    @Override
+    public void restartOnRandomStream(long streamIndex) {
+        // the weights are drawn from the instance seed, so that all the streams share the same hyperplane
+        restart();
+        this.instanceRandom = new Random(MiscUtils.randomStreamSeed(
+                this.instanceRandomSeedOption.getValue(), streamIndex));
+    }
 
+    /**
+     * Generates the values of the next instance and drifts the hyperplane.
+     */
+    @Override
+    public void generateInstance(double[] attVals, int offset) {
         int numAtts = this.numAttsOption.getValue();
-        double[] attVals = new double[numAtts + 1];
         double sum = 0.0;
         double sumWeights = 0.0;
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = this.instanceRandom.nextDouble();
-            sum += this.weights[i] * attVals[i];
+            attVals[offset + i] = this.instanceRandom.nextDouble();
+            sum += this.weights[i] * attVals[offset + i];
             sumWeights += this.weights[i];
         }
         int classLabel;
@@ -152,11 +172,8 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
             classLabel = (classLabel == 0 ? 1 : 0);
         }
 
-        Instance inst = new DenseInstance(1.0, attVals);
-        inst.setDataset(getHeader());
-        inst.setClassValue(classLabel);
+        attVals[offset + numAtts] = classLabel;
         addDrift();
-        return new InstanceExample(inst);
     }
 
     private void addDrift() {
@@ -21,7 +21,6 @@ package moa.streams.generators;
 
 import com.yahoo.labs.samoa.instances.*;
 import moa.core.FastVector;
-import moa.core.InstanceExample;
 import moa.streams.InstanceStream;
 
 /**
@@ -51,15 +50,14 @@ public class HyperplaneGeneratorForRegression extends HyperplaneGenerator {
 
 
     @Override
-    public InstanceExample nextInstance() {
+    public void generateInstance(double[] attVals, int offset) {
 
         int numAtts = this.numAttsOption.getValue();
-        double[] attVals = new double[numAtts + 1];
         double sum = 0.0;
         double sumWeights = 0.0;
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = this.instanceRandom.nextDouble();
-            sum += this.weights[i] * attVals[i];
+            attVals[offset + i] = this.instanceRandom.nextDouble();
+            sum += this.weights[i] * attVals[offset + i];
             sumWeights += this.weights[i];
         }
 //        double classLabel;
@@ -77,11 +75,8 @@ public class HyperplaneGeneratorForRegression extends HyperplaneGenerator {
 
             }
 
-        Instance inst = new DenseInstance(1.0, attVals);
-        inst.setDataset(getHeader());
-        inst.setClassValue(classLabel);
+        attVals[offset + numAtts] = classLabel;
         addDrift();
-        return new InstanceExample(inst);
     }
 
     private void addDrift() {
@@ -37,6 +37,7 @@ import moa.core.MiscUtils;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import com.github.javacliparser.IntOption;
+import moa.streams.BatchInstanceStream;
 import moa.streams.InstanceStream;
 import moa.tasks.TaskMonitor;
 
@@ -47,7 +48,7 @@ import moa.tasks.TaskMonitor;
  * @version $Revision: 7 $
  */
 public class RandomRBFGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        BatchInstanceStream, CapabilitiesHandler {
 
     @Override
     public String getPurposeString() {
@@ -127,28 +128,40 @@ public class RandomRBFGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        double[] attVals = new double[this.numAttsOption.getValue() + 1];
+        generateInstance(attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(getHeader());
+        return new InstanceExample(inst);
+    }
+
+    @Override
+    public void restartOnRandomStream(long streamIndex) {
+        restart();
+        this.instanceRandom = new Random(MiscUtils.randomStreamSeed(
+                this.instanceRandomSeedOption.getValue(), streamIndex));
+    }
+
+    @Override
+    public void generateInstance(double[] attVals, int offset) {
         Centroid centroid = this.centroids[MiscUtils.chooseRandomIndexBasedOnWeights(this.centroidWeights,
                 this.instanceRandom)];
         int numAtts = this.numAttsOption.getValue();
-        double[] attVals = new double[numAtts + 1];
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = (this.instanceRandom.nextDouble() * 2.0) - 1.0;
+            attVals[offset + i] = (this.instanceRandom.nextDouble() * 2.0) - 1.0;
         }
         double magnitude = 0.0;
         for (int i = 0; i < numAtts; i++) {
-            magnitude += attVals[i] * attVals[i];
+            magnitude += attVals[offset + i] * attVals[offset + i];
         }
         magnitude = Math.sqrt(magnitude);
         double desiredMag = this.instanceRandom.nextGaussian()
                 * centroid.stdDev;
         double scale = desiredMag / magnitude;
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = centroid.centre[i] + attVals[i] * scale;
+            attVals[offset + i] = centroid.centre[i] + attVals[offset + i] * scale;
         }
-        Instance inst = new DenseInstance(1.0, attVals);
-        inst.setDataset(getHeader());
-        inst.setClassValue(centroid.classLabel);
-        return new InstanceExample(inst);
+        attVals[offset + numAtts] = centroid.classLabel;
     }
 
     protected void generateHeader() {
@@ -23,7 +23,6 @@ import java.util.Random;
 
 import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
-import moa.core.InstanceExample;
 
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.FloatOption;
@@ -52,7 +51,7 @@ public class RandomRBFGeneratorDrift extends RandomRBFGenerator {
     protected double[][] speedCentroids;
 
     @Override
-    public InstanceExample nextInstance() {
+    public void generateInstance(double[] attVals, int offset) {
         //Update Centroids with drift
         int len = this.numDriftCentroidsOption.getValue();
         if (len > this.centroids.length) {
@@ -71,7 +70,14 @@ public class RandomRBFGeneratorDrift extends RandomRBFGenerator {
                 }
             }
         }
-        return super.nextInstance();
+        super.generateInstance(attVals, offset);
+    }
+
+    @Override
+    public void restartOnRandomStream(long streamIndex) {
+        // the centroids drift with every instance, start each stream from the initial ones
+        generateCentroids();
+        super.restartOnRandomStream(streamIndex);
     }
 
     @Override
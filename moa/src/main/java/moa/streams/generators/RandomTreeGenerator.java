@@ -32,12 +32,14 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Random;
 import moa.core.InstanceExample;
+import moa.core.MiscUtils;
 
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
+import moa.streams.BatchInstanceStream;
 import moa.streams.InstanceStream;
 import moa.tasks.TaskMonitor;
 
@@ -48,7 +50,7 @@ import moa.tasks.TaskMonitor;
  * @version $Revision: 7 $
  */
 public class RandomTreeGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        BatchInstanceStream, CapabilitiesHandler {
 
     @Override
     public String getPurposeString() {
@@ -149,31 +151,46 @@ public class RandomTreeGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
-        double[] attVals = new double[this.numNominalsOption.getValue()
-                + this.numNumericsOption.getValue()];
         InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        for (int i = 0; i < attVals.length; i++) {
-            attVals[i] = i < this.numNominalsOption.getValue() ? this.instanceRandom.nextInt(this.numValsPerNominalOption.getValue())
-                    : this.instanceRandom.nextDouble();
-            inst.setValue(i, attVals[i]);
-        }
+        double[] attVals = new double[header.numAttributes()];
+        generateInstance(attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
         inst.setDataset(header);
-        inst.setClassValue(classifyInstance(this.treeRoot, attVals));
         return new InstanceExample(inst);
     }
 
-    protected int classifyInstance(Node node, double[] attVals) {
-        if (node.children == null) {
-            return node.classLabel;
+    @Override
+    public void restartOnRandomStream(long streamIndex) {
+        restart();
+        this.instanceRandom = new Random(MiscUtils.randomStreamSeed(
+                this.instanceRandomSeedOption.getValue(), streamIndex));
+    }
+
+    @Override
+    public void generateInstance(double[] attVals, int offset) {
+        int numAtts = this.numNominalsOption.getValue()
+                + this.numNumericsOption.getValue();
+        for (int i = 0; i < numAtts; i++) {
+            attVals[offset + i] = i < this.numNominalsOption.getValue() ? this.instanceRandom.nextInt(this.numValsPerNominalOption.getValue())
+                    : this.instanceRandom.nextDouble();
         }
-        if (node.splitAttIndex < this.numNominalsOption.getValue()) {
-            return classifyInstance(
-                    node.children[(int) attVals[node.splitAttIndex]], attVals);
+        attVals[offset + numAtts] = classifyInstance(this.treeRoot, attVals, offset);
+    }
+
+    protected int classifyInstance(Node node, double[] attVals) {
+        return classifyInstance(node, attVals, 0);
+    }
+
+    protected int classifyInstance(Node node, double[] attVals, int offset) {
+        while (node.children != null) {
+            double value = attVals[offset + node.splitAttIndex];
+            if (node.splitAttIndex < this.numNominalsOption.getValue()) {
+                node = node.children[(int) value];
+            } else {
+                node = node.children[value < node.splitAttValue ? 0 : 1];
+            }
         }
-        return classifyInstance(
-                node.children[attVals[node.splitAttIndex] < node.splitAttValue ? 0
-                : 1], attVals);
+        return node.classLabel;
     }
 
     protected void generateHeader() {
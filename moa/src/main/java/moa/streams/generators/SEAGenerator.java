@@ -30,12 +30,14 @@ import com.yahoo.labs.samoa.instances.Instances;
 
 import java.util.Random;
 import moa.core.InstanceExample;
+import moa.core.MiscUtils;
 
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
+import moa.streams.BatchInstanceStream;
 import moa.streams.InstanceStream;
 import moa.tasks.TaskMonitor;
 
@@ -54,7 +56,7 @@ import moa.tasks.TaskMonitor;
  * @version $Revision: 7 $
  */
 public class SEAGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        BatchInstanceStream, CapabilitiesHandler {
 
     @Override
     public String getPurposeString() {
@@ -166,6 +168,23 @@ public class SEAGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        InstancesHeader header = getHeader();
+        double[] attVals = new double[header.numAttributes()];
+        generateInstance(attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(header);
+        return new InstanceExample(inst);
+    }
+
+    @Override
+    public void restartOnRandomStream(long streamIndex) {
+        restart();
+        this.instanceRandom = new Random(MiscUtils.randomStreamSeed(
+                this.instanceRandomSeedOption.getValue(), streamIndex));
+    }
+
+    @Override
+    public void generateInstance(double[] attVals, int offset) {
         double attrib1 = 0, attrib2 = 0, attrib3 = 0;
         int group = 0;
         boolean desiredClassFound = false;
@@ -193,15 +212,10 @@ public class SEAGenerator extends AbstractOptionHandler implements
             group = (group == 0 ? 1 : 0);
         }
 
-        // construct instance
-        InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        inst.setValue(0, attrib1);
-        inst.setValue(1, attrib2);
-        inst.setValue(2, attrib3);
-        inst.setDataset(header);
-        inst.setClassValue(group);
-        return new InstanceExample(inst);
+        attVals[offset] = attrib1;
+        attVals[offset + 1] = attrib2;
+        attVals[offset + 2] = attrib3;
+        attVals[offset + 3] = group;
     }
 
     @Override
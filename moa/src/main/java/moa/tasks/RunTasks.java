@@ -20,14 +20,44 @@
  */
 package moa.tasks;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import moa.MOAObject;
+import moa.core.InstanceExample;
+import moa.core.Measurement;
 import moa.core.ObjectRepository;
+import moa.evaluation.LearningEvaluation;
+import moa.evaluation.preview.LearningCurve;
 import moa.options.ClassOption;
+import moa.options.OptionHandler;
+import moa.streams.CachedInstancesStream;
+import moa.streams.ExampleStream;
+import com.github.javacliparser.FileOption;
 import com.github.javacliparser.FloatOption;
+import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
 
 /**
  * Task for running several experiments modifying values of parameters.
  *
+ * The configurations can run concurrently. They then each have their own
+ * dump, prediction and result files, named after the parameter value, and
+ * when the stream fits in memory, it is decoded once and every
+ * configuration reads copies of the same instances. The final measurements
+ * of all configurations can be merged into a summary file.
+ *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
  * @version $Revision: 7 $
@@ -41,6 +71,9 @@ public class RunTasks extends AuxiliarMainTask {
 
     private static final long serialVersionUID = 1L;
 
+    /** Milliseconds between updates of the monitor while configurations run. */
+    protected static final long MILLISECONDS_BETWEEN_MONITOR_UPDATES = 500;
+
     public ClassOption taskOption = new ClassOption("task", 't',
             "Task to do.", Task.class, "EvaluatePrequential -l active.ALUncertainty -i 1000000 -d temp.txt");
 
@@ -56,6 +89,18 @@ public class RunTasks extends AuxiliarMainTask {
     public FloatOption incrementValueOption = new FloatOption("incrementValue",
             'i', "Increment value", 0.1);
 
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Total number of concurrent jobs used for processing (-1 = as much as possible, 0 = do not use multithreading)",
+            1, -1, Integer.MAX_VALUE);
+
+    public IntOption sharedStreamSizeOption = new IntOption("sharedStreamSize", 'c',
+            "Maximum number of instances of the stream decoded once and shared by configurations running concurrently (0 = each configuration reads the stream).",
+            1000000, 0, Integer.MAX_VALUE - 1);
+
+    public FileOption summaryFileOption = new FileOption("summaryFile", 'r',
+            "File to write the final measurements of every configuration to.",
+            null, "csv", true);
+
     @Override
     public Class<?> getTaskResultType() {
         return this.task.getTaskResultType();
@@ -65,27 +110,318 @@ public class RunTasks extends AuxiliarMainTask {
 
     @Override
     protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
-        Object result = null;
+        Task taskBase = (Task) getPreparedClassOption(this.taskOption);
+        String parameter = this.classifierParameterOption.getValue();
 
-        String commandString = this.taskOption.getValueAsCLIString();
         //for each possible value of the parameter
+        List<Double> values = new ArrayList<Double>();
         for (double valueParameter = this.firstValueOption.getValue();
                 valueParameter <= this.lastValueOption.getValue();
                 valueParameter += this.incrementValueOption.getValue()) {
+            values.add(valueParameter);
+        }
+
+        int numberOfJobs = this.numberOfJobsOption.getValue();
+        if (numberOfJobs == -1) {
+            numberOfJobs = Runtime.getRuntime().availableProcessors();
+        }
+        boolean concurrent = numberOfJobs > 1 && values.size() > 1;
+
+        Instances sharedInstances = null;
+        if (concurrent) {
+            monitor.setCurrentActivity("Decoding shared stream...", -1.0);
+            sharedInstances = decodeSharedStream(taskBase, monitor, repository);
+            if (monitor.taskShouldAbort()) {
+                return null;
+            }
+        }
+
+        List<Task> tasks = new ArrayList<Task>(values.size());
+        for (double valueParameter : values) {
             //Add parameter
-            this.task = (Task) getPreparedClassOption(this.taskOption);
-            if (this.task instanceof EvaluatePrequential) {
-                String classifier = ((EvaluatePrequential) this.task).learnerOption.getValueAsCLIString();
-                ((EvaluatePrequential) this.task).learnerOption.setValueViaCLIString(classifier + " -" + classifierParameterOption.getValue() + " " + valueParameter);
+            Task valueTask = (Task) ((MOAObject) taskBase).copy();
+            ClassOption learnerOption = getLearnerOption(valueTask);
+            if (learnerOption != null) {
+                String classifier = learnerOption.getValueAsCLIString();
+                learnerOption.setValueViaCLIString(classifier + " -" + parameter + " " + valueParameter);
+            }
+            if (concurrent) {
+                String extension = "_v" + valueParameter;
+                for (FileOption fileOption : getOutputFileOptions(valueTask)) {
+                    if (fileOption.getFile() != null) {
+                        fileOption.setValue(insertFileNameExtension(
+                                fileOption.getFile().getPath(), extension));
+                    }
+                }
+            }
+            if (sharedInstances != null) {
+                getStreamOption(valueTask).setCurrentObject(new SharedInstancesStream(sharedInstances));
+            }
+            tasks.add(valueTask);
+        }
+
+        LearningCurve summary = new LearningCurve(parameter);
+        Object result = null;
+        if (!concurrent) {
+            for (int i = 0; i < tasks.size(); i++) {
+                //Run task
+                this.task = tasks.get(i);
+                result = this.task.doTask(monitor, repository);
+                if (monitor.taskShouldAbort()) {
+                    return null;
+                }
+                addSummaryEntry(summary, parameter, values.get(i), result);
+            }
+        } else {
+            result = runConcurrently(tasks, values, Math.min(numberOfJobs, tasks.size()),
+                    summary, monitor, repository);
+            if (monitor.taskShouldAbort()) {
+                return null;
             }
-            if (this.task instanceof EvaluateInterleavedTestThenTrain) {
-                String classifier = ((EvaluateInterleavedTestThenTrain) this.task).learnerOption.getValueAsCLIString();
-                ((EvaluateInterleavedTestThenTrain) this.task).learnerOption.setValueViaCLIString(classifier + " -" + classifierParameterOption.getValue() + " " + valueParameter);
+        }
+
+        File summaryFile = this.summaryFileOption.getFile();
+        if (summaryFile != null) {
+            try (PrintStream summaryStream = new PrintStream(new FileOutputStream(summaryFile))) {
+                summaryStream.println(summary.headerToString());
+                for (int i = 0; i < summary.numEntries(); i++) {
+                    summaryStream.println(summary.entryToString(i));
+                }
+            } catch (Exception ex) {
+                throw new RuntimeException(
+                        "Unable to write summary file: " + summaryFile, ex);
             }
-            //Run task
-            result = this.task.doTask(monitor, repository);
-            //System.out.println(((AbstractOptionHandler) this.task).getCLICreationString(Task.class));
         }
         return result;
     }
+
+    /**
+     * Runs the configurations on a pool of threads, each with its own monitor,
+     * and returns the result of the last one. The monitor of this task shows
+     * the average progress, and pausing or cancelling it pauses or cancels
+     * every configuration.
+     */
+    protected Object runConcurrently(List<Task> tasks, List<Double> values, int numberOfJobs,
+            LearningCurve summary, TaskMonitor monitor, ObjectRepository repository) {
+        String parameter = this.classifierParameterOption.getValue();
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfJobs, runnable -> {
+            Thread thread = new Thread(runnable, "RunTasks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<TaskMonitor> taskMonitors = new ArrayList<TaskMonitor>(tasks.size());
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks.size());
+        try {
+            for (Task valueTask : tasks) {
+                TaskMonitor taskMonitor = new StandardTaskMonitor();
+                taskMonitors.add(taskMonitor);
+                futures.add(executor.submit(() -> valueTask.doTask(taskMonitor, repository)));
+            }
+            Object result = null;
+            int numSummarized = 0;
+            while (numSummarized < tasks.size()) {
+                Future<Object> next = futures.get(numSummarized);
+                try {
+                    result = next.get(MILLISECONDS_BETWEEN_MONITOR_UPDATES, TimeUnit.MILLISECONDS);
+                    this.task = tasks.get(numSummarized);
+                    addSummaryEntry(summary, parameter, values.get(numSummarized), result);
+                    numSummarized++;
+                    continue;
+                } catch (TimeoutException e) {
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Failed running task for parameter value "
+                            + values.get(numSummarized), e.getCause());
+                }
+
+                int numCompleted = 0;
+                double fractionComplete = 0.0;
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (futures.get(i).isDone()) {
+                        numCompleted++;
+                        fractionComplete += 1.0;
+                    } else {
+                        fractionComplete += Math.max(taskMonitors.get(i).getCurrentActivityFractionComplete(), 0.0);
+                    }
+                }
+                monitor.setCurrentActivity("Running tasks (" + numCompleted + " of "
+                        + tasks.size() + " completed)...", fractionComplete / tasks.size());
+                if (monitor.resultPreviewRequested()) {
+                    monitor.setLatestResultPreview(summary.copy());
+                }
+                boolean paused = monitor.isPaused();
+                if (paused) {
+                    for (TaskMonitor taskMonitor : taskMonitors) {
+                        taskMonitor.requestPause();
+                    }
+                }
+                if (monitor.taskShouldAbort()) {
+                    for (TaskMonitor taskMonitor : taskMonitors) {
+                        taskMonitor.requestCancel();
+                    }
+                    return null;
+                }
+                if (paused) {
+                    for (TaskMonitor taskMonitor : taskMonitors) {
+                        taskMonitor.requestResume();
+                    }
+                }
+            }
+            return result;
+        } finally {
+            for (TaskMonitor taskMonitor : taskMonitors) {
+                taskMonitor.requestCancel();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the stream of the task into memory, so that the configurations
+     * can share it. This is only done if the stream, or the part of it the
+     * task uses, fits in the shared stream size.
+     *
+     * @return the instances, or null if the stream cannot be shared
+     */
+    protected Instances decodeSharedStream(Task taskBase, TaskMonitor monitor, ObjectRepository repository) {
+        int maxSize = this.sharedStreamSizeOption.getValue();
+        if (maxSize == 0 || getStreamOption(taskBase) == null) {
+            return null;
+        }
+        Task streamTask = (Task) ((MOAObject) taskBase).copy();
+        Object streamObject = getStreamOption(streamTask).materializeObject(monitor, repository);
+        if (monitor.taskShouldAbort() || !(streamObject instanceof ExampleStream)) {
+            return null;
+        }
+        if (streamObject instanceof OptionHandler) {
+            ((OptionHandler) streamObject).prepareForUse(monitor, repository);
+            if (monitor.taskShouldAbort()) {
+                return null;
+            }
+        }
+        ExampleStream stream = (ExampleStream) streamObject;
+
+        // one instance past the limit, so that the stream does not end
+        // earlier for the task than it would have
+        int instanceLimit = getInstanceLimitOption(taskBase).getValue();
+        boolean withinLimit = instanceLimit >= 0 && instanceLimit <= maxSize;
+        int capacity = (withinLimit ? instanceLimit : maxSize) + 1;
+        Instances instances = new Instances(stream.getHeader(), 0);
+        while (instances.numInstances() < capacity && stream.hasMoreInstances()) {
+            Object data = stream.nextInstance().getData();
+            if (!(data instanceof Instance)) {
+                return null;
+            }
+            instances.add((Instance) data);
+            if (instances.numInstances() % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+                if (monitor.taskShouldAbort()) {
+                    return null;
+                }
+                long estimatedRemainingInstances = stream.estimatedRemainingInstances();
+                if (!withinLimit && (estimatedRemainingInstances < 0
+                        || instances.numInstances() + estimatedRemainingInstances > maxSize)) {
+                    return null;
+                }
+                long maxRemaining = capacity - instances.numInstances();
+                if ((estimatedRemainingInstances < 0)
+                        || (maxRemaining < estimatedRemainingInstances)) {
+                    estimatedRemainingInstances = maxRemaining;
+                }
+                monitor.setCurrentActivityFractionComplete((double) instances.numInstances()
+                        / (double) (instances.numInstances() + estimatedRemainingInstances));
+            }
+        }
+        if (!withinLimit && instances.numInstances() > maxSize) {
+            return null;
+        }
+        return instances;
+    }
+
+    protected static void addSummaryEntry(LearningCurve summary, String parameter,
+            double valueParameter, Object result) {
+        List<Measurement> measurements = new ArrayList<Measurement>();
+        measurements.add(new Measurement(parameter, valueParameter));
+        if (result instanceof LearningCurve && ((LearningCurve) result).numEntries() > 0) {
+            LearningCurve learningCurve = (LearningCurve) result;
+            int lastEntry = learningCurve.numEntries() - 1;
+            for (int i = 0; i < learningCurve.getMeasurementNameCount(); i++) {
+                measurements.add(new Measurement(learningCurve.getMeasurementName(i),
+                        learningCurve.getMeasurement(lastEntry, i)));
+            }
+        }
+        summary.insertEntry(new LearningEvaluation(
+                measurements.toArray(new Measurement[measurements.size()])));
+    }
+
+    protected static ClassOption getLearnerOption(Task task) {
+        if (task instanceof EvaluatePrequential) {
+            return ((EvaluatePrequential) task).learnerOption;
+        }
+        if (task instanceof EvaluateInterleavedTestThenTrain) {
+            return ((EvaluateInterleavedTestThenTrain) task).learnerOption;
+        }
+        return null;
+    }
+
+    protected static ClassOption getStreamOption(Task task) {
+        if (task instanceof EvaluatePrequential) {
+            return ((EvaluatePrequential) task).streamOption;
+        }
+        if (task instanceof EvaluateInterleavedTestThenTrain) {
+            return ((EvaluateInterleavedTestThenTrain) task).streamOption;
+        }
+        return null;
+    }
+
+    protected static IntOption getInstanceLimitOption(Task task) {
+        if (task instanceof EvaluatePrequential) {
+            return ((EvaluatePrequential) task).instanceLimitOption;
+        }
+        return ((EvaluateInterleavedTestThenTrain) task).instanceLimitOption;
+    }
+
+    protected static List<FileOption> getOutputFileOptions(Task task) {
+        List<FileOption> fileOptions = new ArrayList<FileOption>();
+        if (task instanceof MainTask) {
+            fileOptions.add(((MainTask) task).outputFileOption);
+        }
+        if (task instanceof EvaluatePrequential) {
+            fileOptions.add(((EvaluatePrequential) task).dumpFileOption);
+            fileOptions.add(((EvaluatePrequential) task).outputPredictionFileOption);
+        }
+        if (task instanceof EvaluateInterleavedTestThenTrain) {
+            fileOptions.add(((EvaluateInterleavedTestThenTrain) task).dumpFileOption);
+        }
+        return fileOptions;
+    }
+
+    protected static String insertFileNameExtension(String baseName, String fileNameExtension) {
+        int fileExtIndex = baseName.lastIndexOf('.');
+        if (fileExtIndex <= baseName.lastIndexOf(File.separatorChar)) {
+            return baseName + fileNameExtension;
+        }
+        return baseName.substring(0, fileExtIndex) + fileNameExtension
+                + baseName.substring(fileExtIndex);
+    }
+
+    /**
+     * Stream over instances shared with other configurations, which returns
+     * copies so that a learner changing an instance does not affect the
+     * others.
+     */
+    protected static class SharedInstancesStream extends CachedInstancesStream {
+
+        private static final long serialVersionUID = 1L;
+
+        public SharedInstancesStream(Instances toStream) {
+            super(toStream);
+        }
+
+        @Override
+        public InstanceExample nextInstance() {
+            return new InstanceExample(this.toStream.instance(this.streamPos++).copy());
+        }
+    }
 }
@@ -23,6 +23,7 @@ import java.awt.Color;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
@@ -88,6 +89,10 @@ public class ALMultiParamTask extends ALMainTask {
 					new FloatOption("", ' ', "", 0.5)
 			}, ',');
 	
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Number of subtasks run at the same time, on a pool shared with other tasks (-1 = as many as there are processors, 0 or 1 = one at a time)",
+			-1, -1, Integer.MAX_VALUE);
+	
 	
 	private ArrayList<ALPrequentialEvaluationTask> subtasks = new ArrayList<>();
 	private ArrayList<ALTaskThread> subtaskThreads = new ArrayList<>();
@@ -298,9 +303,10 @@ public class ALMultiParamTask extends ALMainTask {
 		// start subtasks
 		monitor.setCurrentActivity(
 				"Evaluating learners for parameter values...", -1.0);
+		ForkJoinPool pool = ALTaskThread.getPool(this.numberOfJobsOption.getValue());
 		for(int i = 0; i < this.subtaskThreads.size(); ++i)
 		{
-			subtaskThreads.get(i).start();
+			subtaskThreads.get(i).submit(pool);
 		}
 
 		// get the number of subtask threads
@@ -344,7 +350,9 @@ public class ALMultiParamTask extends ALMainTask {
 					// skip for loop until all threads before were at least added once
 					break;
 				}
-				else {
+				else if(currentTaskThread.getFinalResult() 
+						instanceof PreviewCollectionLearningCurveWrapper) 
+				{
 					// set final result as latest preview
 					PreviewCollectionLearningCurveWrapper finalPreview = 
 							(PreviewCollectionLearningCurveWrapper) 
@@ -372,6 +380,12 @@ public class ALMultiParamTask extends ALMainTask {
 	        		monitor.setCurrentActivityFractionComplete(-1.0);
 	            }
 			}
+			
+			// wait for the subtasks without keeping a thread of the pool busy
+			if(!allThreadsCompleted)
+			{
+				ALTaskThread.awaitSubtasks(this.subtaskThreads);
+			}
 		}
 		
 		return previewCollection;
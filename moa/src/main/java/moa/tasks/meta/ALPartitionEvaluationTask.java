@@ -23,6 +23,7 @@ import java.awt.Color;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.Option;
@@ -69,6 +70,10 @@ public class ALPartitionEvaluationTask extends ALMainTask {
 	public IntOption randomSeedOption = new IntOption("randomSeed", 'r', 
 			"random seed which is used for partitioning of the stream.", 0);
 	
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Number of subtasks run at the same time, on a pool shared with other tasks (-1 = as many as there are processors, 0 or 1 = one at a time)",
+			-1, -1, Integer.MAX_VALUE);
+	
 	
 	private ArrayList<ALTaskThread> subtaskThreads = new ArrayList<>();
 	private ArrayList<ALTaskThread> flattenedSubtaskThreads = new ArrayList<>();
@@ -103,6 +108,9 @@ public class ALPartitionEvaluationTask extends ALMainTask {
 			partitionTask.setIsLastSubtaskOnLevel(
 					this.isLastSubtaskOnLevel, i == this.numPartitionsOption.getValue() - 1);
 			partitionTask.setPartitionIdx(i);
+			// run the subtasks of all partitions in the same pool
+			partitionTask.numberOfJobsOption.setValue(
+					this.numberOfJobsOption.getValue());
 			
 			ALPrequentialEvaluationTask partitionEvalTask = (ALPrequentialEvaluationTask) 
 					partitionTask.prequentialEvaluationTaskOption.getPreMaterializedObject();
@@ -154,9 +162,10 @@ public class ALPartitionEvaluationTask extends ALMainTask {
 		
 		// start subtasks
 		monitor.setCurrentActivity("Performing evaluation...", -1.0);
+		ForkJoinPool pool = ALTaskThread.getPool(this.numberOfJobsOption.getValue());
 		for(int i = 0; i < this.subtaskThreads.size(); ++i)
 		{
-			subtaskThreads.get(i).start();
+			subtaskThreads.get(i).submit(pool);
 		}
 
 
@@ -201,7 +210,9 @@ public class ALPartitionEvaluationTask extends ALMainTask {
 					// skip for loop until all threads before were at least added once
 					break;
 				}
-				else {
+				else if(currentTaskThread.getFinalResult() 
+						instanceof PreviewCollection) 
+				{
 					// set final result as latest preview
 					@SuppressWarnings("unchecked")
 					PreviewCollection<PreviewCollectionLearningCurveWrapper> 
@@ -230,6 +241,12 @@ public class ALPartitionEvaluationTask extends ALMainTask {
 	                monitor.setLatestResultPreview(previewCollection.copy());
 	            }
 			}
+			
+			// wait for the subtasks without keeping a thread of the pool busy
+			if(!allThreadsCompleted)
+			{
+				ALTaskThread.awaitSubtasks(this.subtaskThreads);
+			}
 		}
 		
 		return previewCollection;
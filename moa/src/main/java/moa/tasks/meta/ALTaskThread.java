@@ -21,7 +21,11 @@
  */
 package moa.tasks.meta;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import moa.core.ObjectRepository;
 import moa.core.TimingUtils;
@@ -32,11 +36,24 @@ import moa.tasks.TaskThread;
 /**
  * Task Thread for ALMainTask which supports pausing/resuming and cancelling of child threads
  *
+ * Subtasks are not started as threads of their own but submitted to a
+ * work-stealing pool shared by all tasks with the same number of jobs,
+ * so that the number of threads does not grow with the number of
+ * subtasks.
+ *
  * @author Tuan Pham Minh (tuan.pham@ovgu.de)
  * @version $Revision: 1 $
  */
 public class ALTaskThread extends TaskThread {
 
+	/** Milliseconds a parent task waits for its subtasks between updates. */
+	protected static final long MILLISECONDS_BETWEEN_SUBTASK_UPDATES = 50;
+
+	private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<>();
+
+	/** Id of the thread running the task, which is a pool thread for subtasks */
+	protected volatile long runnerId = getId();
+
 	public ALTaskThread(Task toRun) {
 		super(toRun, null);
 	}
@@ -45,11 +62,83 @@ public class ALTaskThread extends TaskThread {
 		super(toRun, repository);
 	}
 	
+	/**
+	 * Returns the pool shared by all tasks with this number of jobs.
+	 *
+	 * @param numberOfJobs the number of subtasks running at the same time,
+	 * -1 for as many as there are processors, and 0 is the same as 1
+	 * @return the pool
+	 */
+	public static synchronized ForkJoinPool getPool(int numberOfJobs) {
+		int jobs = numberOfJobs == -1
+				? Runtime.getRuntime().availableProcessors() : Math.max(numberOfJobs, 1);
+		ForkJoinPool pool = POOLS.get(jobs);
+		if (pool == null) {
+			pool = new ForkJoinPool(jobs, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+			POOLS.put(jobs, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the task in the pool instead of starting this thread.
+	 *
+	 * @param pool the pool from getPool
+	 */
+	public void submit(ForkJoinPool pool) {
+		pool.execute(this);
+	}
+
+	/**
+	 * Waits until all the threads are complete, or for at most a short
+	 * time. A task waiting in a pool lets the pool run another thread in
+	 * the meantime, so that tasks waiting for their subtasks cannot hold all
+	 * the threads of the pool.
+	 *
+	 * @param threads the subtask threads
+	 */
+	public static void awaitSubtasks(List<ALTaskThread> threads) {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(MILLISECONDS_BETWEEN_SUBTASK_UPDATES);
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+				@Override
+				public boolean block() throws InterruptedException {
+					long remaining = deadline - System.nanoTime();
+					if (remaining > 0 && !isReleasable()) {
+						TimeUnit.NANOSECONDS.sleep(remaining);
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					if (System.nanoTime() >= deadline) {
+						return true;
+					}
+					for (ALTaskThread thread : threads) {
+						if (!thread.isComplete()) {
+							return false;
+						}
+					}
+					return true;
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	@Override
     public synchronized void pauseTask() {
 		ALMainTask task = (ALMainTask)getTask();
 		List<ALTaskThread> threads = task.getSubtaskThreads();
 		
+		// a subtask waiting in the pool pauses as soon as it starts
+		if (this.currentStatus == Status.NOT_STARTED) {
+			this.taskMonitor.requestPause();
+		}
         super.pauseTask();
         
         // pause all subtask threads
@@ -64,6 +153,9 @@ public class ALTaskThread extends TaskThread {
 		ALMainTask task = (ALMainTask)getTask();
 		List<ALTaskThread> threads = task.getSubtaskThreads();
 		
+		if (this.currentStatus == Status.NOT_STARTED) {
+			this.taskMonitor.requestResume();
+		}
         super.resumeTask();
 
         // resume all subtask threads
@@ -78,6 +170,12 @@ public class ALTaskThread extends TaskThread {
 		ALMainTask task = (ALMainTask)getTask();
 		List<ALTaskThread> threads = task.getSubtaskThreads();
 		
+		// a subtask waiting in the pool is not run at all
+		if (this.currentStatus == Status.NOT_STARTED) {
+			this.taskMonitor.requestCancel();
+			this.currentStatus = Status.CANCELLED;
+			fireTaskCompleted();
+		}
         super.cancelTask();
         
         if(!isFailed())
@@ -96,10 +194,16 @@ public class ALTaskThread extends TaskThread {
 
     @Override
     public void run() {
+        synchronized (this) {
+            if (this.currentStatus != Status.NOT_STARTED) {
+                return;
+            }
+            this.runnerId = Thread.currentThread().getId();
+            this.currentStatus = this.taskMonitor.isPaused() ? Status.PAUSED : Status.RUNNING;
+        }
         TimingUtils.enablePreciseTiming();
-        this.taskStartTime = TimingUtils.getNanoCPUTimeOfThread(getId());
+        this.taskStartTime = TimingUtils.getNanoCPUTimeOfThread(this.runnerId);
         try {
-            this.currentStatus = Status.RUNNING;
             this.finalResult = this.runningTask.doTask(this.taskMonitor,
                     this.repository);
             this.currentStatus = this.taskMonitor.isCancelled() ? Status.CANCELLED
@@ -114,8 +218,23 @@ public class ALTaskThread extends TaskThread {
             cancelTask();
         }
         
-        this.taskEndTime = TimingUtils.getNanoCPUTimeOfThread(getId());
+        this.taskEndTime = TimingUtils.getNanoCPUTimeOfThread(this.runnerId);
         fireTaskCompleted();
         this.taskMonitor.setLatestResultPreview(null); // free preview memory
     }
+
+    @Override
+    public double getCPUSecondsElapsed() {
+        double secondsElapsed = 0.0;
+        if (this.currentStatus == Status.NOT_STARTED) {
+            secondsElapsed = 0.0;
+        } else if (isComplete()) {
+            secondsElapsed = TimingUtils.nanoTimeToSeconds(this.taskEndTime
+                    - this.taskStartTime);
+        } else {
+            secondsElapsed = TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfThread(this.runnerId)
+                    - this.taskStartTime);
+        }
+        return secondsElapsed > 0.0 ? secondsElapsed : 0.0;
+    }
 }
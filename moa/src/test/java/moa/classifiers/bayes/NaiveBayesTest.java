@@ -19,10 +19,20 @@
  */
 package moa.classifiers.bayes;
 
+import java.util.Random;
+
+import com.yahoo.labs.samoa.instances.Instance;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import moa.classifiers.AbstractMultipleClassifierTestCase;
 import moa.classifiers.Classifier;
+import moa.classifiers.core.attributeclassobservers.AttributeClassObserver;
+import moa.classifiers.core.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import moa.classifiers.core.attributeclassobservers.NominalAttributeClassObserver;
+import moa.core.AutoExpandVector;
+import moa.core.DoubleVector;
+import moa.streams.generators.AgrawalGenerator;
+import moa.streams.generators.RandomTreeGenerator;
 
 /**
  * Tests the NaiveBayes classifier.
@@ -55,6 +65,147 @@ public class NaiveBayesTest
     };
   }
   
+  /**
+   * Tests that merging the models learned on two halves of a stream gives
+   * the predictions of the model learned on the whole stream.
+   */
+  public void testMerge() {
+    RandomTreeGenerator stream = new RandomTreeGenerator();
+    stream.prepareForUse();
+    NaiveBayes whole = new NaiveBayes();
+    NaiveBayes even = new NaiveBayes();
+    NaiveBayes odd = new NaiveBayes();
+    for (NaiveBayes nb : new NaiveBayes[]{whole, even, odd}) {
+      nb.setModelContext(stream.getHeader());
+      nb.prepareForUse();
+    }
+    for (int i = 0; i < 2000; i++) {
+      Instance inst = stream.nextInstance().getData();
+      whole.trainOnInstance(inst);
+      (i % 2 == 0 ? even : odd).trainOnInstance(inst);
+    }
+    even.merge(odd);
+    for (int i = 0; i < 100; i++) {
+      Instance inst = stream.nextInstance().getData();
+      double[] expected = whole.getVotesForInstance(inst);
+      double[] actual = even.getVotesForInstance(inst);
+      assertEquals(expected.length, actual.length);
+      for (int j = 0; j < expected.length; j++)
+        assertEquals(expected[j], actual[j], 1e-9 * Math.max(1.0, Math.abs(expected[j])));
+    }
+  }
+
+  /**
+   * Tests that the votes are the same as those computed from attribute
+   * class observers, with weighted instances and missing values.
+   */
+  public void testSameVotesAsObservers() {
+    AgrawalGenerator stream = new AgrawalGenerator();
+    stream.prepareForUse();
+    Random random = new Random(1);
+    NaiveBayes nb = new NaiveBayes();
+    nb.setModelContext(stream.getHeader());
+    nb.prepareForUse();
+    DoubleVector classDistribution = new DoubleVector();
+    AutoExpandVector<AttributeClassObserver> observers = new AutoExpandVector<AttributeClassObserver>();
+    for (int i = 0; i < 3000; i++) {
+      Instance inst = stream.nextInstance().getData();
+      for (int j = 0; j < inst.numAttributes() - 1; j++) {
+        if (random.nextDouble() < 0.05)
+          inst.setMissing(j);
+      }
+      if (i >= 1000) {
+        double[] expected = NaiveBayes.doNaiveBayesPrediction(inst, classDistribution, observers);
+        double[] actual = nb.getVotesForInstance(inst);
+        assertEquals(expected.length, actual.length);
+        for (int j = 0; j < expected.length; j++)
+          assertEquals(expected[j], actual[j], 0.0);
+      }
+      inst.setWeight(1 + random.nextInt(3));
+      nb.trainOnInstance(inst);
+      classDistribution.addToValue((int) inst.classValue(), inst.weight());
+      for (int j = 0; j < inst.numAttributes() - 1; j++) {
+        AttributeClassObserver obs = observers.get(j);
+        if (obs == null) {
+          obs = inst.attribute(j).isNominal() ? new NominalAttributeClassObserver()
+            : new GaussianNumericAttributeClassObserver();
+          observers.set(j, obs);
+        }
+        obs.observeAttributeClass(inst.value(j), (int) inst.classValue(), inst.weight());
+      }
+    }
+  }
+
+  /**
+   * Tests that the observers created by an overridden hook are the ones
+   * trained and used to predict when a subclass asks for them.
+   */
+  @SuppressWarnings("deprecation")
+  public void testOverriddenObserverHooks() {
+    final int[] created = new int[1];
+    NaiveBayes custom = new NaiveBayes() {
+      @Override
+      protected boolean useAttributeObservers() {
+        return true;
+      }
+
+      @Override
+      protected AttributeClassObserver newNumericClassObserver() {
+        created[0]++;
+        return new GaussianNumericAttributeClassObserver();
+      }
+    };
+    NaiveBayes nb = new NaiveBayes();
+    AgrawalGenerator stream = new AgrawalGenerator();
+    stream.prepareForUse();
+    custom.setModelContext(stream.getHeader());
+    custom.prepareForUse();
+    nb.setModelContext(stream.getHeader());
+    nb.prepareForUse();
+    assertNull(nb.attributeObservers);
+    for (int i = 0; i < 1000; i++) {
+      Instance inst = stream.nextInstance().getData();
+      custom.trainOnInstance(inst);
+      nb.trainOnInstance(inst);
+    }
+    assertEquals(6, created[0]);
+    assertEquals(stream.getHeader().numAttributes() - 1, custom.attributeObservers.size());
+    for (int i = 0; i < 100; i++) {
+      Instance inst = stream.nextInstance().getData();
+      double[] expected = nb.getVotesForInstance(inst);
+      double[] actual = custom.getVotesForInstance(inst);
+      for (int j = 0; j < expected.length; j++)
+        assertEquals(expected[j], actual[j], 0.0);
+    }
+  }
+
+  /**
+   * Tests the log-space and the batch scoring against the votes.
+   */
+  public void testLogAndBatchVotes() {
+    RandomTreeGenerator stream = new RandomTreeGenerator();
+    stream.prepareForUse();
+    NaiveBayes nb = new NaiveBayes();
+    nb.setModelContext(stream.getHeader());
+    nb.prepareForUse();
+    for (int i = 0; i < 2000; i++)
+      nb.trainOnInstance(stream.nextInstance().getData());
+    Instance[] batch = new Instance[50];
+    for (int i = 0; i < batch.length; i++)
+      batch[i] = stream.nextInstance().getData();
+    double[][] votes = nb.getVotesForInstances(batch);
+    double[][] logVotes = nb.getLogVotesForInstances(batch);
+    for (int i = 0; i < batch.length; i++) {
+      double[] expected = nb.getVotesForInstance(batch[i]);
+      double[] log = nb.getLogVotesForInstance(batch[i]);
+      for (int j = 0; j < expected.length; j++) {
+        assertEquals(expected[j], votes[i][j], 0.0);
+        assertEquals(log[j], logVotes[i][j], 0.0);
+        assertEquals(Math.log(expected[j]), log[j], 1e-9 * Math.max(1.0, Math.abs(log[j])));
+      }
+    }
+  }
+
   /**
    * Returns a test suite.
    *
@@ -0,0 +1,129 @@
+package moa.classifiers.lazy.neighboursearch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.streams.generators.AgrawalGenerator;
+import moa.streams.generators.RandomRBFGenerator;
+import moa.streams.InstanceStream;
+
+/**
+ * Test MatrixNNSearch
+ */
+
+public class MatrixNNSearchTest {
+
+	/**
+	 * Returns instances with coarse values, so that there are ties, and some
+	 * missing values.
+	 */
+	private static Instances createInstances(InstanceStream stream, int n, double missing) {
+		Random random = new Random(1);
+		Instances instances = new Instances(stream.getHeader());
+		for (int i = 0; i < n; i++) {
+			Instance inst = stream.nextInstance().getData();
+			for (int j = 0; j < inst.numAttributes(); j++) {
+				if (j == inst.classIndex()) {
+					continue;
+				}
+				if (random.nextDouble() < missing) {
+					inst.setMissing(j);
+				} else if (inst.attribute(j).isNumeric()) {
+					inst.setValue(j, Math.round(inst.value(j) * 10) / 10.0);
+				}
+			}
+			instances.add(inst);
+		}
+		return instances;
+	}
+
+	private static void assertSameNeighbours(Instances instances, int k) throws Exception {
+		for (int size = 1; size < instances.numInstances(); size += 37) {
+			Instances window = new Instances(instances, 0);
+			for (int i = 0; i < size; i++) {
+				window.add(instances.instance(i));
+			}
+			LinearNNSearch linear = new LinearNNSearch(window);
+			MatrixNNSearch matrix = new MatrixNNSearch(window);
+			for (int t = size; t < Math.min(size + 5, instances.numInstances()); t++) {
+				Instance target = instances.instance(t);
+				int num = Math.min(k, size);
+				Instances expected = linear.kNearestNeighbours(target, num);
+				Instances found = matrix.kNearestNeighbours(target, num);
+				assertEquals(expected.numInstances(), found.numInstances());
+				for (int i = 0; i < expected.numInstances(); i++) {
+					assertArrayEquals(expected.instance(i).toDoubleArray(), found.instance(i).toDoubleArray(), 0.0);
+					assertEquals(linear.getDistances()[i], matrix.getDistances()[i], 0.0);
+				}
+			}
+			// hold-one-out
+			Instance member = window.instance(size / 2);
+			if (size > 1) {
+				Instances expected = linear.kNearestNeighbours(member, Math.min(k, size - 1));
+				Instances found = matrix.kNearestNeighbours(member, Math.min(k, size - 1));
+				assertEquals(expected.numInstances(), found.numInstances());
+				for (int i = 0; i < expected.numInstances(); i++) {
+					assertArrayEquals(expected.instance(i).toDoubleArray(), found.instance(i).toDoubleArray(), 0.0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNumeric() throws Exception {
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.prepareForUse();
+		assertSameNeighbours(createInstances(stream, 600, 0.0), 5);
+	}
+
+	@Test
+	public void testNominalAndMissing() throws Exception {
+		AgrawalGenerator stream = new AgrawalGenerator();
+		stream.prepareForUse();
+		assertSameNeighbours(createInstances(stream, 600, 0.05), 5);
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.prepareForUse();
+		Instances instances = createInstances(stream, 300, 0.01);
+		Instances window = new Instances(instances, 0);
+		MatrixNNSearch matrix = new MatrixNNSearch(window);
+		for (int i = 0; i < instances.numInstances() - 1; i++) {
+			window.add(instances.instance(i));
+			matrix.update(window.instance(window.numInstances() - 1));
+			Instance target = instances.instance(i + 1);
+			int num = Math.min(3, window.numInstances());
+			Instances expected = new LinearNNSearch(window).kNearestNeighbours(target, num);
+			Instances found = matrix.kNearestNeighbours(target, num);
+			assertEquals(expected.numInstances(), found.numInstances());
+			for (int j = 0; j < expected.numInstances(); j++) {
+				assertArrayEquals(expected.instance(j).toDoubleArray(), found.instance(j).toDoubleArray(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testAcceptsNormalisedEuclideanDistance() throws Exception {
+		MatrixNNSearch matrix = new MatrixNNSearch();
+		EuclideanDistance distance = new EuclideanDistance();
+		matrix.setDistanceFunction(distance);
+		assertEquals(distance, matrix.getDistanceFunction());
+	}
+
+	@Test(expected = Exception.class)
+	public void testRejectsUnnormalisedDistance() throws Exception {
+		EuclideanDistance distance = new EuclideanDistance();
+		distance.setDontNormalize(true);
+		new MatrixNNSearch().setDistanceFunction(distance);
+	}
+
+}
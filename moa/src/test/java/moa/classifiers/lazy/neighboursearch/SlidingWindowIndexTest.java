@@ -0,0 +1,142 @@
+package moa.classifiers.lazy.neighboursearch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.streams.generators.AgrawalGenerator;
+
+/**
+ * Test SlidingWindowIndex
+ */
+
+public class SlidingWindowIndexTest {
+
+	/**
+	 * Returns instances with coarse values, so that there are ties, and some
+	 * missing values.
+	 */
+	private static List<Instance> createInstances(int n, double missing) {
+		AgrawalGenerator generator = new AgrawalGenerator();
+		generator.prepareForUse();
+		Random random = new Random(1);
+		List<Instance> instances = new ArrayList<Instance>();
+		for (int i = 0; i < n; i++) {
+			Instance inst = generator.nextInstance().getData();
+			for (int j = 0; j < inst.numAttributes(); j++) {
+				if (j == inst.classIndex()) {
+					continue;
+				}
+				if (random.nextDouble() < missing) {
+					inst.setMissing(j);
+				} else if (inst.attribute(j).isNumeric()) {
+					inst.setValue(j, Math.round(inst.value(j) / 10000) * 10000);
+				}
+			}
+			instances.add(inst);
+		}
+		return instances;
+	}
+
+	private static List<String> describe(Instances neighbours) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < neighbours.numInstances(); i++) {
+			result.add(Arrays.toString(neighbours.instance(i).toDoubleArray()));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private static List<String> describe(SlidingWindowIndex index, int num) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < num; i++) {
+			result.add(Arrays.toString(index.neighbour(i).toDoubleArray()));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private static void assertSameNeighbours(boolean useTree, int capacity, int k, double missing) throws Exception {
+		List<Instance> instances = createInstances(3000, missing);
+		Instances window = new Instances(instances.get(0).dataset());
+		SlidingWindowIndex index = new SlidingWindowIndex(window, capacity, useTree);
+		for (Instance inst : instances) {
+			if (window.numInstances() > 0) {
+				int num = Math.min(k, window.numInstances());
+				Instances expected = new LinearNNSearch(window).kNearestNeighbours(inst, num);
+				int found = index.kNearestNeighbours(inst, num);
+				assertEquals(describe(expected), describe(index, found));
+			}
+			if (window.numInstances() == capacity) {
+				window.delete(0);
+			}
+			window.add(inst);
+			index.add(inst);
+			assertEquals(window.numInstances(), index.size());
+		}
+	}
+
+	/**
+	 * Queries instances of the window itself, skipping the identical ones.
+	 */
+	private static void assertSameNeighboursSkippingIdentical(boolean useTree, int capacity, int k) throws Exception {
+		List<Instance> instances = createInstances(3000, 0.0);
+		Instances window = new Instances(instances.get(0).dataset());
+		SlidingWindowIndex index = new SlidingWindowIndex(window, capacity, useTree);
+		index.setSkipIdentical(true);
+		Random random = new Random(2);
+		for (Instance inst : instances) {
+			// past the first instances, where LinearNNSearch adds an identical
+			// last instance of the window twice
+			if (window.numInstances() > 2 * k) {
+				Instance query = window.instance(random.nextInt(window.numInstances()));
+				LinearNNSearch search = new LinearNNSearch(window);
+				search.setSkipIdentical(true);
+				Instances expected = search.kNearestNeighbours(query, k);
+				int found = index.kNearestNeighbours(query, k);
+				assertEquals(describe(expected), describe(index, found));
+			}
+			if (window.numInstances() == capacity) {
+				window.delete(0);
+			}
+			window.add(inst);
+			index.add(inst);
+		}
+	}
+
+	@Test
+	public void testBruteForce() throws Exception {
+		assertSameNeighbours(false, 200, 10, 0.0);
+	}
+
+	@Test
+	public void testTree() throws Exception {
+		assertSameNeighbours(true, 500, 10, 0.0);
+	}
+
+	@Test
+	public void testTreeWithMissingValues() throws Exception {
+		assertSameNeighbours(true, 300, 5, 0.05);
+	}
+
+	@Test
+	public void testSkipIdentical() throws Exception {
+		assertSameNeighboursSkippingIdentical(false, 200, 10);
+		assertSameNeighboursSkippingIdentical(true, 500, 10);
+	}
+
+	@Test
+	public void testWindowLargerThanInitialBuffers() throws Exception {
+		assertSameNeighbours(true, 2000, 3, 0.01);
+	}
+
+}
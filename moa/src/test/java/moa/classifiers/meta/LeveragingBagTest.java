@@ -19,10 +19,12 @@
  */
 package moa.classifiers.meta;
 
+import com.yahoo.labs.samoa.instances.Instance;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import moa.classifiers.AbstractMultipleClassifierTestCase;
 import moa.classifiers.Classifier;
+import moa.streams.generators.RandomRBFGeneratorDrift;
 import static moa.test.MoaTestCase.runTest;
 
 /**
@@ -56,6 +58,36 @@ public class LeveragingBagTest
     };
   }
   
+  /**
+   * Tests that training on several threads gives the same votes as training
+   * on one, under the same seed.
+   */
+  public void testSameVotesWithMultipleJobs() {
+    RandomRBFGeneratorDrift stream = new RandomRBFGeneratorDrift();
+    stream.speedChangeOption.setValue(0.01);
+    stream.prepareForUse();
+    LeveragingBag[] learners = new LeveragingBag[2];
+    int[] jobs = {1, 4};
+    for (int i = 0; i < learners.length; i++) {
+      learners[i] = new LeveragingBag();
+      learners[i].numberOfJobsOption.setValue(jobs[i]);
+      learners[i].setModelContext(stream.getHeader());
+      learners[i].prepareForUse();
+    }
+    for (int n = 0; n < 3000; n++) {
+      Instance inst = stream.nextInstance().getData();
+      if (n % 10 == 0) {
+        double[] expected = learners[0].getVotesForInstance(inst);
+        double[] actual = learners[1].getVotesForInstance(inst);
+        assertEquals(expected.length, actual.length);
+        for (int j = 0; j < expected.length; j++)
+          assertEquals(expected[j], actual[j], 0.0);
+      }
+      for (LeveragingBag learner : learners)
+        learner.trainOnInstance(inst);
+    }
+  }
+
   /**
    * Returns a test suite.
    *
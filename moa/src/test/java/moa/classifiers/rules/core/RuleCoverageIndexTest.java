@@ -0,0 +1,124 @@
+package moa.classifiers.rules.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test RuleCoverageIndex
+ */
+
+public class RuleCoverageIndexTest {
+
+	private static final int NUM_ATTRIBUTES = 5;
+
+	private static class TestRule {
+		int[] attributes;
+		int[] tests;
+		double[] values;
+		// rules that the index leaves to the coverage test
+		boolean opaque;
+
+		boolean isCovering(double[] instance, boolean[] missing) {
+			for (int i = 0; i < attributes.length; i++) {
+				int a = attributes[i];
+				if (missing[a]) {
+					return false;
+				}
+				double v = instance[a];
+				boolean holds;
+				switch (tests[i]) {
+				case RuleCoverageIndex.LOWER_OR_EQUAL:
+					holds = v <= values[i];
+					break;
+				case RuleCoverageIndex.NOT_LOWER_OR_EQUAL:
+					holds = v > values[i] || Double.isNaN(v);
+					break;
+				case RuleCoverageIndex.EQUAL:
+					holds = v == values[i];
+					break;
+				default:
+					holds = v != values[i];
+				}
+				if (!holds) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static void randomize(TestRule rule, Random random) {
+		int n = random.nextInt(4);
+		rule.attributes = new int[n];
+		rule.tests = new int[n];
+		rule.values = new double[n];
+		for (int i = 0; i < n; i++) {
+			rule.attributes[i] = random.nextInt(NUM_ATTRIBUTES);
+			rule.tests[i] = random.nextInt(10) == 0 ? RuleCoverageIndex.EQUAL + random.nextInt(2) : random.nextInt(2);
+			rule.values[i] = random.nextInt(10);
+		}
+		rule.opaque = random.nextInt(20) == 0;
+	}
+
+	private static boolean compile(TestRule rule, RuleCoverageIndex.Conditions conditions) {
+		for (int i = 0; i < rule.attributes.length; i++) {
+			conditions.add(rule.attributes[i], rule.tests[i], rule.values[i]);
+		}
+		return !rule.opaque;
+	}
+
+	@Test
+	public void testSameRulesAsScan() {
+		Random random = new Random(1);
+		List<TestRule> rules = new ArrayList<TestRule>();
+		RuleCoverageIndex<TestRule> index = new RuleCoverageIndex<TestRule>(RuleCoverageIndexTest::compile);
+		for (int t = 0; t < 3000; t++) {
+			if (t % 10 == 0) {
+				TestRule rule = new TestRule();
+				randomize(rule, random);
+				rules.add(random.nextInt(rules.size() + 1), rule);
+				if (rules.size() > 100) {
+					rules.remove(random.nextInt(rules.size()));
+				}
+				index.rebuild(rules);
+			} else if (t % 10 == 5) {
+				TestRule rule = rules.get(random.nextInt(rules.size()));
+				randomize(rule, random);
+				index.ruleChanged(rule);
+			}
+
+			double[] values = index.getInstanceValues();
+			boolean[] missing = index.getInstanceMissing();
+			double[] instance = new double[NUM_ATTRIBUTES];
+			boolean[] instanceMissing = new boolean[NUM_ATTRIBUTES];
+			for (int i = 0; i < NUM_ATTRIBUTES; i++) {
+				int r = random.nextInt(25);
+				instance[i] = r == 0 ? Double.NaN : random.nextInt(12) - 1;
+				instanceMissing[i] = r == 1;
+			}
+			for (int i = 0; i < index.getNumberOfAttributes(); i++) {
+				values[i] = instance[i];
+				missing[i] = instanceMissing[i];
+			}
+
+			List<TestRule> expected = new ArrayList<TestRule>();
+			for (TestRule rule : rules) {
+				if (rule.isCovering(instance, instanceMissing)) {
+					expected.add(rule);
+				}
+			}
+			List<TestRule> found = new ArrayList<TestRule>();
+			index.getCoveringRules(false, rule -> rule.isCovering(instance, instanceMissing), found);
+			assertEquals(expected, found);
+
+			found.clear();
+			index.getCoveringRules(true, rule -> rule.isCovering(instance, instanceMissing), found);
+			assertEquals(expected.isEmpty() ? expected : expected.subList(0, 1), found);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package moa.clusterers.dstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test GridStore
+ */
+
+public class GridStoreTest {
+
+	private static int[] randomCoordinates(Random random, int dimensions) {
+		int[] c = new int[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			c[i] = random.nextInt(6) - 3;
+		}
+		return c;
+	}
+
+	private static void assertSameContents(Map<DensityGrid, CharacteristicVector> expected, GridStore store) {
+		assertEquals(expected.size(), store.size());
+		for (Map.Entry<DensityGrid, CharacteristicVector> entry : expected.entrySet()) {
+			int index = store.indexOf(entry.getKey().getCoordinates());
+			assertSame(entry.getValue(), store.getVector(index));
+			assertEquals(entry.getKey(), store.getGrid(index));
+		}
+		for (int i = 0; i < store.size(); i++) {
+			assertSame(expected.get(store.getGrid(i)), store.getVector(i));
+		}
+	}
+
+	@Test
+	public void testAgainstHashMap() {
+		Random random = new Random(1);
+		int dimensions = 4;
+		GridStore store = new GridStore(dimensions);
+		Map<DensityGrid, CharacteristicVector> expected = new HashMap<DensityGrid, CharacteristicVector>();
+		for (int step = 0; step < 20000; step++) {
+			DensityGrid dg = new DensityGrid(randomCoordinates(random, dimensions));
+			if (random.nextInt(3) == 0) {
+				int index = store.indexOf(dg);
+				assertEquals(expected.containsKey(dg), index != -1);
+				if (index != -1) {
+					store.removeAt(index);
+					expected.remove(dg);
+				}
+			} else {
+				CharacteristicVector cv = new CharacteristicVector(step, -1, 1.0, -1, false, 0.5, 2.0);
+				store.put(dg, cv);
+				expected.put(dg, cv);
+			}
+			if (step % 1000 == 0) {
+				assertSameContents(expected, store);
+			}
+		}
+		assertSameContents(expected, store);
+	}
+
+	@Test
+	public void testPutKeepsStoredGrid() {
+		GridStore store = new GridStore(2);
+		DensityGrid first = new DensityGrid(new int[]{1, 2});
+		store.put(first, new CharacteristicVector(0, -1, 1.0, -1, false, 0.5, 2.0));
+		store.putValue(new DensityGrid(new int[]{1, 2}), 7);
+		assertEquals(1, store.size());
+		assertSame(first, store.getGrid(0));
+		assertEquals(7, store.getValue(0));
+	}
+
+	@Test
+	public void testRemoveFromLastToFirst() {
+		GridStore store = new GridStore(1);
+		List<DensityGrid> grids = new ArrayList<DensityGrid>();
+		for (int i = 0; i < 1000; i++) {
+			DensityGrid dg = new DensityGrid(new int[]{i * 64});
+			grids.add(dg);
+			store.putValue(dg, i);
+		}
+		for (int i = store.size() - 1; i >= 0; i--) {
+			if (store.getValue(i) % 2 == 0) {
+				store.removeAt(i);
+			}
+		}
+		assertEquals(500, store.size());
+		for (DensityGrid dg : grids) {
+			int index = store.indexOf(dg);
+			assertEquals(dg.getCoordinates()[0] / 64 % 2 == 0, index == -1);
+		}
+	}
+}
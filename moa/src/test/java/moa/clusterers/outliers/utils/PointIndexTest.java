@@ -0,0 +1,91 @@
+package moa.clusterers.outliers.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import moa.clusterers.outliers.utils.mtree.DistanceFunctions;
+import moa.clusterers.outliers.utils.mtree.DistanceFunctions.EuclideanCoordinate;
+
+/**
+ * Test PointIndex
+ */
+
+public class PointIndexTest {
+
+	private static class Point implements EuclideanCoordinate {
+		final double[] values;
+
+		Point(double[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public int dimensions() {
+			return values.length;
+		}
+
+		@Override
+		public double get(int index) {
+			return values[index];
+		}
+	}
+
+	private static Point randomPoint(Random random, int dimensions) {
+		double[] values = new double[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			// coarse values, so that some distances are exactly the radius
+			values[i] = random.nextInt(20) / 10.0;
+		}
+		return new Point(values);
+	}
+
+	private static List<Point> bruteForce(List<Point> window, Point query, double radius) {
+		List<Point> found = new ArrayList<Point>();
+		for (Point p : window) {
+			if (DistanceFunctions.euclidean(p, query) <= radius) {
+				found.add(p);
+			}
+		}
+		return found;
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		Random random = new Random(1);
+		PointIndex<Point> index = new PointIndex<Point>();
+		List<Point> window = new ArrayList<Point>();
+		for (int t = 0; t < 2000; t++) {
+			Point p = randomPoint(random, 3);
+			index.insert(p, p);
+			window.add(p);
+			if (window.size() > 150) {
+				assertTrue(index.remove(window.remove(0)));
+			}
+			if (t % 7 == 0) {
+				// remove a node from the middle, as MCOD does
+				Point q = window.remove(random.nextInt(window.size()));
+				assertTrue(index.remove(q));
+				assertFalse(index.remove(q));
+			}
+			assertEquals(window.size(), index.size());
+
+			Point query = randomPoint(random, 3);
+			final List<Point> found = new ArrayList<Point>();
+			index.rangeSearch(query, 0.5, (n, d) -> {
+				assertEquals(DistanceFunctions.euclidean(n, query), d, 0.0);
+				found.add(n);
+			});
+			assertEquals(bruteForce(window, query, 0.5), found);
+		}
+		List<Point> nodes = new ArrayList<Point>();
+		index.getNodes(nodes);
+		assertEquals(window, nodes);
+	}
+}
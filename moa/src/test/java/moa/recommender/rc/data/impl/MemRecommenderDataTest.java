@@ -0,0 +1,154 @@
+package moa.recommender.rc.data.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import moa.recommender.rc.utils.Pair;
+import moa.recommender.rc.utils.SparseVector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test MemRecommenderData
+ */
+
+public class MemRecommenderDataTest {
+	private static double EPS=0.00000001;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static MemRecommenderData createData() {
+		Random random = new Random(1);
+		MemRecommenderData data = new MemRecommenderData();
+		data.addUser(1000, Arrays.asList(1, 2, 3), Arrays.asList(4.0, 2.5, 1.0));
+		data.addItem(2000, Arrays.asList(1000, 1001), Arrays.asList(3.0, 5.0));
+		for (int i = 0; i < 20000; i++) {
+			data.setRating(random.nextInt(500), random.nextInt(800), 1 + random.nextInt(9) / 2.0);
+		}
+		for (int i = 0; i < 2000; i++) {
+			data.removeRating(random.nextInt(500), random.nextInt(800));
+		}
+		for (int user = 0; user < 500; user += 17) {
+			data.removeUser(user);
+		}
+		for (int item = 0; item < 800; item += 23) {
+			data.removeItem(item);
+		}
+		return data;
+	}
+
+	private static void assertSameData(MemRecommenderData expected, MemRecommenderData actual) {
+		assertEquals(expected.getNumUsers(), actual.getNumUsers());
+		assertEquals(expected.getNumItems(), actual.getNumItems());
+		assertEquals(expected.getNumRatings(), actual.getNumRatings());
+		assertEquals(expected.getGlobalMean(), actual.getGlobalMean(), EPS);
+		assertEquals(expected.getMinRating(), actual.getMinRating(), 0.0);
+		assertEquals(expected.getMaxRating(), actual.getMaxRating(), 0.0);
+		assertEquals(expected.getUsers(), actual.getUsers());
+		assertEquals(expected.getItems(), actual.getItems());
+		for (int user : expected.getUsers()) {
+			assertEquals(expected.countRatingsUser(user), actual.countRatingsUser(user));
+			assertEquals(expected.getAvgRatingUser(user), actual.getAvgRatingUser(user), EPS);
+			for (int item : expected.getRatingsUser(user).getIdxs()) {
+				assertEquals(expected.getRating(user, item), actual.getRating(user, item), 0.0);
+			}
+		}
+		for (int item : expected.getItems()) {
+			assertEquals(expected.countRatingsItem(item), actual.countRatingsItem(item));
+			assertEquals(expected.getAvgRatingItem(item), actual.getAvgRatingItem(item), EPS);
+			assertEquals(expected.getRatingsItem(item).getIdxs(), actual.getRatingsItem(item).getIdxs());
+		}
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		MemRecommenderData data = createData();
+		File file = folder.newFile("ratings.bin");
+		data.save(file);
+		MemRecommenderData loaded = new MemRecommenderData();
+		loaded.load(file);
+		assertSameData(data, loaded);
+	}
+
+	@Test
+	public void testLoadReplacesRatings() throws Exception {
+		MemRecommenderData data = createData();
+		File file = folder.newFile("ratings.bin");
+		data.save(file);
+		MemRecommenderData loaded = new MemRecommenderData();
+		loaded.setRating(123456, 654321, 3.0);
+		loaded.load(file);
+		assertSameData(data, loaded);
+		assertEquals(0.0, loaded.getRating(123456, 654321), 0.0);
+	}
+
+	@Test
+	public void testSaveOverwritesLongerFile() throws Exception {
+		File file = folder.newFile("ratings.bin");
+		createData().save(file);
+		MemRecommenderData data = new MemRecommenderData();
+		data.setRating(1, 2, 4.5);
+		data.save(file);
+		MemRecommenderData loaded = new MemRecommenderData();
+		loaded.load(file);
+		assertSameData(data, loaded);
+	}
+
+	@Test
+	public void testViewsFollowTheRatings(){
+		MemRecommenderData data = new MemRecommenderData();
+		SparseVector ratings = data.getRatingsUser(1);
+		Set<Integer> users = data.getUsers();
+		assertEquals(0, ratings.size());
+		assertEquals(0, users.size());
+		data.setRating(1, 30, 2.0);
+		data.setRating(1, 10, 4.0);
+		data.setRating(2, 10, 1.0);
+		data.setRating(1, 20, 3.0);
+		data.setRating(1, 30, 5.0);
+		data.removeRating(1, 10);
+		assertEquals(2, ratings.size());
+		assertEquals(5.0, ratings.get(30), 0.0);
+		assertNull(ratings.get(10));
+		// the ratings are iterated in the order they were first set
+		Iterator<Pair<Integer, Double>> it = ratings.iterator();
+		assertEquals(30, (int) it.next().getFirst());
+		assertEquals(20, (int) it.next().getFirst());
+		assertFalse(it.hasNext());
+		assertEquals(2, users.size());
+		assertTrue(users.contains(2));
+		data.removeUser(2);
+		assertFalse(users.contains(2));
+		assertEquals(Arrays.asList(30, 20), Arrays.asList(ratings.getIdxs().toArray()));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewsAreReadOnly(){
+		MemRecommenderData data = new MemRecommenderData();
+		data.setRating(1, 2, 3.0);
+		data.getRatingsUser(1).set(3, 4.0);
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadRejectsOtherFiles() throws Exception {
+		File file = folder.newFile("other.bin");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[64]);
+		}
+		new MemRecommenderData().load(file);
+	}
+
+}
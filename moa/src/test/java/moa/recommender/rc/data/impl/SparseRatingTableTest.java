@@ -0,0 +1,102 @@
+package moa.recommender.rc.data.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test SparseRatingTable
+ */
+
+public class SparseRatingTableTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static SparseRatingTable createTable(int numEntities, int numRatings, long seed) {
+		Random random = new Random(seed);
+		SparseRatingTable table = new SparseRatingTable();
+		for (int id = 0; id < numEntities; id++) {
+			table.addEntity(id * 7);
+		}
+		for (int i = 0; i < numRatings; i++) {
+			int slot = table.slotOf(7 * random.nextInt(numEntities));
+			double value = 1 + random.nextInt(5);
+			table.put(slot, random.nextInt(1000), value);
+			table.addToStats(slot, value, 1);
+		}
+		// leave the slots of removed entities and ratings behind
+		for (int id = 0; id < numEntities; id += 5) {
+			table.removeEntity(id * 7);
+		}
+		for (int slot = 0; slot < table.getNumSlots(); slot += 3) {
+			if (table.isAlive(slot) && table.count(slot) > 0) {
+				table.remove(slot, table.getKey(slot, 0));
+			}
+		}
+		return table;
+	}
+
+	private static SparseRatingTable roundTrip(SparseRatingTable table, File file) throws Exception {
+		try (MappedFile out = MappedFile.create(file)) {
+			table.write(out);
+		}
+		SparseRatingTable read = new SparseRatingTable();
+		try (MappedFile in = MappedFile.open(file)) {
+			read.read(in);
+		}
+		return read;
+	}
+
+	private static void assertSameEntities(SparseRatingTable expected, SparseRatingTable actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int slot = 0; slot < expected.getNumSlots(); slot++) {
+			if (!expected.isAlive(slot)) {
+				assertEquals(-1, actual.slotOf(expected.getId(slot)));
+				continue;
+			}
+			int other = actual.slotOf(expected.getId(slot));
+			assertEquals(expected.getSum(slot), actual.getSum(other), 0.0);
+			assertEquals(expected.getNum(slot), actual.getNum(other), 0.0);
+			assertEquals(expected.count(slot), actual.count(other));
+			for (int i = 0; i < expected.count(slot); i++) {
+				int key = expected.getKey(slot, i);
+				assertEquals(key, actual.getKey(other, i));
+				assertEquals(expected.getValue(slot, i), actual.getValue(other, i), 0.0);
+				assertEquals(i, actual.indexOf(other, key));
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		SparseRatingTable table = createTable(300, 5000, 1);
+		assertSameEntities(table, roundTrip(table, folder.newFile("table.bin")));
+	}
+
+	@Test
+	public void testRoundTripEmpty() throws Exception {
+		SparseRatingTable read = roundTrip(new SparseRatingTable(), folder.newFile("empty.bin"));
+		assertEquals(0, read.size());
+	}
+
+	@Test
+	public void testRoundTripLargerThanWriteBuffer() throws Exception {
+		// a single entity whose ratings take several megabytes
+		SparseRatingTable table = new SparseRatingTable();
+		int slot = table.addEntity(42);
+		for (int key = 0; key < 300000; key++) {
+			table.put(slot, key, key % 5 + 0.5);
+		}
+		File file = folder.newFile("large.bin");
+		SparseRatingTable read = roundTrip(table, file);
+		assertSameEntities(table, read);
+		assertEquals(4 + 4 + 8 + 8 + 4 + 300000 * 12, file.length());
+	}
+
+}
@@ -0,0 +1,90 @@
+package moa.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import moa.streams.generators.RandomTreeGenerator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test BinaryInstanceWriter and BinaryFileStream
+ */
+
+public class BinaryFileStreamTest {
+	private static double EPS=0.00000001;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File writeFile(int numInstances) throws Exception {
+		RandomTreeGenerator generator = new RandomTreeGenerator();
+		generator.prepareForUse();
+		File file = folder.newFile("stream.bin");
+		BinaryInstanceWriter writer = new BinaryInstanceWriter(file, generator.getHeader());
+		for (int i = 0; i < numInstances; i++) {
+			writer.write(generator.nextInstance().getData());
+		}
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testReadBack() throws Exception {
+		File file = writeFile(500);
+		RandomTreeGenerator generator = new RandomTreeGenerator();
+		generator.prepareForUse();
+		BinaryFileStream stream = new BinaryFileStream(file.getPath());
+		assertEquals(500, stream.numInstances());
+		assertEquals(generator.getHeader().toString(), stream.getHeader().toString());
+		assertEquals(generator.getHeader().classIndex(), stream.getHeader().classIndex());
+		for (int i = 0; i < 500; i++) {
+			assertTrue(stream.hasMoreInstances());
+			Instance expected = generator.nextInstance().getData();
+			Instance inst = stream.nextInstance().getData();
+			assertEquals(expected.weight(), inst.weight(), EPS);
+			for (int j = 0; j < expected.numAttributes(); j++) {
+				assertEquals(expected.value(j), inst.value(j), EPS);
+			}
+		}
+		assertFalse(stream.hasMoreInstances());
+		// random access
+		stream.restart();
+		Instance first = stream.nextInstance().getData();
+		assertEquals(first.value(0), stream.instance(0).value(0), EPS);
+	}
+
+	@Test
+	public void testShuffle() throws Exception {
+		File file = writeFile(300);
+		BinaryFileStream plain = new BinaryFileStream(file.getPath());
+		BinaryFileStream shuffled = new BinaryFileStream();
+		shuffled.binaryFileOption.setValue(file.getPath());
+		shuffled.shuffleOption.set();
+		shuffled.prepareForUse();
+		Set<String> expected = new HashSet<String>();
+		Set<String> actual = new HashSet<String>();
+		int samePosition = 0;
+		while (shuffled.hasMoreInstances()) {
+			String a = plain.nextInstance().getData().toString();
+			String b = shuffled.nextInstance().getData().toString();
+			expected.add(a);
+			actual.add(b);
+			if (a.equals(b)) {
+				samePosition++;
+			}
+		}
+		assertEquals(expected, actual);
+		assertTrue(samePosition < 300);
+	}
+
+}
@@ -0,0 +1,107 @@
+package moa.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test ParallelGeneratorStream
+ */
+
+public class ParallelGeneratorStreamTest {
+	private static double EPS=0.00000001;
+
+	private static ParallelGeneratorStream createStream(int jobs) {
+		ParallelGeneratorStream stream = new ParallelGeneratorStream();
+		stream.generatorOption.setValueViaCLIString("generators.AgrawalGenerator -b");
+		stream.numberOfJobsOption.setValue(jobs);
+		stream.blockSizeOption.setValue(37);
+		stream.queueSizeOption.setValue(2);
+		stream.prepareForUse();
+		return stream;
+	}
+
+	@Test
+	public void testInstancesDoNotDependOnNumberOfJobs(){
+		ParallelGeneratorStream serial = createStream(0);
+		ParallelGeneratorStream[] parallel = {createStream(1), createStream(3), createStream(8)};
+		for (int k = 0; k < 2000; k++) {
+			Instance expected = serial.nextInstance().getData();
+			for (ParallelGeneratorStream stream : parallel) {
+				Instance inst = stream.nextInstance().getData();
+				for (int j = 0; j < expected.numAttributes(); j++) {
+					assertEquals(expected.value(j), inst.value(j), EPS);
+				}
+			}
+		}
+		for (ParallelGeneratorStream stream : parallel) {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void testRestart(){
+		ParallelGeneratorStream stream = createStream(4);
+		double[] first = new double[100];
+		for (int k = 0; k < first.length; k++) {
+			first[k] = stream.nextInstance().getData().value(0);
+		}
+		stream.restart();
+		for (int k = 0; k < first.length; k++) {
+			assertEquals(first[k], stream.nextInstance().getData().value(0), EPS);
+		}
+		stream.close();
+	}
+
+	private static boolean jobsAlive() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith("ParallelGeneratorStream-")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testCloseStopsJobs() throws InterruptedException {
+		ParallelGeneratorStream serial = createStream(0);
+		ParallelGeneratorStream stream = createStream(3);
+		for (int k = 0; k < 500; k++) {
+			assertEquals(serial.nextInstance().getData().value(0), stream.nextInstance().getData().value(0), EPS);
+		}
+		stream.close();
+		for (int wait = 0; wait < 100 && jobsAlive(); wait++) {
+			Thread.sleep(50);
+		}
+		assertFalse(jobsAlive());
+		// reading after close continues where the stream left off
+		for (int k = 0; k < 500; k++) {
+			assertEquals(serial.nextInstance().getData().value(0), stream.nextInstance().getData().value(0), EPS);
+		}
+		stream.close();
+	}
+
+	@Test
+	public void testIdleJobsStop() throws InterruptedException {
+		ParallelGeneratorStream serial = createStream(0);
+		ParallelGeneratorStream stream = createStream(3);
+		stream.idleTimeout = 100;
+		for (int k = 0; k < 500; k++) {
+			assertEquals(serial.nextInstance().getData().value(0), stream.nextInstance().getData().value(0), EPS);
+		}
+		// nothing reads the stream, so the jobs stop by themselves
+		for (int wait = 0; wait < 100 && jobsAlive(); wait++) {
+			Thread.sleep(50);
+		}
+		assertFalse(jobsAlive());
+		// reading again starts new jobs where the stream left off
+		for (int k = 0; k < 500; k++) {
+			assertEquals(serial.nextInstance().getData().value(0), stream.nextInstance().getData().value(0), EPS);
+		}
+		stream.close();
+	}
+
+}
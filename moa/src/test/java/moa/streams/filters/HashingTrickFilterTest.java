@@ -0,0 +1,120 @@
+package moa.streams.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import moa.streams.CachedInstancesStream;
+
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Test HashingTrickFilter
+ */
+
+public class HashingTrickFilterTest {
+	private static double EPS=0.00000001;
+
+	private static final int DIM = 7;
+
+	/** nominal attribute 0, numeric attributes 1 to 4 and a nominal class */
+	private static Instances createInstances(double[][] rows) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("colour", Arrays.asList("red", "green", "blue")));
+		for (int i = 1; i < 5; i++) {
+			attributes.add(new Attribute("numeric" + i));
+		}
+		attributes.add(new Attribute("class", Arrays.asList("no", "yes")));
+		Instances instances = new Instances("test", attributes, 0);
+		instances.setClassIndex(attributes.size() - 1);
+		for (double[] row : rows) {
+			Instance instance = new DenseInstance(1.0, row);
+			instance.setDataset(instances);
+			instances.add(instance);
+		}
+		return instances;
+	}
+
+	private static HashingTrickFilter createFilter(Instances instances, boolean sparseOutput) {
+		HashingTrickFilter filter = new HashingTrickFilter();
+		filter.dim.setValue(DIM);
+		filter.sparseOutputOption.setValue(sparseOutput);
+		filter.setInputStream(new CachedInstancesStream(instances));
+		return filter;
+	}
+
+	private static int expectedBucket(int attribute) {
+		return Math.abs(Hashing.murmur3_128().hashInt(attribute).asInt() % DIM);
+	}
+
+	private static double expectedSign(int attribute) {
+		return Hashing.murmur3_128().hashInt(attribute).asInt() < 0 ? -1.0 : 1.0;
+	}
+
+	@Test
+	public void testOutputDimension(){
+		Instances instances = createInstances(new double[][]{{1, 1, 2, 3, 4, 1}});
+		HashingTrickFilter filter = createFilter(instances, false);
+		Instance hashed = filter.nextInstance().getData();
+		assertEquals(DIM + 1, filter.getHeader().numAttributes());
+		assertEquals(DIM, filter.getHeader().classIndex());
+		assertEquals(DIM + 1, hashed.numAttributes());
+		assertEquals(1.0, hashed.classValue(), EPS);
+	}
+
+	@Test
+	public void testSingleFeatureBucketAndSign(){
+		for (int attribute = 1; attribute < 5; attribute++) {
+			double[] row = new double[6];
+			row[attribute] = 3.5;
+			HashingTrickFilter filter = createFilter(createInstances(new double[][]{row}), false);
+			Instance hashed = filter.nextInstance().getData();
+			for (int i = 0; i < DIM; i++) {
+				double expected = i == expectedBucket(attribute) ? expectedSign(attribute) : 0.0;
+				assertEquals(expected, hashed.value(i), EPS);
+			}
+		}
+	}
+
+	@Test
+	public void testNominalAndNumericFeatures(){
+		// a nominal value hashes like a numeric one when its index is not
+		// zero, and both only count as present, whatever their value
+		Instances instances = createInstances(new double[][]{
+				{0, 0, 0, 0, 0, 0},
+				{2, 0, 0, 0, 0, 0},
+				{0, 0, 7.25, 0, 0, 0}});
+		HashingTrickFilter filter = createFilter(instances, false);
+		Instance firstValue = filter.nextInstance().getData();
+		Instance otherValue = filter.nextInstance().getData();
+		Instance numeric = filter.nextInstance().getData();
+		for (int i = 0; i < DIM; i++) {
+			assertEquals(0.0, firstValue.value(i), EPS);
+			assertEquals(i == expectedBucket(0) ? expectedSign(0) : 0.0, otherValue.value(i), EPS);
+			assertEquals(i == expectedBucket(2) ? expectedSign(2) : 0.0, numeric.value(i), EPS);
+		}
+	}
+
+	@Test
+	public void testSparseOutputMatchesDenseOutput(){
+		double[][] rows = {{1, 1.5, 0, -2, 4, 0}, {0, 0, 3, 0, 1, 1}, {2, 1, 1, 1, 1, 1}};
+		HashingTrickFilter dense = createFilter(createInstances(rows), false);
+		HashingTrickFilter sparse = createFilter(createInstances(rows), true);
+		for (int n = 0; n < rows.length; n++) {
+			Instance x = dense.nextInstance().getData();
+			Instance y = sparse.nextInstance().getData();
+			for (int i = 0; i < x.numAttributes(); i++) {
+				assertEquals(x.value(i), y.value(i), EPS);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package moa.streams.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+
+/**
+ * Test RandomProjectionFilter
+ */
+
+public class RandomProjectionFilterTest {
+	private static double EPS=0.00000001;
+
+	private static RandomProjectionFilter createFilter(int projection) {
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.numAttsOption.setValue(50);
+		stream.prepareForUse();
+		RandomProjectionFilter filter = new RandomProjectionFilter();
+		filter.dim.setValue(8);
+		filter.projectionOption.setChosenIndex(projection);
+		filter.setInputStream(stream);
+		return filter;
+	}
+
+	@Test
+	public void testSeededProjectionIsReproducible(){
+		for (int projection = 0; projection < 3; projection++) {
+			RandomProjectionFilter a = createFilter(projection);
+			RandomProjectionFilter b = createFilter(projection);
+			assertEquals(9, a.getHeader().numAttributes());
+			for (int n = 0; n < 10; n++) {
+				Instance x = a.nextInstance().getData();
+				Instance y = b.nextInstance().getData();
+				for (int i = 0; i < x.numAttributes(); i++) {
+					assertEquals(x.value(i), y.value(i), EPS);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSparseInputMatchesDenseInput(){
+		for (int projection = 0; projection < 3; projection++) {
+			RandomProjectionFilter filter = createFilter(projection);
+			filter.getHeader();
+			// keep only every third feature, once as a dense and once as a sparse instance
+			Instance dense = ((Instance) filter.inputStream.nextInstance().getData()).copy();
+			int numFeatures = dense.numAttributes() - 1;
+			int numStored = (numFeatures + 2) / 3;
+			double[] values = new double[numStored + 1];
+			int[] indices = new int[numStored + 1];
+			for (int i = 0; i < numFeatures; i++) {
+				if (i % 3 == 0) {
+					values[i / 3] = dense.value(i);
+					indices[i / 3] = i;
+				} else {
+					dense.setValue(i, 0.0);
+				}
+			}
+			values[numStored] = dense.classValue();
+			indices[numStored] = numFeatures;
+			Instance sparse = new SparseInstance(1.0, values, indices, dense.numAttributes());
+			sparse.setDataset(dense.dataset());
+
+			double[] fromDense = filter.randomProjection(dense);
+			double[] fromSparse = filter.randomProjection(sparse);
+			for (int i = 0; i < fromDense.length; i++) {
+				assertEquals(fromDense[i], fromSparse[i], EPS);
+			}
+		}
+	}
+
+	@Test
+	public void testExplicitMatrixMatchesFilterMatrix(){
+		RandomProjectionFilter filter = createFilter(0);
+		filter.getHeader();
+		int dim = filter.dim.getValue();
+		int numFeatures = filter.numInputFeatures;
+		double[][] gm = new double[dim][numFeatures];
+		for (int i = 0; i < dim; i++) {
+			for (int j = 0; j < numFeatures; j++) {
+				gm[i][j] = filter.denseMatrix[j * dim + i];
+			}
+		}
+		Instance instance = (Instance) filter.inputStream.nextInstance().getData();
+		double[] expected = filter.randomProjection(instance);
+		double[] actual = filter.randomProjection(instance, gm);
+		for (int i = 0; i < dim; i++) {
+			assertEquals(expected[i], actual[i], EPS);
+		}
+	}
+
+	@Test
+	public void testMissingValueMakesOutputsMissing(){
+		for (int projection = 0; projection < 3; projection++) {
+			RandomProjectionFilter filter = createFilter(projection);
+			filter.getHeader();
+			Instance instance = ((Instance) filter.inputStream.nextInstance().getData()).copy();
+			instance.setValue(0, 0.0);
+			double[] withZero = filter.randomProjection(instance);
+			instance.setValue(0, Double.NaN);
+			double[] withMissing = filter.randomProjection(instance);
+			int numMissing = 0;
+			for (int i = 0; i < withMissing.length; i++) {
+				if (Double.isNaN(withMissing[i])) {
+					numMissing++;
+				} else {
+					assertEquals(withZero[i], withMissing[i], EPS);
+				}
+			}
+			if (projection == 0) {
+				// every entry of a dense matrix is non-zero
+				assertEquals(withMissing.length, numMissing);
+			}
+		}
+	}
+
+}
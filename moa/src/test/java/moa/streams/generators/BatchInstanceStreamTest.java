@@ -0,0 +1,74 @@
+package moa.streams.generators;
+
+import static org.junit.Assert.assertEquals;
+
+import moa.core.InstanceBatch;
+import moa.options.OptionHandler;
+import moa.streams.BatchInstanceStream;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test the bulk generation of the synthetic generators
+ */
+
+public class BatchInstanceStreamTest {
+	private static double EPS=0.00000001;
+
+	private static BatchInstanceStream[] createGenerators() {
+		AgrawalGenerator agrawal = new AgrawalGenerator();
+		agrawal.balanceClassesOption.set();
+		HyperplaneGenerator hyperplane = new HyperplaneGenerator();
+		hyperplane.magChangeOption.setValue(0.001);
+		BatchInstanceStream[] generators = new BatchInstanceStream[]{
+			new RandomRBFGenerator(), new RandomRBFGeneratorDrift(), agrawal,
+			new SEAGenerator(), hyperplane, new RandomTreeGenerator()};
+		for (BatchInstanceStream generator : generators) {
+			((OptionHandler) generator).prepareForUse();
+		}
+		return generators;
+	}
+
+	@Test
+	public void testBatchMatchesNextInstance(){
+		BatchInstanceStream[] serial = createGenerators();
+		BatchInstanceStream[] bulk = createGenerators();
+		for (int g = 0; g < serial.length; g++) {
+			InstanceBatch batch = new InstanceBatch(bulk[g].getHeader().numAttributes(), 8);
+			// several refills of a small batch, to exercise growing and reuse
+			for (int round = 0; round < 3; round++) {
+				batch.clear();
+				assertEquals(100, bulk[g].nextInstances(100, batch));
+				assertEquals(100, batch.size());
+				for (int i = 0; i < batch.size(); i++) {
+					Instance inst = serial[g].nextInstance().getData();
+					for (int j = 0; j < inst.numAttributes(); j++) {
+						assertEquals(inst.value(j), batch.value(i, j), EPS);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRandomStreamsAreReproducible(){
+		BatchInstanceStream[] first = createGenerators();
+		BatchInstanceStream[] second = createGenerators();
+		for (int g = 0; g < first.length; g++) {
+			// advance the second generator, restarting must forget its state
+			second[g].nextInstances(50, new InstanceBatch(second[g].getHeader().numAttributes(), 50));
+			first[g].restartOnRandomStream(7);
+			second[g].restartOnRandomStream(7);
+			for (int i = 0; i < 50; i++) {
+				Instance a = first[g].nextInstance().getData();
+				Instance b = second[g].nextInstance().getData();
+				for (int j = 0; j < a.numAttributes(); j++) {
+					assertEquals(a.value(j), b.value(j), EPS);
+				}
+			}
+		}
+	}
+
+}